@@ -16,6 +16,7 @@ package org.quickserver.net.client;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.security.KeyStore;
 import java.security.SecureRandom;
 import java.util.logging.*;
@@ -24,9 +25,19 @@ import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
+import org.quickserver.util.io.ObjectCodec;
+import org.quickserver.util.io.ObjectFrame;
 
 /**
  * Blocking Client socket.
+ * <p>
+ * Reads of all kinds go through one buffer of {@link #getReadBufferSize()}
+ * bytes kept for the life of the connection, so switching between lines,
+ * bytes and objects does not lose data read ahead. Lines are found by
+ * scanning the bytes in the buffer and decoded once, which needs a
+ * charset where CR and LF are single bytes (ASCII, ISO-8859-x, UTF-8);
+ * other charsets are read through a Reader as before.
+ * </p>
  * @author Akshathkumar Shetty
  * @since 1.4.7
  */
@@ -80,9 +91,16 @@ public class BlockingClient implements ClientService {
 	private ObjectOutputStream o_out;
 
 	private InputStream in;
-	private BufferedInputStream b_in;
+	private ClientInputStream b_in;
 	private BufferedReader br;
+	private int readBufferSize = 8192;
+	private byte lineBuf[];
+	private boolean skipLF;
+	private String lineCharset;
+	private boolean byteLines;
 	private ObjectInputStream o_in;
+	private boolean objectFrameMode;
+	private ObjectCodec objectCodec;
         
 
 	public void setCharset(String c) {
@@ -111,6 +129,10 @@ public class BlockingClient implements ClientService {
 
 		in = socket.getInputStream();
 		out = socket.getOutputStream();
+		b_in = null;
+		br = null;
+		o_in = null;
+		skipLF = false;
 		if(isDebug()) logger.fine("Connected");
 	}
 
@@ -235,6 +257,11 @@ public class BlockingClient implements ClientService {
 	}
 
 	public void sendObject(Object data) throws IOException {
+		if(objectFrameMode || objectCodec!=null) {
+			checkBufferedOutputStream();
+			ObjectFrame.write(b_out, data, objectCodec);
+			return;
+		}
 		checkObjectOutputStream();
 		o_out.writeObject(data);
 		o_out.flush();
@@ -245,9 +272,20 @@ public class BlockingClient implements ClientService {
 		return b_in.read();
 	}
 
+	/**
+	 * Reads the bytes that are available, waiting for at least one.
+	 * @return null at end of stream
+	 */
 	public byte[] readBytes() throws IOException {
 		checkBufferedInputStream();
-		return readInputStream(b_in);
+		ClientInputStream bin = b_in;
+		if(bin.skipPendingLF()==false || (bin.pos>=bin.limit && bin.fill()<=0)) {
+			return null; //Connection lost
+		}
+		byte data[] = new byte[bin.limit - bin.pos];
+		System.arraycopy(bin.buf, bin.pos, data, 0, data.length);
+		bin.pos = bin.limit;
+		return data;
 	}
 	
 	public byte[] readBytes(int countToRead) throws IOException {
@@ -263,44 +301,148 @@ public class BlockingClient implements ClientService {
 	}
 	
 	public String readBytes(String _charset, int countToRead) throws IOException {
-		byte data[] = readInputStream(b_in, countToRead);
+		byte data[] = readBytes(countToRead);
 		if(data==null) return null;
 		if(_charset==null) _charset = charset;
 		return new String(data, _charset);
 	}
 
+	/**
+	 * Reads a line ended by \n, \r or \r\n.
+	 * @return the line without the line end, null at end of stream
+	 */
 	public String readLine() throws IOException {
-		checkBufferedReader();
-		return br.readLine();
+		if(isByteLines()==false) {
+			checkBufferedReader();
+			return br.readLine();
+		}
+		checkBufferedInputStream();
+		
+		if(b_in.skipPendingLF()==false) return null;
+		return scanLine(false, charset);
 	}
 	
-	 public String readCRLFLine() throws IOException { 
+	/**
+	 * Reads a line ended by \r\n, a \r or \n alone is part of the line.
+	 * @return the line without the line end, null at end of stream
+	 */
+	public String readCRLFLine() throws IOException { 
 		checkBufferedInputStream();
-		
-		StringBuilder sb = new StringBuilder();  
-		int _ch = -1;
-		do {
-			_ch = b_in.read();
-			if(_ch==-1) {
-				return null;
+		if(b_in.skipPendingLF()==false) return null;
+		return scanLine(true, "ISO-8859-1");
+	}
+	
+	/**
+	 * Finds the end of the line in the read buffer, the bytes of a line
+	 * that spans fills of the buffer are gathered in lineBuf.
+	 */
+	private String scanLine(boolean crlf, String _charset) throws IOException {
+		ClientInputStream bin = b_in;
+		int lineLength = 0;
+		while(true) {
+			if(bin.pos>=bin.limit && bin.fill()<=0) {
+				if(crlf || lineLength==0) return null;
+				return new String(lineBuf, 0, lineLength, _charset);
 			}
-			if(_ch==_CR) {
-				_ch = b_in.read();
-				if(_ch==_LF) {
-					break;
-				} else {
-					sb.append((char) _CR);  
-					sb.append((char) _ch);
+			
+			byte data[] = bin.buf;
+			int start = bin.pos;
+			int end = bin.limit;
+			for(int i=start;i<end;i++) {
+				byte ch = data[i];
+				if(crlf) {
+					if(ch!=_LF) continue;
+					byte previous = i>start?data[i-1]:(lineLength>0?lineBuf[lineLength-1]:0);
+					if(previous!=_CR) continue;
+				} else if(ch!=_LF && ch!=_CR) {
+					continue;
 				}
-			} else {
-				sb.append((char) _ch);  
+				
+				bin.pos = i+1;
+				if(crlf==false && ch==_CR) {
+					//drop the LF of a CR LF now if it is in the buffer
+					if(i+1==end) skipLF = true;
+					else if(data[i+1]==_LF) bin.pos++;
+				}
+				if(lineLength==0) {
+					return new String(data, start, crlf?i-start-1:i-start, _charset);
+				}
+				lineLength = appendLine(lineLength, data, start, i-start);
+				return new String(lineBuf, 0, crlf?lineLength-1:lineLength, _charset);
 			}
-		} while(true);		
-		
-		return(new String(sb));  
-   } 
+			lineLength = appendLine(lineLength, data, start, end-start);
+			bin.pos = end;
+		}
+	}
+	
+	private int appendLine(int lineLength, byte data[], int off, int len) {
+		if(lineBuf==null || lineBuf.length < lineLength+len) {
+			byte newLineBuf[] = new byte[Math.max(lineLength+len, 
+				lineBuf==null?256:lineBuf.length*2)];
+			if(lineLength>0) System.arraycopy(lineBuf, 0, newLineBuf, 0, lineLength);
+			lineBuf = newLineBuf;
+		}
+		System.arraycopy(data, off, lineBuf, lineLength, len);
+		return lineLength+len;
+	}
+	
+	/**
+	 * Returns true if CR and LF are single bytes in the charset, so lines
+	 * can be found in the bytes.
+	 */
+	private boolean isByteLines() throws UnsupportedEncodingException {
+		String _charset = charset;
+		if(_charset.equals(lineCharset)==false) {
+			byte crlf[] = "\r\n".getBytes(_charset);
+			byteLines = crlf.length==2 && crlf[0]==_CR && crlf[1]==_LF;
+			lineCharset = _charset;
+		}
+		return byteLines;
+	}
+	
+	/**
+	 * Reads a length-prefixed frame, a 4 byte big-endian length followed
+	 * by that many bytes, as written by {@link ObjectFrame}.
+	 * @return the payload, null at end of stream
+	 * @since 2.1.0
+	 */
+	public byte[] readFrame() throws IOException {
+		checkBufferedInputStream();
+		return ObjectFrame.readFrame(b_in);
+	}
+	
+	/**
+	 * Reads the bytes available, waiting for at least one, into the buffer
+	 * up to its remaining space.
+	 * @return the number of bytes read, -1 at end of stream
+	 * @since 2.1.0
+	 */
+	public int readInto(ByteBuffer buffer) throws IOException {
+		checkBufferedInputStream();
+		if(buffer.hasRemaining()==false) return 0;
+		ClientInputStream bin = b_in;
+		if(bin.skipPendingLF()==false) return -1;
+		if(bin.pos>=bin.limit) {
+			if(buffer.hasArray() && buffer.remaining()>=bin.buf.length) {
+				//large read, skip the copy through the read buffer
+				int count = in.read(buffer.array(), buffer.arrayOffset()+buffer.position(), 
+					buffer.remaining());
+				if(count>0) buffer.position(buffer.position()+count);
+				return count;
+			}
+			if(bin.fill()<=0) return -1;
+		}
+		int count = Math.min(bin.limit - bin.pos, buffer.remaining());
+		buffer.put(bin.buf, bin.pos, count);
+		bin.pos += count;
+		return count;
+	}
 
 	public Object readObject() throws IOException, ClassNotFoundException {
+		if(objectFrameMode || objectCodec!=null) {
+			checkBufferedInputStream();
+			return ObjectFrame.read(b_in, objectCodec);
+		}
 		checkObjectInputStream();
 		return o_in.readObject();
 	}
@@ -309,6 +451,44 @@ public class BlockingClient implements ClientService {
 		return socket;
 	}
 
+	/**
+	 * Sets if objects are sent and read as length-delimited frames
+	 * instead of a java object stream. This is needed to talk OBJECT mode
+	 * with a QuickServer running in non-blocking mode.
+	 * @see org.quickserver.util.io.ObjectFrame
+	 * @since 2.1.0
+	 */
+	public void setObjectFrameMode(boolean objectFrameMode) {
+		this.objectFrameMode = objectFrameMode;
+	}
+	/**
+	 * Returns <code>true</code> if objects are sent and read as 
+	 * length-delimited frames.
+	 * @since 2.1.0
+	 */
+	public boolean getObjectFrameMode() {
+		return objectFrameMode;
+	}
+
+	/**
+	 * Sets the ObjectCodec used to send and read objects, this should be 
+	 * same as the one set on the QuickServer. When set objects are sent 
+	 * and read as length-delimited frames.
+	 * @see org.quickserver.util.io.CompactObjectCodec
+	 * @since 2.1.0
+	 */
+	public void setObjectCodec(ObjectCodec objectCodec) {
+		this.objectCodec = objectCodec;
+	}
+	/**
+	 * Returns the ObjectCodec used to send and read objects, 
+	 * <code>null</code> if not set.
+	 * @since 2.1.0
+	 */
+	public ObjectCodec getObjectCodec() {
+		return objectCodec;
+	}
+
 	private void checkObjectOutputStream() throws IOException {
 		if(o_out==null) {
 			b_out = null;
@@ -325,23 +505,113 @@ public class BlockingClient implements ClientService {
 
 	private void checkBufferedInputStream() throws IOException {
 		if(b_in==null) {
-			br = null;
-			o_in = null;
-			b_in = new BufferedInputStream(in);
+			if(in==null) throw new IOException("Not connected");
+			b_in = new ClientInputStream(readBufferSize);
 		}
+		o_in = null;
+		br = null;
 	}
 	private void checkBufferedReader() throws IOException {
 		if(br==null) {
-			b_in = null;
-			o_in = null;
-			br = new BufferedReader(new InputStreamReader(in, charset));
+			checkBufferedInputStream();
+			br = new BufferedReader(new InputStreamReader(b_in, charset));
 		}
 	}
 	private void checkObjectInputStream() throws IOException {
 		if(o_in==null) {
-			b_in = null;
+			if(b_in==null) checkBufferedInputStream();
 			br = null;
-			o_in = new ObjectInputStream(in);
+			o_in = new ObjectInputStream(b_in);
+		}
+	}
+	
+	/**
+	 * Sets the size of the read buffer, set before the first read.
+	 * Default is 8192.
+	 * @since 2.1.0
+	 */
+	public void setReadBufferSize(int readBufferSize) {
+		if(readBufferSize<1) throw new IllegalArgumentException("readBufferSize should be > 0");
+		this.readBufferSize = readBufferSize;
+	}
+	/**
+	 * @since 2.1.0
+	 */
+	public int getReadBufferSize() {
+		return readBufferSize;
+	}
+	
+	/**
+	 * The read buffer of the client, kept for the life of the connection.
+	 */
+	private class ClientInputStream extends InputStream {
+		final byte buf[];
+		int pos;
+		int limit;
+		
+		ClientInputStream(int size) {
+			buf = new byte[size];
+		}
+		
+		/**
+		 * Reads more data from the socket once the buffer is used up.
+		 * @return bytes read, -1 at end of stream
+		 */
+		int fill() throws IOException {
+			pos = 0;
+			limit = 0;
+			int count = in.read(buf, 0, buf.length);
+			if(count>0) limit = count;
+			return count;
+		}
+		
+		/**
+		 * Drops the LF of a CR LF whose CR ended the last line read, so
+		 * any read after readLine() starts after the line end.
+		 * @return false at end of stream
+		 */
+		boolean skipPendingLF() throws IOException {
+			if(skipLF==false) return true;
+			skipLF = false;
+			if(pos>=limit && fill()<=0) return false;
+			if(buf[pos]==_LF) pos++;
+			return true;
+		}
+		
+		public int read() throws IOException {
+			if(skipPendingLF()==false) return -1;
+			if(pos>=limit && fill()<=0) return -1;
+			return buf[pos++] & 0xFF;
+		}
+		
+		public int read(byte data[], int off, int len) throws IOException {
+			if(len==0) return 0;
+			if(skipPendingLF()==false) return -1;
+			if(pos>=limit) {
+				if(len>=buf.length) return in.read(data, off, len);
+				if(fill()<=0) return -1;
+			}
+			int count = Math.min(limit - pos, len);
+			System.arraycopy(buf, pos, data, off, count);
+			pos += count;
+			return count;
+		}
+		
+		public long skip(long n) throws IOException {
+			if(skipPendingLF()==false) return 0;
+			int buffered = limit - pos;
+			if(buffered<=0) return in.skip(n);
+			long count = Math.min(buffered, n);
+			pos += (int) count;
+			return count;
+		}
+		
+		public int available() throws IOException {
+			return (limit - pos) + in.available();
+		}
+		
+		public void close() throws IOException {
+			//the socket stream is closed by the client
 		}
 	}
 	
@@ -23,11 +23,36 @@ import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.quickserver.net.client.pool.CorrelationIdExtractor;
+import org.quickserver.util.io.ObjectCodec;
+import org.quickserver.util.io.ObjectFrame;
 
 /**
- *
+ * Blocking UDP client.
+ * <p>
+ * The socket is opened by the first {@link #connect(String, int)} and
+ * kept till {@link #close()}; a later connect, as done by the
+ * sendAndReceive methods, only changes the address. The socket is
+ * connected to the address, so only its datagrams are read and an
+ * unreachable port fails fast where the OS reports it.
+ * </p>
+ * <p>
+ * Datagrams are read into a receive buffer taken from a pool shared by
+ * all clients and given back on close, so short lived clients do not
+ * allocate one each. With {@link #setUseChannel(boolean)} the socket is
+ * that of a DatagramChannel, which lets batches be drained without
+ * waiting.
+ * </p>
  * @author mukundan
  */
 public class BlockingUDPClient implements ClientService {	
@@ -35,14 +60,26 @@ public class BlockingUDPClient implements ClientService {
 
 	private SocketAddress address;
 	private DatagramSocket socket;
+	private DatagramChannel channel;
 	private DatagramPacket incoming;
 	private DatagramPacket outgoing;
+	private byte receiveBuffer[];
+	private ByteArrayOutputStream objectBytes;
+	private boolean useChannel;
+	private long staleCount;
+	
+	private static int receiveBufferSize = 8192;
+	private static final int MAX_POOLED_BUFFERS = 64;
+	private static final ConcurrentLinkedQueue<byte[]> bufferPool = 
+		new ConcurrentLinkedQueue<byte[]>();
+	private static final AtomicInteger pooledBuffers = new AtomicInteger();
 	
 	private static int timeoutInSeconds = 5;
 	private static String charset = "ISO-8859-1";
 	private static boolean debug = false;
 	
 	private StringBuilder readLineBuffer = new StringBuilder();	
+	private ObjectCodec objectCodec;
 
 	public static int getTimeoutInSeconds() {
 		return timeoutInSeconds;
@@ -52,6 +89,88 @@ public class BlockingUDPClient implements ClientService {
 		timeoutInSeconds = aTimeoutInSeconds;
 	}
 
+	/**
+	 * Sets the ObjectCodec used to send and read objects, each object is 
+	 * sent as one datagram. If not set java serialization is used.
+	 * @since 2.1.0
+	 */
+	public void setObjectCodec(ObjectCodec objectCodec) {
+		this.objectCodec = objectCodec;
+	}
+
+	public ObjectCodec getObjectCodec() {
+		return objectCodec;
+	}
+
+	/**
+	 * Sets the size of the receive buffers, the largest datagram read;
+	 * a longer datagram is cut to this size. Default is 8192.
+	 * @since 2.1.0
+	 */
+	public static void setReceiveBufferSize(int size) {
+		if(size<1) throw new IllegalArgumentException("size should be > 0");
+		receiveBufferSize = size;
+		bufferPool.clear();
+		pooledBuffers.set(0);
+	}
+
+	/**
+	 * @since 2.1.0
+	 */
+	public static int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	private static byte[] borrowBuffer() {
+		byte buffer[] = bufferPool.poll();
+		if(buffer==null) return new byte[receiveBufferSize];
+		pooledBuffers.decrementAndGet();
+		return buffer;
+	}
+
+	private static void returnBuffer(byte buffer[]) {
+		if(buffer.length!=receiveBufferSize) return;
+		if(pooledBuffers.incrementAndGet()>MAX_POOLED_BUFFERS) {
+			pooledBuffers.decrementAndGet();
+			return;
+		}
+		bufferPool.offer(buffer);
+	}
+
+	/**
+	 * Sets if the socket is opened through a DatagramChannel, set before
+	 * connect.
+	 * @since 2.1.0
+	 */
+	public void setUseChannel(boolean useChannel) {
+		this.useChannel = useChannel;
+	}
+
+	/**
+	 * @since 2.1.0
+	 */
+	public boolean isUseChannel() {
+		return useChannel;
+	}
+
+	/**
+	 * Returns the channel of the socket, null if it is not opened
+	 * through a channel.
+	 * @since 2.1.0
+	 */
+	public DatagramChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Returns the number of datagrams read and dropped since they did not
+	 * answer the request waited for.
+	 * @since 2.1.0
+	 */
+	public long getStaleCount() {
+		return staleCount;
+	}
+
 	public static boolean isDebug() {
 		return debug;
 	}
@@ -65,12 +184,27 @@ public class BlockingUDPClient implements ClientService {
 	}
 	
 	public void connect(String host, int port) throws Exception {
-		socket = new DatagramSocket();
-		address = new InetSocketAddress(host, port);
+		SocketAddress newAddress = new InetSocketAddress(host, port);
+		if(socket==null || socket.isClosed()) {
+			if(useChannel) {
+				channel = DatagramChannel.open();
+				socket = channel.socket();
+			} else {
+				socket = new DatagramSocket();
+			}
+		} else if(newAddress.equals(address)) {
+			socket.setSoTimeout(getTimeoutInSeconds()*1000);
+			return;
+		} else {
+			socket.disconnect();
+		}
+		address = newAddress;
+		socket.connect(address);
 		socket.setSoTimeout(getTimeoutInSeconds()*1000);
 	}
 
 	public boolean isConnected() {
+		if(socket==null) return false;
 		return socket.isConnected();
 	}
 
@@ -79,18 +213,50 @@ public class BlockingUDPClient implements ClientService {
 			socket.close();
 			socket = null;
 		}
+		if(channel!=null) {
+			channel.close();
+			channel = null;
+		}
+		if(receiveBuffer!=null) {
+			returnBuffer(receiveBuffer);
+			receiveBuffer = null;
+			incoming = null;
+		}
 	}
 
 	public void sendBytes(byte[] data) throws IOException {
-		if(isDebug()) logger.log(Level.FINE, "Sending bytes: {0}", data.length);
+		sendBytes(data, 0, data.length);
+	}
+
+	/**
+	 * Sends the bytes as one datagram.
+	 * @since 2.1.0
+	 */
+	public void sendBytes(byte[] data, int off, int len) throws IOException {
+		if(isDebug()) logger.log(Level.FINE, "Sending bytes: {0}", len);
 		
-		outgoing = new DatagramPacket(data, data.length, address);
 		if (null == socket){
 			throw new IOException("socket is null");
 		}
+		if(outgoing==null) {
+			outgoing = new DatagramPacket(data, off, len, address);
+		} else {
+			outgoing.setData(data, off, len);
+			outgoing.setSocketAddress(address);
+		}
 		socket.send(outgoing);
 	}
 
+	/**
+	 * Sends each byte[] in the list as a datagram.
+	 * @since 2.1.0
+	 */
+	public void sendBatch(List<byte[]> datagrams) throws IOException {
+		for(int i=0;i<datagrams.size();i++) {
+			sendBytes(datagrams.get(i));
+		}
+	}
+
 	public void sendBytes(String data, String charset) throws IOException {
 		if (null == data || "".equals(data)) {
 			throw new IOException("data is null or blank");
@@ -104,28 +270,133 @@ public class BlockingUDPClient implements ClientService {
 	}
 
 	public void sendObject(Object data) throws IOException {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		if(objectCodec!=null) {
+			sendBytes(ObjectFrame.toBytes(data, objectCodec));
+			return;
+		}
+		//each datagram has its own stream header, so only the bytes are reused
+		if(objectBytes==null) {
+			objectBytes = new ByteArrayOutputStream(256);
+		} else {
+			objectBytes.reset();
+		}
+		ObjectOutputStream oos = new ObjectOutputStream(objectBytes);
 		oos.writeObject(data);
 		oos.flush();
-		sendBytes(bos.toByteArray());
+		sendBytes(objectBytes.toByteArray());
 	}
 
-	private byte[] readBinary() throws IOException {
-		byte[] buf = new byte[8192]; //TODO - need to check the size
-		
-		incoming = new DatagramPacket(buf, buf.length);
-		socket.receive(incoming);
-		
-		if (null == incoming.getData()){
-			return null;
+	/**
+	 * Reads a datagram into the receive buffer.
+	 * @return its length
+	 */
+	private int receive() throws IOException {
+		if (null == socket){
+			throw new IOException("socket is null");
 		}
-		int incomingLen = incoming.getLength();
+		checkReceiveBuffer();
+		incoming.setData(receiveBuffer, 0, receiveBuffer.length);
+		socket.receive(incoming);
+		return incoming.getLength();
+	}
+
+	private byte[] readBinary() throws IOException {
+		int incomingLen = receive();
 		byte [] inData = new byte[incomingLen];
-		System.arraycopy(incoming.getData(), 0, inData, 0, incomingLen);
+		System.arraycopy(receiveBuffer, 0, inData, 0, incomingLen);
 		return inData;
 	}
 
+	/**
+	 * Reads a datagram into the buffer, without allocating.
+	 * @return the length of the datagram put, cut to the space remaining
+	 * @since 2.1.0
+	 */
+	public int readInto(ByteBuffer buffer) throws IOException {
+		int length = Math.min(receive(), buffer.remaining());
+		buffer.put(receiveBuffer, 0, length);
+		return length;
+	}
+
+	/**
+	 * Reads up to max datagrams into the list, waiting up to the timeout
+	 * for the first and taking the others only if they have arrived.
+	 * @return the number of datagrams read
+	 * @since 2.1.0
+	 */
+	public int receiveBatch(List<byte[]> datagrams, int max) throws IOException {
+		if(max<=0) return 0;
+		datagrams.add(readBinary());
+		return 1 + drain(datagrams, max-1);
+	}
+
+	/**
+	 * Reads and drops the datagrams that have arrived, without waiting
+	 * for more; used to clear stale replies before a request.
+	 * @return the number of datagrams dropped
+	 * @since 2.1.0
+	 */
+	public int drain() throws IOException {
+		return drain(null, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Reads the datagrams that have arrived, up to max, into the list or
+	 * drops them if it is null.
+	 */
+	private int drain(List<byte[]> datagrams, int max) throws IOException {
+		if(socket==null) throw new IOException("socket is null");
+		int count = 0;
+		if(channel!=null) {
+			ByteBuffer buffer = null;
+			channel.configureBlocking(false);
+			try {
+				while(count<max) {
+					if(buffer==null) {
+						checkReceiveBuffer();
+						buffer = ByteBuffer.wrap(receiveBuffer);
+					}
+					buffer.clear();
+					if(channel.receive(buffer)==null) break;
+					count++;
+					if(datagrams!=null) {
+						byte data[] = new byte[buffer.position()];
+						System.arraycopy(receiveBuffer, 0, data, 0, data.length);
+						datagrams.add(data);
+					}
+				}
+			} finally {
+				channel.configureBlocking(true);
+			}
+			return count;
+		}
+		
+		int timeout = socket.getSoTimeout();
+		socket.setSoTimeout(1);
+		try {
+			while(count<max) {
+				if(datagrams!=null) {
+					datagrams.add(readBinary());
+				} else {
+					receive();
+				}
+				count++;
+			}
+		} catch(SocketTimeoutException e) {
+			//nothing more has arrived
+		} finally {
+			socket.setSoTimeout(timeout);
+		}
+		return count;
+	}
+
+	private void checkReceiveBuffer() {
+		if(receiveBuffer==null) {
+			receiveBuffer = borrowBuffer();
+			incoming = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+		}
+	}
+
 	public byte[] readBytes() throws IOException {
 		byte [] inData = readBinary();
 		if (null == inData){
@@ -160,7 +431,9 @@ public class BlockingUDPClient implements ClientService {
 		byte[] inData = readBinary();
 		ObjectInputStream oos = null;
 		Object obj = null;
-		if (null != inData){
+		if (null != inData && objectCodec!=null) {
+			obj = ObjectFrame.decode(inData, 0, inData.length, objectCodec);
+		} else if (null != inData){
 			oos = new ObjectInputStream(new ByteArrayInputStream(inData));
 			obj = oos.readObject();
 		}
@@ -201,6 +474,75 @@ public class BlockingUDPClient implements ClientService {
 		return response;
 	}
 
+	/**
+	 * Sends the datagram and returns the reply with the same correlation
+	 * id, replies to other requests (late replies to earlier requests)
+	 * are dropped. The extractor is given the byte[] of the datagrams.
+	 * @throws SocketTimeoutException if no reply came in the timeout
+	 * @since 2.1.0
+	 */
+	public byte[] sendAndReceive(byte[] data, CorrelationIdExtractor extractor) 
+			throws IOException {
+		Object id = extractor.getRequestId(data);
+		sendBytes(data);
+		int timeout = socket.getSoTimeout();
+		long deadline = System.currentTimeMillis() + getTimeoutInSeconds()*1000L;
+		try {
+			while(true) {
+				byte response[] = readBinary();
+				if(id.equals(extractor.getResponseId(response))) return response;
+				staleCount++;
+				int left = (int) (deadline - System.currentTimeMillis());
+				if(left<=0) throw new SocketTimeoutException("No reply for "+id);
+				socket.setSoTimeout(left);
+			}
+		} finally {
+			if(socket!=null) socket.setSoTimeout(timeout);
+		}
+	}
+
+	/**
+	 * Sends all the datagrams and reads replies till each has one or the
+	 * timeout passes.
+	 * @return map of correlation id to reply, requests with no reply in
+	 *  time are not in it
+	 * @since 2.1.0
+	 */
+	public Map<Object, byte[]> sendAndReceiveBatch(List<byte[]> requests, 
+			CorrelationIdExtractor extractor) throws IOException {
+		Map<Object, byte[]> replies = new HashMap<Object, byte[]>(requests.size()*2);
+		Map<Object, Boolean> waiting = new HashMap<Object, Boolean>(requests.size()*2);
+		for(int i=0;i<requests.size();i++) {
+			waiting.put(extractor.getRequestId(requests.get(i)), Boolean.TRUE);
+		}
+		sendBatch(requests);
+		
+		int timeout = socket.getSoTimeout();
+		long deadline = System.currentTimeMillis() + getTimeoutInSeconds()*1000L;
+		try {
+			while(waiting.isEmpty()==false) {
+				int left = (int) (deadline - System.currentTimeMillis());
+				if(left<=0) break;
+				socket.setSoTimeout(left);
+				byte response[] = null;
+				try {
+					response = readBinary();
+				} catch(SocketTimeoutException e) {
+					break;
+				}
+				Object id = extractor.getResponseId(response);
+				if(id!=null && waiting.remove(id)!=null) {
+					replies.put(id, response);
+				} else {
+					staleCount++;
+				}
+			}
+		} finally {
+			if(socket!=null) socket.setSoTimeout(timeout);
+		}
+		return replies;
+	}
+
 	public int readByte() throws IOException {
 		throw new UnsupportedOperationException("Not supported yet.");
 	}
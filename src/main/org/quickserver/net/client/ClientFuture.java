@@ -0,0 +1,267 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.net.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+/**
+ * Result of an asynchronous operation of a {@link NonBlockingClient}.
+ * <p>
+ * Listeners added are called once the operation completes, fails or is
+ * cancelled. They are called from the thread that completes the future,
+ * which is usually a {@link ClientSelector} thread, so they should not
+ * block; a listener added after completion is called right away from
+ * the thread adding it.
+ * </p>
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public class ClientFuture implements Future {
+	private static final Logger logger = Logger.getLogger(ClientFuture.class.getName());
+
+	private boolean done;
+	private boolean cancelled;
+	private boolean uncancellable;
+	private Object result;
+	private Throwable error;
+	private List listeners;
+
+	/**
+	 * Completes the future with the result.
+	 * @return false if it was already done
+	 */
+	public boolean complete(Object result) {
+		List toCall = null;
+		synchronized(this) {
+			if(done) return false;
+			this.result = result;
+			done = true;
+			toCall = listeners;
+			listeners = null;
+			notifyAll();
+		}
+		callListeners(toCall);
+		return true;
+	}
+
+	/**
+	 * Fails the future with the error.
+	 * @return false if it was already done
+	 */
+	public boolean fail(Throwable error) {
+		List toCall = null;
+		synchronized(this) {
+			if(done) return false;
+			this.error = error;
+			done = true;
+			toCall = listeners;
+			listeners = null;
+			notifyAll();
+		}
+		callListeners(toCall);
+		return true;
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		List toCall = null;
+		synchronized(this) {
+			if(done || uncancellable) return false;
+			cancelled = true;
+			done = true;
+			toCall = listeners;
+			listeners = null;
+			notifyAll();
+		}
+		callListeners(toCall);
+		return true;
+	}
+
+	/**
+	 * Stops the future from being cancelled, while its result is taken
+	 * from the data received, so the data is not lost to a timeout.
+	 * @return false if it was already done
+	 */
+	synchronized boolean setUncancellable() {
+		if(done) return false;
+		uncancellable = true;
+		return true;
+	}
+
+	/**
+	 * Lets the future be cancelled again, there was no result to take.
+	 */
+	synchronized void setCancellable() {
+		uncancellable = false;
+		notifyAll();
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * Returns true if the future completed without error.
+	 */
+	public synchronized boolean isSuccess() {
+		return done && cancelled==false && error==null;
+	}
+
+	/**
+	 * Returns the error the future failed with, if any.
+	 */
+	public synchronized Throwable getError() {
+		return error;
+	}
+
+	/**
+	 * Returns the result if the future completed, else <code>null</code>.
+	 */
+	public synchronized Object getNow() {
+		return result;
+	}
+
+	/**
+	 * Adds a listener to be called when the future is done.
+	 */
+	public void addListener(ClientFutureListener listener) {
+		synchronized(this) {
+			if(done==false) {
+				if(listeners==null) listeners = new ArrayList(2);
+				listeners.add(listener);
+				return;
+			}
+		}
+		callListener(listener);
+	}
+
+	private void callListeners(List toCall) {
+		if(toCall==null) return;
+		for(int i=0;i<toCall.size();i++) {
+			callListener((ClientFutureListener) toCall.get(i));
+		}
+	}
+
+	private void callListener(ClientFutureListener listener) {
+		try {
+			listener.operationComplete(this);
+		} catch(Throwable e) {
+			logger.log(Level.WARNING, "Error in ClientFutureListener: "+e, e);
+		}
+	}
+
+	public Object get() throws InterruptedException, ExecutionException {
+		synchronized(this) {
+			while(done==false) wait();
+		}
+		return report();
+	}
+
+	public Object get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized(this) {
+			while(done==false) {
+				long left = deadline - System.nanoTime();
+				if(left<=0) throw new TimeoutException();
+				TimeUnit.NANOSECONDS.timedWait(this, left);
+			}
+		}
+		return report();
+	}
+
+	private Object report() throws ExecutionException {
+		synchronized(this) {
+			if(cancelled) throw new CancellationException();
+			if(error!=null) throw new ExecutionException(error);
+			return result;
+		}
+	}
+
+	/**
+	 * Waits for the future and returns the result, the way the blocking
+	 * calls of a client report errors.
+	 * @param timeout time to wait in milliseconds, 0 to wait for ever.
+	 * @exception SocketTimeoutException if timeout happened, the future
+	 *  is cancelled. If its result was being taken at that time it is
+	 *  waited for and returned instead.
+	 * @exception IOException if the operation failed or was cancelled
+	 */
+	public Object await(long timeout) throws IOException {
+		long deadline = System.currentTimeMillis() + timeout;
+		List toCall = null;
+		boolean timedOut = false;
+		synchronized(this) {
+			try {
+				while(done==false) {
+					long left = 0;
+					if(timeout>0) {
+						left = deadline - System.currentTimeMillis();
+						if(left<=0) break;
+					}
+					wait(left);
+				}
+				while(done==false && uncancellable) {
+					wait();
+				}
+			} catch(InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting");
+			}
+			if(done==false) {
+				cancelled = true;
+				done = true;
+				toCall = listeners;
+				listeners = null;
+				notifyAll();
+				timedOut = true;
+			}
+		}
+		if(timedOut) {
+			callListeners(toCall);
+			throw new SocketTimeoutException("Timeout after "+timeout+" ms");
+		}
+		synchronized(this) {
+			if(cancelled) throw new InterruptedIOException("Operation was cancelled");
+			if(error!=null) {
+				if(error instanceof IOException) throw (IOException) error;
+				IOException ioe = new IOException(error.toString());
+				ioe.initCause(error);
+				throw ioe;
+			}
+			return result;
+		}
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		synchronized(this) {
+			sb.append("ClientFuture[");
+			if(done==false) sb.append("pending");
+			else if(cancelled) sb.append("cancelled");
+			else if(error!=null) sb.append("failed: ").append(error);
+			else sb.append("done");
+		}
+		sb.append(']');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,28 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.net.client;
+
+/**
+ * Listener called when a {@link ClientFuture} is done.
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public interface ClientFutureListener {
+	/**
+	 * Called when the future completes, fails or is cancelled.
+	 * Should not block since it is usually called from a selector thread.
+	 */
+	public void operationComplete(ClientFuture future);
+}
@@ -0,0 +1,271 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.net.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.*;
+
+/**
+ * Group of selector threads that do the io of {@link NonBlockingClient}s.
+ * Each client is bound to one thread when it connects, so a few threads
+ * can serve thousands of connections.
+ * <p>
+ * It also keeps a pool of ByteBuffers, like the byte buffer pool of
+ * QuickServer in non-blocking mode, that are borrowed for reading and
+ * for TLS records and returned once used, so idle connections hold no
+ * buffers.
+ * </p>
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public class ClientSelector {
+	private static final Logger logger = Logger.getLogger(ClientSelector.class.getName());
+
+	private static ClientSelector defaultSelector;
+
+	private final String name;
+	private final SelectorThread threads[];
+	private final AtomicInteger next = new AtomicInteger();
+
+	private final int bufferSize;
+	private final boolean useDirectByteBuffer;
+	private final ConcurrentLinkedQueue bufferPool = new ConcurrentLinkedQueue();
+	private final AtomicInteger pooledBuffers = new AtomicInteger();
+	private volatile int maxPooledBuffers;
+
+	private volatile boolean closed;
+
+	/**
+	 * Returns the ClientSelector shared by clients that are not given one,
+	 * it is created on first use with one thread per two processors.
+	 */
+	public static synchronized ClientSelector getDefault() {
+		if(defaultSelector==null || defaultSelector.isClosed()) {
+			int threads = Math.max(1, Runtime.getRuntime().availableProcessors()/2);
+			try {
+				defaultSelector = new ClientSelector("ClientSelector", threads,
+					64*1024, false);
+			} catch(IOException e) {
+				throw new IllegalStateException("Could not open selector: "+e);
+			}
+		}
+		return defaultSelector;
+	}
+
+	/**
+	 * Creates the selector threads.
+	 * @param name prefix for thread names
+	 * @param threadCount number of selector threads
+	 * @param bufferSize size of the pooled ByteBuffers, should be at least
+	 *  the TLS packet size (about 17 KB) if secure clients are used.
+	 * @param useDirectByteBuffer if pooled ByteBuffers should be direct
+	 */
+	public ClientSelector(String name, int threadCount, int bufferSize,
+			boolean useDirectByteBuffer) throws IOException {
+		if(threadCount<=0) throw new IllegalArgumentException("threadCount should be > 0");
+		if(bufferSize<=0) throw new IllegalArgumentException("bufferSize should be > 0");
+		this.name = name;
+		this.bufferSize = bufferSize;
+		this.useDirectByteBuffer = useDirectByteBuffer;
+		this.maxPooledBuffers = threadCount*8;
+		threads = new SelectorThread[threadCount];
+		try {
+			for(int i=0;i<threadCount;i++) {
+				threads[i] = new SelectorThread(name+"-"+i);
+			}
+		} catch(IOException e) {
+			close();
+			throw e;
+		}
+		for(int i=0;i<threadCount;i++) {
+			threads[i].start();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** Returns the number of selector threads. */
+	public int getThreadCount() {
+		return threads.length;
+	}
+
+	/** Returns the number of connections registered. */
+	public int getConnectionCount() {
+		int count = 0;
+		for(int i=0;i<threads.length;i++) {
+			if(threads[i]!=null) count += threads[i].selector.keys().size();
+		}
+		return count;
+	}
+
+	/** Returns the size of the pooled ByteBuffers. */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Sets the maximum number of idle ByteBuffers kept in the pool.
+	 * Default is 8 per selector thread.
+	 */
+	public void setMaxPooledBuffers(int maxPooledBuffers) {
+		this.maxPooledBuffers = maxPooledBuffers;
+	}
+	public int getMaxPooledBuffers() {
+		return maxPooledBuffers;
+	}
+
+	/**
+	 * Returns a cleared ByteBuffer from the pool, a new one if the
+	 * pool is empty.
+	 */
+	public ByteBuffer borrowBuffer() {
+		ByteBuffer buffer = (ByteBuffer) bufferPool.poll();
+		if(buffer==null) {
+			if(useDirectByteBuffer)
+				return ByteBuffer.allocateDirect(bufferSize);
+			else
+				return ByteBuffer.allocate(bufferSize);
+		}
+		pooledBuffers.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns the ByteBuffer to the pool.
+	 */
+	public void returnBuffer(ByteBuffer buffer) {
+		if(buffer==null || buffer.capacity()!=bufferSize) return;
+		if(pooledBuffers.incrementAndGet()>maxPooledBuffers) {
+			pooledBuffers.decrementAndGet();
+			return;
+		}
+		bufferPool.offer(buffer);
+	}
+
+	/**
+	 * Returns the thread next client should be bound to.
+	 */
+	SelectorThread nextThread() {
+		if(closed) throw new IllegalStateException("ClientSelector "+name+" is closed");
+		int index = (next.getAndIncrement() & 0x7FFFFFFF) % threads.length;
+		return threads[index];
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Stops the threads and closes all clients registered.
+	 */
+	public void close() {
+		closed = true;
+		for(int i=0;i<threads.length;i++) {
+			if(threads[i]!=null) threads[i].shutdown();
+		}
+	}
+
+	public String toString() {
+		return "ClientSelector["+name+", threads="+threads.length+"]";
+	}
+
+	/**
+	 * One selector and the thread running it.
+	 */
+	static class SelectorThread extends Thread {
+		final Selector selector;
+		private final ConcurrentLinkedQueue tasks = new ConcurrentLinkedQueue();
+		private volatile boolean stop;
+
+		SelectorThread(String name) throws IOException {
+			super(name);
+			setDaemon(true);
+			selector = Selector.open();
+		}
+
+		/**
+		 * Runs the task on this thread, right away if called from it.
+		 */
+		void execute(Runnable task) {
+			if(Thread.currentThread()==this) {
+				task.run();
+				return;
+			}
+			tasks.offer(task);
+			selector.wakeup();
+		}
+
+		boolean inThread() {
+			return Thread.currentThread()==this;
+		}
+
+		void shutdown() {
+			stop = true;
+			selector.wakeup();
+		}
+
+		public void run() {
+			Iterator iterator = null;
+			SelectionKey key = null;
+			while(stop==false) {
+				try {
+					selector.select(1000);
+					runTasks();
+
+					iterator = selector.selectedKeys().iterator();
+					while(iterator.hasNext()) {
+						key = (SelectionKey) iterator.next();
+						iterator.remove();
+						NonBlockingClient client = (NonBlockingClient) key.attachment();
+						client.processKey(key);
+					}
+				} catch(Throwable e) {
+					logger.log(Level.WARNING, getName()+" error: "+e, e);
+				}
+			}
+			runTasks();
+			iterator = new ArrayList(selector.keys()).iterator();
+			while(iterator.hasNext()) {
+				key = (SelectionKey) iterator.next();
+				((NonBlockingClient) key.attachment()).closed(
+					new IOException("ClientSelector was closed"), false);
+			}
+			try {
+				selector.close();
+			} catch(IOException e) {
+				logger.log(Level.FINE, "Error closing selector: {0}", e);
+			}
+		}
+
+		private void runTasks() {
+			Runnable task = null;
+			while((task = (Runnable) tasks.poll())!=null) {
+				try {
+					task.run();
+				} catch(Throwable e) {
+					logger.log(Level.WARNING, getName()+" task error: "+e, e);
+				}
+			}
+		}
+	}
+}
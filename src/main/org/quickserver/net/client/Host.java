@@ -16,6 +16,8 @@ package org.quickserver.net.client;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.quickserver.util.CachedClock;
 
 /**
  * @since 1.4.8
@@ -28,14 +30,17 @@ public class Host {
 	public static final char ERROR = 'E';
 	public static final char MAINTENANCE = 'M';
 	
+	private static final AtomicInteger weightVersion = new AtomicInteger();
+	
 	private InetAddress inetAddress;
 	private char status = Host.UNKNOWN;
 	private int timeout = 10000;//10sec	
-	private Date lastCheckedOn;
-	private Date nextCheckOn;
+	private volatile long lastCheckedOn;
+	private volatile long nextCheckOn;
 	private String name;
 	
-	private Date lastActiveTime;
+	private volatile long lastActiveTime;
+	private volatile int weight = 1;
 	
 	public Host() {		
 	}
@@ -48,6 +53,7 @@ public class Host {
 		sb.append(getInetAddress());
 		sb.append("; Status:");
 		sb.append(getStatus());
+		if(weight!=1) sb.append("; Weight:").append(weight);
 		sb.append("]");
 		return sb.toString();
 	}
@@ -78,24 +84,54 @@ public class Host {
 
 	public void setStatus(char status) {		
 		if(status==Host.ACTIVE && this.status != status) {
-			lastActiveTime = new Date();
+			lastActiveTime = CachedClock.currentTimeMillis();
 		}
 		this.status = status;
 	}
 
 	public Date getLastCheckedOn() {
-		return lastCheckedOn;
+		return CachedClock.toDate(lastCheckedOn);
 	}
 
 	public void setLastCheckedOn(Date lastCheckedOn) {
+		this.lastCheckedOn = lastCheckedOn!=null?lastCheckedOn.getTime():0;
+	}
+
+	/**
+	 * @return time in milliseconds of last check, 0 if never checked
+	 * @since 2.1.0
+	 */
+	public long getLastCheckedOnMillis() {
+		return lastCheckedOn;
+	}
+
+	/**
+	 * @since 2.1.0
+	 */
+	public void setLastCheckedOnMillis(long lastCheckedOn) {
 		this.lastCheckedOn = lastCheckedOn;
 	}
 
 	public Date getNextCheckOn() {
-		return nextCheckOn;
+		return CachedClock.toDate(nextCheckOn);
 	}
 
 	public void setNextCheckOn(Date nextCheckOn) {
+		this.nextCheckOn = nextCheckOn!=null?nextCheckOn.getTime():0;
+	}
+
+	/**
+	 * @return time in milliseconds of next check, 0 if not scheduled
+	 * @since 2.1.0
+	 */
+	public long getNextCheckOnMillis() {
+		return nextCheckOn;
+	}
+
+	/**
+	 * @since 2.1.0
+	 */
+	public void setNextCheckOnMillis(long nextCheckOn) {
 		this.nextCheckOn = nextCheckOn;
 	}
 
@@ -115,6 +151,36 @@ public class Host {
 		return name;
 	}
 
+	/**
+	 * @return relative share of traffic the host should get, default is 1
+	 * @since 2.1.0
+	 */
+	public int getWeight() {
+		return weight;
+	}
+
+	/**
+	 * Sets the relative share of traffic the host should get, a host of
+	 * weight 2 gets twice the traffic of one of weight 1 from weighted
+	 * load patterns. May be changed at runtime, 0 gives it no traffic.
+	 * @since 2.1.0
+	 */
+	public void setWeight(int weight) {
+		if(weight<0) throw new IllegalArgumentException("weight should be >= 0");
+		if(this.weight==weight) return;
+		this.weight = weight;
+		weightVersion.incrementAndGet();
+	}
+
+	/**
+	 * Returns a count that changes each time the weight of any Host is
+	 * changed, so load patterns that cache by weight know to check again.
+	 * @since 2.1.0
+	 */
+	public static int getWeightVersion() {
+		return weightVersion.get();
+	}
+
 	public void setName(String name) {
 		this.name = name;
 	}
@@ -123,14 +189,22 @@ public class Host {
 	 * @return the lastActiveTime
 	 */
 	public Date getLastActiveTime() {
-		return lastActiveTime;
+		return CachedClock.toDate(lastActiveTime);
 	}
 
 	/**
 	 * @param lastActiveTime the lastActiveTime to set
 	 */
 	public void setLastActiveTime(Date lastActiveTime) {
-		this.lastActiveTime = lastActiveTime;
+		this.lastActiveTime = lastActiveTime!=null?lastActiveTime.getTime():0;
+	}
+
+	/**
+	 * @return the lastActiveTime in milliseconds, 0 if never active
+	 * @since 2.1.0
+	 */
+	public long getLastActiveTimeMillis() {
+		return lastActiveTime;
 	}
 	
 	private static final int SECOND = 1000;
@@ -142,13 +216,13 @@ public class Host {
 			return "NA";
 		}
 		
-		Date lst = getLastActiveTime();
+		long lst = getLastActiveTimeMillis();
 		StringBuilder sb = new StringBuilder();
 		
-		if(lst==null) {
+		if(lst==0) {
 			sb.append("N/A");
 		} else {
-			long ms = System.currentTimeMillis() - lst.getTime();
+			long ms = System.currentTimeMillis() - lst;
 			if (ms > DAY) {
 				sb.append(ms / DAY).append("d ");
 				ms %= DAY;
@@ -90,4 +90,16 @@ public class HostList {
 	public Host getHostByName(String name) {
 		return nameMap.get(name);
 	}
+	
+	/**
+	 * Sets the weight of the host with the name.
+	 * @return false if no host has that name
+	 * @since 2.1.0
+	 */
+	public boolean setWeight(String name, int weight) {
+		Host host = getHostByName(name);
+		if(host==null) return false;
+		host.setWeight(weight);
+		return true;
+	}
 }
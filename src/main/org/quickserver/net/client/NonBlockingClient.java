@@ -0,0 +1,1108 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.net.client;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.logging.*;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import org.quickserver.util.io.ObjectFrame;
+
+/**
+ * Non-blocking client socket. The io is done by the threads of a
+ * {@link ClientSelector}, so a few threads serve thousands of connections.
+ * <p>
+ * Every operation has an asynchronous form that returns a
+ * {@link ClientFuture}, like {@link #connectAsync}, {@link #sendBytesAsync}
+ * and {@link #readLineAsync}. Reads are queued and completed in order as
+ * data arrives, data that arrives with no read pending is buffered.
+ * When more than {@link #getMaxInboundSize} bytes are buffered the client
+ * stops reading from the socket till a read is queued.
+ * </p>
+ * <p>
+ * The {@link ClientService} methods inherited from BlockingClient block on
+ * those futures, waiting at most {@link #getTimeout} milliseconds, so this
+ * class can be returned by
+ * {@link org.quickserver.net.client.pool.PoolableBlockingClient#createBlockingClient}
+ * or used by a {@link org.quickserver.net.client.monitoring.HostMonitor}.
+ * Blocking calls must not be made from a ClientFutureListener since those
+ * are called from the selector threads.
+ * </p>
+ * <p>
+ * Secure connections use an SSLEngine over the SSLContext built the same
+ * way as for BlockingClient, the connect future completes after the
+ * TLS handshake. Objects are always sent and read as
+ * {@link ObjectFrame}s.
+ * </p>
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public class NonBlockingClient extends BlockingClient {
+	private static final Logger logger = Logger.getLogger(NonBlockingClient.class.getName());
+
+	private static final int READ_BYTE = 1;
+	private static final int READ_BYTES = 2;
+	private static final int READ_COUNT = 3;
+	private static final int READ_LINE = 4;
+	private static final int READ_CRLF_LINE = 5;
+	private static final int READ_FRAME = 6;
+	private static final int READ_OBJECT = 7;
+	private static final int READ_UP_TO = 8;
+
+	private static final Object NO_RESULT = new Object();
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+	private static final int MAX_READS_PER_WAKEUP = 16;
+	private static final int MAX_GATHER = 16;
+
+	private ClientSelector clientSelector;
+	private ClientSelector.SelectorThread selectorThread;
+	private volatile SocketChannel channel;
+	private SelectionKey key;
+	private volatile boolean connected;
+	private volatile boolean closed;
+	private ClientFuture connectFuture;
+	private int timeout = 0;
+	private int maxInboundSize = 1024*1024;
+
+	//guarded by readLock
+	private final Object readLock = new Object();
+	private ByteBuffer inbound;
+	private int inboundStart;
+	private final LinkedList readers = new LinkedList();
+	private boolean eof;
+	private IOException readError;
+	private volatile boolean readSuspended;
+
+	//guarded by writeLock
+	private final Object writeLock = new Object();
+	private final LinkedList outbound = new LinkedList();
+	private LinkedList pendingApp;
+	private volatile boolean writeInterest;
+	private final ByteBuffer gather[] = new ByteBuffer[MAX_GATHER];
+
+	private SSLEngine engine;
+	private volatile boolean handshakeDone;
+	private ByteBuffer netIn; //selector thread only
+
+	private final Runnable updateInterestTask = new Runnable() {
+		public void run() {
+			updateInterest();
+		}
+	};
+
+	private static class Reader {
+		int type;
+		int count;
+		int scanned;
+		String charset;
+		ClientFuture future = new ClientFuture();
+
+		Reader(int type, int count, String charset) {
+			this.type = type;
+			this.count = count;
+			this.charset = charset;
+		}
+	}
+
+	private static class WriteEntry {
+		ByteBuffer buffer;
+		boolean pooled;
+		ClientFuture future;
+
+		WriteEntry(ByteBuffer buffer, boolean pooled, ClientFuture future) {
+			this.buffer = buffer;
+			this.pooled = pooled;
+			this.future = future;
+		}
+	}
+
+	/**
+	 * Creates a client that uses the default {@link ClientSelector}.
+	 */
+	public NonBlockingClient() {
+	}
+
+	/**
+	 * Creates a client that uses the passed {@link ClientSelector}.
+	 */
+	public NonBlockingClient(ClientSelector clientSelector) {
+		this.clientSelector = clientSelector;
+	}
+
+	public int getMode() {
+		return ClientService.NON_BLOCKING;
+	}
+
+	/**
+	 * Returns the ClientSelector used, <code>null</code> if the default
+	 * will be used and it is not connected yet.
+	 */
+	public ClientSelector getClientSelector() {
+		return clientSelector;
+	}
+	public void setClientSelector(ClientSelector clientSelector) {
+		this.clientSelector = clientSelector;
+	}
+
+	/**
+	 * Sets the time in milliseconds the blocking calls wait for the
+	 * operation, 0 waits for ever. Default is 0.
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+	public int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Sets the maximum bytes buffered when no read is pending, or for a
+	 * line being read. Default is 1 MB.
+	 */
+	public void setMaxInboundSize(int maxInboundSize) {
+		this.maxInboundSize = maxInboundSize;
+	}
+	public int getMaxInboundSize() {
+		return maxInboundSize;
+	}
+
+	//-- connect and close
+
+	/**
+	 * Connects to the server. The future completes with this client once
+	 * connected, after the TLS handshake if secure.
+	 */
+	public ClientFuture connectAsync(String host, int port) {
+		ClientFuture future = new ClientFuture();
+		if(channel!=null) {
+			future.fail(new IOException("Already connected"));
+			return future;
+		}
+		if(isDebug()) logger.finest("Connecting to "+host+":"+port);
+
+		SocketChannel ch = null;
+		try {
+			if(clientSelector==null) clientSelector = ClientSelector.getDefault();
+			if(isSecure()) {
+				makeSSLSocketFactory();
+				if(getSslContext()==null) {
+					throw new IOException("SSLContext is needed for a secure NonBlockingClient");
+				}
+				engine = getSslContext().createSSLEngine(host, port);
+				engine.setUseClientMode(true);
+			} else {
+				engine = null;
+			}
+			InetSocketAddress address = new InetSocketAddress(host, port);
+			if(address.isUnresolved()) throw new UnknownHostException(host);
+
+			synchronized(readLock) {
+				inbound = null;
+				inboundStart = 0;
+				eof = false;
+				readError = null;
+				readSuspended = false;
+			}
+			synchronized(writeLock) {
+				closed = false;
+				writeInterest = false;
+				pendingApp = null;
+			}
+			connected = false;
+			handshakeDone = false;
+			netIn = null;
+			connectFuture = future;
+
+			ch = SocketChannel.open();
+			ch.configureBlocking(false);
+			selectorThread = clientSelector.nextThread();
+			channel = ch;
+			final boolean connectedNow = ch.connect(address);
+			selectorThread.execute(new Runnable() {
+				public void run() {
+					register(connectedNow);
+				}
+			});
+		} catch(Exception e) {
+			if(ch!=null) {
+				try {
+					ch.close();
+				} catch(IOException ignore) {/*ignore*/}
+			}
+			channel = null;
+			future.fail(e);
+		}
+		return future;
+	}
+
+	private void register(boolean connectedNow) {
+		try {
+			if(closed) return;
+			key = channel.register(selectorThread.selector,
+				connectedNow?0:SelectionKey.OP_CONNECT, this);
+			if(connectedNow) connectDone();
+		} catch(Exception e) {
+			closed(toIOException(e), false);
+		}
+	}
+
+	private void connectDone() throws IOException {
+		connected = true;
+		if(isDebug()) logger.fine("Connected");
+		updateInterest();
+		if(engine!=null) {
+			engine.beginHandshake();
+			processTls();
+		} else {
+			List done = null;
+			synchronized(writeLock) {
+				done = flushLocked();
+			}
+			completeAll(done);
+			connectFuture.complete(this);
+		}
+	}
+
+	public void connect(String host, int port) throws Exception {
+		checkNotSelectorThread();
+		ClientFuture future = connectAsync(host, port);
+		try {
+			future.await(timeout);
+		} catch(IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public boolean isConnected() {
+		SocketChannel ch = channel;
+		return ch!=null && closed==false && ch.isConnected();
+	}
+
+	public void close() throws IOException {
+		if(channel==null) return;
+		if(isDebug()) logger.fine("Closing");
+		if(engine!=null && handshakeDone && closed==false) {
+			List done = null;
+			synchronized(writeLock) {
+				try {
+					engine.closeOutbound();
+					wrapLocked(EMPTY, null);
+					done = flushLocked();
+				} catch(IOException e) {
+					logger.log(Level.FINEST, "Error sending close_notify: {0}", e);
+				}
+			}
+			completeAll(done);
+		}
+		closed(new IOException("Client was closed"), false);
+	}
+
+	/**
+	 * Closes the connection, failing what is pending.
+	 * Can be called from any thread.
+	 */
+	void closed(IOException reason, boolean peerClosed) {
+		List writes = new ArrayList();
+		synchronized(writeLock) {
+			if(closed) return;
+			closed = true;
+			drain(outbound, writes);
+			if(pendingApp!=null) drain(pendingApp, writes);
+		}
+		SocketChannel ch = channel;
+		if(ch!=null) {
+			try {
+				ch.close();
+			} catch(IOException e) {
+				logger.log(Level.FINEST, "Error closing channel: {0}", e);
+			}
+		}
+		if(engine!=null) {
+			try {
+				engine.closeInbound();
+			} catch(SSLException e) {
+				logger.log(Level.FINEST, "Error closing SSLEngine: {0}", e);
+			}
+		}
+		if(connectFuture!=null) connectFuture.fail(reason);
+		for(int i=0;i<writes.size();i++) {
+			((ClientFuture) writes.get(i)).fail(reason);
+		}
+
+		synchronized(readLock) {
+			eof = true;
+			if(peerClosed==false) readError = reason;
+		}
+		processReaders();
+	}
+
+	private void drain(LinkedList entries, List futures) {
+		while(entries.isEmpty()==false) {
+			WriteEntry entry = (WriteEntry) entries.removeFirst();
+			if(entry.pooled) clientSelector.returnBuffer(entry.buffer);
+			if(entry.future!=null) futures.add(entry.future);
+		}
+	}
+
+	public Socket getSocket() {
+		SocketChannel ch = channel;
+		if(ch==null) return null;
+		return ch.socket();
+	}
+
+	//-- selector thread
+
+	/**
+	 * Called by the selector thread when the key is selected.
+	 */
+	void processKey(SelectionKey selectedKey) {
+		try {
+			if(selectedKey.isValid()==false) return;
+			if(selectedKey.isConnectable()) {
+				if(channel.finishConnect()==false) return;
+				connectDone();
+			}
+			if(selectedKey.isValid() && selectedKey.isWritable()) {
+				handleWrite();
+			}
+			if(selectedKey.isValid() && selectedKey.isReadable()) {
+				handleRead();
+			}
+		} catch(Exception e) {
+			if(isDebug()) logger.log(Level.FINE, "Error: "+e, e);
+			closed(toIOException(e), false);
+		}
+	}
+
+	private void updateInterest() {
+		SelectionKey k = key;
+		if(k==null || k.isValid()==false) return;
+		int ops = 0;
+		if(connected==false) {
+			ops = SelectionKey.OP_CONNECT;
+		} else {
+			if(readSuspended==false) ops |= SelectionKey.OP_READ;
+			if(writeInterest) ops |= SelectionKey.OP_WRITE;
+		}
+		if(k.interestOps()!=ops) k.interestOps(ops);
+	}
+
+	private void scheduleUpdateInterest() {
+		ClientSelector.SelectorThread thread = selectorThread;
+		if(thread!=null) thread.execute(updateInterestTask);
+	}
+
+	private void handleWrite() throws IOException {
+		List done = null;
+		synchronized(writeLock) {
+			done = flushLocked();
+		}
+		completeAll(done);
+	}
+
+	private void handleRead() throws IOException {
+		boolean peerClosed = false;
+		ByteBuffer buffer = clientSelector.borrowBuffer();
+		try {
+			for(int i=0;i<MAX_READS_PER_WAKEUP;i++) {
+				buffer.clear();
+				int count = channel.read(buffer);
+				if(count<0) {
+					peerClosed = true;
+					break;
+				}
+				if(count==0) break;
+				buffer.flip();
+				if(engine==null) {
+					synchronized(readLock) {
+						appendInbound(buffer);
+					}
+				} else {
+					netIn = append(netIn, buffer);
+					if(processTls()) {
+						peerClosed = true;
+						break;
+					}
+				}
+				if(count<buffer.capacity()) break;
+			}
+		} finally {
+			clientSelector.returnBuffer(buffer);
+		}
+		if(peerClosed) {
+			synchronized(readLock) {
+				eof = true;
+			}
+			processReaders();
+			closed(new EOFException("Connection closed by peer"), true);
+		} else {
+			processReaders();
+		}
+	}
+
+	//-- TLS
+
+	/**
+	 * Moves the TLS engine forward: runs tasks, sends handshake data and
+	 * decrypts what was received into the inbound buffer.
+	 * @return true if the peer closed the TLS session
+	 */
+	private boolean processTls() throws IOException {
+		ByteBuffer app = null;
+		boolean pooledApp = false;
+		try {
+			while(true) {
+				SSLEngineResult.HandshakeStatus hs = engine.getHandshakeStatus();
+				if(hs==SSLEngineResult.HandshakeStatus.NEED_TASK) {
+					Runnable task = null;
+					while((task = engine.getDelegatedTask())!=null) {
+						task.run();
+					}
+					continue;
+				}
+				if(hs==SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+					List done = null;
+					SSLEngineResult res = null;
+					synchronized(writeLock) {
+						if(closed) return false;
+						res = wrapLocked(EMPTY, null);
+						done = flushLocked();
+					}
+					completeAll(done);
+					checkHandshake(res);
+					if(res.getStatus()==SSLEngineResult.Status.CLOSED) return true;
+					continue;
+				}
+
+				checkHandshake(null);
+				if(netIn==null || netIn.position()==0) return false;
+
+				if(app==null) {
+					app = clientSelector.borrowBuffer();
+					pooledApp = true;
+					if(app.capacity()<engine.getSession().getApplicationBufferSize()) {
+						clientSelector.returnBuffer(app);
+						app = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+						pooledApp = false;
+					}
+				}
+				app.clear();
+				netIn.flip();
+				SSLEngineResult res = null;
+				try {
+					res = engine.unwrap(netIn, app);
+				} finally {
+					netIn.compact();
+				}
+				app.flip();
+				if(app.hasRemaining()) {
+					synchronized(readLock) {
+						appendInbound(app);
+					}
+				}
+				SSLEngineResult.Status status = res.getStatus();
+				if(status==SSLEngineResult.Status.CLOSED) {
+					return true;
+				} else if(status==SSLEngineResult.Status.BUFFER_OVERFLOW) {
+					if(pooledApp) clientSelector.returnBuffer(app);
+					app = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize()*2);
+					pooledApp = false;
+					continue;
+				} else if(status==SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+					int packetSize = engine.getSession().getPacketBufferSize();
+					if(netIn.capacity()<packetSize) {
+						ByteBuffer bigger = ByteBuffer.allocate(packetSize);
+						netIn.flip();
+						bigger.put(netIn);
+						netIn = bigger;
+					}
+					return false;
+				}
+				checkHandshake(res);
+				if(res.bytesConsumed()==0 && res.bytesProduced()==0 &&
+						engine.getHandshakeStatus()!=SSLEngineResult.HandshakeStatus.NEED_TASK &&
+						engine.getHandshakeStatus()!=SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+					return false;
+				}
+			}
+		} finally {
+			if(pooledApp) clientSelector.returnBuffer(app);
+			if(netIn!=null && netIn.position()==0) netIn = null;
+		}
+	}
+
+	private void checkHandshake(SSLEngineResult res) throws IOException {
+		if(handshakeDone) return;
+		SSLEngineResult.HandshakeStatus hs = engine.getHandshakeStatus();
+		if((res!=null && res.getHandshakeStatus()==SSLEngineResult.HandshakeStatus.FINISHED) ||
+				hs==SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+			handshakeDone = true;
+			if(isDebug()) logger.fine("TLS handshake done: "+engine.getSession().getProtocol());
+			List done = null;
+			synchronized(writeLock) {
+				if(pendingApp!=null) {
+					while(pendingApp.isEmpty()==false) {
+						WriteEntry entry = (WriteEntry) pendingApp.removeFirst();
+						wrapLocked(entry.buffer, entry.future);
+					}
+					pendingApp = null;
+				}
+				done = flushLocked();
+			}
+			completeAll(done);
+			connectFuture.complete(this);
+		}
+	}
+
+	/**
+	 * Wraps the data into pooled buffers added to outbound,
+	 * filling each with as many TLS records as fit.
+	 * Should be called with writeLock held.
+	 */
+	private SSLEngineResult wrapLocked(ByteBuffer src, ClientFuture future) throws IOException {
+		int packetSize = engine.getSession().getPacketBufferSize();
+		SSLEngineResult res = null;
+		WriteEntry last = null;
+		while(true) {
+			ByteBuffer net = clientSelector.borrowBuffer();
+			boolean pooled = true;
+			if(net.capacity()<packetSize) {
+				clientSelector.returnBuffer(net);
+				net = ByteBuffer.allocate(packetSize);
+				pooled = false;
+			}
+			do {
+				res = engine.wrap(src, net);
+			} while(res.getStatus()==SSLEngineResult.Status.OK && src.hasRemaining() &&
+				net.remaining()>=packetSize);
+			net.flip();
+			if(net.hasRemaining()) {
+				last = new WriteEntry(net, pooled, null);
+				outbound.add(last);
+			} else if(pooled) {
+				clientSelector.returnBuffer(net);
+			}
+			if(res.getStatus()!=SSLEngineResult.Status.OK &&
+					res.getStatus()!=SSLEngineResult.Status.BUFFER_OVERFLOW) {
+				break;
+			}
+			if(src.hasRemaining()==false) break;
+		}
+		if(future!=null) {
+			if(last!=null) {
+				last.future = future;
+			} else {
+				outbound.add(new WriteEntry(EMPTY, false, future));
+			}
+		}
+		return res;
+	}
+
+	//-- write
+
+	/**
+	 * Sends the remaining bytes of the buffer. The buffer should not be
+	 * changed till the future completes, which is once it is written to
+	 * the socket.
+	 */
+	public ClientFuture sendAsync(ByteBuffer data) {
+		ClientFuture future = new ClientFuture();
+		List done = null;
+		IOException error = null;
+		synchronized(writeLock) {
+			if(channel==null || closed) {
+				error = new IOException("Not connected");
+			} else if(engine!=null && handshakeDone==false) {
+				if(pendingApp==null) pendingApp = new LinkedList();
+				pendingApp.add(new WriteEntry(data, false, future));
+			} else {
+				try {
+					if(engine!=null) {
+						wrapLocked(data, future);
+					} else {
+						outbound.add(new WriteEntry(data, false, future));
+					}
+					if(connected) done = flushLocked();
+				} catch(IOException e) {
+					error = e;
+				}
+			}
+		}
+		completeAll(done);
+		if(error!=null) {
+			future.fail(error);
+			if(channel!=null) closed(error, false);
+		}
+		return future;
+	}
+
+	/**
+	 * Writes what it can of outbound to the socket, registering for
+	 * OP_WRITE if some is left. Should be called with writeLock held.
+	 * @return futures of the writes completed
+	 */
+	private List flushLocked() throws IOException {
+		List done = null;
+		while(outbound.isEmpty()==false) {
+			int count = 0;
+			Iterator iterator = outbound.iterator();
+			while(iterator.hasNext() && count<MAX_GATHER) {
+				gather[count++] = ((WriteEntry) iterator.next()).buffer;
+			}
+			channel.write(gather, 0, count);
+			for(int i=0;i<count;i++) gather[i] = null;
+
+			while(outbound.isEmpty()==false) {
+				WriteEntry entry = (WriteEntry) outbound.getFirst();
+				if(entry.buffer.hasRemaining()) break;
+				outbound.removeFirst();
+				if(entry.pooled) clientSelector.returnBuffer(entry.buffer);
+				if(entry.future!=null) {
+					if(done==null) done = new ArrayList(4);
+					done.add(entry.future);
+				}
+			}
+			if(outbound.isEmpty()==false &&
+					((WriteEntry) outbound.getFirst()).buffer.hasRemaining()) {
+				break;
+			}
+		}
+		boolean want = outbound.isEmpty()==false;
+		if(want!=writeInterest) {
+			writeInterest = want;
+			scheduleUpdateInterest();
+		}
+		return done;
+	}
+
+	private static void completeAll(List done) {
+		if(done==null) return;
+		for(int i=0;i<done.size();i++) {
+			((ClientFuture) done.get(i)).complete(null);
+		}
+	}
+
+	/** Sends binary data. */
+	public ClientFuture sendBytesAsync(byte data[]) {
+		return sendAsync(ByteBuffer.wrap(data));
+	}
+
+	/** Sends a String appended with \r\n. */
+	public ClientFuture sendLineAsync(String data, String _charset) {
+		try {
+			if(_charset==null) _charset = getCharset();
+			byte d[] = (data+"\r\n").getBytes(_charset);
+			return sendAsync(ByteBuffer.wrap(d));
+		} catch(UnsupportedEncodingException e) {
+			ClientFuture future = new ClientFuture();
+			future.fail(e);
+			return future;
+		}
+	}
+
+	/** Sends an object as an {@link ObjectFrame}. */
+	public ClientFuture sendObjectAsync(Object data) {
+		try {
+			return sendAsync(ByteBuffer.wrap(ObjectFrame.encode(data, getObjectCodec())));
+		} catch(IOException e) {
+			ClientFuture future = new ClientFuture();
+			future.fail(e);
+			return future;
+		}
+	}
+
+	public void sendByte(int data) throws IOException {
+		checkNotSelectorThread();
+		await(sendAsync(ByteBuffer.wrap(new byte[]{(byte) data})));
+	}
+
+	public void sendBytes(byte[] data) throws IOException {
+		checkNotSelectorThread();
+		await(sendBytesAsync(data));
+	}
+
+	public void sendBytes(String data, String _charset) throws IOException {
+		checkNotSelectorThread();
+		if(_charset==null) _charset = getCharset();
+		await(sendBytesAsync(data.getBytes(_charset)));
+	}
+
+	public void sendLine(String data, String _charset) throws IOException {
+		checkNotSelectorThread();
+		await(sendLineAsync(data, _charset));
+	}
+
+	public void sendObject(Object data) throws IOException {
+		checkNotSelectorThread();
+		await(sendObjectAsync(data));
+	}
+
+	//-- read
+
+	private ClientFuture queueRead(int type, int count, String charset) {
+		Reader reader = new Reader(type, count, charset);
+		synchronized(readLock) {
+			readers.add(reader);
+		}
+		processReaders();
+		return reader.future;
+	}
+
+	/** Reads next byte, completes with an Integer, -1 at end of stream. */
+	public ClientFuture readByteAsync() {
+		return queueRead(READ_BYTE, 0, null);
+	}
+
+	/** Reads the bytes available, completes with a byte[],
+	 * <code>null</code> at end of stream. */
+	public ClientFuture readBytesAsync() {
+		return queueRead(READ_BYTES, 0, null);
+	}
+
+	/** Reads the given number of bytes, completes with a byte[]. */
+	public ClientFuture readBytesAsync(int countToRead) {
+		return queueRead(READ_COUNT, countToRead, null);
+	}
+
+	/** Reads a line ended by \n or \r\n, completes with a String
+	 * without the line end, <code>null</code> at end of stream. */
+	public ClientFuture readLineAsync(String _charset) {
+		if(_charset==null) _charset = getCharset();
+		return queueRead(READ_LINE, 0, _charset);
+	}
+
+	/** Reads a line ended by \r\n, completes with a String
+	 * without the line end, <code>null</code> at end of stream. */
+	public ClientFuture readCRLFLineAsync(String _charset) {
+		if(_charset==null) _charset = getCharset();
+		return queueRead(READ_CRLF_LINE, 0, _charset);
+	}
+
+	/** Reads an {@link ObjectFrame} payload, completes with a byte[]. */
+	public ClientFuture readFrameAsync() {
+		return queueRead(READ_FRAME, 0, null);
+	}
+
+	/** Reads an object sent as an {@link ObjectFrame}. */
+	public ClientFuture readObjectAsync() {
+		return queueRead(READ_OBJECT, 0, null);
+	}
+
+	public int readByte() throws IOException {
+		checkNotSelectorThread();
+		return ((Integer) await(readByteAsync())).intValue();
+	}
+
+	public byte[] readBytes() throws IOException {
+		checkNotSelectorThread();
+		return (byte[]) await(readBytesAsync());
+	}
+
+	public byte[] readBytes(int countToRead) throws IOException {
+		checkNotSelectorThread();
+		return (byte[]) await(readBytesAsync(countToRead));
+	}
+
+	public String readBytes(String _charset) throws IOException {
+		byte data[] = readBytes();
+		if(data==null) return null;
+		if(_charset==null) _charset = getCharset();
+		return new String(data, _charset);
+	}
+
+	public String readBytes(String _charset, int countToRead) throws IOException {
+		byte data[] = readBytes(countToRead);
+		if(_charset==null) _charset = getCharset();
+		return new String(data, _charset);
+	}
+
+	public String readLine() throws IOException {
+		checkNotSelectorThread();
+		return (String) await(readLineAsync(null));
+	}
+
+	public String readCRLFLine() throws IOException {
+		checkNotSelectorThread();
+		return (String) await(readCRLFLineAsync(null));
+	}
+
+	public byte[] readFrame() throws IOException {
+		checkNotSelectorThread();
+		return (byte[]) await(readFrameAsync());
+	}
+
+	public int readInto(ByteBuffer buffer) throws IOException {
+		checkNotSelectorThread();
+		if(buffer.hasRemaining()==false) return 0;
+		byte data[] = (byte[]) await(queueRead(READ_UP_TO, buffer.remaining(), null));
+		if(data==null) return -1;
+		buffer.put(data);
+		return data.length;
+	}
+
+	public Object readObject() throws IOException, ClassNotFoundException {
+		checkNotSelectorThread();
+		byte data[] = (byte[]) await(readFrameAsync());
+		if(data==null) return null;
+		return ObjectFrame.decode(data, 0, data.length, getObjectCodec());
+	}
+
+	/**
+	 * Completes the reads that can be with the buffered data.
+	 * Can be called from any thread.
+	 */
+	private void processReaders() {
+		List done = null;
+		IOException protocolError = null;
+		boolean resume = false;
+		synchronized(readLock) {
+			while(readers.isEmpty()==false) {
+				Reader reader = (Reader) readers.getFirst();
+				//a timeout can not cancel it once its data is taken
+				if(reader.future.setUncancellable()==false) {
+					readers.removeFirst();
+					continue;
+				}
+				Object result = null;
+				try {
+					result = tryRead(reader);
+					if(result==NO_RESULT) {
+						if(eof==false) {
+							reader.future.setCancellable();
+							break;
+						}
+						if(readError!=null) throw readError;
+						result = eofResult(reader);
+					}
+				} catch(IOException e) {
+					result = e;
+					if(eof==false) protocolError = e;
+				}
+				readers.removeFirst();
+				if(done==null) done = new ArrayList(4);
+				done.add(reader);
+				done.add(result);
+				if(protocolError!=null) break;
+			}
+
+			int size = inboundSize();
+			if(protocolError==null && readers.isEmpty()==false && size>maxInboundSize) {
+				Reader reader = (Reader) readers.getFirst();
+				if(reader.type==READ_LINE || reader.type==READ_CRLF_LINE) {
+					protocolError = new IOException("Line is longer than "+maxInboundSize+" bytes");
+					readers.removeFirst();
+					if(done==null) done = new ArrayList(2);
+					done.add(reader);
+					done.add(protocolError);
+				}
+			}
+			boolean suspend = readers.isEmpty() && size>=maxInboundSize && eof==false;
+			if(suspend!=readSuspended) {
+				readSuspended = suspend;
+				resume = true;
+			}
+		}
+		if(resume) scheduleUpdateInterest();
+
+		if(done!=null) {
+			for(int i=0;i<done.size();i+=2) {
+				Reader reader = (Reader) done.get(i);
+				Object result = done.get(i+1);
+				if(result instanceof IOException) {
+					reader.future.fail((IOException) result);
+				} else if(reader.type==READ_OBJECT && result!=null) {
+					byte data[] = (byte[]) result;
+					try {
+						reader.future.complete(
+							ObjectFrame.decode(data, 0, data.length, getObjectCodec()));
+					} catch(Exception e) {
+						reader.future.fail(e);
+					}
+				} else {
+					reader.future.complete(result);
+				}
+			}
+		}
+		if(protocolError!=null) closed(protocolError, false);
+	}
+
+	/**
+	 * Returns the result of the read if enough data is buffered,
+	 * else NO_RESULT. Should be called with readLock held.
+	 */
+	private Object tryRead(Reader reader) throws IOException {
+		int size = inboundSize();
+		switch(reader.type) {
+			case READ_BYTE:
+				if(size<1) return NO_RESULT;
+				return new Integer(take(1)[0] & 0xFF);
+			case READ_BYTES:
+				if(size<1) return NO_RESULT;
+				return take(size);
+			case READ_COUNT:
+				if(size<reader.count) return NO_RESULT;
+				return take(reader.count);
+			case READ_UP_TO:
+				if(size<1) return NO_RESULT;
+				return take(Math.min(size, reader.count));
+			case READ_LINE:
+			case READ_CRLF_LINE: {
+				byte data[] = inbound==null?null:inbound.array();
+				int off = inbound==null?0:inbound.arrayOffset()+inboundStart;
+				for(int i=reader.scanned;i<size;i++) {
+					if(data[off+i]!='\n') continue;
+					if(reader.type==READ_CRLF_LINE && (i==0 || data[off+i-1]!='\r')) continue;
+					int length = i;
+					if(length>0 && data[off+length-1]=='\r') length--;
+					String line = new String(data, off, length, reader.charset);
+					take(i+1);
+					return line;
+				}
+				reader.scanned = size;
+				return NO_RESULT;
+			}
+			case READ_FRAME:
+			case READ_OBJECT: {
+				if(size<ObjectFrame.HEADER_LENGTH) return NO_RESULT;
+				int length = ObjectFrame.readLength(inbound.array(), 
+					inbound.arrayOffset()+inboundStart);
+				if(size<ObjectFrame.HEADER_LENGTH+length) return NO_RESULT;
+				take(ObjectFrame.HEADER_LENGTH);
+				return take(length);
+			}
+			default:
+				throw new IllegalStateException("Unknown read type: "+reader.type);
+		}
+	}
+
+	/**
+	 * Result of the read at end of stream, when the data buffered is
+	 * not enough. Should be called with readLock held.
+	 */
+	private Object eofResult(Reader reader) throws IOException {
+		int size = inboundSize();
+		switch(reader.type) {
+			case READ_BYTE:
+				return new Integer(-1);
+			case READ_COUNT:
+				throw new IOException("we have eof!");
+			case READ_LINE:
+				if(size==0) return null;
+				return new String(take(size), reader.charset);
+			case READ_FRAME:
+			case READ_OBJECT:
+				if(size==0) return null;
+				throw new EOFException("Stream ended inside an object frame");
+			default:
+				return null;
+		}
+	}
+
+	//-- inbound buffer, guarded by readLock
+
+	private int inboundSize() {
+		if(inbound==null) return 0;
+		return inbound.position() - inboundStart;
+	}
+
+	/**
+	 * Appends to the inbound buffer, the data read from the front of it is
+	 * dropped only when it needs room.
+	 */
+	private void appendInbound(ByteBuffer data) {
+		if(inbound!=null && inboundStart>0 && inbound.remaining()<data.remaining()) {
+			inbound.flip();
+			inbound.position(inboundStart);
+			inbound.compact();
+			inboundStart = 0;
+		}
+		inbound = append(inbound, data);
+	}
+
+	/**
+	 * Appends the data to the heap buffer (in fill mode),
+	 * growing or creating it as needed.
+	 */
+	private static ByteBuffer append(ByteBuffer buffer, ByteBuffer data) {
+		int length = data.remaining();
+		if(buffer==null) {
+			buffer = ByteBuffer.allocate(Math.max(length, 1024));
+		} else if(buffer.remaining()<length) {
+			int capacity = Math.max(buffer.capacity()*2, buffer.position()+length);
+			ByteBuffer bigger = ByteBuffer.allocate(capacity);
+			buffer.flip();
+			bigger.put(buffer);
+			buffer = bigger;
+		}
+		buffer.put(data);
+		return buffer;
+	}
+
+	/**
+	 * Takes the data from the front of the inbound buffer, it is not moved
+	 * till more data is appended.
+	 */
+	private byte[] take(int length) {
+		byte data[] = new byte[length];
+		System.arraycopy(inbound.array(), inbound.arrayOffset()+inboundStart, 
+			data, 0, length);
+		inboundStart += length;
+		if(inboundStart==inbound.position()) {
+			inbound = null;
+			inboundStart = 0;
+		}
+		return data;
+	}
+
+	//-- helpers
+
+	private Object await(ClientFuture future) throws IOException {
+		return future.await(timeout);
+	}
+
+	private void checkNotSelectorThread() {
+		ClientSelector.SelectorThread thread = selectorThread;
+		if(thread!=null && thread.inThread()) {
+			throw new IllegalStateException("Blocking call from a ClientSelector thread");
+		}
+	}
+
+	private static IOException toIOException(Exception e) {
+		if(e instanceof IOException) return (IOException) e;
+		IOException ioe = new IOException(e.toString());
+		ioe.initCause(e);
+		return ioe;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("NonBlockingClient[");
+		SocketChannel ch = channel;
+		if(ch!=null && ch.socket()!=null) {
+			sb.append(ch.socket().getRemoteSocketAddress());
+		}
+		if(closed) sb.append(", closed");
+		else if(connected==false) sb.append(", connecting");
+		if(engine!=null) sb.append(", secure");
+		sb.append(']');
+		return sb.toString();
+	}
+}
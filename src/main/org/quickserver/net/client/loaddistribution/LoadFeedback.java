@@ -0,0 +1,40 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.net.client.loaddistribution;
+
+import org.quickserver.net.client.Host;
+
+/**
+ * Implemented by a {@link LoadPattern} that picks hosts by how busy or
+ * slow they are. BlockingClientPool calls it when a client is borrowed
+ * and returned, MultiplexedClient for each request.
+ * <p>
+ * Calls come from many threads at once and should not block.
+ * </p>
+ * @since 2.1.0
+ * @author Akshathkumar Shetty
+ */
+public interface LoadFeedback {
+	/**
+	 * Called when a request to the host starts.
+	 */
+	public void requestStarted(Host host);
+
+	/**
+	 * Called when a request to the host ends.
+	 * @param timeTaken time the request took in nanoseconds
+	 * @param success false if the request failed or timed out
+	 */
+	public void requestEnded(Host host, long timeTaken, boolean success);
+}
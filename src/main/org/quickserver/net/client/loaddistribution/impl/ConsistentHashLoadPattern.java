@@ -0,0 +1,475 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.net.client.loaddistribution.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.quickserver.net.client.ClientInfo;
+import org.quickserver.net.client.Host;
+import org.quickserver.net.client.HostList;
+import org.quickserver.net.client.SocketBasedHost;
+import org.quickserver.net.client.loaddistribution.LoadPattern;
+
+/**
+ * Maps the client key to an active host on a consistent hash ring, so
+ * when a host goes down only its keys move to other hosts and when it
+ * comes back only those keys move back, unlike {@link HashedLoadPattern}
+ * where nearly every key moves.
+ * <p>
+ * Each host is put on the ring at virtualNodes points per unit of its
+ * weight, which is {@link Host#getWeight()} unless set here; a change of
+ * the weight of a Host is picked up on the next lookup, see
+ * {@link Host#getWeightVersion()}.
+ * The ring is rebuilt when the active list of the HostList changes, by
+ * merging the points of the hosts added into the ring and
+ * dropping the points of the hosts removed; the points of a host are
+ * hashed once and kept. Looking up a key is a binary search over an
+ * int array and does not allocate.
+ * </p>
+ * <p>
+ * On each change in membership the share of the key space that moved to
+ * another host is computed and kept, see {@link #getLastRemapRatio()}.
+ * </p>
+ * @since 2.1.0
+ * @author Akshathkumar Shetty
+ */
+public class ConsistentHashLoadPattern implements LoadPattern {
+	private static final Logger logger = Logger.getLogger(ConsistentHashLoadPattern.class.getName());
+
+	private static final double KEY_SPACE = 4294967296.0;
+
+	private HostList hostList;
+	private int virtualNodes = 160;
+
+	private final Map<Host, Integer> weights = new ConcurrentHashMap<Host, Integer>();
+	private final Map<Host, int[]> pointCache = new ConcurrentHashMap<Host, int[]>();
+	private final AtomicInteger weightVersion = new AtomicInteger();
+
+	private volatile Ring ring;
+	private final Object rebuildLock = new Object();
+
+	private volatile int rebuildCount;
+	private volatile int membershipChangeCount;
+	private volatile double lastRemapRatio;
+	private volatile long lastChangeTime;
+	private volatile String lastChange;
+
+	/**
+	 * A snapshot of the ring, never changed once built.
+	 */
+	private static class Ring {
+		final List activeList;
+		final int version;
+		final int hostWeightVersion;
+		final int points[];
+		final Host owners[];
+
+		Ring(List activeList, int version, int hostWeightVersion,
+				int points[], Host owners[]) {
+			this.activeList = activeList;
+			this.version = version;
+			this.hostWeightVersion = hostWeightVersion;
+			this.points = points;
+			this.owners = owners;
+		}
+
+		boolean isFor(List activeList, int version, int hostWeightVersion) {
+			return this.activeList==activeList && this.version==version &&
+				this.hostWeightVersion==hostWeightVersion;
+		}
+
+		Host lookup(int hash) {
+			int index = Arrays.binarySearch(points, hash);
+			if(index<0) {
+				index = -index - 1;
+				if(index==points.length) index = 0;
+			}
+			return owners[index];
+		}
+	}
+
+	public HostList getHostList() {
+		return hostList;
+	}
+	public void setHostList(HostList hostList) {
+		this.hostList = hostList;
+		this.ring = null;
+	}
+
+	/**
+	 * Sets the number of points a host of weight 1 gets on the ring,
+	 * default is 160. More points spread keys more evenly.
+	 */
+	public void setVirtualNodes(int virtualNodes) {
+		if(virtualNodes<=0) throw new IllegalArgumentException("virtualNodes should be > 0");
+		synchronized(rebuildLock) {
+			this.virtualNodes = virtualNodes;
+			pointCache.clear();
+			weightVersion.incrementAndGet();
+		}
+	}
+	public int getVirtualNodes() {
+		return virtualNodes;
+	}
+
+	/**
+	 * Sets the weight of the host on this ring, in place of the weight of
+	 * the Host. A host of weight 2 gets twice the keys of a host of
+	 * weight 1, 0 takes the host off the ring.
+	 */
+	public void setWeight(Host host, int weight) {
+		if(weight<0) throw new IllegalArgumentException("weight should be >= 0");
+		synchronized(rebuildLock) {
+			weights.put(host, Integer.valueOf(weight));
+			pointCache.remove(host);
+			weightVersion.incrementAndGet();
+		}
+	}
+
+	public int getWeight(Host host) {
+		Integer weight = weights.get(host);
+		if(weight==null) return Math.max(0, host.getWeight());
+		return weight.intValue();
+	}
+
+	public Host getHost(ClientInfo clientInfo) {
+		List activeList = getHostList().getActiveList();
+
+		if(activeList==null || activeList.isEmpty()) {
+			logger.warning("No active list available to service requests");
+			return null;
+		}
+
+		if(clientInfo==null) {
+			throw new NullPointerException("clientInfo was null!");
+		}
+		if(clientInfo.getHostName()!=null) {
+			Host host = hostList.getHostByName(clientInfo.getHostName());
+			if(host==null) {
+				logger.log(Level.WARNING, "Host will name [{0}] not in hostlist!{1}",
+					new Object[]{clientInfo.getHostName(), hostList});
+			} else if(host.getStatus()==Host.ACTIVE) {
+				return host;
+			}
+		} else if(clientInfo.getClientKey()==null) {
+			throw new NullPointerException("ClientKey was null!");
+		}
+
+		int hash = 0;
+		if(clientInfo.getClientKey()!=null) {
+			hash = clientInfo.getClientKey().hashCode();
+		} else {
+			hash = clientInfo.getHostName().hashCode();
+		}
+
+		Ring current = ring;
+		if(current==null || current.isFor(activeList, weightVersion.get(),
+				Host.getWeightVersion())==false) {
+			current = rebuild(activeList);
+		}
+		if(current.points.length==0) {
+			logger.warning("No host with weight > 0 in active list");
+			return null;
+		}
+		return current.lookup(mix(hash));
+	}
+
+	/**
+	 * Spreads the bits of the key hash (murmur3 finaliser).
+	 */
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		hash ^= hash >>> 16;
+		return hash;
+	}
+
+	/**
+	 * Returns the sorted points of the host on the ring.
+	 */
+	private int[] getPoints(Host host) {
+		int points[] = pointCache.get(host);
+		if(points!=null) return points;
+
+		String id = getHostId(host);
+		int count = getWeight(host)*virtualNodes;
+		points = new int[count];
+		for(int i=0;i<count;i++) {
+			points[i] = hash(id, i);
+		}
+		Arrays.sort(points);
+		pointCache.put(host, points);
+		return points;
+	}
+
+	private static String getHostId(Host host) {
+		StringBuilder sb = new StringBuilder();
+		if(host.getName()!=null) sb.append(host.getName());
+		sb.append('/').append(host.getInetAddress());
+		if(host instanceof SocketBasedHost) {
+			SocketBasedHost sbh = (SocketBasedHost) host;
+			if(sbh.getInetSocketAddress()!=null) {
+				sb.append(':').append(sbh.getInetSocketAddress().getPort());
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * FNV-1a of the host id and the point number, then mixed.
+	 */
+	private static int hash(String id, int point) {
+		int hash = 0x811c9dc5;
+		for(int i=0;i<id.length();i++) {
+			hash ^= id.charAt(i);
+			hash *= 0x01000193;
+		}
+		hash ^= '#';
+		hash *= 0x01000193;
+		for(int i=0;i<4;i++) {
+			hash ^= (point >>> (i*8)) & 0xFF;
+			hash *= 0x01000193;
+		}
+		return mix(hash);
+	}
+
+	private Ring rebuild(List activeList) {
+		synchronized(rebuildLock) {
+			Ring old = ring;
+			int version = weightVersion.get();
+			//read before the weights are, a change after it makes another rebuild
+			int hostWeightVersion = Host.getWeightVersion();
+			if(old!=null && old.isFor(activeList, version, hostWeightVersion)) {
+				return old;
+			}
+
+			Map<Host, Boolean> active = new IdentityHashMap<Host, Boolean>();
+			for(int i=0;i<activeList.size();i++) {
+				active.put((Host) activeList.get(i), Boolean.TRUE);
+			}
+
+			//weights of hosts may have been changed on the Host
+			boolean weightChanged = old!=null && old.version!=version;
+			for(int i=0;i<activeList.size();i++) {
+				Host host = (Host) activeList.get(i);
+				int points[] = pointCache.get(host);
+				if(points!=null && points.length!=getWeight(host)*virtualNodes) {
+					pointCache.remove(host);
+					weightChanged = true;
+				}
+			}
+
+			Ring newRing = null;
+			List<Host> added = new ArrayList<Host>();
+			List<Host> removed = new ArrayList<Host>();
+			if(old==null || weightChanged) {
+				newRing = build(activeList, version, hostWeightVersion);
+				if(old!=null) diff(old, active, added, removed);
+			} else {
+				diff(old, active, added, removed);
+				if(added.isEmpty() && removed.isEmpty()) {
+					newRing = new Ring(activeList, version, hostWeightVersion,
+						old.points, old.owners);
+				} else {
+					newRing = merge(old, activeList, version, hostWeightVersion,
+						added, removed);
+				}
+			}
+			rebuildCount++;
+
+			if(old!=null && (added.isEmpty()==false || removed.isEmpty()==false ||
+					weightChanged)) {
+				double ratio = getRemapRatio(old, newRing);
+				membershipChangeCount++;
+				lastRemapRatio = ratio;
+				lastChangeTime = System.currentTimeMillis();
+				if(added.isEmpty() && removed.isEmpty()) {
+					lastChange = "weights changed";
+				} else {
+					lastChange = "added "+added+"; removed "+removed;
+				}
+				logger.log(Level.INFO, "Ring changed, {0}% of keys moved; added: {1}; removed: {2}",
+					new Object[]{Double.valueOf(Math.round(ratio*10000)/100.0), added, removed});
+			}
+			ring = newRing;
+			return newRing;
+		}
+	}
+
+	private void diff(Ring old, Map<Host, Boolean> active, List<Host> added,
+			List<Host> removed) {
+		Map<Host, Boolean> before = new IdentityHashMap<Host, Boolean>();
+		for(int i=0;i<old.activeList.size();i++) {
+			before.put((Host) old.activeList.get(i), Boolean.TRUE);
+		}
+		for(Host host : active.keySet()) {
+			if(before.containsKey(host)==false) added.add(host);
+		}
+		for(Host host : before.keySet()) {
+			if(active.containsKey(host)==false) removed.add(host);
+		}
+	}
+
+	private Ring build(List activeList, int version, int hostWeightVersion) {
+		int total = 0;
+		for(int i=0;i<activeList.size();i++) {
+			total += getPoints((Host) activeList.get(i)).length;
+		}
+		long entries[] = new long[total];
+		int pos = 0;
+		for(int i=0;i<activeList.size();i++) {
+			int points[] = getPoints((Host) activeList.get(i));
+			for(int j=0;j<points.length;j++) {
+				entries[pos++] = ((long) points[j] << 32) | i;
+			}
+		}
+		Arrays.sort(entries);
+
+		int points[] = new int[total];
+		Host owners[] = new Host[total];
+		int count = 0;
+		for(int i=0;i<total;i++) {
+			int point = (int) (entries[i] >> 32);
+			if(count>0 && points[count-1]==point) continue;//collision, first host keeps it
+			points[count] = point;
+			owners[count] = (Host) activeList.get((int) entries[i]);
+			count++;
+		}
+		return new Ring(activeList, version, hostWeightVersion,
+			trim(points, count), trim(owners, count));
+	}
+
+	/**
+	 * Drops the points of the hosts removed and merges in those of the
+	 * hosts added, without hashing or sorting the rest of the ring.
+	 */
+	private Ring merge(Ring old, List activeList, int version,
+			int hostWeightVersion, List<Host> added, List<Host> removed) {
+		Map<Host, Boolean> gone = new IdentityHashMap<Host, Boolean>();
+		for(int i=0;i<removed.size();i++) gone.put(removed.get(i), Boolean.TRUE);
+
+		Ring addRing = build(added, version, hostWeightVersion);
+
+		int size = old.points.length + addRing.points.length;
+		int points[] = new int[size];
+		Host owners[] = new Host[size];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while(i<old.points.length || j<addRing.points.length) {
+			if(i<old.points.length && gone.containsKey(old.owners[i])) {
+				i++;
+				continue;
+			}
+			boolean takeOld = j>=addRing.points.length ||
+				(i<old.points.length && old.points[i]<=addRing.points[j]);
+			int point = takeOld?old.points[i]:addRing.points[j];
+			Host owner = takeOld?old.owners[i]:addRing.owners[j];
+			if(takeOld) i++;
+			else j++;
+			if(count>0 && points[count-1]==point) continue;
+			points[count] = point;
+			owners[count] = owner;
+			count++;
+		}
+		return new Ring(activeList, version, hostWeightVersion,
+			trim(points, count), trim(owners, count));
+	}
+
+	private static int[] trim(int array[], int count) {
+		if(array.length==count) return array;
+		int copy[] = new int[count];
+		System.arraycopy(array, 0, copy, 0, count);
+		return copy;
+	}
+
+	private static Host[] trim(Host array[], int count) {
+		if(array.length==count) return array;
+		Host copy[] = new Host[count];
+		System.arraycopy(array, 0, copy, 0, count);
+		return copy;
+	}
+
+	/**
+	 * Returns the share of the key space owned by a different host in
+	 * the two rings.
+	 */
+	private static double getRemapRatio(Ring before, Ring after) {
+		if(before.points.length==0 || after.points.length==0) return 1.0;
+
+		int bounds[] = new int[before.points.length + after.points.length];
+		System.arraycopy(before.points, 0, bounds, 0, before.points.length);
+		System.arraycopy(after.points, 0, bounds, before.points.length, after.points.length);
+		Arrays.sort(bounds);
+
+		double moved = 0;
+		long previous = bounds[bounds.length-1] - (long) KEY_SPACE;//wraps around
+		for(int i=0;i<bounds.length;i++) {
+			long length = bounds[i] - previous;
+			previous = bounds[i];
+			if(length==0) continue;
+			//keys in (previous, bound] go to the owner of the bound
+			if(before.lookup(bounds[i])!=after.lookup(bounds[i])) moved += length;
+		}
+		return moved/KEY_SPACE;
+	}
+
+	/**
+	 * Returns the share of keys that moved to another host on the last
+	 * change in membership or weights, between 0 and 1.
+	 */
+	public double getLastRemapRatio() {
+		return lastRemapRatio;
+	}
+
+	/**
+	 * Returns the number of changes in membership or weights seen.
+	 */
+	public int getMembershipChangeCount() {
+		return membershipChangeCount;
+	}
+
+	/**
+	 * Returns the time in milliseconds of the last change, 0 if none.
+	 */
+	public long getLastChangeTime() {
+		return lastChangeTime;
+	}
+
+	public String getStats() {
+		Ring current = ring;
+		StringBuilder sb = new StringBuilder();
+		sb.append("ConsistentHashLoadPattern{");
+		sb.append("points: ").append(current==null?0:current.points.length);
+		sb.append(", rebuilds: ").append(rebuildCount);
+		sb.append(", changes: ").append(membershipChangeCount);
+		sb.append(", lastRemapRatio: ").append(lastRemapRatio);
+		if(lastChange!=null) sb.append(", lastChange: ").append(lastChange);
+		sb.append("}");
+		return sb.toString();
+	}
+
+	public String toString() {
+		return getStats();
+	}
+}
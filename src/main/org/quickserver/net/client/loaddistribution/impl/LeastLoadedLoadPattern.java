@@ -0,0 +1,236 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.net.client.loaddistribution.impl;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.quickserver.net.client.ClientInfo;
+import org.quickserver.net.client.Host;
+import org.quickserver.net.client.HostList;
+import org.quickserver.net.client.loaddistribution.LoadFeedback;
+import org.quickserver.net.client.loaddistribution.LoadPattern;
+
+/**
+ * Picks the less loaded of two active hosts chosen at random (power of two
+ * choices). The load of a host is its requests outstanding times an
+ * exponentially weighted moving average of its response time, so a slow
+ * host gets less traffic even with few requests outstanding.
+ * <p>
+ * The average jumps up to a response slower than it right away and moves
+ * down over {@link #getDecayTimeMiliSec()}. It also decays while a host
+ * gets no responses, so a host that was slow is tried again after a while.
+ * A failed request counts as taking at least
+ * {@link #getFailurePenaltyMiliSec()}.
+ * </p>
+ * <p>
+ * The load is learned through {@link LoadFeedback}, which BlockingClientPool
+ * and MultiplexedClient call; no locks are taken.
+ * </p>
+ * @since 2.1.0
+ * @author Akshathkumar Shetty
+ */
+public class LeastLoadedLoadPattern implements LoadPattern, LoadFeedback {
+	private static final Logger logger = Logger.getLogger(LeastLoadedLoadPattern.class.getName());
+
+	private HostList hostList;
+	private final Map<Host, HostLoad> loads = new ConcurrentHashMap<Host, HostLoad>();
+	private final AtomicLong seed = new AtomicLong(System.nanoTime());
+
+	private volatile double decayTimeNanos = 10*1000000000.0;
+	private volatile long failurePenaltyNanos = 1000*1000000L;
+
+	/**
+	 * Load of one host.
+	 */
+	static class HostLoad {
+		final AtomicInteger outstanding = new AtomicInteger();
+		/** the average in nanoseconds, as double bits */
+		final AtomicLong average = new AtomicLong(Double.doubleToLongBits(0));
+		volatile long lastUpdate = System.nanoTime();
+
+		void update(long timeTaken, double decayTimeNanos) {
+			long now = System.nanoTime();
+			long oldBits = 0;
+			double old = 0;
+			double value = 0;
+			do {
+				oldBits = average.get();
+				old = Double.longBitsToDouble(oldBits);
+				if(timeTaken > old) {
+					value = timeTaken;
+				} else {
+					double weight = Math.exp(-(now - lastUpdate)/decayTimeNanos);
+					value = old*weight + timeTaken*(1-weight);
+				}
+			} while(average.compareAndSet(oldBits, Double.doubleToLongBits(value))==false);
+			lastUpdate = now;
+		}
+
+		double getAverage(long now, double decayTimeNanos) {
+			double value = Double.longBitsToDouble(average.get());
+			long idle = now - lastUpdate;
+			if(idle > 0) value = value*Math.exp(-idle/decayTimeNanos);
+			return value;
+		}
+
+		double getScore(long now, double decayTimeNanos) {
+			//+1 so that idle and unmeasured hosts are still compared
+			return (getAverage(now, decayTimeNanos)+1) * (outstanding.get()+1);
+		}
+	}
+
+	public HostList getHostList() {
+		return hostList;
+	}
+	public void setHostList(HostList hostList) {
+		this.hostList = hostList;
+	}
+
+	/**
+	 * Sets the time over which the response time average moves down to
+	 * faster responses. Default is 10 seconds.
+	 */
+	public void setDecayTimeMiliSec(long decayTimeMiliSec) {
+		if(decayTimeMiliSec<=0) throw new IllegalArgumentException("decayTime should be > 0");
+		this.decayTimeNanos = decayTimeMiliSec*1000000.0;
+	}
+	public long getDecayTimeMiliSec() {
+		return (long) (decayTimeNanos/1000000);
+	}
+
+	/**
+	 * Sets the minimum time a failed request counts as taking.
+	 * Default is 1 second.
+	 */
+	public void setFailurePenaltyMiliSec(long failurePenaltyMiliSec) {
+		this.failurePenaltyNanos = failurePenaltyMiliSec*1000000L;
+	}
+	public long getFailurePenaltyMiliSec() {
+		return failurePenaltyNanos/1000000;
+	}
+
+	private HostLoad getLoad(Host host) {
+		HostLoad load = loads.get(host);
+		if(load==null) {
+			synchronized(loads) {
+				load = loads.get(host);
+				if(load==null) {
+					load = new HostLoad();
+					loads.put(host, load);
+				}
+			}
+		}
+		return load;
+	}
+
+	public void requestStarted(Host host) {
+		if(host==null) return;
+		getLoad(host).outstanding.incrementAndGet();
+	}
+
+	public void requestEnded(Host host, long timeTaken, boolean success) {
+		if(host==null) return;
+		HostLoad load = getLoad(host);
+		load.outstanding.decrementAndGet();
+		if(success==false && timeTaken < failurePenaltyNanos) {
+			timeTaken = failurePenaltyNanos;
+		}
+		load.update(timeTaken, decayTimeNanos);
+	}
+
+	/**
+	 * Returns the requests outstanding to the host.
+	 */
+	public int getOutstanding(Host host) {
+		HostLoad load = loads.get(host);
+		return load==null?0:load.outstanding.get();
+	}
+
+	/**
+	 * Returns the response time average of the host in milliseconds.
+	 */
+	public double getAverageResponseTime(Host host) {
+		HostLoad load = loads.get(host);
+		return load==null?0:load.getAverage(System.nanoTime(), decayTimeNanos)/1000000;
+	}
+
+	private int nextRandom(int bound) {
+		long x = seed.addAndGet(0x9E3779B97F4A7C15L);
+		x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+		x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+		x = x ^ (x >>> 31);
+		return (int) ((x >>> 1) % bound);
+	}
+
+	public Host getHost(ClientInfo clientInfo) {
+		List activeList = getHostList().getActiveList();
+
+		if(activeList==null || activeList.isEmpty()) {
+			logger.log(Level.WARNING, "No active list available to service requests {0}", activeList);
+			return null;
+		}
+
+		if(clientInfo!=null) {
+			if(clientInfo.getHostName()!=null) {
+				Host host = hostList.getHostByName(clientInfo.getHostName());
+				if(host==null) {
+					logger.log(Level.WARNING, "Host will name [{0}] not in hostlist!{1}",
+						new Object[]{clientInfo.getHostName(), hostList});
+				} else {
+					if(host.getStatus()==Host.ACTIVE) {
+						return host;
+					}
+				}
+			}
+		}
+
+		int size = activeList.size();
+		if(size==1) return (Host) activeList.get(0);
+
+		int first = nextRandom(size);
+		int second = nextRandom(size-1);
+		if(second>=first) second++;
+
+		Host firstHost = (Host) activeList.get(first);
+		Host secondHost = (Host) activeList.get(second);
+
+		long now = System.nanoTime();
+		double decay = decayTimeNanos;
+		if(getLoad(secondHost).getScore(now, decay) < getLoad(firstHost).getScore(now, decay)) {
+			return secondHost;
+		}
+		return firstHost;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("LeastLoadedLoadPattern{");
+		long now = System.nanoTime();
+		Iterator<Map.Entry<Host, HostLoad>> iterator = loads.entrySet().iterator();
+		while(iterator.hasNext()) {
+			Map.Entry<Host, HostLoad> entry = iterator.next();
+			sb.append(entry.getKey().getName()).append(": outstanding=");
+			sb.append(entry.getValue().outstanding.get()).append(", avg=");
+			sb.append((long) (entry.getValue().getAverage(now, decayTimeNanos)/1000)).append("us; ");
+		}
+		sb.append("}");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.net.client.loaddistribution.impl;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.quickserver.net.client.ClientInfo;
+import org.quickserver.net.client.Host;
+import org.quickserver.net.client.HostList;
+import org.quickserver.net.client.loaddistribution.LoadPattern;
+import org.quickserver.util.CachedClock;
+
+/**
+ * Round robin over the active hosts in proportion to {@link Host#getWeight()},
+ * spreading the turns of a heavy host between those of the others
+ * (smooth weighted round robin) instead of sending them in a burst.
+ * <p>
+ * With slow start set, a host that became ACTIVE gets a share that grows
+ * from almost nothing to its full weight over the slow start time, so a
+ * backend that just came back, with cold caches, is not flooded. The time
+ * is counted from {@link Host#getLastActiveTimeMillis()}, set when the
+ * HostMonitoringService marks the host ACTIVE.
+ * </p>
+ * <p>
+ * Weights are read on each pick, so they may be changed at runtime.
+ * </p>
+ * @since 2.1.0
+ * @author Akshathkumar Shetty
+ */
+public class WeightedRoundRobinLoadPattern implements LoadPattern {
+	private static final Logger logger = Logger.getLogger(WeightedRoundRobinLoadPattern.class.getName());
+
+	/** steps a weight is split into, so slow start works for weight 1 */
+	private static final int SCALE = 100;
+
+	private HostList hostList;
+	private volatile long slowStartTimeMiliSec = 30000;
+
+	private final Map<Host, long[]> current = new IdentityHashMap<Host, long[]>();
+	private final Object lock = new Object();
+
+	public HostList getHostList() {
+		return hostList;
+	}
+	public void setHostList(HostList hostList) {
+		this.hostList = hostList;
+	}
+
+	/**
+	 * Sets the time over which a host that became ACTIVE ramps up to its
+	 * full weight, 0 to send it its full share right away.
+	 * Default is 30 seconds.
+	 */
+	public void setSlowStartTimeMiliSec(long slowStartTimeMiliSec) {
+		this.slowStartTimeMiliSec = slowStartTimeMiliSec;
+	}
+	public long getSlowStartTimeMiliSec() {
+		return slowStartTimeMiliSec;
+	}
+
+	/**
+	 * Returns the weight the host gets now, times 100, less than its full
+	 * weight while it is in slow start.
+	 */
+	public long getEffectiveWeight(Host host, long now) {
+		long weight = (long) host.getWeight() * SCALE;
+		if(weight<=0) return 0;
+
+		long slowStart = slowStartTimeMiliSec;
+		long activeSince = host.getLastActiveTimeMillis();
+		if(slowStart>0 && activeSince>0) {
+			long elapsed = now - activeSince;
+			if(elapsed < slowStart) {
+				weight = Math.max(1, weight * Math.max(0, elapsed) / slowStart);
+			}
+		}
+		return weight;
+	}
+
+	public Host getHost(ClientInfo clientInfo) {
+		List activeList = getHostList().getActiveList();
+
+		if(activeList==null || activeList.isEmpty()) {
+			logger.log(Level.WARNING, "No active list available to service requests {0}", activeList);
+			return null;
+		}
+
+		if(clientInfo!=null) {
+			if(clientInfo.getHostName()!=null) {
+				Host host = hostList.getHostByName(clientInfo.getHostName());
+				if(host==null) {
+					logger.log(Level.WARNING, "Host will name [{0}] not in hostlist!{1}",
+						new Object[]{clientInfo.getHostName(), hostList});
+				} else {
+					if(host.getStatus()==Host.ACTIVE) {
+						return host;
+					}
+				}
+			}
+		}
+
+		long now = CachedClock.currentTimeMillis();
+		Host best = null;
+		long bestCurrent[] = null;
+		long total = 0;
+		synchronized(lock) {
+			int size = activeList.size();
+			for(int i=0;i<size;i++) {
+				Host host = (Host) activeList.get(i);
+				long weight = getEffectiveWeight(host, now);
+				if(weight==0) continue;
+
+				long hostCurrent[] = current.get(host);
+				if(hostCurrent==null) {
+					hostCurrent = new long[1];
+					current.put(host, hostCurrent);
+				}
+				hostCurrent[0] += weight;
+				total += weight;
+				if(best==null || hostCurrent[0] > bestCurrent[0]) {
+					best = host;
+					bestCurrent = hostCurrent;
+				}
+			}
+			if(best!=null) bestCurrent[0] -= total;
+			if(current.size() > size*2) current.keySet().retainAll(activeList);
+		}
+
+		if(best==null) {
+			logger.warning("No active host with weight > 0");
+		}
+		return best;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("WeightedRoundRobinLoadPattern{");
+		if(hostList!=null) {
+			long now = CachedClock.currentTimeMillis();
+			List activeList = hostList.getActiveList();
+			int size = activeList==null?0:activeList.size();
+			for(int i=0;i<size;i++) {
+				Host host = (Host) activeList.get(i);
+				sb.append(host.getName()).append(": weight=").append(host.getWeight());
+				sb.append(", effective=").append(getEffectiveWeight(host, now)/(double) SCALE).append("; ");
+			}
+		}
+		sb.append("}");
+		return sb.toString();
+	}
+}
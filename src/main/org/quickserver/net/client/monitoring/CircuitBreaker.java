@@ -0,0 +1,358 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.net.client.monitoring;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.quickserver.net.client.Host;
+import org.quickserver.net.client.loaddistribution.LoadFeedback;
+import org.quickserver.util.CachedClock;
+
+/**
+ * Passive health tracking of hosts from the outcome of real requests,
+ * with a circuit breaker per host.
+ * <p>
+ * A host is CLOSED (in use) till it fails {@link #getConsecutiveFailures()}
+ * requests in a row, or {@link #getErrorRatePercent()} of at least
+ * {@link #getMinRequests()} requests in a window of
+ * {@link #getWindowMiliSec()}. It is then OPEN: the HostMonitoringService
+ * is told to eject it, which takes it out of the active list and tells the
+ * pool right away, and it is not checked for {@link #getOpenMiliSec()}.
+ * Once a check finds it ACTIVE again it is HALF_OPEN; after
+ * {@link #getHalfOpenSuccesses()} requests in a row succeed it is CLOSED,
+ * a failure opens it again for twice as long, up to
+ * {@link #getMaxOpenMiliSec()}. If the host could not be ejected, or no
+ * HostMonitoringService is set, no check will bring it back, so it is
+ * HALF_OPEN once the time it is open for is over.
+ * </p>
+ * <p>
+ * Results are recorded through {@link LoadFeedback}; BlockingClientPool and
+ * MultiplexedClient call it when it is set on the pool. Recording takes no
+ * lock unless the state of the host changes.
+ * </p>
+ * @since 2.1.0
+ * @author Akshathkumar Shetty
+ */
+public class CircuitBreaker implements LoadFeedback, HostStateListener {
+	private static final Logger logger = Logger.getLogger(CircuitBreaker.class.getName());
+
+	public static final char CLOSED = 'C';
+	public static final char OPEN = 'O';
+	public static final char HALF_OPEN = 'H';
+
+	private HostMonitoringService hostMonitoringService;
+	private final Map<Host, Health> healths = new ConcurrentHashMap<Host, Health>();
+
+	private volatile int consecutiveFailures = 5;
+	private volatile int errorRatePercent = 50;
+	private volatile int minRequests = 20;
+	private volatile long windowMiliSec = 10000;
+	private volatile long openMiliSec = 5000;
+	private volatile long maxOpenMiliSec = 60000;
+	private volatile int halfOpenSuccesses = 3;
+
+	/**
+	 * Health of one host.
+	 */
+	static class Health {
+		volatile char state = CLOSED;
+		final AtomicInteger failuresInRow = new AtomicInteger();
+		final AtomicInteger successesInRow = new AtomicInteger();
+		volatile long windowStart = CachedClock.currentTimeMillis();
+		final AtomicInteger requests = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		volatile long openFor;
+		volatile long openUntil;
+		volatile boolean ejected;
+		final AtomicLong tripCount = new AtomicLong();
+	}
+
+	public CircuitBreaker() {
+	}
+
+	public CircuitBreaker(HostMonitoringService hostMonitoringService) {
+		setHostMonitoringService(hostMonitoringService);
+	}
+
+	public HostMonitoringService getHostMonitoringService() {
+		return hostMonitoringService;
+	}
+
+	/**
+	 * Sets the service that ejects hosts and checks them back in; this
+	 * breaker is added as a listener of it.
+	 */
+	public void setHostMonitoringService(HostMonitoringService hostMonitoringService) {
+		if(this.hostMonitoringService==hostMonitoringService) return;
+		if(this.hostMonitoringService!=null) {
+			this.hostMonitoringService.removeHostStateListner(this);
+		}
+		this.hostMonitoringService = hostMonitoringService;
+		if(hostMonitoringService!=null) {
+			hostMonitoringService.addHostStateListner(this);
+		}
+	}
+
+	private Health getHealth(Host host) {
+		Health health = healths.get(host);
+		if(health==null) {
+			synchronized(healths) {
+				health = healths.get(host);
+				if(health==null) {
+					health = new Health();
+					healths.put(host, health);
+				}
+			}
+		}
+		return health;
+	}
+
+	/**
+	 * Returns the state of the host: CLOSED, OPEN or HALF_OPEN.
+	 */
+	public char getState(Host host) {
+		Health health = healths.get(host);
+		return health==null?CLOSED:getState(host, health);
+	}
+
+	/**
+	 * Returns the state, moving an OPEN host that was not ejected to
+	 * HALF_OPEN once its open time is over.
+	 */
+	private char getState(Host host, Health health) {
+		char state = health.state;
+		if(state!=OPEN || health.ejected) return state;
+		if(CachedClock.currentTimeMillis() < health.openUntil) return state;
+		synchronized(health) {
+			if(health.state!=OPEN || health.ejected) return health.state;
+			health.state = HALF_OPEN;
+			health.successesInRow.set(0);
+		}
+		logger.log(Level.INFO, "Circuit half open for {0} after {1} ms", 
+			new Object[]{host, health.openFor});
+		return HALF_OPEN;
+	}
+
+	/**
+	 * Returns the number of times the host was ejected.
+	 */
+	public long getTripCount(Host host) {
+		Health health = healths.get(host);
+		return health==null?0:health.tripCount.get();
+	}
+
+	public void requestStarted(Host host) {
+		//only the outcome is of use
+	}
+
+	public void requestEnded(Host host, long timeTaken, boolean success) {
+		if(host==null) return;
+		Health health = getHealth(host);
+		char state = getState(host, health);
+		if(state==OPEN) return;//late results of requests sent before
+
+		if(success) {
+			if(health.failuresInRow.get()!=0) health.failuresInRow.set(0);
+			if(state==HALF_OPEN) {
+				if(health.successesInRow.incrementAndGet()>=getHalfOpenSuccesses()) {
+					close(host, health);
+				}
+				return;
+			}
+		} else {
+			health.successesInRow.set(0);
+			if(state==HALF_OPEN) {
+				trip(host, health, "failed while half open");
+				return;
+			}
+		}
+
+		long now = CachedClock.currentTimeMillis();
+		if(now - health.windowStart > getWindowMiliSec()) {
+			synchronized(health) {
+				if(now - health.windowStart > getWindowMiliSec()) {
+					health.requests.set(0);
+					health.failures.set(0);
+					health.windowStart = now;
+				}
+			}
+		}
+		int requests = health.requests.incrementAndGet();
+		if(success) return;
+
+		int failures = health.failures.incrementAndGet();
+		int inRow = health.failuresInRow.incrementAndGet();
+		if(inRow>=getConsecutiveFailures()) {
+			trip(host, health, inRow+" failures in a row");
+		} else if(requests>=getMinRequests() && failures*100>=requests*getErrorRatePercent()) {
+			trip(host, health, failures+" of "+requests+" requests failed");
+		}
+	}
+
+	private void trip(Host host, Health health, String reason) {
+		long openFor = 0;
+		synchronized(health) {
+			if(health.state==OPEN) return;
+			if(health.state==HALF_OPEN && health.openFor>0) {
+				openFor = Math.min(health.openFor*2, getMaxOpenMiliSec());
+			} else {
+				openFor = getOpenMiliSec();
+			}
+			health.openFor = openFor;
+			health.openUntil = CachedClock.currentTimeMillis() + openFor;
+			health.ejected = true;
+			health.state = OPEN;
+			health.tripCount.incrementAndGet();
+			health.failuresInRow.set(0);
+			health.successesInRow.set(0);
+		}
+		logger.log(Level.WARNING, "Circuit open for {0}: {1}", new Object[]{host, reason});
+
+		HostMonitoringService hms = getHostMonitoringService();
+		if(hms==null || hms.ejectHost(host, openFor)==false) {
+			//no check will bring it back, half open it after openFor
+			health.ejected = false;
+			logger.log(Level.FINE, "Could not eject {0}", host);
+		}
+	}
+
+	private void close(Host host, Health health) {
+		synchronized(health) {
+			if(health.state!=HALF_OPEN) return;
+			health.state = CLOSED;
+			health.openFor = 0;
+			health.requests.set(0);
+			health.failures.set(0);
+			health.windowStart = CachedClock.currentTimeMillis();
+		}
+		logger.log(Level.INFO, "Circuit closed for {0}", host);
+	}
+
+	/**
+	 * Moves an OPEN host to HALF_OPEN when a check finds it ACTIVE again.
+	 */
+	public void stateChanged(Host host, char oldStatus, char newStatus) {
+		if(newStatus!=Host.ACTIVE) return;
+		Health health = healths.get(host);
+		if(health==null) return;
+		synchronized(health) {
+			if(health.state!=OPEN) return;
+			health.state = HALF_OPEN;
+			health.successesInRow.set(0);
+		}
+		logger.log(Level.INFO, "Circuit half open for {0}", host);
+	}
+
+	public int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	/**
+	 * Sets the failures in a row that open the circuit. Default is 5.
+	 */
+	public void setConsecutiveFailures(int consecutiveFailures) {
+		this.consecutiveFailures = consecutiveFailures;
+	}
+
+	public int getErrorRatePercent() {
+		return errorRatePercent;
+	}
+
+	/**
+	 * Sets the percent of failed requests in a window that opens the
+	 * circuit. Default is 50.
+	 */
+	public void setErrorRatePercent(int errorRatePercent) {
+		this.errorRatePercent = errorRatePercent;
+	}
+
+	public int getMinRequests() {
+		return minRequests;
+	}
+
+	/**
+	 * Sets the requests a window needs before its error rate is used.
+	 * Default is 20.
+	 */
+	public void setMinRequests(int minRequests) {
+		this.minRequests = minRequests;
+	}
+
+	public long getWindowMiliSec() {
+		return windowMiliSec;
+	}
+
+	/**
+	 * Sets the length of the window of the error rate. Default is 10 seconds.
+	 */
+	public void setWindowMiliSec(long windowMiliSec) {
+		this.windowMiliSec = windowMiliSec;
+	}
+
+	public long getOpenMiliSec() {
+		return openMiliSec;
+	}
+
+	/**
+	 * Sets the time a host is kept out when the circuit first opens.
+	 * Default is 5 seconds.
+	 */
+	public void setOpenMiliSec(long openMiliSec) {
+		this.openMiliSec = openMiliSec;
+	}
+
+	public long getMaxOpenMiliSec() {
+		return maxOpenMiliSec;
+	}
+
+	/**
+	 * Sets the most time a host is kept out. Default is 60 seconds.
+	 */
+	public void setMaxOpenMiliSec(long maxOpenMiliSec) {
+		this.maxOpenMiliSec = maxOpenMiliSec;
+	}
+
+	public int getHalfOpenSuccesses() {
+		return halfOpenSuccesses;
+	}
+
+	/**
+	 * Sets the requests in a row that must succeed to close a half open
+	 * circuit. Default is 3.
+	 */
+	public void setHalfOpenSuccesses(int halfOpenSuccesses) {
+		this.halfOpenSuccesses = halfOpenSuccesses;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("CircuitBreaker{");
+		Iterator<Map.Entry<Host, Health>> iterator = healths.entrySet().iterator();
+		while(iterator.hasNext()) {
+			Map.Entry<Host, Health> entry = iterator.next();
+			Health health = entry.getValue();
+			sb.append(entry.getKey().getName()).append(": state=").append(health.state);
+			sb.append(", failures=").append(health.failures.get()).append('/');
+			sb.append(health.requests.get()).append(", trips=");
+			sb.append(health.tripCount.get()).append("; ");
+		}
+		sb.append("}");
+		return sb.toString();
+	}
+}
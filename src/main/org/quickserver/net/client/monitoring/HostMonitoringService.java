@@ -20,11 +20,34 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.quickserver.util.CachedClock;
 
 /**
- *
+ * Checks the hosts of the registered host lists with their HostMonitor
+ * and keeps the active list of each up to date.
+ * <p>
+ * Each host is checked on its own schedule, every interval give or take
+ * {@link #getJitterPercent()}, so checks of many hosts do not line up.
+ * The checks run in parallel on a bounded pool of threads
+ * ({@link #setMaxConcurrentChecks(int)}). A check that has not finished by
+ * {@link #getCheckTimeoutMiliSec()} marks the host DOWN; a new check of that
+ * host only starts once the old one returns. Listeners are told of a change
+ * of status, and the active list is updated, as soon as a check ends.
+ * </p>
  * @since 1.4.8
  * @author Akshathkumar Shetty
  */
@@ -34,12 +57,26 @@ public class HostMonitoringService {
 	
 	private static final List listToMonitor = Collections.synchronizedList(new ArrayList());
 	
+	private static final Random random = new Random();
+	private static final ThreadPoolExecutor checkExecutor = new ThreadPoolExecutor(16, 16, 
+		60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1024), 
+		newThreadFactory("HostMonitoringService-Check"));
+	private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, 
+		newThreadFactory("HostMonitoringService-Timer"));
+	static {
+		checkExecutor.allowCoreThreadTimeOut(true);
+	}
+	
 	private HostList hostList;
 	private HostMonitor hostMonitor;
 	private int intervalInSec;
 	private List listnersList;
-	private Date lastCheckedOn;
-	private Date nextCheckOn;
+	private volatile long lastCheckedOn;
+	private volatile long nextCheckOn;
+	private volatile int checkTimeoutMiliSec;
+	private volatile int jitterPercent = 10;
+	private final ConcurrentHashMap<Host, Check> inFlight = new ConcurrentHashMap<Host, Check>();
+	private final ConcurrentHashMap<Host, Long> ejectedUntil = new ConcurrentHashMap<Host, Long>();
 	
 	public static int getSize() {
 		return listToMonitor.size();
@@ -93,10 +130,18 @@ public class HostMonitoringService {
 	
 	public static void monitor(boolean forceCheck, String hostName, 
 			HostMonitoringService passedHms) {
+		monitor(forceCheck, hostName, passedHms, true);
+	}
+	
+	/**
+	 * Starts the checks that are due on the check executor.
+	 * @param wait if true returns once the checks started here are done
+	 * or past their deadline
+	 */
+	private static void monitor(boolean forceCheck, String hostName, 
+			HostMonitoringService passedHms, boolean wait) {
 		HostMonitoringService hms = null;
-		List fullList = null;
-		Host host = null;
-		char newStatus = 'U';
+		List started = wait?new ArrayList():null;
 		try {
 			List list = new ArrayList(listToMonitor);
 			Iterator iterator = list.iterator();							
@@ -110,124 +155,241 @@ public class HostMonitoringService {
 					}
 				}
 				
-				Date now = new Date();			
-				if(hms.getNextCheckOn()!=null && hms.getNextCheckOn().after(now)) {
+				long now = CachedClock.currentTimeMillis();
+				if(hms.getNextCheckOnMillis()!=0 && hms.getNextCheckOnMillis() > now) {
 					if(forceCheck==false) continue;
 				}
 				
-				fullList = hms.getHostList().getFullList();
-				List<Host> activeList = new ArrayList<Host>();
-				
-				Iterator hostIterator = fullList.iterator();
-				
 				if(hostName==null) {
-					hms.setLastCheckedOn(now);
-					long nextTime = hms.getLastCheckedOn().getTime() + 
-							(hms.getIntervalInSec()/2)*1000;
-					hms.setNextCheckOn(new Date(nextTime));
+					hms.setLastCheckedOnMillis(now);
+					long nextTime = now + (hms.getIntervalInSec()/2)*1000;
+					hms.setNextCheckOnMillis(nextTime);
 				}
-							
+				
+				Iterator hostIterator = hms.getHostList().getFullList().iterator();
 				while(hostIterator.hasNext()) {
-					host = (Host) hostIterator.next();	
+					Host host = (Host) hostIterator.next();
 					
-					if(hostName!=null) {
-						if(hostName.equals(host.getName())==false) {							
-							logger.log(Level.INFO, "hostName[{0}] does not match with [{1}]", 
-								new Object[]{hostName, host.getName()});
-							if(host.getStatus()==Host.ACTIVE) {
-								activeList.add(host);
-							}
-							continue;
-						} else {
-							logger.log(Level.INFO, "hostName[{0}] is a match with [{1}]", 
-								new Object[]{hostName, host.getName()});
-						}
+					if(hostName!=null && hostName.equals(host.getName())==false) {
+						continue;
 					}
 					
-					if(forceCheck==true || host.getNextCheckOn()==null || 
-							host.getNextCheckOn().before(now)) {
-						char oldStatus = host.getStatus();
-						if(host.getStatus()!=Host.MAINTENANCE) {
-							try {
-								newStatus = hms.getHostMonitor().monitor(host);
-							} catch (Exception er) {
-								logger.log(Level.WARNING, "Error in HostMonitor1: "+er, er);
-								er.printStackTrace();
-								newStatus = Host.ERROR;
-							}							
-						} else {
-							newStatus = host.getStatus();
-						}
-						host.setStatus(newStatus);
-						
-						if(newStatus==Host.ACTIVE) {
-							activeList.add(host);
-						} else if(host.getStatus()!=Host.MAINTENANCE) {
-							//try again..
-							try {
-								newStatus = hms.getHostMonitor().monitor(host);
-							} catch (Exception er) {
-								logger.log(Level.WARNING, "Error in HostMonitor2: "+er, er);
-								er.printStackTrace();
-								newStatus = Host.ERROR;
-							}
-							if(newStatus==Host.ACTIVE) {
-								activeList.add(host);
-							}
-							host.setStatus(newStatus);
-						}
-						
-						if(newStatus != oldStatus) {
-							List myListnersList = hms.getListnersList();
-							if(myListnersList!=null) {
-								Iterator listnersIterator = myListnersList.iterator();
-								HostStateListener listener = null;
-								while(listnersIterator.hasNext()) {
-									listener = (HostStateListener) listnersIterator.next();
-									if(listener!=null) {
-										listener.stateChanged(host, oldStatus, newStatus);
-									} else {
-										logger.warning("listener was null!");
-									}
-								}
-							} else {
-								logger.log(Level.WARNING, 
-									"No listners set {0}; old status: {1};new status:{2}", 
-									new Object[]{host, oldStatus, newStatus});
-							}
-						}
-						if(host.getLastCheckedOn()!=null) {
-							long newTime = host.getLastCheckedOn().getTime() +
-									hms.getIntervalInSec()*1000;
-							host.setNextCheckOn(new Date(newTime));
-						} else if(host.getStatus()!=Host.MAINTENANCE) {
-							logger.log(Level.WARNING, "host.getLastCheckedOn() was null {0}", host);
-						}
-						
-					} else {
-						//last monitored status is good for use
-						if(host.getStatus()==Host.ACTIVE) {
-							activeList.add(host);
-						}
+					if(hms.isEjected(host, now)) {
+						continue;
 					}
 					
-					
-					now = new Date();//update
-				}//host list		
-				hms.getHostList().setActiveList(Collections.synchronizedList(activeList));//update back
+					if(forceCheck==true || host.getNextCheckOnMillis()==0 || 
+							host.getNextCheckOnMillis() < now) {
+						Check check = hms.startCheck(host);
+						if(check!=null && started!=null) started.add(check);
+					}
+				}
+				hms.updateActiveList();
 			}//hms list
+			
+			if(started!=null) {
+				for(int i=0;i<started.size();i++) {
+					((Check) started.get(i)).await();
+				}
+			}
 		} catch (Throwable e) {
 			logger.log(Level.SEVERE, "Error: "+e, e);
 		}
 	}
 	
+	/**
+	 * Starts a check of the host unless one is running.
+	 * @return the check started, null if it could not be
+	 */
+	private Check startCheck(Host host) {
+		final Check check = new Check(host);
+		if(inFlight.putIfAbsent(host, check)!=null) {
+			return null;
+		}
+		try {
+			checkExecutor.execute(check);
+		} catch(RejectedExecutionException e) {
+			inFlight.remove(host);
+			logger.log(Level.WARNING, "Too many checks pending, {0} will be checked later", host);
+			return null;
+		}
+		check.timeout = timer.schedule(new Runnable() {
+			public void run() {
+				check.expire();
+			}
+		}, getCheckTimeoutMiliSec(), TimeUnit.MILLISECONDS);
+		return check;
+	}
+	
+	/**
+	 * Marks an ACTIVE host DOWN right away, on failures seen by its users
+	 * rather than by a check, and keeps it out of the active list for the
+	 * given time. After that it is checked as usual and is back once the
+	 * HostMonitor finds it ACTIVE.
+	 * @return false if the host was not ACTIVE
+	 * @since 2.1.0
+	 */
+	public boolean ejectHost(Host host, long forMiliSec) {
+		if(host.getStatus()!=Host.ACTIVE) return false;
+		long until = CachedClock.currentTimeMillis() + forMiliSec;
+		ejectedUntil.put(host, Long.valueOf(until));
+		logger.log(Level.WARNING, "Ejecting {0} for {1} ms", new Object[]{host, forMiliSec});
+		checked(host, Host.ACTIVE, Host.DOWN);
+		host.setNextCheckOnMillis(until);
+		return true;
+	}
+	
+	/**
+	 * Returns true if the host was ejected and is not yet to be checked.
+	 * @since 2.1.0
+	 */
+	public boolean isEjected(Host host, long now) {
+		Long until = ejectedUntil.get(host);
+		if(until==null) return false;
+		if(until.longValue() > now) return true;
+		ejectedUntil.remove(host, until);
+		return false;
+	}
+	
+	/**
+	 * Sets the status of the host from a check and tells the listeners
+	 * right away if it changed.
+	 */
+	private void checked(Host host, char oldStatus, char newStatus) {
+		host.setStatus(newStatus);
+		if(host.getLastCheckedOnMillis()==0) {
+			host.setLastCheckedOnMillis(CachedClock.currentTimeMillis());
+		}
+		long interval = getIntervalInSec()*1000L;
+		long jitter = interval*getJitterPercent()/100;
+		if(jitter>0) {
+			interval = interval - jitter + (long) (random.nextDouble()*2*jitter);
+		}
+		host.setNextCheckOnMillis(host.getLastCheckedOnMillis() + interval);
+		
+		if(newStatus == oldStatus) return;
+		
+		updateActiveList();
+		
+		List myListnersList = getListnersList();
+		if(myListnersList!=null) {
+			Iterator listnersIterator = new ArrayList(myListnersList).iterator();
+			HostStateListener listener = null;
+			while(listnersIterator.hasNext()) {
+				listener = (HostStateListener) listnersIterator.next();
+				if(listener!=null) {
+					try {
+						listener.stateChanged(host, oldStatus, newStatus);
+					} catch(Throwable e) {
+						logger.log(Level.WARNING, "Error in listener: "+e, e);
+					}
+				} else {
+					logger.warning("listener was null!");
+				}
+			}
+		} else {
+			logger.log(Level.WARNING, 
+				"No listners set {0}; old status: {1};new status:{2}", 
+				new Object[]{host, oldStatus, newStatus});
+		}
+	}
+	
+	/**
+	 * Sets the active list of the host list from the status of its hosts.
+	 */
+	private synchronized void updateActiveList() {
+		List fullList = getHostList().getFullList();
+		List<Host> activeList = new ArrayList<Host>();
+		Iterator hostIterator = fullList.iterator();
+		while(hostIterator.hasNext()) {
+			Host host = (Host) hostIterator.next();
+			if(host.getStatus()==Host.ACTIVE) {
+				activeList.add(host);
+			}
+		}
+		List oldList = getHostList().getActiveList();
+		if(oldList==null || oldList.equals(activeList)==false) {
+			getHostList().setActiveList(Collections.synchronizedList(activeList));//update back
+		}
+	}
+	
+	/**
+	 * One check of a host; the first of its result and its deadline
+	 * sets the status.
+	 */
+	private class Check implements Runnable {
+		private final Host host;
+		private final char oldStatus;
+		private final long deadline;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private final AtomicBoolean applied = new AtomicBoolean(false);
+		private volatile ScheduledFuture timeout;
+		
+		Check(Host host) {
+			this.host = host;
+			this.oldStatus = host.getStatus();
+			this.deadline = System.nanoTime() + getCheckTimeoutMiliSec()*1000000L;
+		}
+		
+		public void run() {
+			try {
+				char newStatus = host.getStatus();
+				if(newStatus!=Host.MAINTENANCE) {
+					newStatus = probe();
+					if(newStatus!=Host.ACTIVE && deadline - System.nanoTime() > 0) {
+						//try again..
+						newStatus = probe();
+					}
+				}
+				apply(newStatus);
+			} finally {
+				inFlight.remove(host, this);
+			}
+		}
+		
+		private char probe() {
+			try {
+				return getHostMonitor().monitor(host);
+			} catch (Exception er) {
+				logger.log(Level.WARNING, "Error in HostMonitor: "+er, er);
+				return Host.ERROR;
+			}
+		}
+		
+		void expire() {
+			if(applied.get()) return;
+			logger.log(Level.WARNING, "Check of {0} took over {1} ms", 
+				new Object[]{host, getCheckTimeoutMiliSec()});
+			host.setLastCheckedOnMillis(CachedClock.currentTimeMillis());
+			apply(Host.DOWN);
+		}
+		
+		private void apply(char newStatus) {
+			if(applied.compareAndSet(false, true)==false) return;
+			ScheduledFuture myTimeout = timeout;
+			if(myTimeout!=null) myTimeout.cancel(false);
+			try {
+				if(isEjected(host, CachedClock.currentTimeMillis())) {
+					return;//ejected while the check ran
+				}
+				checked(host, oldStatus, newStatus);
+			} finally {
+				done.countDown();
+			}
+		}
+		
+		void await() throws InterruptedException {
+			done.await();
+		}
+	}
+	
 	static {
 		Thread t = new Thread() {
 			public void run() {
 				logger.fine("Started..");
 				while(true) {
 					try {
-						HostMonitoringService.monitor();
+						HostMonitoringService.monitor(false, null, null, false);
 					} catch(Throwable e) {
 						logger.log(Level.SEVERE, "Bug in monitor method! "+e, e);
 					}
@@ -245,6 +407,48 @@ public class HostMonitoringService {
 		t.start();
 		
 	}
+	
+	private static ThreadFactory newThreadFactory(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name+"-"+count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+	
+	/**
+	 * Sets the most checks that run at once, over all the hosts.
+	 * Default is 16.
+	 * @since 2.1.0
+	 */
+	public static void setMaxConcurrentChecks(int maxConcurrentChecks) {
+		if(maxConcurrentChecks<1) throw new IllegalArgumentException("maxConcurrentChecks should be > 0");
+		if(maxConcurrentChecks > checkExecutor.getMaximumPoolSize()) {
+			checkExecutor.setMaximumPoolSize(maxConcurrentChecks);
+			checkExecutor.setCorePoolSize(maxConcurrentChecks);
+		} else {
+			checkExecutor.setCorePoolSize(maxConcurrentChecks);
+			checkExecutor.setMaximumPoolSize(maxConcurrentChecks);
+		}
+	}
+	
+	/**
+	 * @since 2.1.0
+	 */
+	public static int getMaxConcurrentChecks() {
+		return checkExecutor.getMaximumPoolSize();
+	}
+	
+	/**
+	 * Returns the number of host checks running or waiting to run.
+	 * @since 2.1.0
+	 */
+	public static int getPendingCheckCount() {
+		return checkExecutor.getActiveCount() + checkExecutor.getQueue().size();
+	}
 
 	public HostList getHostList() {
 		return hostList;
@@ -294,18 +498,82 @@ public class HostMonitoringService {
 	}
 
 	public Date getLastCheckedOn() {
-		return lastCheckedOn;
+		return CachedClock.toDate(lastCheckedOn);
 	}
 
 	public void setLastCheckedOn(Date lastCheckedOn) {
+		this.lastCheckedOn = lastCheckedOn!=null?lastCheckedOn.getTime():0;
+	}
+
+	/**
+	 * @since 2.1.0
+	 */
+	public long getLastCheckedOnMillis() {
+		return lastCheckedOn;
+	}
+
+	/**
+	 * @since 2.1.0
+	 */
+	public void setLastCheckedOnMillis(long lastCheckedOn) {
 		this.lastCheckedOn = lastCheckedOn;
 	}
 
 	public Date getNextCheckOn() {
-		return nextCheckOn;
+		return CachedClock.toDate(nextCheckOn);
 	}
 
 	public void setNextCheckOn(Date nextCheckOn) {
+		this.nextCheckOn = nextCheckOn!=null?nextCheckOn.getTime():0;
+	}
+
+	/**
+	 * @since 2.1.0
+	 */
+	public long getNextCheckOnMillis() {
+		return nextCheckOn;
+	}
+
+	/**
+	 * @since 2.1.0
+	 */
+	public void setNextCheckOnMillis(long nextCheckOn) {
 		this.nextCheckOn = nextCheckOn;
 	}
+
+	/**
+	 * Returns the time after which a running check marks the host DOWN,
+	 * by default the check interval, at least a second.
+	 * @since 2.1.0
+	 */
+	public int getCheckTimeoutMiliSec() {
+		if(checkTimeoutMiliSec>0) return checkTimeoutMiliSec;
+		return Math.max(1000, getIntervalInSec()*1000);
+	}
+
+	/**
+	 * @since 2.1.0
+	 */
+	public void setCheckTimeoutMiliSec(int checkTimeoutMiliSec) {
+		this.checkTimeoutMiliSec = checkTimeoutMiliSec;
+	}
+
+	/**
+	 * Returns by how much, in percent of the interval, the time of the
+	 * next check of a host is moved at random. Default is 10.
+	 * @since 2.1.0
+	 */
+	public int getJitterPercent() {
+		return jitterPercent;
+	}
+
+	/**
+	 * @since 2.1.0
+	 */
+	public void setJitterPercent(int jitterPercent) {
+		if(jitterPercent<0 || jitterPercent>100) {
+			throw new IllegalArgumentException("jitterPercent should be 0 to 100");
+		}
+		this.jitterPercent = jitterPercent;
+	}
 }
@@ -19,7 +19,6 @@ import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.security.SecureRandom;
-import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.net.ssl.HostnameVerifier;
@@ -34,6 +33,7 @@ import org.quickserver.net.client.DummyTrustManager;
 import org.quickserver.net.client.Host;
 import org.quickserver.net.client.monitoring.HostMonitor;
 import org.quickserver.net.client.HttpHost;
+import org.quickserver.util.CachedClock;
 
 /**
  *
@@ -151,7 +151,7 @@ public class HttpMonitor implements HostMonitor {
 				http.disconnect();
 				
 			}
-			host.setLastCheckedOn(new Date());
+			host.setLastCheckedOnMillis(CachedClock.currentTimeMillis());
 		}
 	}
 
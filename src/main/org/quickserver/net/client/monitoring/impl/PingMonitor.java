@@ -14,10 +14,10 @@
 package org.quickserver.net.client.monitoring.impl;
 
 import java.io.IOException;
-import java.util.Date;
 import java.util.logging.Logger;
 import org.quickserver.net.client.Host;
 import org.quickserver.net.client.monitoring.HostMonitor;
+import org.quickserver.util.CachedClock;
 
 /**
  * @since 1.4.8
@@ -42,7 +42,7 @@ public class PingMonitor implements HostMonitor {
 			e.printStackTrace();
 			return Host.ERROR;
 		} finally {
-			host.setLastCheckedOn(new Date());
+			host.setLastCheckedOnMillis(CachedClock.currentTimeMillis());
 		}
 	}
 	
@@ -14,14 +14,15 @@
 package org.quickserver.net.client.monitoring.impl;
 
 import java.io.IOException;
-import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.net.ssl.SSLSocketFactory;
 import org.quickserver.net.client.BlockingClient;
 import org.quickserver.net.client.Host;
+import org.quickserver.net.client.NonBlockingClient;
 import org.quickserver.net.client.monitoring.HostMonitor;
 import org.quickserver.net.client.SocketBasedHost;
+import org.quickserver.util.CachedClock;
 
 /**
  * @since 1.4.8
@@ -33,11 +34,20 @@ public class SocketMonitor implements HostMonitor {
 	private boolean useDummyTrustManager;
 	private SSLSocketFactory sslSocketFactory;
 	private int closeDelayMiliSec = 0;
+	private boolean useNonBlockingClient;
+	private int timeoutMiliSec = 0;
 	
 
 	public char monitor(Host host) {		
 		SocketBasedHost socketBasedHost = (SocketBasedHost) host;
-		BlockingClient client = new BlockingClient();
+		BlockingClient client = null;
+		if(isUseNonBlockingClient()) {
+			NonBlockingClient nbClient = new NonBlockingClient();
+			nbClient.setTimeout(getTimeoutMiliSec());
+			client = nbClient;
+		} else {
+			client = new BlockingClient();
+		}
 		try {		
 			client.setSecure(socketBasedHost.isSecure());
 			client.setUseDummyTrustManager(isUseDummyTrustManager());
@@ -124,7 +134,7 @@ public class SocketMonitor implements HostMonitor {
 					Logger.getLogger(SocketMonitor.class.getName()).log(Level.FINE, "Error", ex);
 				}
 			}
-			host.setLastCheckedOn(new Date());
+			host.setLastCheckedOnMillis(CachedClock.currentTimeMillis());
 		}		
 	}
 	
@@ -157,4 +167,31 @@ public class SocketMonitor implements HostMonitor {
 	public void setCloseDelayMiliSec(int closeDelayMiliSec) {
 		this.closeDelayMiliSec = closeDelayMiliSec;
 	}
+
+	public boolean isUseNonBlockingClient() {
+		return useNonBlockingClient;
+	}
+
+	/**
+	 * Sets if the probe should use a {@link NonBlockingClient}, so it does
+	 * not hang on a host that accepts but does not reply.
+	 * @see #setTimeoutMiliSec
+	 * @since 2.1.0
+	 */
+	public void setUseNonBlockingClient(boolean useNonBlockingClient) {
+		this.useNonBlockingClient = useNonBlockingClient;
+	}
+
+	public int getTimeoutMiliSec() {
+		return timeoutMiliSec;
+	}
+
+	/**
+	 * Sets the time the probe waits for connect and each read when a
+	 * NonBlockingClient is used, 0 waits for ever.
+	 * @since 2.1.0
+	 */
+	public void setTimeoutMiliSec(int timeoutMiliSec) {
+		this.timeoutMiliSec = timeoutMiliSec;
+	}
 }
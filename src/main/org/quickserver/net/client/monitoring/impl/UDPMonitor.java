@@ -14,24 +14,37 @@
 package org.quickserver.net.client.monitoring.impl;
 
 import java.io.IOException;
-import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.quickserver.net.client.BlockingUDPClient;
 import org.quickserver.net.client.Host;
 import org.quickserver.net.client.SocketBasedHost;
 import org.quickserver.net.client.monitoring.HostMonitor;
+import org.quickserver.util.CachedClock;
 
 /**
- *
+ * Checks a UDP host by sending the request text and looking for the
+ * response text in the reply. The socket of a host that answered is
+ * kept for its next check.
  * @author mukundan
  */
 public class UDPMonitor implements HostMonitor {
 	private static final Logger logger = Logger.getLogger(UDPMonitor.class.getName());
 
+	/** one socket per host, reused from check to check */
+	private final Map<Host, BlockingUDPClient> clients = 
+		new ConcurrentHashMap<Host, BlockingUDPClient>();
+
 	public char monitor(Host host) {
 		char result = 'U';
-		BlockingUDPClient udpClient = new BlockingUDPClient();
+		BlockingUDPClient udpClient = clients.remove(host);
+		if(udpClient==null) {
+			udpClient = new BlockingUDPClient();
+			udpClient.setUseChannel(true);
+		}
+		boolean keep = false;
 		try {
 			SocketBasedHost udpHost = (SocketBasedHost) host;			
 
@@ -53,9 +66,12 @@ public class UDPMonitor implements HostMonitor {
 			if (null != udpHost.getResponseTextToExpect()
 					&& "".equals(udpHost.getResponseTextToExpect().trim()) == false) {
 
+				udpClient.connect(hostName, port);
+				udpClient.drain();//replies to checks that timed out
 				response = new String(udpClient.sendAndReceiveBinary(hostName, port, dataToSend.getBytes()));
 				if (null != response && response.contains(udpHost.getResponseTextToExpect())) {
 					result = Host.ACTIVE;
+					keep = true;
 				} else {
 					logger.log(Level.FINE, "{0} Error: Text [{1}]Not found! Got: {2}",
 							new Object[]{udpHost, udpHost.getResponseTextToExpect(), response});
@@ -73,11 +89,15 @@ public class UDPMonitor implements HostMonitor {
 			logger.log(Level.SEVERE, "Exception", ex);
 			result = Host.ERROR;
 		} finally {
-			host.setLastCheckedOn(new Date());
-			try {
-				udpClient.close();
-			} catch (IOException ex) {
-				Logger.getLogger(UDPMonitor.class.getName()).log(Level.SEVERE, null, ex);
+			host.setLastCheckedOnMillis(CachedClock.currentTimeMillis());
+			if(keep) {
+				clients.put(host, udpClient);
+			} else {
+				try {
+					udpClient.close();
+				} catch (IOException ex) {
+					Logger.getLogger(UDPMonitor.class.getName()).log(Level.SEVERE, null, ex);
+				}
 			}
 		}
 		return result;
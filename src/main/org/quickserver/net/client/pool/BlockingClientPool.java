@@ -6,9 +6,15 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.quickserver.net.client.BlockingClient;
@@ -17,21 +23,49 @@ import org.quickserver.net.client.Host;
 import org.quickserver.net.client.HostList;
 import org.quickserver.net.client.SocketBasedHost;
 import org.quickserver.net.client.loaddistribution.LoadDistributor;
+import org.quickserver.net.client.loaddistribution.LoadFeedback;
+import org.quickserver.net.client.loaddistribution.LoadPattern;
 import org.quickserver.net.client.loaddistribution.impl.RoundRobinLoadPattern;
+import org.quickserver.net.client.monitoring.CircuitBreaker;
 import org.quickserver.net.client.monitoring.HostMonitor;
 import org.quickserver.net.client.monitoring.HostMonitoringService;
 import org.quickserver.net.client.monitoring.HostStateListener;
 import org.quickserver.net.client.monitoring.impl.HttpMonitor;
+import org.quickserver.util.CachedClock;
 
 /**
  * A generic Socket Pool implementation using BlockingClient of QuickServer Client API
- * 
+ * <p>
+ * Borrow and return take no lock, idle clients of each host are kept on a
+ * lock-free stack and the pool size is reserved with a compare-and-set
+ * against maxPoolSize before a new connection is made. The lock is only
+ * taken by init, close and clean up of a host.
+ * </p>
+ * <p>
+ * If {@link PoolableBlockingClient#isBlockWhenEmpty()} is set, a borrower
+ * that finds the pool of the host at maxPoolSize waits in a FIFO queue,
+ * up to {@link #getMaxWaitForBorrowMiliSec()}, for a client returned or a
+ * slot freed. Borrows that get no client are counted as rejected.
+ * </p>
+ * <p>
+ * With a {@link CircuitBreaker} set, the outcome of each borrow is recorded
+ * and a host that keeps failing is ejected without waiting for its next
+ * check. Use {@link #returnBlockingClient(PooledBlockingClient, boolean)}
+ * to report requests that failed on a connected client.
+ * </p>
+ * <p>
+ * Connections for minPoolSize, at init and when a host comes back, are
+ * opened {@link #getWarmUpParallelism()} at a time on threads of the pool;
+ * {@link #isReady()} tells when every active host has them connected. The
+ * noop keepalives go to one idle connection after another, across the
+ * hosts, spread over the noop interval.
+ * </p>
  * @author Akshathkumar Shetty
  */
 public class BlockingClientPool {
 	private static final Logger logger = Logger.getLogger(BlockingClientPool.class.getName());
 	
-	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+	private final ReentrantLock lock = new ReentrantLock();
 	
 	private static int maxTimeToLockInSec = 5;
 	
@@ -41,14 +75,17 @@ public class BlockingClientPool {
 	private int minPoolSize;
 	private int maxPoolSize;
 	private int idlePoolSize;
+	private long maxWaitForBorrowMiliSec = -1;
 	
-	private Map <SocketBasedHost,ConcurrentLinkedQueue <PooledBlockingClient>> pool = 
-		new ConcurrentHashMap<SocketBasedHost, ConcurrentLinkedQueue<PooledBlockingClient>>();
-	
-	private Map <SocketBasedHost,ConcurrentLinkedQueue <PooledBlockingClient>> inUsePool = 
-		new ConcurrentHashMap<SocketBasedHost, ConcurrentLinkedQueue<PooledBlockingClient>>();
+	private Map <SocketBasedHost,HostPool> pool = 
+		new ConcurrentHashMap<SocketBasedHost,HostPool>();
 	
 	private HostMonitoringService hostMonitoringService = new HostMonitoringService();
+	private volatile CircuitBreaker circuitBreaker;
+	
+	private int warmUpParallelism = 8;
+	private volatile ThreadPoolExecutor connectExecutor;
+	private final Object readyLock = new Object();
 	
 	private Thread noopThread;	
 	private boolean debug = false;
@@ -147,7 +184,7 @@ public class BlockingClientPool {
 						new Object[]{host, oldstatus, newstatus});
 					
 					SocketBasedHost shost = (SocketBasedHost) host;
-					ConcurrentLinkedQueue poolForHost = pool.get(shost);
+					HostPool poolForHost = pool.get(shost);
 					if(newstatus==Host.ACTIVE) {						
 						increaseSize(shost, poolForHost);
 					} else {
@@ -169,8 +206,7 @@ public class BlockingClientPool {
 		Iterator iterator = fullHostList.iterator();
 		
 		SocketBasedHost host = null;
-		ConcurrentLinkedQueue poolForHost = null;
-		ConcurrentLinkedQueue poolForInUseHost = null;
+		HostPool poolForHost = null;
 		
 		if(noopThread!=null) {
 			noopThread.interrupt();
@@ -179,7 +215,21 @@ public class BlockingClientPool {
 		
 
 		
-		lock.writeLock().lock();
+		if(connectExecutor==null) {
+			connectExecutor = new ThreadPoolExecutor(getWarmUpParallelism(), getWarmUpParallelism(), 
+				60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, name+"-Connect-Thread-"+count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			connectExecutor.allowCoreThreadTimeOut(true);
+		}
+		
+		List<Future> warmUp = new ArrayList<Future>();
+		lock.lock();
 		try {
 			while(iterator.hasNext()) {
 				host = (SocketBasedHost) iterator.next();
@@ -187,55 +237,71 @@ public class BlockingClientPool {
 				if(poolForHost!=null) {
 					cleanPool(host);
 				} else {
-					poolForHost = new ConcurrentLinkedQueue<PooledBlockingClient>();
+					poolForHost = new HostPool(host);
 					pool.put(host, poolForHost);
-
-					poolForInUseHost = new ConcurrentLinkedQueue<PooledBlockingClient>();
-					inUsePool.put(host, poolForInUseHost);
 				}
-				int _poolSize = 0;
-
 				if(host.getStatus()==Host.ACTIVE) {
-					PooledBlockingClient pooledBlockingClient = null;
-					while( _poolSize++ < getMinPoolSize() ) {
-						pooledBlockingClient = getNewPooledBlockingClient(host);
-						if(pooledBlockingClient==null) {
-							_poolSize--;
-							break;
-						}
-						poolForHost.add(pooledBlockingClient);
-					}			
+					increaseSize(host, poolForHost, warmUp);
 				}
 			}
 		} finally {
-			lock.writeLock().unlock();
+			lock.unlock();
+		}
+		
+		//wait for the connections of the warm-up, made in parallel
+		for(int i=0;i<warmUp.size();i++) {
+			try {
+				warmUp.get(i).get();
+			} catch (InterruptedException ex) {
+				logger.log(Level.WARNING, "Interrupted while warming up {0}", name);
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException ex) {
+				logger.log(Level.WARNING, "Error warming up: "+ex, ex);
+			}
+		}
+		if(isReady()) {
+			logger.log(Level.INFO, "Pool {0} is ready", name);
+		} else {
+			logger.log(Level.WARNING, "Pool {0} is not at minPoolSize after warm-up", name);
 		}
 		
 		noopThread = new Thread() {
 			public void run() {
-				long stime = 0;
-				long timeTaken = 0;
-				
-				long timeToSlepp = 0;
 				while(true) {
-					timeToSlepp = (poolableBlockingClient.getNoOpTimeIntervalMiliSec()/2) - timeTaken;
-					if(timeToSlepp>0) {
+					//spread over the interval a step to maintain each host, then a 
+					//noop for each idle connection, so the noops do not all go at once
+					long cycle = Math.max(1, poolableBlockingClient.getNoOpTimeIntervalMiliSec()/2);
+					List<SocketBasedHost> hosts = new ArrayList<SocketBasedHost>(pool.keySet());
+					List<SocketBasedHost> steps = new ArrayList<SocketBasedHost>(hosts);
+					int noopsFrom = steps.size();
+					addNoOpSteps(hosts, steps);
+					long start = CachedClock.currentTimeMillis();
+					int count = Math.max(1, steps.size());
+					
+					for(int i=0;i<count;i++) {
+						long timeToSlepp = start + cycle*(i+1)/count - CachedClock.currentTimeMillis();
+						if(timeToSlepp>0) {
+							try {
+								sleep(timeToSlepp);
+							} catch (InterruptedException ex) {
+								logger.log(Level.FINEST, "closing noop: {0}", ex);
+								return;
+							}
+						}
+						if(i>=steps.size()) break;
+						
 						try {
-							sleep(timeToSlepp);
-						} catch (InterruptedException ex) {
-							logger.log(Level.FINEST, "closing noop: {0}", ex);
-							break;
+							if(i<noopsFrom) {
+								maintain(steps.get(i), false);
+							} else {
+								sendNoOpToOne(steps.get(i));
+							}
+						} catch (Throwable ex) {
+							Logger.getLogger(BlockingClientPool.class.getName()).log(Level.SEVERE, 
+								"Error: "+ex, ex);
 						}
 					}
-					
-					stime = System.currentTimeMillis();
-					try {
-						sendNoOp();
-					} catch (Throwable ex) {
-						Logger.getLogger(BlockingClientPool.class.getName()).log(Level.SEVERE, 
-							"Error: "+ex, ex);
-					}
-					timeTaken = System.currentTimeMillis() - stime;
 				}
 			}
 		};
@@ -285,34 +351,16 @@ public class BlockingClientPool {
 	}
 	
 	/**
-	 * 
+	 * Returns the number of clients of the host, idle, in use and being
+	 * connected.
 	 * @param host
-	 * @return -1 if read lock failed!
+	 * @return size of the pool for the host
 	 */
 	public int getPoolSize(SocketBasedHost host) {
-		ConcurrentLinkedQueue poolForHost = pool.get(host);
-		ConcurrentLinkedQueue poolToHost = inUsePool.get(host);
-		if(poolForHost==null || poolToHost==null) 
+		HostPool poolForHost = pool.get(host);
+		if(poolForHost==null) 
 			throw new IllegalStateException("pool for host was null!");
-		
-		if(poolForHost.isEmpty() && poolToHost.isEmpty()) return 0;
-		
-		int size = 0;
-		try {
-			if(lock.readLock().tryLock(maxTimeToLockInSec, TimeUnit.SECONDS)) {
-				try {
-					size = poolForHost.size() + poolToHost.size();
-				} finally {
-					lock.readLock().unlock();
-				}
-			} else {
-				return -1;
-			}
-		} catch (InterruptedException ex) {
-			logger.log(Level.WARNING, "Error: "+ex);
-			return -1;
-		}
-		return size;
+		return poolForHost.getSize();
 	}
 	
 	public PooledBlockingClient[] getOneBlockingClientForAllActiveHosts() {	
@@ -352,84 +400,124 @@ public class BlockingClientPool {
 		return getBlockingClientByHost(host);
 	}
 		
-	private PooledBlockingClient getBlockingClientByHost(SocketBasedHost host) {
-		ConcurrentLinkedQueue poolForHost = pool.get(host);
-		ConcurrentLinkedQueue poolForInUseHost = inUsePool.get(host);
-		if(poolForHost==null || poolForInUseHost==null) 
+	/**
+	 * Borrows a client of the host given, instead of the one the
+	 * LoadDistributor picks.
+	 * @return null if the pool of the host has no client to give
+	 */
+	public PooledBlockingClient getBlockingClientByHost(SocketBasedHost host) {
+		return getBlockingClientByHost(host, true);
+	}
+	
+	/**
+	 * @param reportLoad if the borrow and return should be reported to
+	 *  the LoadFeedback, false for clients held over many requests.
+	 */
+	PooledBlockingClient getBlockingClientByHost(SocketBasedHost host, boolean reportLoad) {
+		HostPool poolForHost = pool.get(host);
+		if(poolForHost==null) 
 			throw new IllegalStateException("pool for host was null!");		
 				
-		PooledBlockingClient pooledBlockingClient = null;		
+		PooledBlockingClient pooledBlockingClient = poolForHost.pop();
+		if(pooledBlockingClient==null) {
+			pooledBlockingClient = getNewPooledBlockingClient(poolForHost);
+		}
+		if(pooledBlockingClient==null && getPoolableBlockingClient().isBlockWhenEmpty()
+				&& host.getStatus()==Host.ACTIVE) {
+			pooledBlockingClient = waitForBlockingClient(poolForHost);
+		}
 		
-		if(poolForHost.isEmpty()) {		
-			try {
-				int poolsize = poolForHost.size() + poolForInUseHost.size();
-				if(poolsize < getMaxPoolSize()) {
-					try {
-						if(lock.readLock().tryLock(maxTimeToLockInSec, TimeUnit.SECONDS)) {
-							try {
-								poolsize = poolForHost.size() + poolForInUseHost.size();
-								if(poolsize < getMaxPoolSize()) {
-									pooledBlockingClient = getNewPooledBlockingClient(host);
-									return pooledBlockingClient;
-								}
-							} finally {
-								lock.readLock().unlock();
-							}
-						} else {
-							logger.log(Level.WARNING, "not able to get read lock..");
-							return null;
-						}
-					} catch (InterruptedException ex) {
-						logger.log(Level.WARNING, "not able to get read lock..{0}", ex);
-						return null;
-					}
-				} else if(getPoolableBlockingClient().isBlockWhenEmpty()) {
-					for(int i=0;poolForHost.isEmpty() && i<10;i++) {
-						if(isDebug()) logger.log(Level.FINE, "Socket pool empty.. will wait {0}", i);
-						synchronized(poolForHost) {
-							try {
-								poolForHost.wait();				
-							} catch (InterruptedException e) {
-								logger.warning( "Interrupted while sleeping"+ e );
-							}
-							pooledBlockingClient = (PooledBlockingClient) poolForHost.poll();
-						}
-						if(pooledBlockingClient!=null) break;
-					}
-				}
-				return pooledBlockingClient;
-			} finally {
-				if(pooledBlockingClient!=null) {
-					pooledBlockingClient.setHandedOut(true);
-					pooledBlockingClient.setPoolToReturn(poolForHost);
-					pooledBlockingClient.setLastActionTime(System.currentTimeMillis());	
+		if(pooledBlockingClient!=null) {
+			pooledBlockingClient.setHandedOut(true);
+			pooledBlockingClient.setHostPool(poolForHost);
+			pooledBlockingClient.setLastActionTime(CachedClock.currentTimeMillis());	
 
-					poolForInUseHost.add(pooledBlockingClient);
-				}
+			poolForHost.handOut(pooledBlockingClient);
+			
+			LoadFeedback loadFeedback = reportLoad?getLoadFeedback():null;
+			if(loadFeedback!=null) {
+				loadFeedback.requestStarted(host);
+			}
+			if(reportLoad && (loadFeedback!=null || circuitBreaker!=null)) {
+				pooledBlockingClient.setBorrowedNanos(System.nanoTime());
+			} else {
+				pooledBlockingClient.setBorrowedNanos(0);
 			}
 		} else {
-			lock.writeLock().lock();
-			try {
-				pooledBlockingClient = (PooledBlockingClient) poolForHost.poll();
-				if(pooledBlockingClient!=null) {
-					pooledBlockingClient.setHandedOut(true);
-					pooledBlockingClient.setPoolToReturn(poolForHost);
-					pooledBlockingClient.setLastActionTime(System.currentTimeMillis());	
-
-					poolForInUseHost.add(pooledBlockingClient);
-				}
-			} finally {
-				lock.writeLock().unlock();
+			poolForHost.rejected();
+		}
+		return pooledBlockingClient;
+	}
+	
+	/**
+	 * Waits in the FIFO queue of the host till a client is handed over,
+	 * or a slot is freed to make a new one, or the borrow deadline passes.
+	 */
+	private PooledBlockingClient waitForBlockingClient(HostPool poolForHost) {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(getMaxWaitForBorrowMiliSec());
+		PooledBlockingClient pooledBlockingClient = null;
+		HostPool.Waiter waiter = null;
+		boolean first = false;
+		long left = 0;
+		
+		while(true) {
+			left = deadline - System.nanoTime();
+			if(left<=0) break;
+			
+			if(isDebug()) logger.log(Level.FINE, "Socket pool empty.. will wait {0}", 
+				poolForHost.getHost());
+			waiter = poolForHost.await(left, first);
+			pooledBlockingClient = waiter.getClient();
+			if(pooledBlockingClient!=null || waiter.isWoken()==false) break;
+			
+			//woken for a free slot
+			pooledBlockingClient = poolForHost.pop();
+			if(pooledBlockingClient==null) {
+				pooledBlockingClient = getNewPooledBlockingClient(poolForHost);
 			}
-			return pooledBlockingClient;			
+			if(pooledBlockingClient!=null) break;
+			if(poolForHost.getHost().getStatus()!=Host.ACTIVE) break;
+			first = true;
+		}
+		
+		poolForHost.addWaitTime(System.nanoTime() - start);
+		if(pooledBlockingClient==null) {
+			logger.log(Level.FINE, "No client from {0} after waiting {1} ms", 
+				new Object[]{poolForHost.getHost(), 
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
 		}
+		return pooledBlockingClient;
+	}
+	
+	/**
+	 * Makes a new client for the host if the pool is not at maxPoolSize,
+	 * the slot it takes is counted in the pool size.
+	 */
+	private PooledBlockingClient getNewPooledBlockingClient(HostPool poolForHost) {
+		return getNewPooledBlockingClient(poolForHost, getMaxPoolSize());
 	}
 	
-	private PooledBlockingClient getNewPooledBlockingClient(SocketBasedHost host) {
+	/**
+	 * Makes a new client for the host if the pool is below the size given.
+	 */
+	private PooledBlockingClient getNewPooledBlockingClient(HostPool poolForHost, int limit) {
+		SocketBasedHost host = poolForHost.getHost();
 		if(host.getStatus()==Host.ACTIVE) {
-			return new PooledBlockingClient(getPoolableBlockingClient(), host);
+			if(poolForHost.reserve(limit)==false) return null;
+			PooledBlockingClient pooledBlockingClient = null;
+			try {
+				pooledBlockingClient = new PooledBlockingClient(getPoolableBlockingClient(), host);
+			} finally {
+				if(pooledBlockingClient==null) poolForHost.release();
+			}
+			CircuitBreaker myCircuitBreaker = circuitBreaker;
+			if(myCircuitBreaker!=null && pooledBlockingClient.getBlockingClient()==null) {
+				myCircuitBreaker.requestEnded(host, 0, false);//could not connect
+			}
+			return pooledBlockingClient;
 		} else {
-			int size = getPoolSize(host);
+			int size = poolForHost.getSize();
 			if(size>0) {
 				logger.log(Level.FINEST, "Host is not UP {0}; size: {1}", new Object[]{host, size});
 				cleanPool(host);
@@ -440,13 +528,32 @@ public class BlockingClientPool {
 	}
 	
 	public void returnBlockingClient(PooledBlockingClient pooledBlockingClient) {	
+		if(pooledBlockingClient==null) return;
+		returnBlockingClient(pooledBlockingClient, 
+			pooledBlockingClient.getBlockingClient()!=null && 
+				pooledBlockingClient.getBlockingClient().isConnected());
+	}
+	
+	/**
+	 * Returns the client to the pool.
+	 * @param success false if the request made with the client failed, 
+	 *  it counts against the host in the LoadFeedback and CircuitBreaker.
+	 * @since 2.1.0
+	 */
+	public void returnBlockingClient(PooledBlockingClient pooledBlockingClient, boolean success) {	
 		if(pooledBlockingClient==null) return;
 		if(pooledBlockingClient.getSocketBasedHost()==null) return;
 		
-		ConcurrentLinkedQueue poolForInUseHost = inUsePool.get(pooledBlockingClient.getSocketBasedHost());
+		HostPool poolForHost = pooledBlockingClient.getHostPool();
+		
+		if(pooledBlockingClient.getBorrowedNanos()!=0) {
+			requestEnded(pooledBlockingClient.getSocketBasedHost(), 
+				System.nanoTime() - pooledBlockingClient.getBorrowedNanos(), success);
+			pooledBlockingClient.setBorrowedNanos(0);
+		}
 		
 		if(pooledBlockingClient.getBlockingClient()==null) {
-			poolForInUseHost.remove(pooledBlockingClient);
+			if(poolForHost!=null) poolForHost.drop(pooledBlockingClient);
 			return;
 		} else if(pooledBlockingClient.getBlockingClient().isConnected()==false) {	
 			try {
@@ -454,20 +561,20 @@ public class BlockingClientPool {
 			} catch (IOException ex) {
 				Logger.getLogger(BlockingClientPool.class.getName()).log(Level.WARNING, "Error: "+ex, ex);
 			}
-			poolForInUseHost.remove(pooledBlockingClient);
+			if(poolForHost!=null) poolForHost.drop(pooledBlockingClient);
 			return;
 		}
 		
 		if(pooledBlockingClient.getLastActionTime()!=0) {		
-			long timepassed = System.currentTimeMillis()  - pooledBlockingClient.getLastActionTime();
+			long timepassed = CachedClock.currentTimeMillis()  - pooledBlockingClient.getLastActionTime();
 
 			if(timepassed<1000) {
-				pooledBlockingClient.returnToPool(poolForInUseHost, lock);
+				pooledBlockingClient.returnToPool();
 				return;
 			}
 
 			if((timepassed/1000) < poolableBlockingClient.getHostMonitoringIntervalInSec()) {
-				pooledBlockingClient.returnToPool(poolForInUseHost, lock);
+				pooledBlockingClient.returnToPool();
 				return;
 			}
 		}
@@ -478,63 +585,96 @@ public class BlockingClientPool {
 			logger.log(Level.FINEST, "noop for {0} was {1}", 
 				new Object[]{pooledBlockingClient, flag});
 		}
-		if(flag) {
-			pooledBlockingClient.returnToPool(poolForInUseHost, lock);
-		} else {
-			poolForInUseHost.remove(pooledBlockingClient);	
-			
-			if(pooledBlockingClient.replaceBlockingClient()) {
-				pooledBlockingClient.returnToPool(null, lock);
-			}
+		if(flag || pooledBlockingClient.replaceBlockingClient()) {
+			pooledBlockingClient.returnToPool();
+		} else if(poolForHost!=null) {
+			poolForHost.drop(pooledBlockingClient);
+		}
+	}
+	
+	/**
+	 * Records the end of a request to the host in the LoadFeedback and
+	 * CircuitBreaker, if set.
+	 */
+	void requestEnded(SocketBasedHost host, long timeTaken, boolean success) {
+		LoadFeedback loadFeedback = getLoadFeedback();
+		if(loadFeedback!=null) {
+			loadFeedback.requestEnded(host, timeTaken, success);
 		}
+		CircuitBreaker myCircuitBreaker = circuitBreaker;
+		if(myCircuitBreaker!=null) {
+			myCircuitBreaker.requestEnded(host, timeTaken, success);
+		}
+	}
+	
+	/**
+	 * Returns the LoadPattern of the LoadDistributor if it takes
+	 * feedback of the load of hosts.
+	 */
+	LoadFeedback getLoadFeedback() {
+		LoadDistributor ld = getPoolableBlockingClient().getLoadDistributor();
+		if(ld==null) return null;
+		LoadPattern loadPattern = ld.getLoadPattern();
+		if(loadPattern instanceof LoadFeedback) return (LoadFeedback) loadPattern;
+		return null;
 	}
 	
 	public String getStats() {
 		SocketBasedHost socketBasedHost = null;
 		StringBuilder sb = new StringBuilder();
 		String stat = null;
-		try {
-			if(lock.readLock().tryLock(maxTimeToLockInSec, TimeUnit.SECONDS)) {
-				try {			
-					Iterator<SocketBasedHost> iterator = pool.keySet().iterator();
-					while(iterator.hasNext()) {
-						socketBasedHost = iterator.next();
-						stat = getStats(socketBasedHost);
-						sb.append(stat).append("\r\n");
-					}	
-				} finally {
-					lock.readLock().unlock();
-				}
-			} else {
-				sb.append("N/A").append("\r\n");
+		Iterator<SocketBasedHost> iterator = pool.keySet().iterator();
+		while(iterator.hasNext()) {
+			socketBasedHost = iterator.next();
+			try {
+				stat = getStats(socketBasedHost);
+			} catch (InterruptedException ex) {
+				logger.log(Level.FINE, "InterruptedException{0}", ex);
+				stat = "N/A Er";
 			}
-		} catch (InterruptedException ex) {
-			logger.log(Level.FINE, "InterruptedException{0}", ex);
-			sb.append("N/A Er").append("\r\n");
-		}
+			sb.append(stat).append("\r\n");
+		}	
 		return sb.toString();
 	}
 	
 	public String getStats(SocketBasedHost host) throws InterruptedException {
-		ConcurrentLinkedQueue poolForHost = pool.get(host);
-		ConcurrentLinkedQueue poolToHost = inUsePool.get(host);
+		HostPool poolForHost = pool.get(host);
 		
 		int freeSize = 0;
 		int inuseSize = 0;
-		
-		if(lock.readLock().tryLock(maxTimeToLockInSec, TimeUnit.SECONDS)) {
-			try {			
-				freeSize = poolForHost.size();
-				inuseSize = poolToHost.size();
-			} finally {
-				lock.readLock().unlock();
-			}
+		int waitingSize = 0;
+		long rejectedCount = 0;
+		long waitTimes[] = null;
+		if(poolForHost!=null) {
+			freeSize = poolForHost.getIdleCount();
+			inuseSize = poolForHost.getInUseCount();
+			waitingSize = poolForHost.getWaitingCount();
+			rejectedCount = poolForHost.getRejectedCount();
+			waitTimes = poolForHost.getWaitTimes();
 		}
 		
 		StringBuilder sb = new StringBuilder();
 		sb.append(host).append(", ");
 		sb.append("FreeSize, ").append(freeSize).append(", ");
-		sb.append("InUseSize, ").append(inuseSize);		
+		sb.append("InUseSize, ").append(inuseSize).append(", ");
+		sb.append("Waiting, ").append(waitingSize).append(", ");
+		sb.append("Rejected, ").append(rejectedCount);
+		CircuitBreaker myCircuitBreaker = circuitBreaker;
+		if(myCircuitBreaker!=null) {
+			sb.append(", Circuit, ").append(myCircuitBreaker.getState(host));
+			sb.append(", Trips, ").append(myCircuitBreaker.getTripCount(host));
+		}
+		if(waitTimes!=null) {
+			sb.append(", WaitTime(ms)");
+			for(int i=0;i<waitTimes.length;i++) {
+				if(i<HostPool.WAIT_BUCKETS.length) {
+					sb.append(", <").append(HostPool.WAIT_BUCKETS[i]);
+				} else {
+					sb.append(", >=").append(HostPool.WAIT_BUCKETS[i-1]);
+				}
+				sb.append(':').append(waitTimes[i]);
+			}
+		}
 		return sb.toString();
 	}
 	
@@ -543,9 +683,13 @@ public class BlockingClientPool {
 			noopThread.interrupt();
 			noopThread = null;
 		}
+		if(connectExecutor!=null) {
+			connectExecutor.shutdown();
+			connectExecutor = null;
+		}
 		
 		SocketBasedHost socketBasedHost = null;
-		lock.writeLock().lock();
+		lock.lock();
 		try {			
 			Iterator<SocketBasedHost> iterator = pool.keySet().iterator();
 			while(iterator.hasNext()) {
@@ -554,226 +698,298 @@ public class BlockingClientPool {
 			}
 
 			pool.clear();
-			inUsePool.clear();		
 		} finally {
-			lock.writeLock().unlock();
+			lock.unlock();
 		}
 	}
 	
 	public void sendNoOp() {
-		SocketBasedHost socketBasedHost = null;
-		ConcurrentLinkedQueue <PooledBlockingClient> mypool = null;
-		
 		Iterator<SocketBasedHost> iterator = pool.keySet().iterator();
 		while(iterator.hasNext()) {
-			socketBasedHost = iterator.next();
-			mypool = pool.get(socketBasedHost);
-			
-			if(socketBasedHost.getStatus()==Host.ACTIVE) {			
+			maintain(iterator.next(), true);
+		}		
+	}
+	
+	/**
+	 * Adds a step for each idle connection of the hosts, taking one
+	 * connection of each host in turn.
+	 */
+	private void addNoOpSteps(List<SocketBasedHost> hosts, List<SocketBasedHost> steps) {
+		int idle[] = new int[hosts.size()];
+		int most = 0;
+		for(int i=0;i<idle.length;i++) {
+			HostPool poolForHost = pool.get(hosts.get(i));
+			if(poolForHost!=null) idle[i] = poolForHost.getIdleCount();
+			most = Math.max(most, idle[i]);
+		}
+		for(int round=0;round<most;round++) {
+			for(int i=0;i<idle.length;i++) {
+				if(round<idle[i]) steps.add(hosts.get(i));
+			}
+		}
+	}
+	
+	/**
+	 * Sends noop on the idle client of the host used least recently,
+	 * if it is due.
+	 */
+	private void sendNoOpToOne(SocketBasedHost host) {
+		HostPool poolForHost = pool.get(host);
+		if(poolForHost==null || host.getStatus()!=Host.ACTIVE) return;
+		
+		PooledBlockingClient pooledBlockingClient = poolForHost.popLeastRecentlyUsed();
+		if(pooledBlockingClient==null) return;
+		pooledBlockingClient.setHandedOut(true);
+		pooledBlockingClient.setHostPool(poolForHost);
+		poolForHost.handOut(pooledBlockingClient);
+		returnBlockingClient(pooledBlockingClient);//will in-turn send noop
+	}
+	
+	/**
+	 * Brings the pool of the host back within min and idle size and looks
+	 * for leaks.
+	 * @param sendNoOps if noop should be sent on all the idle clients now
+	 */
+	private void maintain(SocketBasedHost socketBasedHost, boolean sendNoOps) {
+		HostPool mypool = pool.get(socketBasedHost);
+		if(mypool==null) return;
+		
+		if(socketBasedHost.getStatus()==Host.ACTIVE) {
+			if(sendNoOps) {
 				if(isDebug()) logger.log(Level.FINEST, "Starting NOOP {0}; size: {1}", 
-					new Object[]{socketBasedHost, mypool.size()});
+					new Object[]{socketBasedHost, mypool.getIdleCount()});
 				sendNoOp(socketBasedHost);
 				if(isDebug()) logger.log(Level.FINEST, "Done NOOP {0}; size: {1}", 
-					new Object[]{socketBasedHost, mypool.size()});
+					new Object[]{socketBasedHost, mypool.getIdleCount()});
+			}
+		} else {
+			int size = getPoolSize(socketBasedHost);
+			if(size>0) {
+				logger.log(Level.FINEST, "Host is not UP {0}; size: {1}", 
+					new Object[]{socketBasedHost, size});
+				cleanPool(socketBasedHost);
+				size = getPoolSize(socketBasedHost);
+				logger.log(Level.FINEST, "Done {0}; size: {1}", 
+					new Object[]{socketBasedHost, size});
 			} else {
-				int size = getPoolSize(socketBasedHost);
-				if(size>0) {
-					logger.log(Level.FINEST, "Host is not UP {0}; size: {1}", 
-						new Object[]{socketBasedHost, size});
-					cleanPool(socketBasedHost);
-					size = getPoolSize(socketBasedHost);
-					logger.log(Level.FINEST, "Done {0}; size: {1}", 
-						new Object[]{socketBasedHost, size});
-				} else {
-					if(isDebug()) logger.log(Level.FINEST, "Host is not UP {0}", 
-						new Object[]{socketBasedHost});
-				}
+				if(isDebug()) logger.log(Level.FINEST, "Host is not UP {0}", 
+					new Object[]{socketBasedHost});
 			}
-			
-			if(socketBasedHost.getStatus()==Host.ACTIVE) {	
-				int size = getPoolSize(socketBasedHost);
-				if(size!=-1) {
-					if(size > idlePoolSize) {
-						reduceSize(socketBasedHost, mypool);
-					} else if(size < minPoolSize) {				
-						increaseSize(socketBasedHost, mypool);			
-					}
-				}
+		}
+		
+		if(socketBasedHost.getStatus()==Host.ACTIVE) {	
+			int size = getPoolSize(socketBasedHost);
+			if(size > idlePoolSize) {
+				reduceSize(socketBasedHost, mypool);
+			} else if(size < minPoolSize) {				
+				increaseSize(socketBasedHost, mypool);			
 			}
-			
-			checkForLeak(socketBasedHost);			
-		}		
+		}
+		
+		checkForLeak(socketBasedHost);			
 	}
 	
-	private void reduceSize(SocketBasedHost host, ConcurrentLinkedQueue<PooledBlockingClient> poolForHost) {	
+	private void reduceSize(SocketBasedHost host, HostPool poolForHost) {	
 		PooledBlockingClient pooledBlockingClient = null;		
 			
-		int size = getPoolSize(host);	
+		int size = poolForHost.getSize();	
 		logger.log(Level.FINEST, 
 			"Start: Pool {0}; size is more then ideal size {1}; free size: {2}; fullsize: {3}", 
-			new Object[]{host, idlePoolSize, poolForHost.size(), size});
-		
-		if(size==-1) return;
+			new Object[]{host, idlePoolSize, poolForHost.getIdleCount(), size});
 		
 		for(int i=0;size > idlePoolSize && i < maxPoolSize;i++) {			
-			pooledBlockingClient = poolForHost.poll();
+			pooledBlockingClient = poolForHost.pop();
 			if(pooledBlockingClient==null) break;
-			try {
-				pooledBlockingClient.getBlockingClient().close();
-			} catch (IOException ex) {
-				Logger.getLogger(BlockingClientPool.class.getName()).log(
-					Level.SEVERE, "Error closing: "+ex, ex);
-			}
-			
-			returnBlockingClient(pooledBlockingClient);//will in-turn drop it from pool
+			poolForHost.release();
+			pooledBlockingClient.close();
 			pooledBlockingClient = null;
 			
-			size = getPoolSize(host);
-			if(size==-1) break;
+			size = poolForHost.getSize();
 		}
 		
 		logger.log(Level.FINEST, 
 			"End: Pool {0}; size was more then ideal size {1}; free size: {2}; fullsize: {3}", 
-			new Object[]{host, idlePoolSize, poolForHost.size(), size});
+			new Object[]{host, idlePoolSize, poolForHost.getIdleCount(), size});
 	}
 	
-	private void increaseSize(SocketBasedHost host, ConcurrentLinkedQueue<PooledBlockingClient> poolForHost) {	
-		PooledBlockingClient pooledBlockingClient = null;		
-			
-		int size = getPoolSize(host);		
+	private void increaseSize(SocketBasedHost host, HostPool poolForHost) {
+		increaseSize(host, poolForHost, null);
+	}
+	
+	/**
+	 * Opens the connections the host is short of minPoolSize, in parallel
+	 * on the connect threads of the pool. A slot is reserved against
+	 * minPoolSize for each, so repeated calls do not open more.
+	 * @param tasks if not null the tasks started are added to it
+	 */
+	private void increaseSize(final SocketBasedHost host, final HostPool poolForHost, 
+			List<Future> tasks) {
+		final int limit = Math.min(minPoolSize, maxPoolSize);
+		int size = poolForHost.getSize();		
+		if(size >= limit) return;
+		
 		logger.log(Level.FINEST, 
 			"Start: Pool {0}; size is less then min size {1}; free size: {2}; fullsize: {3}", 
-				new Object[]{host, minPoolSize, poolForHost.size(), size});
-		if(size==-1) return;
+				new Object[]{host, minPoolSize, poolForHost.getIdleCount(), size});
 		
-		for(int i=0;size < minPoolSize && i < maxPoolSize;i++) {
-			pooledBlockingClient = getNewPooledBlockingClient(host);
-			if(pooledBlockingClient==null) {
-				break;
+		ThreadPoolExecutor executor = connectExecutor;
+		for(int i=size;i<limit;i++) {
+			Runnable task = new Runnable() {
+				public void run() {
+					PooledBlockingClient pooledBlockingClient = 
+						getNewPooledBlockingClient(poolForHost, limit);
+					if(pooledBlockingClient==null) return;
+					if(pooledBlockingClient.getBlockingClient()==null) {
+						poolForHost.release();
+						return;
+					}
+					poolForHost.offer(pooledBlockingClient);
+					
+					if(poolForHost.getEstablishedCount()>=limit) {
+						logger.log(Level.FINEST, 
+							"End: Pool {0}; at min size {1}; free size: {2}; fullsize: {3}", 
+							new Object[]{host, minPoolSize, poolForHost.getIdleCount(), 
+								poolForHost.getSize()});
+						synchronized(readyLock) {
+							readyLock.notifyAll();
+						}
+					}
+				}
+			};
+			if(executor==null) {
+				task.run();
+			} else {
+				try {
+					Future future = executor.submit(task);
+					if(tasks!=null) tasks.add(future);
+				} catch(RejectedExecutionException e) {
+					logger.log(Level.FINE, "Pool is closed, not connecting to {0}", host);
+					return;
+				}
 			}
-			poolForHost.add(pooledBlockingClient);			
-			
-			size = getPoolSize(host);
-			if(size==-1) break;
 		}
-		
-		logger.log(Level.FINEST, 
-			"End: Pool {0}; size was less then min size {1}; free size: {2}; fullsize: {3}", 
-			new Object[]{host, minPoolSize, poolForHost.size(), size});
+	}
+	
+	/**
+	 * Returns true when the pool of every ACTIVE host has at least
+	 * minPoolSize clients connected, idle or in use. Connections still
+	 * being made are not counted.
+	 * @since 2.1.0
+	 */
+	public boolean isReady() {
+		Iterator<HostPool> iterator = pool.values().iterator();
+		int limit = Math.min(minPoolSize, maxPoolSize);
+		while(iterator.hasNext()) {
+			HostPool poolForHost = iterator.next();
+			if(poolForHost.getHost().getStatus()==Host.ACTIVE && 
+					poolForHost.getEstablishedCount() < limit) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Waits till the pool is ready, see {@link #isReady()}.
+	 * @return true if it is ready, false if the time passed
+	 * @since 2.1.0
+	 */
+	public boolean awaitReady(long timeoutMiliSec) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMiliSec);
+		synchronized(readyLock) {
+			while(isReady()==false) {
+				long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if(left<=0) return false;
+				readyLock.wait(Math.min(left, 100));
+			}
+		}
+		return true;
 	}
 	
 	private void checkForLeak(SocketBasedHost host) {
-		ConcurrentLinkedQueue poolForInUseHost = inUsePool.get(host);
-		PooledBlockingClient pooledBlockingClient = null;		
-		
-		if(inUsePool.isEmpty()) return;
+		HostPool poolForHost = pool.get(host);
+		if(poolForHost==null || poolForHost.getInUseCount()==0) return;
 		
-		Iterator iterator = poolForInUseHost.iterator();
+		PooledBlockingClient pooledBlockingClient = null;		
+		Iterator iterator = poolForHost.getInUse().iterator();
 		long timedef = 0;
-		List listToRemove = new ArrayList();
+		int leaks = 0;
 		while(iterator.hasNext()) {
 			pooledBlockingClient = (PooledBlockingClient) iterator.next();
-			if(pooledBlockingClient==null) continue;
-			timedef = System.currentTimeMillis() - pooledBlockingClient.getLastActionTime();
+			timedef = CachedClock.currentTimeMillis() - pooledBlockingClient.getLastActionTime();
 			if(timedef<1000) continue;
 			
 			timedef = timedef / 1000;
 			
 			if(timedef > getPoolableBlockingClient().getMaxIntervalForBorrowInSec()) {
+				if(poolForHost.drop(pooledBlockingClient)==false) continue;//was returned
 				logger.log(Level.WARNING, "There looks to be a leak {0}.. closing", pooledBlockingClient);
-				listToRemove.add(pooledBlockingClient);
+				leaks++;
 				pooledBlockingClient.close();
 			}
 		}
-		if(listToRemove.isEmpty()==false) {
-			logger.log(Level.WARNING, "Total number of leaks {0}", listToRemove.size());
-			try {
-				if(lock.writeLock().tryLock(maxTimeToLockInSec, TimeUnit.SECONDS)) {
-					try {
-						poolForInUseHost.removeAll(listToRemove);
-					} finally {
-						lock.writeLock().unlock();
-					}
-				} else {
-					logger.fine("unbale to remove leaks.. will try next time..");
-				}
-			} catch (InterruptedException ex) {
-				logger.log(Level.FINE, "unbale to remove leaks.. will try next time..", ex);
-			}
+		if(leaks>0) {
+			logger.log(Level.WARNING, "Total number of leaks {0}", leaks);
 		}
 	}
 	
 	private void sendNoOp(SocketBasedHost host) {	
-		ConcurrentLinkedQueue<PooledBlockingClient> poolForHost = pool.get(host);
-		ConcurrentLinkedQueue<PooledBlockingClient> poolForInUseHost = inUsePool.get(host);
-		if(poolForHost==null || poolForInUseHost==null) {
+		HostPool poolForHost = pool.get(host);
+		if(poolForHost==null) {
 			throw new IllegalStateException("pool for host was null!");
 		}	
 		
-		int size = poolForHost.size();
-		
+		//take all idle clients out first, so each gets one noop
+		int size = poolForHost.getIdleCount();
+		List<PooledBlockingClient> list = new ArrayList<PooledBlockingClient>(size);
 		PooledBlockingClient pooledBlockingClient = null;		
 		for(int i=0; i<size; i++) {
-			lock.writeLock().lock();
-			try {
-				pooledBlockingClient = (PooledBlockingClient) poolForHost.poll();
-				if(pooledBlockingClient!=null) {
-					pooledBlockingClient.setHandedOut(true);
-					pooledBlockingClient.setPoolToReturn(poolForHost);
-					//pooledBlockingClient.setLastActionTime(System.currentTimeMillis());	
-
-					poolForInUseHost.add(pooledBlockingClient);
-				} else {
-					break;
-				}
-			} finally {
-				lock.writeLock().unlock();
-			}
+			pooledBlockingClient = poolForHost.pop();
+			if(pooledBlockingClient==null) break;
 			
-			if(pooledBlockingClient!=null) {			
-				returnBlockingClient(pooledBlockingClient);//will in-turn send noop	
-				pooledBlockingClient = null;
-			}
+			pooledBlockingClient.setHandedOut(true);
+			pooledBlockingClient.setHostPool(poolForHost);
+			//pooledBlockingClient.setLastActionTime(CachedClock.currentTimeMillis());	
+			poolForHost.handOut(pooledBlockingClient);
+			list.add(pooledBlockingClient);
+		}
+		
+		for(int i=0; i<list.size(); i++) {
+			returnBlockingClient(list.get(i));//will in-turn send noop	
 		}
 	}
 
 	private boolean cleanPool(SocketBasedHost host) {
-		ConcurrentLinkedQueue poolForHost = pool.get(host);
-		ConcurrentLinkedQueue poolForInUseHost = inUsePool.get(host);
-		if(poolForHost==null || poolForInUseHost==null) {
+		HostPool poolForHost = pool.get(host);
+		if(poolForHost==null) {
 			throw new IllegalStateException("pool for host was null! "+host);
 		}	
 		
-		Iterator iterator = poolForInUseHost.iterator();
 		PooledBlockingClient pooledBlockingClient = null;
 		
 		logger.log(Level.FINEST, "Start: Clean Pool {0};  {1}; free size: {2}; fullsize: {3}", 
-			new Object[]{host, minPoolSize, poolForHost.size(), poolForInUseHost.size()});
+			new Object[]{host, minPoolSize, poolForHost.getIdleCount(), poolForHost.getSize()});
 		try {
-			if(lock.writeLock().tryLock(maxTimeToLockInSec, TimeUnit.SECONDS)) {		
+			if(lock.tryLock(maxTimeToLockInSec, TimeUnit.SECONDS)) {		
 				try {
+					Iterator iterator = poolForHost.getInUse().iterator();
 					while(iterator.hasNext()) {
 						pooledBlockingClient = (PooledBlockingClient) iterator.next();
-						if(pooledBlockingClient==null) continue;
-						pooledBlockingClient.setPoolToReturn(null);
+						if(poolForHost.drop(pooledBlockingClient)==false) continue;
+						pooledBlockingClient.setHostPool(null);
 						pooledBlockingClient.close();
 					}
-					poolForInUseHost.clear();
 
-					iterator = poolForHost.iterator();
-					pooledBlockingClient = null;
-					while(iterator.hasNext()) {
-						pooledBlockingClient = (PooledBlockingClient) iterator.next();
-						if(pooledBlockingClient==null) continue;
+					while((pooledBlockingClient = poolForHost.pop())!=null) {
+						poolForHost.release();
 						pooledBlockingClient.close();
 					}
-					poolForHost.clear();
 				} finally {
-					lock.writeLock().unlock();
+					lock.unlock();
 				}
 			
 				logger.log(Level.FINEST, "End: Clean Pool {0};  {1}; free size: {2}; fullsize: {3}", 
-					new Object[]{host, minPoolSize, poolForHost.size(), poolForInUseHost.size()});
+					new Object[]{host, minPoolSize, poolForHost.getIdleCount(), poolForHost.getSize()});
 				return true;
 			} else {
 				return false;
@@ -824,6 +1040,22 @@ public class BlockingClientPool {
 		this.idlePoolSize = idlePoolSize;
 	}
 
+	/**
+	 * Returns the maximum time a borrower waits for a client when the pool
+	 * is at maxPoolSize and blockWhenEmpty is set. If not set it is
+	 * {@link PoolableBlockingClient#getMaxIntervalForBorrowInSec()}.
+	 */
+	public long getMaxWaitForBorrowMiliSec() {
+		if(maxWaitForBorrowMiliSec<0) {
+			return getPoolableBlockingClient().getMaxIntervalForBorrowInSec()*1000L;
+		}
+		return maxWaitForBorrowMiliSec;
+	}
+
+	public void setMaxWaitForBorrowMiliSec(long maxWaitForBorrowMiliSec) {
+		this.maxWaitForBorrowMiliSec = maxWaitForBorrowMiliSec;
+	}
+
 	public HostMonitoringService getHostMonitoringService() {
 		return hostMonitoringService;
 	}
@@ -832,6 +1064,36 @@ public class BlockingClientPool {
 		this.hostMonitoringService = hostMonitoringService;
 	}
 
+	public int getWarmUpParallelism() {
+		return warmUpParallelism;
+	}
+
+	/**
+	 * Sets the number of connections opened at once when the pool warms
+	 * up or is brought back to minPoolSize. Default is 8. Set before init.
+	 * @since 2.1.0
+	 */
+	public void setWarmUpParallelism(int warmUpParallelism) {
+		if(warmUpParallelism<1) throw new IllegalArgumentException("warmUpParallelism should be > 0");
+		this.warmUpParallelism = warmUpParallelism;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Sets the circuit breaker that ejects failing hosts, null for none.
+	 * It uses the HostMonitoringService of this pool.
+	 * @since 2.1.0
+	 */
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		CircuitBreaker old = this.circuitBreaker;
+		if(old!=null && old!=circuitBreaker) old.setHostMonitoringService(null);
+		if(circuitBreaker!=null) circuitBreaker.setHostMonitoringService(getHostMonitoringService());
+		this.circuitBreaker = circuitBreaker;
+	}
+
 	public int getLogPoolStatsTimeInMinute() {
 		return logPoolStatsTimeInMinute;
 	}
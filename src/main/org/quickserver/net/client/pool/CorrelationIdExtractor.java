@@ -0,0 +1,37 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.net.client.pool;
+
+/**
+ * Gets the correlation id out of the messages a {@link MultiplexedClient}
+ * sends and reads, the response with the same id as a request completes
+ * the future of that request. Ids are compared with <code>equals()</code>
+ * and should be unique among the requests outstanding on a connection.
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public interface CorrelationIdExtractor {
+	/**
+	 * Returns the correlation id of the request, a String in LINE mode
+	 * or the object sent in OBJECT mode.
+	 */
+	public Object getRequestId(Object request);
+
+	/**
+	 * Returns the correlation id of the response read, null if the
+	 * response has none and should be ignored.
+	 */
+	public Object getResponseId(Object response);
+}
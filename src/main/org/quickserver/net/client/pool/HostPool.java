@@ -0,0 +1,375 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.net.client.pool;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.quickserver.net.client.SocketBasedHost;
+
+/**
+ * Clients of {@link BlockingClientPool} for one host.
+ * <p>
+ * Idle clients are kept on a lock-free stack, so the most recently used
+ * connection is handed out first, and clients handed out are kept in a
+ * concurrent set. Removing a client from that set is what gives the
+ * right to put it back or drop it, so a client closed by a clean up
+ * while in use can not come back to the pool.
+ * </p>
+ * <p>
+ * The size counts idle clients, clients in use and connections being
+ * made; a slot is reserved with a compare-and-set against the maximum
+ * pool size before a connection is made. The established count leaves
+ * out the connections being made.
+ * </p>
+ * <p>
+ * When the pool is at its maximum size borrowers wait in a FIFO queue.
+ * A client returned while someone waits is handed directly to the oldest
+ * waiter and a slot freed wakes the oldest waiter to make a connection.
+ * The queue has its own lock, which is only taken when there are waiters.
+ * </p>
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+class HostPool {
+	private final SocketBasedHost host;
+
+	private final AtomicReference<Node> top = new AtomicReference<Node>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+	private final Map<PooledBlockingClient, Boolean> inUse =
+		new ConcurrentHashMap<PooledBlockingClient, Boolean>();
+	private final AtomicInteger size = new AtomicInteger();
+
+	private final ReentrantLock waitLock = new ReentrantLock();
+	private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+	private final AtomicInteger waiting = new AtomicInteger();
+
+	/** Upper limits of the wait time buckets in milliseconds. */
+	static final long WAIT_BUCKETS[] = {1, 5, 10, 50, 100, 500, 1000, 5000};
+	private final AtomicLongArray waitTimes = new AtomicLongArray(WAIT_BUCKETS.length+1);
+	private final AtomicLong rejected = new AtomicLong();
+
+	private static class Node {
+		final PooledBlockingClient client;
+		Node next;
+
+		Node(PooledBlockingClient client) {
+			this.client = client;
+		}
+	}
+
+	/**
+	 * A borrower waiting for a client.
+	 */
+	static class Waiter {
+		private final Condition condition;
+		private PooledBlockingClient client;
+		private boolean woken;
+
+		Waiter(Condition condition) {
+			this.condition = condition;
+		}
+
+		/**
+		 * Returns the client handed to this waiter, null if it was woken
+		 * for a free slot or timed out.
+		 */
+		PooledBlockingClient getClient() {
+			return client;
+		}
+
+		/**
+		 * Returns true if the waiter was handed a client or a slot was
+		 * freed for it, false if it timed out.
+		 */
+		boolean isWoken() {
+			return woken;
+		}
+	}
+
+	HostPool(SocketBasedHost host) {
+		this.host = host;
+	}
+
+	SocketBasedHost getHost() {
+		return host;
+	}
+
+	/**
+	 * Reserves a slot for a new connection.
+	 * @return false if the pool is at maxPoolSize
+	 */
+	boolean reserve(int maxPoolSize) {
+		int current = 0;
+		while(true) {
+			current = size.get();
+			if(current>=maxPoolSize) return false;
+			if(size.compareAndSet(current, current+1)) return true;
+		}
+	}
+
+	/**
+	 * Gives back a slot reserved or held by a client that was dropped,
+	 * the oldest waiter is woken to make a new connection.
+	 */
+	void release() {
+		size.decrementAndGet();
+		if(waiting.get()>0) wakeWaiter(null);
+	}
+
+	/**
+	 * Puts an idle client on the stack.
+	 */
+	void push(PooledBlockingClient client) {
+		Node node = new Node(client);
+		Node oldTop = null;
+		do {
+			oldTop = top.get();
+			node.next = oldTop;
+		} while(top.compareAndSet(oldTop, node)==false);
+		idleCount.incrementAndGet();
+	}
+
+	/**
+	 * Takes the most recently used idle client.
+	 * @return null if there is no idle client
+	 */
+	PooledBlockingClient pop() {
+		Node oldTop = null;
+		do {
+			oldTop = top.get();
+			if(oldTop==null) return null;
+		} while(top.compareAndSet(oldTop, oldTop.next)==false);
+		idleCount.decrementAndGet();
+		return oldTop.client;
+	}
+
+	/**
+	 * Takes the idle client used least recently, the others are put back
+	 * in the same order. They are off the stack only for the moves.
+	 * @return null if there is no idle client
+	 */
+	PooledBlockingClient popLeastRecentlyUsed() {
+		List<PooledBlockingClient> taken = new ArrayList<PooledBlockingClient>();
+		PooledBlockingClient client = null;
+		while((client = pop())!=null) {
+			taken.add(client);
+		}
+		if(taken.isEmpty()) return null;
+		client = taken.remove(taken.size()-1);
+		for(int i=taken.size()-1;i>=0;i--) {
+			offer(taken.get(i));
+		}
+		return client;
+	}
+
+	/**
+	 * Makes an idle client available, it is handed directly to the
+	 * oldest waiter if any, else put on the stack.
+	 */
+	void offer(PooledBlockingClient client) {
+		if(waiting.get()>0 && wakeWaiter(client)) return;
+		push(client);
+		
+		//a borrower may have started waiting after we looked
+		if(waiting.get()>0) {
+			waitLock.lock();
+			try {
+				while(waiters.isEmpty()==false) {
+					client = pop();
+					if(client==null) break;
+					wake(waiters.removeFirst(), client);
+				}
+			} finally {
+				waitLock.unlock();
+			}
+		}
+	}
+
+	private boolean wakeWaiter(PooledBlockingClient client) {
+		waitLock.lock();
+		try {
+			if(waiters.isEmpty()) return false;
+			wake(waiters.removeFirst(), client);
+			return true;
+		} finally {
+			waitLock.unlock();
+		}
+	}
+
+	private void wake(Waiter waiter, PooledBlockingClient client) {
+		waiter.client = client;
+		waiter.woken = true;
+		waiter.condition.signal();
+	}
+
+	/**
+	 * Waits in the queue for a client returned or a slot freed.
+	 * @param timeoutNanos maximum time to wait
+	 * @param first if the waiter should go ahead of the queue, as it
+	 *  was woken for a slot it could not get.
+	 * @return the waiter, with the client handed to it if any
+	 */
+	Waiter await(long timeoutNanos, boolean first) {
+		Waiter waiter = null;
+		waiting.incrementAndGet();
+		waitLock.lock();
+		try {
+			waiter = new Waiter(waitLock.newCondition());
+			PooledBlockingClient client = pop();
+			if(client!=null) {
+				waiter.client = client;
+				waiter.woken = true;
+				return waiter;
+			}
+			
+			if(first) waiters.addFirst(waiter);
+			else waiters.addLast(waiter);
+			
+			long left = timeoutNanos;
+			while(waiter.woken==false) {
+				if(left<=0) {
+					waiters.remove(waiter);
+					break;
+				}
+				try {
+					left = waiter.condition.awaitNanos(left);
+				} catch(InterruptedException e) {
+					if(waiter.woken==false) waiters.remove(waiter);
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			return waiter;
+		} finally {
+			waitLock.unlock();
+			waiting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns the number of borrowers waiting.
+	 */
+	int getWaitingCount() {
+		return waiting.get();
+	}
+
+	/**
+	 * Records the time a borrower waited for a client.
+	 */
+	void addWaitTime(long waitNanos) {
+		long waitMs = waitNanos/1000000;
+		int i = 0;
+		for(;i<WAIT_BUCKETS.length;i++) {
+			if(waitMs<WAIT_BUCKETS[i]) break;
+		}
+		waitTimes.incrementAndGet(i);
+	}
+
+	/**
+	 * Returns the count of waits per bucket of {@link #WAIT_BUCKETS},
+	 * the last one is for waits longer than the last limit.
+	 */
+	long[] getWaitTimes() {
+		long counts[] = new long[waitTimes.length()];
+		for(int i=0;i<counts.length;i++) {
+			counts[i] = waitTimes.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * Counts a borrow that got no client.
+	 */
+	void rejected() {
+		rejected.incrementAndGet();
+	}
+
+	long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * Marks the client as in use.
+	 */
+	void handOut(PooledBlockingClient client) {
+		inUse.put(client, Boolean.TRUE);
+	}
+
+	/**
+	 * Takes back the client handed out.
+	 * @return false if the client was not in use, it was dropped by a
+	 *  clean up or returned already.
+	 */
+	boolean takeBack(PooledBlockingClient client) {
+		return inUse.remove(client)!=null;
+	}
+
+	/**
+	 * Puts a client that was in use back in the pool, it goes to the
+	 * oldest waiter if any.
+	 * @return false if the client was not in use
+	 */
+	boolean giveBack(PooledBlockingClient client) {
+		if(takeBack(client)==false) return false;
+		offer(client);
+		return true;
+	}
+
+	/**
+	 * Drops a client that was in use and frees its slot.
+	 * @return false if the client was not in use
+	 */
+	boolean drop(PooledBlockingClient client) {
+		if(takeBack(client)==false) return false;
+		release();
+		return true;
+	}
+
+	List<PooledBlockingClient> getInUse() {
+		return new ArrayList<PooledBlockingClient>(inUse.keySet());
+	}
+
+	int getIdleCount() {
+		return idleCount.get();
+	}
+
+	int getInUseCount() {
+		return inUse.size();
+	}
+
+	/**
+	 * Returns the number of clients in the pool and being connected.
+	 */
+	int getSize() {
+		return size.get();
+	}
+
+	/**
+	 * Returns the number of connected clients, idle and in use; slots
+	 * reserved for connections being made are not counted.
+	 */
+	int getEstablishedCount() {
+		return idleCount.get() + inUse.size();
+	}
+}
@@ -0,0 +1,580 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.net.client.pool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.quickserver.net.client.BlockingClient;
+import org.quickserver.net.client.ClientFuture;
+import org.quickserver.net.client.ClientInfo;
+import org.quickserver.net.client.SocketBasedHost;
+import org.quickserver.net.client.loaddistribution.LoadFeedback;
+import org.quickserver.util.CachedClock;
+
+/**
+ * Sends many outstanding requests over a few connections of a
+ * {@link BlockingClientPool}, instead of holding one connection for
+ * each request till its response comes.
+ * <p>
+ * The host of a request is picked by the LoadDistributor of the pool.
+ * Each host gets up to maxConnectionsPerHost connections, borrowed from
+ * the pool and kept while this client is open, and a request goes to the
+ * connection of the host with the fewest requests outstanding. A
+ * connection with maxOutstandingPerConnection requests outstanding gets
+ * no more; if all connections of the host are full the request fails
+ * right away.
+ * </p>
+ * <p>
+ * Messages are lines (Strings) or Java objects. A thread per connection
+ * reads the responses and the {@link CorrelationIdExtractor} matches them
+ * to the {@link ClientFuture} of the request, so responses may come in
+ * any order. A request with no response within its timeout fails with
+ * a SocketTimeoutException, the connection is kept. If a connection
+ * fails all its outstanding requests fail and it is dropped from the pool.
+ * </p>
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public class MultiplexedClient {
+	private static final Logger logger = Logger.getLogger(MultiplexedClient.class.getName());
+
+	/** Requests and responses are lines. */
+	public static final int LINE = 1;
+	/** Requests and responses are Java objects. */
+	public static final int OBJECT = 2;
+
+	private final String name;
+	private final BlockingClientPool blockingClientPool;
+	private final CorrelationIdExtractor correlationIdExtractor;
+
+	private int dataType = LINE;
+	private String charset = "ISO-8859-1";
+	private int maxConnectionsPerHost = 2;
+	private int maxOutstandingPerConnection = 100;
+	private long timeoutMiliSec = 30000;
+
+	private final Map<SocketBasedHost, List<Connection>> connections =
+		new ConcurrentHashMap<SocketBasedHost, List<Connection>>();
+	private final ScheduledExecutorService timer;
+	private volatile boolean closed;
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong unmatched = new AtomicLong();
+
+	/**
+	 * Creates the client, the pool should be initialised.
+	 */
+	public MultiplexedClient(String name, BlockingClientPool blockingClientPool,
+			CorrelationIdExtractor correlationIdExtractor) {
+		if(blockingClientPool==null) throw new NullPointerException("BlockingClientPool is null");
+		if(correlationIdExtractor==null) throw new NullPointerException("CorrelationIdExtractor is null");
+		this.name = name;
+		this.blockingClientPool = blockingClientPool;
+		this.correlationIdExtractor = correlationIdExtractor;
+
+		timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, MultiplexedClient.this.name+"-Timer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		//connections are held for long, keep the leak check of the pool off them
+		long touchInterval = Math.max(1,
+			blockingClientPool.getPoolableBlockingClient().getMaxIntervalForBorrowInSec()/2);
+		timer.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				touchConnections();
+			}
+		}, touchInterval, touchInterval, TimeUnit.SECONDS);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public BlockingClientPool getBlockingClientPool() {
+		return blockingClientPool;
+	}
+
+	public CorrelationIdExtractor getCorrelationIdExtractor() {
+		return correlationIdExtractor;
+	}
+
+	/**
+	 * Sets the type of messages, {@link #LINE} or {@link #OBJECT}.
+	 * Default is LINE.
+	 */
+	public void setDataType(int dataType) {
+		if(dataType!=LINE && dataType!=OBJECT)
+			throw new IllegalArgumentException("Unknown data type: "+dataType);
+		this.dataType = dataType;
+	}
+	public int getDataType() {
+		return dataType;
+	}
+
+	/**
+	 * Sets the charset of the lines, default is ISO-8859-1.
+	 */
+	public void setCharset(String charset) {
+		this.charset = charset;
+	}
+	public String getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Sets the maximum number of connections opened to a host, default is 2.
+	 */
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	/**
+	 * Sets the maximum number of requests outstanding on a connection,
+	 * default is 100.
+	 */
+	public void setMaxOutstandingPerConnection(int maxOutstandingPerConnection) {
+		this.maxOutstandingPerConnection = maxOutstandingPerConnection;
+	}
+	public int getMaxOutstandingPerConnection() {
+		return maxOutstandingPerConnection;
+	}
+
+	/**
+	 * Sets the default time to wait for a response in milliseconds,
+	 * 0 to wait for ever. Default is 30000.
+	 */
+	public void setTimeoutMiliSec(long timeoutMiliSec) {
+		this.timeoutMiliSec = timeoutMiliSec;
+	}
+	public long getTimeoutMiliSec() {
+		return timeoutMiliSec;
+	}
+
+	/**
+	 * Sends the request with the default timeout.
+	 * @see #send(Object, ClientInfo, long)
+	 */
+	public ClientFuture send(Object request) {
+		return send(request, null, timeoutMiliSec);
+	}
+
+	/**
+	 * Sends the request, the future returned completes with the response.
+	 * @param request a String in LINE mode, else a Serializable object
+	 * @param clientInfo passed to the LoadDistributor to pick the host,
+	 *  may be null
+	 * @param timeoutMiliSec time to wait for the response, 0 to wait for ever
+	 */
+	public ClientFuture send(Object request, ClientInfo clientInfo, long timeoutMiliSec) {
+		ClientFuture future = new ClientFuture();
+		if(closed) {
+			future.fail(new IOException("MultiplexedClient "+name+" is closed"));
+			return future;
+		}
+
+		SocketBasedHost host = (SocketBasedHost) blockingClientPool.getPoolableBlockingClient().
+			getLoadDistributor().getHost(clientInfo);
+		if(host==null) {
+			rejected.incrementAndGet();
+			future.fail(new IOException("LoadDistributor gave no host"));
+			return future;
+		}
+
+		Connection connection = getConnection(host);
+		if(connection==null) {
+			rejected.incrementAndGet();
+			future.fail(new IOException("No connection to "+host+" with room for a request"));
+			return future;
+		}
+		connection.send(request, future, timeoutMiliSec);
+		return future;
+	}
+
+	/**
+	 * Sends the request and waits for the response.
+	 * @exception SocketTimeoutException if no response came in time
+	 */
+	public Object sendAndReceive(Object request) throws IOException {
+		return send(request).await(0);
+	}
+
+	/**
+	 * Returns a connection of the host with room for a request, the
+	 * request is already counted on it. An idle connection is used first,
+	 * then a new one if the host has less than maxConnectionsPerHost,
+	 * else the one with fewest requests outstanding.
+	 */
+	private Connection getConnection(SocketBasedHost host) {
+		List<Connection> list = connections.get(host);
+		if(list==null) {
+			synchronized(connections) {
+				list = connections.get(host);
+				if(list==null) {
+					list = new CopyOnWriteArrayList<Connection>();
+					connections.put(host, list);
+				}
+			}
+		}
+
+		Connection best = null;
+		for(int tries=0;tries<3;tries++) {
+			best = null;
+			Iterator<Connection> iterator = list.iterator();
+			while(iterator.hasNext()) {
+				Connection connection = iterator.next();
+				if(best==null || connection.outstanding.get() < best.outstanding.get()) {
+					best = connection;
+				}
+			}
+
+			if(best!=null && best.outstanding.get()==0 && best.acquire()) return best;
+
+			if(list.size() < maxConnectionsPerHost) {
+				synchronized(list) {
+					if(list.size() < maxConnectionsPerHost) {
+						Connection connection = openConnection(host, list);
+						if(connection!=null && connection.acquire()) return connection;
+					}
+				}
+			}
+
+			if(best!=null && best.acquire()) return best;
+		}
+		return null;
+	}
+
+	private Connection openConnection(SocketBasedHost host, List<Connection> list) {
+		PooledBlockingClient pooledBlockingClient = blockingClientPool.getBlockingClientByHost(host, false);
+		if(pooledBlockingClient==null) return null;
+		if(pooledBlockingClient.getBlockingClient()==null) {
+			blockingClientPool.returnBlockingClient(pooledBlockingClient);
+			return null;
+		}
+		Connection connection = new Connection(host, pooledBlockingClient, list);
+		list.add(connection);
+		connection.start();
+		logger.log(Level.FINE, "Opened {0}", connection);
+		return connection;
+	}
+
+	private void touchConnections() {
+		Iterator<List<Connection>> iterator = connections.values().iterator();
+		while(iterator.hasNext()) {
+			Iterator<Connection> connectionIterator = iterator.next().iterator();
+			while(connectionIterator.hasNext()) {
+				connectionIterator.next().pooledBlockingClient.setLastActionTime(
+					CachedClock.currentTimeMillis());
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of requests waiting for a response.
+	 */
+	public int getOutstandingCount() {
+		int count = 0;
+		Iterator<List<Connection>> iterator = connections.values().iterator();
+		while(iterator.hasNext()) {
+			Iterator<Connection> connectionIterator = iterator.next().iterator();
+			while(connectionIterator.hasNext()) {
+				count += connectionIterator.next().outstanding.get();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Closes all connections, the requests outstanding fail.
+	 * The connections are dropped from the pool.
+	 */
+	public void close() {
+		closed = true;
+		List<Connection> all = new ArrayList<Connection>();
+		Iterator<List<Connection>> iterator = connections.values().iterator();
+		while(iterator.hasNext()) {
+			all.addAll(iterator.next());
+		}
+		for(int i=0;i<all.size();i++) {
+			all.get(i).close(new IOException("MultiplexedClient "+name+" was closed"));
+		}
+		timer.shutdownNow();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	public String getStats() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(name).append(", ");
+		sb.append("Sent, ").append(sent.get()).append(", ");
+		sb.append("Received, ").append(received.get()).append(", ");
+		sb.append("Timeouts, ").append(timeouts.get()).append(", ");
+		sb.append("Rejected, ").append(rejected.get()).append(", ");
+		sb.append("Unmatched, ").append(unmatched.get()).append("\r\n");
+
+		Iterator<Map.Entry<SocketBasedHost, List<Connection>>> iterator =
+			connections.entrySet().iterator();
+		while(iterator.hasNext()) {
+			Map.Entry<SocketBasedHost, List<Connection>> entry = iterator.next();
+			List<Connection> list = entry.getValue();
+			int outstanding = 0;
+			Iterator<Connection> connectionIterator = list.iterator();
+			while(connectionIterator.hasNext()) {
+				outstanding += connectionIterator.next().outstanding.get();
+			}
+			sb.append(entry.getKey()).append(", ");
+			sb.append("Connections, ").append(list.size()).append(", ");
+			sb.append("Outstanding, ").append(outstanding).append("\r\n");
+		}
+		return sb.toString();
+	}
+
+	public String toString() {
+		return "MultiplexedClient["+name+"]";
+	}
+
+	/**
+	 * A request waiting for its response.
+	 */
+	private static class Request {
+		final Object id;
+		final ClientFuture future;
+		final long startNanos = System.nanoTime();
+		volatile ScheduledFuture timeoutTask;
+
+		Request(Object id, ClientFuture future) {
+			this.id = id;
+			this.future = future;
+		}
+	}
+
+	/**
+	 * A connection borrowed from the pool and the requests outstanding on it.
+	 */
+	private class Connection implements Runnable {
+		final SocketBasedHost host;
+		final PooledBlockingClient pooledBlockingClient;
+		final BlockingClient blockingClient;
+		final List<Connection> list;
+
+		final ConcurrentHashMap<Object, Request> pending = new ConcurrentHashMap<Object, Request>();
+		final AtomicInteger outstanding = new AtomicInteger();
+		private final Object writeLock = new Object();
+		private volatile boolean closed;
+		private Thread reader;
+
+		Connection(SocketBasedHost host, PooledBlockingClient pooledBlockingClient,
+				List<Connection> list) {
+			this.host = host;
+			this.pooledBlockingClient = pooledBlockingClient;
+			this.blockingClient = pooledBlockingClient.getBlockingClient();
+			this.list = list;
+		}
+
+		void start() {
+			reader = new Thread(this, name+"-Reader-"+host);
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		/**
+		 * Counts a request on this connection if it has room for it.
+		 */
+		boolean acquire() {
+			int current = 0;
+			while(true) {
+				if(closed) return false;
+				current = outstanding.get();
+				if(current>=maxOutstandingPerConnection) return false;
+				if(outstanding.compareAndSet(current, current+1)) return true;
+			}
+		}
+
+		void send(Object request, final ClientFuture future, long timeout) {
+			Object id = null;
+			try {
+				id = correlationIdExtractor.getRequestId(request);
+			} catch(RuntimeException e) {
+				outstanding.decrementAndGet();
+				future.fail(e);
+				return;
+			}
+			if(id==null) {
+				outstanding.decrementAndGet();
+				future.fail(new IllegalArgumentException("Request has no correlation id"));
+				return;
+			}
+
+			final Request pendingRequest = new Request(id, future);
+			if(pending.putIfAbsent(id, pendingRequest)!=null) {
+				outstanding.decrementAndGet();
+				future.fail(new IOException("Request with correlation id "+id+
+					" is already outstanding on "+host));
+				return;
+			}
+			LoadFeedback loadFeedback = blockingClientPool.getLoadFeedback();
+			if(loadFeedback!=null) loadFeedback.requestStarted(host);
+			if(closed && pending.remove(id)!=null) {
+				done(pendingRequest, false);
+				future.fail(new IOException("Connection to "+host+" was closed"));
+				return;
+			}
+
+			if(timeout>0) {
+				final Object requestId = id;
+				pendingRequest.timeoutTask = timer.schedule(new Runnable() {
+					public void run() {
+						if(pending.remove(requestId, pendingRequest)) {
+							done(pendingRequest, false);
+							timeouts.incrementAndGet();
+							future.fail(new SocketTimeoutException(
+								"No response for "+requestId+" from "+host));
+						}
+					}
+				}, timeout, TimeUnit.MILLISECONDS);
+			}
+
+			try {
+				synchronized(writeLock) {
+					if(dataType==OBJECT) {
+						blockingClient.sendObject(request);
+					} else {
+						blockingClient.sendLine((String) request, charset);
+					}
+				}
+				sent.incrementAndGet();
+				pooledBlockingClient.setLastActionTime(CachedClock.currentTimeMillis());
+			} catch(IOException e) {
+				close(e);
+			}
+		}
+
+		public void run() {
+			Object response = null;
+			Object id = null;
+			Request request = null;
+			while(closed==false) {
+				try {
+					if(dataType==OBJECT) {
+						response = blockingClient.readObject();
+					} else {
+						response = blockingClient.readLine();
+					}
+				} catch(SocketTimeoutException e) {
+					continue;
+				} catch(Exception e) {
+					close(e);
+					break;
+				}
+				if(response==null) {
+					close(new EOFException("Connection closed by "+host));
+					break;
+				}
+				received.incrementAndGet();
+				pooledBlockingClient.setLastActionTime(CachedClock.currentTimeMillis());
+
+				try {
+					id = correlationIdExtractor.getResponseId(response);
+				} catch(RuntimeException e) {
+					logger.log(Level.WARNING, "Error getting correlation id: "+e, e);
+					id = null;
+				}
+				request = null;
+				if(id!=null) request = pending.remove(id);
+				if(request==null) {
+					unmatched.incrementAndGet();
+					logger.log(Level.FINE, "No request for response id {0} on {1}",
+						new Object[]{id, this});
+					continue;
+				}
+				done(request, true);
+				request.future.complete(response);
+			}
+		}
+
+		private void done(Request request, boolean success) {
+			outstanding.decrementAndGet();
+			ScheduledFuture timeoutTask = request.timeoutTask;
+			if(timeoutTask!=null) timeoutTask.cancel(false);
+			blockingClientPool.requestEnded(host, System.nanoTime() - request.startNanos, success);
+		}
+
+		void close(Throwable cause) {
+			synchronized(this) {
+				if(closed) return;
+				closed = true;
+			}
+			list.remove(this);
+			if(MultiplexedClient.this.closed==false) {
+				logger.log(Level.WARNING, "Closing {0}: {1}", new Object[]{this, cause});
+			}
+
+			IOException error = null;
+			if(cause instanceof IOException) {
+				error = (IOException) cause;
+			} else {
+				error = new IOException("Connection to "+host+" failed: "+cause);
+				error.initCause(cause);
+			}
+			Iterator<Request> iterator = pending.values().iterator();
+			while(iterator.hasNext()) {
+				Request request = iterator.next();
+				if(pending.remove(request.id, request)) {
+					done(request, false);
+					request.future.fail(error);
+				}
+			}
+
+			try {
+				blockingClient.close();
+			} catch(IOException e) {
+				logger.log(Level.FINE, "Error closing: {0}", e);
+			}
+			pooledBlockingClient.setBlockingClient(null);
+			blockingClientPool.returnBlockingClient(pooledBlockingClient);//will drop it
+		}
+
+		public String toString() {
+			return "Connection["+host+", outstanding="+outstanding.get()+"]";
+		}
+	}
+}
@@ -7,6 +7,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.quickserver.net.client.BlockingClient;
 import org.quickserver.net.client.SocketBasedHost;
+import org.quickserver.util.CachedClock;
 
 /**
  *
@@ -23,8 +24,10 @@ public class PooledBlockingClient {
 	private long lastActionTime;
 	
 	private boolean handedOut;
+	private long borrowedNanos;
 	
-	private ConcurrentLinkedQueue poolToReturn;
+	private volatile HostPool poolToReturn;
+	private ConcurrentLinkedQueue legacyPoolToReturn;
 	
 	private PoolableBlockingClient poolableBlockingClient;
 	private SocketBasedHost socketBasedHost;
@@ -45,7 +48,7 @@ public class PooledBlockingClient {
 		this.socketBasedHost = socketBasedHost;
 		
 		blockingClient = poolableBlockingClient.createBlockingClient(socketBasedHost);
-		connectedTime = System.currentTimeMillis();
+		connectedTime = CachedClock.currentTimeMillis();
 		handedOutCount = 0;
 		handedOutSince = -1;
 		handedOut = false;
@@ -62,6 +65,7 @@ public class PooledBlockingClient {
 		}
 		blockingClient = null;
 		poolToReturn = null;
+		legacyPoolToReturn = null;
 		poolableBlockingClient = null;
 	}
 	
@@ -83,33 +87,23 @@ public class PooledBlockingClient {
 		}
 	}
 	
-	protected void returnToPool(ConcurrentLinkedQueue poolForInUseHost, ReentrantReadWriteLock lock) {
-		if(poolToReturn!=null) {
-			setLastActionTime(System.currentTimeMillis());	
-			
-			Object objToLock = null;
-			if(poolableBlockingClient.isBlockWhenEmpty()) {
-				objToLock = poolToReturn;
-			}
-			
-			lock.writeLock().lock();
-			try {
-				if(poolForInUseHost!=null) poolForInUseHost.remove(this);
-				setHandedOut(false);
-				poolToReturn.add(this);
-				poolToReturn = null;
-			} finally {
-				lock.writeLock().unlock();
-			}			
-			
-			if(poolableBlockingClient.isBlockWhenEmpty()) {
-				synchronized(objToLock) {
-					objToLock.notify();
-				}
-			}
-		} else {
-			Logger.getLogger(PooledBlockingClient.class.getName()).log(Level.WARNING, 
-				"poolToReturn was null.. will close");
+	/**
+	 * Puts this client back in the pool of its host, it is handed to the
+	 * oldest borrower waiting if any. If it was dropped from the pool while
+	 * in use it is closed.
+	 */
+	protected void returnToPool() {
+		HostPool hostPool = poolToReturn;
+		if(hostPool!=null) {
+			poolToReturn = null;
+			setLastActionTime(CachedClock.currentTimeMillis());
+			setHandedOut(false);
+			if(hostPool.giveBack(this)) return;
+		}
+		
+		Logger.getLogger(PooledBlockingClient.class.getName()).log(Level.WARNING, 
+			"poolToReturn was null.. will close");
+		if(getBlockingClient()!=null) {
 			try {
 				getBlockingClient().close();
 			} catch (IOException ex) {
@@ -118,6 +112,37 @@ public class PooledBlockingClient {
 		}
 	}
 
+	/**
+	 * Puts this client back in the pool it was borrowed from; a client of
+	 * {@link BlockingClientPool} goes back to the pool of its host and the
+	 * arguments are not used, else it is moved from poolForInUseHost to the
+	 * queue set with {@link #setPoolToReturn(ConcurrentLinkedQueue)}.
+	 * @deprecated since 2.1.0, use {@link BlockingClientPool#returnBlockingClient}
+	 */
+	@Deprecated
+	protected void returnToPool(ConcurrentLinkedQueue poolForInUseHost, 
+			ReentrantReadWriteLock lock) {
+		ConcurrentLinkedQueue queue = legacyPoolToReturn;
+		if(poolToReturn!=null || queue==null) {
+			returnToPool();
+			return;
+		}
+		
+		setLastActionTime(CachedClock.currentTimeMillis());
+		lock.writeLock().lock();
+		try {
+			if(poolForInUseHost!=null) poolForInUseHost.remove(this);
+			setHandedOut(false);
+			queue.add(this);
+			legacyPoolToReturn = null;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		synchronized(queue) {
+			queue.notify();
+		}
+	}
+
 	public BlockingClient getBlockingClient() {
 		return blockingClient;
 	}
@@ -158,20 +183,53 @@ public class PooledBlockingClient {
 		this.handedOut = handedOut;
 		if(handedOut) {
 			handedOutCount++;
-			handedOutSince = System.currentTimeMillis();			
+			handedOutSince = CachedClock.currentTimeMillis();			
 		} else {
 			handedOutSince = -1;
 		}
 	}
 
-	public ConcurrentLinkedQueue getPoolToReturn() {
+	HostPool getHostPool() {
 		return poolToReturn;
 	}
 
-	public void setPoolToReturn(ConcurrentLinkedQueue poolToReturn) {
+	void setHostPool(HostPool poolToReturn) {
 		this.poolToReturn = poolToReturn;
 	}
 
+	/**
+	 * Returns the queue set with {@link #setPoolToReturn(ConcurrentLinkedQueue)}.
+	 * A client of {@link BlockingClientPool} is not kept in a queue, see
+	 * {@link #isHandedOut()} to know if it is in use.
+	 * @deprecated since 2.1.0, clients of BlockingClientPool are kept per host
+	 */
+	@Deprecated
+	public ConcurrentLinkedQueue getPoolToReturn() {
+		return legacyPoolToReturn;
+	}
+
+	/**
+	 * Sets the queue {@link #returnToPool(ConcurrentLinkedQueue, ReentrantReadWriteLock)}
+	 * puts this client in, for a client not borrowed from {@link BlockingClientPool}.
+	 * @deprecated since 2.1.0, clients of BlockingClientPool are kept per host
+	 */
+	@Deprecated
+	public void setPoolToReturn(ConcurrentLinkedQueue poolToReturn) {
+		this.legacyPoolToReturn = poolToReturn;
+	}
+
+	/**
+	 * Time the client was borrowed at, from System.nanoTime(), if the
+	 * borrow is reported to the LoadFeedback of the pool, else 0.
+	 */
+	long getBorrowedNanos() {
+		return borrowedNanos;
+	}
+
+	void setBorrowedNanos(long borrowedNanos) {
+		this.borrowedNanos = borrowedNanos;
+	}
+
 	public SocketBasedHost getSocketBasedHost() {
 		return socketBasedHost;
 	}
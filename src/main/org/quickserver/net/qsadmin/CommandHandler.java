@@ -34,6 +34,9 @@ import java.util.*;
 import org.quickserver.util.pool.*;
 import org.apache.commons.pool.ObjectPool;
 import org.quickserver.net.server.ClientIdentifier;
+import org.quickserver.net.server.SSLHandshakeStats;
+import org.quickserver.net.server.DatagramStats;
+import org.quickserver.security.CredentialCache;
 
 /**
  * ClientCommandHandler for QSAdminServer.
@@ -138,6 +141,12 @@ import org.quickserver.net.server.ClientIdentifier;
  * <tr><td>jvm</td><td>threadDump log</td><td>Take thread dump to jdk log</td></tr>
  * <tr><td>jvm</td><td>dumpHeap</td><td>Dump Heap to file</td></tr>
  *
+ * <tr><td colspan=3>New Command in v2.1.0 </td></tr>
+ * <tr><td>metrics</td><td>&lt;&lt;target&gt;&gt;</td><td>Gives client counts and rates, bytes in and out and latency of handler callbacks and writes for the target.</td></tr>
+ * <tr><td>metrics-reset</td><td>&lt;&lt;target&gt;&gt;</td><td>Clears the metrics of the target.</td></tr>
+ * <tr><td>set</td><td>&lt;&lt;target&gt;&gt; metrics</td><td>Sets if handler callbacks and writes are timed for the target.</td></tr>
+ * <tr><td>get</td><td>&lt;&lt;target&gt;&gt; metrics</td><td>Gets if handler callbacks and writes are timed for the target.</td></tr>
+ *
  * <tr><td colspan=3>* = Take effect after a restart command.<br>
  *      value if set null then key will be set to <code>null</code>
  *     </td></tr>
@@ -595,7 +604,7 @@ public class CommandHandler implements ClientCommandHandler, ClientEventHandler
 			return;
 		} else if(cmd.equals("client-handler-pool-dump")) /*v1.4.6*/{
 			
-			ObjectPool objectPool = target.getClientHandlerPool();
+			ObjectPool objectPool = getClientHandlerPool(target);
 
 			if(PoolHelper.isPoolOpen(objectPool)==true) {
 				if(QSObjectPool.class.isInstance(objectPool)==false) {
@@ -647,6 +656,92 @@ public class CommandHandler implements ClientCommandHandler, ClientEventHandler
 				handler.sendClientMsg("-ERR No ByteBuffer Pool");
 			}
 			return;
+		} else if(cmd.equals("ssl-handshake-info")) /*v2.1.0*/{
+			//full:resumed:failed:avgFullMs:avgResumedMs:maxMs
+			SSLHandshakeStats stats = target.getSSLHandshakeStats();
+			temp.setLength(0);
+			temp.append(stats.getFullHandshakeCount()).append(':');
+			temp.append(stats.getResumedHandshakeCount()).append(':');
+			temp.append(stats.getFailedHandshakeCount()).append(':');
+			temp.append(stats.getAverageFullHandshakeTime()).append(':');
+			temp.append(stats.getAverageResumedHandshakeTime()).append(':');
+			temp.append(stats.getMaxHandshakeTime());
+			handler.sendClientMsg("+OK "+temp.toString());
+			return;
+		} else if(cmd.equals("credential-cache-info")) /*v2.1.0*/{
+			//size:maxSize:hits:negativeHits:misses:evictions
+			CredentialCache cache = target.getCredentialCache();
+			if(cache==null) {
+				handler.sendClientMsg("-ERR Credential cache is not enabled");
+				return;
+			}
+			temp.setLength(0);
+			temp.append(cache.size()).append(':');
+			temp.append(cache.getMaxSize()).append(':');
+			temp.append(cache.getHitCount()).append(':');
+			temp.append(cache.getNegativeHitCount()).append(':');
+			temp.append(cache.getMissCount()).append(':');
+			temp.append(cache.getEvictionCount());
+			handler.sendClientMsg("+OK "+temp.toString());
+			return;
+		} else if(cmd.equals("datagram-stats")) /*v2.1.0*/{
+			//received:receivedBytes:denied:handlerErrors:sent:sentBytes:sendDropped:sources
+			//followed by top sources if a count is passed
+			DatagramStats stats = target.getDatagramStats();
+			temp.setLength(0);
+			temp.append(stats.getReceivedPackets()).append(':');
+			temp.append(stats.getReceivedBytes()).append(':');
+			temp.append(stats.getDeniedPackets()).append(':');
+			temp.append(stats.getHandlerErrors()).append(':');
+			temp.append(stats.getSentPackets()).append(':');
+			temp.append(stats.getSentBytes()).append(':');
+			temp.append(stats.getSendDropped()).append(':');
+			temp.append(stats.getSourceCount());
+			if(param.length<2) {
+				handler.sendClientMsg("+OK "+temp.toString());
+				return;
+			}
+			int max = 10;
+			try {
+				max = Integer.parseInt(param[1]);
+			} catch(NumberFormatException e) {
+				handler.sendClientMsg("-ERR Bad count: "+param[1]);
+				return;
+			}
+			handler.sendClientMsg("+OK info follows");
+			handler.sendClientMsg(temp.toString());
+			Iterator iterator = stats.getTopSources(max).iterator();
+			while(iterator.hasNext()) {
+				handler.sendClientMsg(iterator.next().toString());
+			}
+			handler.sendClientMsg(".");
+			return;
+		} else if(cmd.equals("credential-cache-invalidate")) /*v2.1.0*/{
+			CredentialCache cache = target.getCredentialCache();
+			if(cache==null) {
+				handler.sendClientMsg("-ERR Credential cache is not enabled");
+				return;
+			}
+			if(param.length<2) {
+				cache.clear();
+				handler.sendClientMsg("+OK Credential cache cleared");
+			} else {
+				int count = cache.invalidate(param[1]);
+				handler.sendClientMsg("+OK "+count+" entries removed");
+			}
+			return;
+		} else if(cmd.equals("metrics")) /*v2.1.0*/{
+			handler.sendClientMsg("+OK info follows");
+			Iterator iterator = target.getMetrics().getSnapshot().iterator();
+			while(iterator.hasNext()) {
+				handler.sendClientMsg(iterator.next().toString());
+			}
+			handler.sendClientMsg(".");
+			return;
+		} else if(cmd.equals("metrics-reset")) /*v2.1.0*/{
+			target.getMetrics().reset();
+			handler.sendClientMsg("+OK Metrics reset");
+			return;
 		} else if(cmd.equals("all-pool-info")) /*v1.4.5*/{
 			handler.sendClientMsg("+OK info follows");
 			temp.setLength(0);//used:idle
@@ -667,7 +762,7 @@ public class CommandHandler implements ClientCommandHandler, ClientEventHandler
 			handler.sendClientMsg(temp.toString());
 			temp.setLength(0);
 
-			if(PoolHelper.isPoolOpen(target.getClientHandlerPool())==true) {
+			if(PoolHelper.isPoolOpen(getClientHandlerPool(target))==true) {
 				temp.append("Client Handler Pool - ");
 				temp.append("Num Active: ");
 				temp.append(target.getClientHandlerPool().getNumActive());
@@ -833,6 +928,8 @@ public class CommandHandler implements ClientCommandHandler, ClientEventHandler
 						target.setCommunicationLogging(true);
 					else
 						target.setCommunicationLogging(false);
+				} else if(param[1].equals("metrics")) {/* v2.1.0 */
+					target.getMetrics().setEnabled(param[2].equals("true"));
 				} else if(param[1].equals("objectPoolConfig-maxActive")) {
 					int no = Integer.parseInt(param[2]);
 					target.getConfig().getObjectPoolConfig().setMaxActive(no);
@@ -930,6 +1027,9 @@ public class CommandHandler implements ClientCommandHandler, ClientEventHandler
 				} else if(param[1].equals("communicationLogging")) {
 					String msg=""+target.getCommunicationLogging();
 					handler.sendClientMsg("+OK "+msg);
+				} else if(param[1].equals("metrics")) {/* v2.1.0 */
+					String msg=""+target.getMetrics().isEnabled();
+					handler.sendClientMsg("+OK "+msg);
 				} else if(param[1].equals("objectPoolConfig-maxActive")) {
 					String msg=""+target.getConfig().getObjectPoolConfig().getMaxActive();
 					handler.sendClientMsg("+OK "+msg);
@@ -948,7 +1048,7 @@ public class CommandHandler implements ClientCommandHandler, ClientEventHandler
 			return;
 		} else if(cmd.equals("kill-clients-all")) /*v2.0.0*/{
 			
-			ObjectPool objectPool = target.getClientHandlerPool();
+			ObjectPool objectPool = getClientHandlerPool(target);
 
 			if(PoolHelper.isPoolOpen(objectPool)==true) {
 				if(QSObjectPool.class.isInstance(objectPool)==false) {
@@ -986,7 +1086,7 @@ public class CommandHandler implements ClientCommandHandler, ClientEventHandler
 			}
 			String search = param[1];
 			
-			ObjectPool objectPool = target.getClientHandlerPool();
+			ObjectPool objectPool = getClientHandlerPool(target);
 
 			if(PoolHelper.isPoolOpen(objectPool)==true) {
 				if(QSObjectPool.class.isInstance(objectPool)==false) {
@@ -1023,4 +1123,16 @@ public class CommandHandler implements ClientCommandHandler, ClientEventHandler
 		}
 		return;
 	}
+
+	/**
+	 * Returns the ClientHandler pool of the target, <code>null</code> if it
+	 * has none (not started or in UDP mode).
+	 */
+	private static ObjectPool getClientHandlerPool(QuickServer target) {
+		try {
+			return target.getClientHandlerPool();
+		} catch(IllegalStateException e) {
+			return null;
+		}
+	}
 }
@@ -0,0 +1,209 @@
+/*
+ * This file is part of the QuickServer library 
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License. 
+ * You should have received a copy of the GNU LGP License along with this 
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.net.server;
+
+import java.io.*;
+import java.util.logging.*;
+import org.quickserver.net.AppException;
+import org.quickserver.security.CredentialCache;
+
+/**
+ * ClientAuthenticationHandler that asks the client a fixed set of questions 
+ * (like user name and password) and then checks the answers. Unlike 
+ * {@link QuickAuthenticator} it never blocks a thread waiting for the client,
+ * each answer is handled as it arrives on the normal read path, so it should
+ * be used in non-blocking mode. It also works in blocking mode.
+ * <p>
+ * The check can be done asynchronously: return {@link AuthStatus#PENDING} 
+ * from {@link #checkCredentials} and call {@link #complete} with the token
+ * passed to it when the check is done. The token ties the result to the 
+ * attempt it was started for, results that come after the client closed 
+ * or started a new attempt are dropped. The ClientHandler should implement
+ * {@link AsyncAuthenticationSupport}.
+ * </p>
+ * <p>
+ * If the server has a {@link CredentialCache} (see 
+ * &lt;credential-cache&gt;) the answers are looked up in it first and 
+ * {@link #checkCredentials} is called only if they are not cached.
+ * The first answer is taken as the principal for invalidation.
+ * </p>
+ * <p>
+ * Ex:
+ * <code><BLOCKQUOTE><pre>
+package echoserver;
+
+import org.quickserver.net.server.*;
+import java.io.*;
+
+public class EchoAsyncAuthenticationHandler extends AsyncAuthenticationHandler {
+	public EchoAsyncAuthenticationHandler() {
+		super(new String[]{"User Name :", "Password :"});
+	}
+
+	protected AuthStatus checkCredentials(final ClientHandler handler, 
+			final Object token, final String answers[]) throws IOException {
+		executor.execute(new Runnable() {
+			public void run() {
+				boolean valid = directory.check(answers[0], answers[1]);
+				complete(handler, token, valid?AuthStatus.SUCCESS:AuthStatus.FAILURE);
+			}
+		});
+		return AuthStatus.PENDING;
+	}
+
+	protected void authenticationDone(ClientHandler handler, AuthStatus status) 
+			throws IOException {
+		handler.sendClientMsg(status==AuthStatus.SUCCESS?"Auth OK":"Auth Failed");
+	}
+}
+ </pre></BLOCKQUOTE></code></p>
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public abstract class AsyncAuthenticationHandler 
+		extends QuickAuthenticationHandler {
+	private static final Logger logger = 
+		Logger.getLogger(AsyncAuthenticationHandler.class.getName());
+	private String prompts[];
+
+	/**
+	 * @param prompts questions sent to the client, one line of answer is
+	 *  read for each.
+	 */
+	public AsyncAuthenticationHandler(String prompts[]) {
+		if(prompts==null || prompts.length==0)
+			throw new IllegalArgumentException("No prompts passed");
+		this.prompts = (String[]) prompts.clone();
+	}
+
+	/**
+	 * Checks the answers of the client.
+	 * @param token identifies this check, to be passed to {@link #complete}
+	 * @return {@link AuthStatus#SUCCESS}, {@link AuthStatus#FAILURE} 
+	 *  (the prompts are sent again) or {@link AuthStatus#PENDING} if the 
+	 *  check will complete later with {@link #complete}.
+	 */
+	protected abstract AuthStatus checkCredentials(ClientHandler handler, 
+		Object token, String answers[]) throws IOException, AppException;
+
+	/**
+	 * Called with the result of the check, before it is applied. Can be
+	 * used to send the result to the client. Default does nothing.
+	 */
+	protected void authenticationDone(ClientHandler handler, AuthStatus status) 
+			throws IOException {
+	}
+
+	/**
+	 * Completes a check for which {@link #checkCredentials} returned
+	 * {@link AuthStatus#PENDING}. Can be called from any thread.
+	 * @param token the token passed to {@link #checkCredentials}
+	 * @param status {@link AuthStatus#SUCCESS} or {@link AuthStatus#FAILURE}
+	 * @return <code>false</code> if the attempt of the token has ended 
+	 *  (client closed or the handler is used by another client), the 
+	 *  status is then dropped.
+	 */
+	public boolean complete(ClientHandler handler, Object token, 
+			AuthStatus status) {
+		if(status!=AuthStatus.SUCCESS && status!=AuthStatus.FAILURE)
+			throw new IllegalArgumentException("Status should be SUCCESS or FAILURE: "+status);
+		if((token instanceof State)==false)
+			throw new IllegalArgumentException("Not a token passed to checkCredentials(): "+token);
+		AsyncAuthenticationSupport support = getSupport(handler);
+		State state = (State) token;
+		if(state.attempt==null || state.attempt!=support.getAuthenticationToken()) {
+			logger.fine("Dropped result of an ended authentication attempt");
+			return false;
+		}
+		//answers of the token, not of the client using the handler now
+		cacheResult(handler, state.answers, status);
+		if(support.getAuthenticationState()==state)
+			support.setAuthenticationState(null);
+		try {
+			authenticationDone(handler, status);
+		} catch(IOException e) {
+			logger.log(Level.FINE, "Error sending result: {0}", e);
+		}
+		return support.completeAuthentication(state.attempt, status);
+	}
+
+	private static AsyncAuthenticationSupport getSupport(ClientHandler handler) {
+		if((handler instanceof AsyncAuthenticationSupport)==false)
+			throw new IllegalArgumentException(
+				"ClientHandler does not implement AsyncAuthenticationSupport: "+handler);
+		return (AsyncAuthenticationSupport) handler;
+	}
+
+	private static void cacheResult(ClientHandler handler, String answers[], 
+			AuthStatus status) {
+		CredentialCache cache = handler.getServer().getCredentialCache();
+		if(cache!=null) cache.put(answers, status);
+	}
+
+	private static class State {
+		Object attempt;
+		String answers[];
+		int next;
+	}
+
+	public AuthStatus askAuthentication(ClientHandler handler) 
+			throws IOException, AppException {
+		if(handler.getDataMode(DataType.OUT)!=DataMode.STRING)
+			handler.setDataMode(DataMode.STRING, DataType.OUT);
+		if(handler.getDataMode(DataType.IN)!=DataMode.STRING)
+			handler.setDataMode(DataMode.STRING, DataType.IN);
+
+		AsyncAuthenticationSupport support = getSupport(handler);
+		State state = new State();
+		state.attempt = support.getAuthenticationToken();
+		state.answers = new String[prompts.length];
+		support.setAuthenticationState(state);
+		handler.sendClientMsg(prompts[0]);
+		return null;
+	}
+
+	public AuthStatus handleAuthentication(ClientHandler handler, String data) 
+			throws IOException, AppException {
+		AsyncAuthenticationSupport support = getSupport(handler);
+		State state = (State) support.getAuthenticationState();
+		if(state==null || state.next>=state.answers.length) {
+			//input while the check is in progress
+			return AuthStatus.FAILURE;
+		}
+		state.answers[state.next++] = data;
+		if(state.next<prompts.length) {
+			handler.sendClientMsg(prompts[state.next]);
+			return null;
+		}
+		CredentialCache cache = handler.getServer().getCredentialCache();
+		if(cache!=null) {
+			AuthStatus status = cache.get(state.answers);
+			if(status!=null) {
+				support.setAuthenticationState(null);
+				authenticationDone(handler, status);
+				return status;
+			}
+		}
+
+		//state is kept till complete() if the check is pending
+		AuthStatus status = checkCredentials(handler, state, state.answers);
+		if(status==AuthStatus.SUCCESS || status==AuthStatus.FAILURE) {
+			support.setAuthenticationState(null);
+			cacheResult(handler, state.answers, status);
+			authenticationDone(handler, status);
+		}
+		return status;
+	}
+}
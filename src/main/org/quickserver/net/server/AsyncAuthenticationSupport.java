@@ -0,0 +1,63 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.net.server;
+
+/**
+ * This is an interface implemented by the {@link ClientHandler}s that can
+ * complete an authentication for which the {@link ClientAuthenticationHandler}
+ * returned {@link AuthStatus#PENDING}. Check for it with
+ * <code>instanceof</code>, the ClientHandler of QuickServer implements it.
+ * <p>
+ * Client handlers are pooled, so a result has to be tied to the
+ * authentication attempt it was started for. Get the token of the attempt
+ * with {@link #getAuthenticationToken} before returning PENDING and pass it
+ * to {@link #completeAuthentication}, a result with a token of an attempt
+ * that has ended (the client closed, a new client uses the handler or a new
+ * attempt was started) is dropped.
+ * </p>
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public interface AsyncAuthenticationSupport {
+	/**
+	 * Returns the token of the authentication attempt in progress,
+	 * <code>null</code> if there is none. A new token is made each time
+	 * {@link ClientAuthenticationHandler#askAuthentication} is called.
+	 */
+	public Object getAuthenticationToken();
+
+	/**
+	 * Completes an authentication for which the
+	 * {@link ClientAuthenticationHandler} returned {@link AuthStatus#PENDING}.
+	 * Can be called from any thread, even before the handler returns.
+	 * @param token got from {@link #getAuthenticationToken}
+	 * @param status {@link AuthStatus#SUCCESS} or {@link AuthStatus#FAILURE}
+	 * @return <code>false</code> if the token is not of the attempt in
+	 *  progress or the attempt was already completed, the status is dropped.
+	 */
+	public boolean completeAuthentication(Object token, AuthStatus status);
+
+	/**
+	 * Sets the state kept by the {@link ClientAuthenticationHandler} for
+	 * this client while the authentication is in progress. It is cleared
+	 * when the client handler is cleaned.
+	 */
+	public void setAuthenticationState(Object state);
+
+	/**
+	 * Returns the state set by {@link #setAuthenticationState}.
+	 */
+	public Object getAuthenticationState();
+}
@@ -26,6 +26,8 @@ public class AuthStatus {
 		this.status = status;
 		if(status==1) {
 			desc = "Success";
+		} else if(status==2) {
+			desc = "Pending";
 		} else {
 			desc = "Failure";
 		}
@@ -37,4 +39,11 @@ public class AuthStatus {
 
 	public static final AuthStatus FAILURE = new AuthStatus(0);
 	public static final AuthStatus SUCCESS = new AuthStatus(1);
+	/**
+	 * Credentials are being checked asynchronously, the handler will call
+	 * {@link AsyncAuthenticationSupport#completeAuthentication} when done. 
+	 * The client's input is not processed till then.
+	 * @since 2.1.0
+	 */
+	public static final AuthStatus PENDING = new AuthStatus(2);
 }
\ No newline at end of file
@@ -34,6 +34,14 @@ import org.quickserver.net.AppException;
  * </ul>
  * </p>
  * <p>
+ * If checking the credentials is slow (like a LDAP or database lookup) the 
+ * methods can return {@link AuthStatus#PENDING} after starting the check 
+ * on some other thread, and call 
+ * {@link AsyncAuthenticationSupport#completeAuthentication} with the token 
+ * of the attempt once it is done. In non-blocking mode no thread is held by 
+ * the client till then. See {@link AsyncAuthenticationHandler}.
+ * </p>
+ * <p>
  * Ex:
  * <code><BLOCKQUOTE><pre>
 package echoserver;
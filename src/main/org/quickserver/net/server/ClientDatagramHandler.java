@@ -0,0 +1,72 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.net.server;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * This interface defines the methods that should be implemented by any
+ * class that wants to handle datagrams received by a QuickServer
+ * running in UDP mode.
+ * <p>
+ * Recommendations to be followed when implementing ClientDatagramHandler
+ * <ul>
+ * <li>Should have a default constructor.
+ * <li>Should return quickly, it is called from the thread that receives
+ * the datagrams, so any slow work should be handed off to another thread.
+ * <li>Should not keep a reference to the ByteBuffer passed, it is a
+ * pooled buffer that is reused once the method returns. Copy the
+ * bytes needed.
+ * </ul>
+ * </p>
+ * <p>
+ * Ex:
+ * <code><BLOCKQUOTE><pre>
+package echoserver;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import org.quickserver.net.server.*;
+
+public class EchoDatagramHandler implements ClientDatagramHandler {
+
+	public void handleDatagram(QuickServer server, SocketAddress sender,
+			ByteBuffer data) throws IOException {
+		server.sendDatagram(sender, data);
+	}
+}
+</pre></BLOCKQUOTE></code></p>
+ * @see QuickServer#sendDatagram
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public interface ClientDatagramHandler {
+
+	/**
+	 * Method called every time a datagram is received.
+	 * @param server the QuickServer that received the datagram
+	 * @param sender address the datagram was sent from
+	 * @param data the datagram, positioned from 0 to its length.
+	 *  Datagrams larger than the byte buffer size configured in
+	 *  advanced settings are truncated.
+	 * @exception java.io.IOException if io error
+	 */
+	public void handleDatagram(QuickServer server, SocketAddress sender,
+		ByteBuffer data) throws IOException;
+
+}
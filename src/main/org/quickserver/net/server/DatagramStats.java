@@ -0,0 +1,319 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.net.server;
+
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.quickserver.util.CachedClock;
+
+/**
+ * Counters for datagrams handled by a QuickServer running in UDP mode,
+ * in total and per source host.
+ * <p>
+ * Per source counters are only updated by the thread receiving the
+ * datagrams so they need no locking, they can be read from any thread.
+ * The rate of a source is the one measured over the last full second.
+ * At most {@link #getMaxSources} sources are tracked, sources idle
+ * for over a minute are dropped to make room for new ones.
+ * </p>
+ * @see QuickServer#getDatagramStats
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public class DatagramStats {
+	private static final long IDLE_TIME = 60*1000;
+
+	private final AtomicLong receivedPackets = new AtomicLong();
+	private final AtomicLong receivedBytes = new AtomicLong();
+	private final AtomicLong deniedPackets = new AtomicLong();
+	private final AtomicLong handlerErrors = new AtomicLong();
+	private final AtomicLong sentPackets = new AtomicLong();
+	private final AtomicLong sentBytes = new AtomicLong();
+	private final AtomicLong sendDropped = new AtomicLong();
+	private final AtomicLong untrackedPackets = new AtomicLong();
+
+	private final Map sources = new ConcurrentHashMap();
+	private volatile int maxSources = 10000;
+
+	/**
+	 * Stats of one source host.
+	 */
+	public static class Source {
+		private final InetAddress address;
+		private final boolean allowed;
+		private volatile long packets;
+		private volatile long bytes;
+		private volatile long lastTime;
+		private long windowStart;
+		private long windowPackets;
+		private long windowBytes;
+		private volatile long packetRate;
+		private volatile long byteRate;
+
+		Source(InetAddress address, boolean allowed, long now) {
+			this.address = address;
+			this.allowed = allowed;
+			this.windowStart = now;
+			this.lastTime = now;
+		}
+
+		void received(int length, long now) {
+			packets++;
+			bytes += length;
+			lastTime = now;
+			long elapsed = now - windowStart;
+			if(elapsed>=1000) {
+				if(elapsed<2000) {
+					packetRate = windowPackets*1000/elapsed;
+					byteRate = windowBytes*1000/elapsed;
+				} else {
+					packetRate = 0;
+					byteRate = 0;
+				}
+				windowStart = now;
+				windowPackets = 0;
+				windowBytes = 0;
+			}
+			windowPackets++;
+			windowBytes += length;
+		}
+
+		/** Returns the address of the source host. */
+		public InetAddress getAddress() {
+			return address;
+		}
+		/** Returns true if the source passed the access constraint. */
+		public boolean isAllowed() {
+			return allowed;
+		}
+		/** Returns the number of datagrams received from the source. */
+		public long getPackets() {
+			return packets;
+		}
+		/** Returns the number of bytes received from the source. */
+		public long getBytes() {
+			return bytes;
+		}
+		/** Returns the time (in milliseconds) the last datagram was received. */
+		public long getLastTime() {
+			return lastTime;
+		}
+		/** Returns datagrams per second received over the last full second. */
+		public long getPacketRate() {
+			if(CachedClock.currentTimeMillis() - lastTime>=2000) return 0;
+			return packetRate;
+		}
+		/** Returns bytes per second received over the last full second. */
+		public long getByteRate() {
+			if(CachedClock.currentTimeMillis() - lastTime>=2000) return 0;
+			return byteRate;
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(address.getHostAddress());
+			sb.append(" packets=").append(getPackets());
+			sb.append(", bytes=").append(getBytes());
+			sb.append(", packetRate=").append(getPacketRate());
+			sb.append(", byteRate=").append(getByteRate());
+			if(allowed==false) sb.append(", denied");
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Adds the stats of a new source.
+	 * Returns <code>null</code> if the source can't be tracked since
+	 * the maximum number of sources are tracked.
+	 * Should only be called by the thread receiving the datagrams.
+	 * @param allowed true if the source passes the access constraint
+	 */
+	Source addSource(InetAddress address, boolean allowed) {
+		Source source = null;
+		long now = CachedClock.currentTimeMillis();
+		if(sources.size()>=maxSources) {
+			pruneIdle(now);
+			if(sources.size()>=maxSources) return null;
+		}
+		source = new Source(address, allowed, now);
+		sources.put(address, source);
+		return source;
+	}
+
+	private void pruneIdle(long now) {
+		Iterator iterator = sources.values().iterator();
+		while(iterator.hasNext()) {
+			Source source = (Source) iterator.next();
+			if(now - source.lastTime>=IDLE_TIME) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Records a datagram received in the stats of its source,
+	 * the totals are added by {@link #addReceived} once per batch.
+	 * @param source stats of the sender, may be <code>null</code>
+	 *  if it is not tracked.
+	 */
+	void received(Source source, int length) {
+		if(source!=null) {
+			source.received(length, CachedClock.currentTimeMillis());
+		} else {
+			untrackedPackets.incrementAndGet();
+		}
+	}
+
+	/** Adds a batch of received datagrams to the totals. */
+	void addReceived(int packets, long bytes) {
+		receivedPackets.addAndGet(packets);
+		receivedBytes.addAndGet(bytes);
+	}
+
+	/** Records a datagram dropped since the source was not allowed. */
+	void denied() {
+		deniedPackets.incrementAndGet();
+	}
+
+	/** Records an exception thrown by the handler. */
+	void handlerError() {
+		handlerErrors.incrementAndGet();
+	}
+
+	/** Records a datagram sent, or dropped if length is 0. */
+	void sent(int length) {
+		if(length>0) {
+			sentPackets.incrementAndGet();
+			sentBytes.addAndGet(length);
+		} else {
+			sendDropped.incrementAndGet();
+		}
+	}
+
+	/** Returns the number of datagrams received. */
+	public long getReceivedPackets() {
+		return receivedPackets.get();
+	}
+	/** Returns the number of bytes received. */
+	public long getReceivedBytes() {
+		return receivedBytes.get();
+	}
+	/** Returns the number of datagrams dropped by the access constraint. */
+	public long getDeniedPackets() {
+		return deniedPackets.get();
+	}
+	/** Returns the number of exceptions thrown by the handler. */
+	public long getHandlerErrors() {
+		return handlerErrors.get();
+	}
+	/** Returns the number of datagrams sent. */
+	public long getSentPackets() {
+		return sentPackets.get();
+	}
+	/** Returns the number of bytes sent. */
+	public long getSentBytes() {
+		return sentBytes.get();
+	}
+	/** Returns the number of datagrams not sent since the send buffer was full. */
+	public long getSendDropped() {
+		return sendDropped.get();
+	}
+	/** Returns the number of datagrams received from sources not tracked. */
+	public long getUntrackedPackets() {
+		return untrackedPackets.get();
+	}
+
+	/**
+	 * Sets the maximum number of sources tracked. Default is 10000.
+	 */
+	public void setMaxSources(int maxSources) {
+		if(maxSources<=0) throw new IllegalArgumentException("Should be > 0: "+maxSources);
+		this.maxSources = maxSources;
+	}
+	/**
+	 * Returns the maximum number of sources tracked.
+	 */
+	public int getMaxSources() {
+		return maxSources;
+	}
+
+	/**
+	 * Returns the number of sources tracked.
+	 */
+	public int getSourceCount() {
+		return sources.size();
+	}
+
+	/**
+	 * Returns the stats of the source host, <code>null</code> if
+	 * it is not tracked.
+	 */
+	public Source getSource(InetAddress address) {
+		return (Source) sources.get(address);
+	}
+
+	/**
+	 * Returns the tracked sources with the highest packet rate first.
+	 * @param max maximum number of sources returned
+	 */
+	public List getTopSources(int max) {
+		List list = new ArrayList(sources.values());
+		Collections.sort(list, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				long r1 = ((Source) o1).getPacketRate();
+				long r2 = ((Source) o2).getPacketRate();
+				if(r1!=r2) return r1>r2?-1:1;
+				long p1 = ((Source) o1).getPackets();
+				long p2 = ((Source) o2).getPackets();
+				return p1>p2?-1:(p1==p2?0:1);
+			}
+		});
+		if(list.size()>max) {
+			list = new ArrayList(list.subList(0, max));
+		}
+		return list;
+	}
+
+	/**
+	 * Resets all the counters and forgets all sources.
+	 */
+	public void reset() {
+		receivedPackets.set(0);
+		receivedBytes.set(0);
+		deniedPackets.set(0);
+		handlerErrors.set(0);
+		sentPackets.set(0);
+		sentBytes.set(0);
+		sendDropped.set(0);
+		untrackedPackets.set(0);
+		sources.clear();
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("DatagramStats[received=").append(getReceivedPackets());
+		sb.append(", receivedBytes=").append(getReceivedBytes());
+		sb.append(", denied=").append(getDeniedPackets());
+		sb.append(", handlerErrors=").append(getHandlerErrors());
+		sb.append(", sent=").append(getSentPackets());
+		sb.append(", sentBytes=").append(getSentBytes());
+		sb.append(", sendDropped=").append(getSendDropped());
+		sb.append(", sources=").append(getSourceCount());
+		sb.append(']');
+		return sb.toString();
+	}
+}
@@ -15,12 +15,14 @@
 package org.quickserver.net.server;
 
 import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.io.*;
 import java.net.*;
 
 import org.quickserver.net.*;
 import org.quickserver.util.pool.thread.*;
 import org.quickserver.util.*;
+import org.quickserver.util.xmlreader.AdvancedSettings;
 import org.quickserver.net.server.impl.*;
 
 import java.util.logging.*;
@@ -36,29 +38,153 @@ import java.util.logging.*;
  * if a client socket has not communicated for more than 1 seconds then this 
  * thread will close the socket and returns the ClientHandler to the pool.
  * </p>
+ * <p>
+ * Since v2.1.0 clients are no longer scanned, each client schedules its
+ * idle and auth timeouts with a {@link HashedTimerWheel} when it connects.
+ * Timeouts that fire are handed to this thread. For a non-blocking client
+ * it calls {@link ClientExtendedEventHandler#handleTimeout} (or sends the 
+ * timeout message) and closes the client if needed. A blocking client 
+ * gets the socket timeout on its own thread, so it is only closed.
+ * Apart from the socket timeout the following timeouts are supported 
+ * (see {@link AdvancedSettings}) 
+ * <ul>
+ * <li>idle-read-timeout - no data read from client
+ * <li>idle-write-timeout - no data written to client
+ * <li>auth-timeout - client did not authenticate in time
+ * </ul>
+ * </p>
  * @author Akshathkumar Shetty
  * @since 1.3.3
  */
 public class GhostSocketReaper extends Thread implements ServerHook {
 	private static final Logger logger = Logger.getLogger(GhostSocketReaper.class.getName());
 
+	private static final String IDLE_TIMEOUT = "Idle Timeout";
+	private static final String IDLE_READ_TIMEOUT = "Idle Read Timeout";
+	private static final String IDLE_WRITE_TIMEOUT = "Idle Write Timeout";
+	private static final String AUTH_TIMEOUT = "Auth Timeout";
 	
 	private QuickServer quickserver;
 	private volatile boolean stopFlag;
 
-	private long timeOut = 0;
 	private long timeOutDelay = 0;
-	private ClientIdentifier clientIdentifier = null;
+	private int idleReadTimeout;
+	private int idleWriteTimeout;
+	private int authTimeout;
+	private volatile HashedTimerWheel timerWheel;
+	private final LinkedBlockingQueue firedTimeouts = new LinkedBlockingQueue();
 	
+	private static class FiredTimeout {
+		BasicClientHandler clientHandler;
+		HashedTimerWheel.Timeout timeout;
+		String reason; //null if client was closed
+		
+		FiredTimeout(BasicClientHandler clientHandler, 
+				HashedTimerWheel.Timeout timeout, String reason) {
+			this.clientHandler = clientHandler;
+			this.timeout = timeout;
+			this.reason = reason;
+		}
+	}
+
+	private class IdleTimeoutTask implements HashedTimerWheel.Task {
+		private final BasicClientHandler clientHandler;
+
+		IdleTimeoutTask(BasicClientHandler clientHandler) {
+			this.clientHandler = clientHandler;
+		}
+
+		public long run(HashedTimerWheel.Timeout timeout) {
+			if(clientHandler.isTimeoutValid(timeout)==false) return 0;
+
+			if(clientHandler.isClosed()) {
+				firedTimeouts.add(new FiredTimeout(clientHandler, timeout, null));
+				return 0;
+			}
+
+			long currentTime = getCurrentTime();
+			long next = Long.MAX_VALUE;
+			long left = 0;
+			String reason = null;
+
+			long lastCommunicationTime = clientHandler.getLastCommunicationTimeMillis();
+			if(clientHandler.getTimeout()>0 && lastCommunicationTime!=0) {
+				left = clientHandler.getTimeout() + timeOutDelay - 
+					(currentTime - lastCommunicationTime);
+				if(left<=0) reason = IDLE_TIMEOUT;
+				else next = Math.min(next, left);
+			}
+			if(reason==null && idleReadTimeout>0) {
+				left = idleReadTimeout - (currentTime - clientHandler.getLastReadTime());
+				if(left<=0) reason = IDLE_READ_TIMEOUT;
+				else next = Math.min(next, left);
+			}
+			if(reason==null && idleWriteTimeout>0) {
+				left = idleWriteTimeout - (currentTime - clientHandler.getLastWriteTime());
+				if(left<=0) reason = IDLE_WRITE_TIMEOUT;
+				else next = Math.min(next, left);
+			}
+
+			if(reason!=null) {
+				logger.log(Level.FINE, "{0} for client {1}", new Object[]{reason, clientHandler});
+				firedTimeouts.add(new FiredTimeout(clientHandler, timeout, reason));
+				//check again after full period, if client is not closed by then
+				return getIdleCheckInterval(clientHandler);
+			}
+			if(next==Long.MAX_VALUE) return 0;
+			return next;
+		}
+
+		public String toString() {
+			return "IdleTimeoutTask-"+clientHandler.getName();
+		}
+	}
+
+	private class AuthTimeoutTask implements HashedTimerWheel.Task {
+		private final BasicClientHandler clientHandler;
+
+		AuthTimeoutTask(BasicClientHandler clientHandler) {
+			this.clientHandler = clientHandler;
+		}
+
+		public long run(HashedTimerWheel.Timeout timeout) {
+			if(clientHandler.isTimeoutValid(timeout)==false) return 0;
+			if(clientHandler.isClosed() || clientHandler.isAuthorised()) return 0;
+
+			logger.log(Level.FINE, "{0} for client {1}", new Object[]{AUTH_TIMEOUT, clientHandler});
+			firedTimeouts.add(new FiredTimeout(clientHandler, timeout, AUTH_TIMEOUT));
+			return 0;
+		}
+
+		public String toString() {
+			return "AuthTimeoutTask-"+clientHandler.getName();
+		}
+	}
 	
 	public void initHook(QuickServer quickserver) {
 		this.quickserver = quickserver;
-		clientIdentifier = quickserver.getClientIdentifier();
 	}
 
 	public boolean handleEvent(int event) {
 		if(event==ServerHook.POST_STARTUP) {
 			//logger.finest("Startup Event");
+			AdvancedSettings advancedSettings = quickserver.getBasicConfig().getAdvancedSettings();
+			idleReadTimeout = advancedSettings.getIdleReadTimeout();
+			idleWriteTimeout = advancedSettings.getIdleWriteTimeout();
+			authTimeout = advancedSettings.getAuthTimeout();
+
+			if(quickserver.getBasicConfig().getServerMode().getBlocking()==true)
+				timeOutDelay = 1000; //so that it can use SocketTimeoutException
+			else
+				timeOutDelay = 0;
+
+			if(isTimeoutEnabled()) {
+				timerWheel = new HashedTimerWheel("TimerWheel-For-("+quickserver+")",
+					advancedSettings.getTimerWheelTickDuration(), 
+					advancedSettings.getTimerWheelSize());
+				timerWheel.start();
+			}
+
 			setDaemon(true);
 			stopFlag = false;
 			setName("GhostSocketReaper-For-("+quickserver+")");
@@ -67,6 +193,7 @@ public class GhostSocketReaper extends Thread implements ServerHook {
 		} else if(event==ServerHook.POST_SHUTDOWN) {
 			//logger.finest("Shutdown Event");
 			stopFlag = true;
+			interrupt();
 			return true;
 		}
 		return false;
@@ -75,45 +202,81 @@ public class GhostSocketReaper extends Thread implements ServerHook {
 	public String info() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("GhostSocketReaper - ServerHook");
+		if(timerWheel!=null) {
+			sb.append(" - ").append(timerWheel);
+		}
 		return sb.toString();
 	}
 
+	/**
+	 * Returns the timer wheel used for client timeouts, can be <code>null</code>
+	 * if no timeout is enabled.
+	 * @since 2.1.0
+	 */
+	public HashedTimerWheel getTimerWheel() {
+		return timerWheel;
+	}
+
+	private boolean isTimeoutEnabled() {
+		return quickserver.getTimeout()>0 || idleReadTimeout>0 || 
+			idleWriteTimeout>0 || authTimeout>0;
+	}
+
+	/**
+	 * Schedules the idle timeouts (socket timeout, idle-read-timeout and 
+	 * idle-write-timeout) of the client.
+	 * @return the scheduled timeout or <code>null</code> if none
+	 * @since 2.1.0
+	 */
+	public HashedTimerWheel.Timeout scheduleIdleTimeout(BasicClientHandler clientHandler) {
+		HashedTimerWheel wheel = timerWheel;
+		if(wheel==null || wheel.isRunning()==false) return null;
+		long delay = getIdleCheckInterval(clientHandler);
+		if(delay<=0) return null;
+		return wheel.schedule(new IdleTimeoutTask(clientHandler), delay);
+	}
+
+	/**
+	 * Schedules the auth timeout of the client.
+	 * @return the scheduled timeout or <code>null</code> if none
+	 * @since 2.1.0
+	 */
+	public HashedTimerWheel.Timeout scheduleAuthTimeout(BasicClientHandler clientHandler) {
+		HashedTimerWheel wheel = timerWheel;
+		if(wheel==null || wheel.isRunning()==false || authTimeout<=0) return null;
+		return wheel.schedule(new AuthTimeoutTask(clientHandler), authTimeout);
+	}
+
+	private long getIdleCheckInterval(BasicClientHandler clientHandler) {
+		long interval = Long.MAX_VALUE;
+		if(clientHandler.getTimeout()>0) 
+			interval = clientHandler.getTimeout() + timeOutDelay;
+		if(idleReadTimeout>0) 
+			interval = Math.min(interval, idleReadTimeout);
+		if(idleWriteTimeout>0) 
+			interval = Math.min(interval, idleWriteTimeout);
+		if(interval==Long.MAX_VALUE) return 0;
+		return interval;
+	}
+
 	public void run() {
 		logger.log(Level.FINE, "Starting GhostSocketReaper thread - {0}", quickserver.getName());
-		if(quickserver.getTimeout()<=0) {
+		if(timerWheel==null) {
 			stopFlag = true;
 			logger.log(Level.INFO, "Timeout is less than 0, so will exit - {0}", quickserver.getName());
 			return;
 		}
-		timeOut = quickserver.getTimeout();
-
-		if(quickserver.getBasicConfig().getServerMode().getBlocking()==true)
-			timeOutDelay = 1000; //so that it can use SocketTimeoutException
-
-		List ghostList = new ArrayList();
-		long searchSleepTime = timeOut/2;
-		int failCount = 0;
-		boolean flag = false;
+		
+		FiredTimeout firedTimeout = null;
 		while(stopFlag==false) {
 			try {
 				try {
-					sleep(searchSleepTime);
+					firedTimeout = (FiredTimeout) firedTimeouts.take();
 				} catch(InterruptedException ie) {
-					logger.log(Level.WARNING, "InterruptedException : {0}", ie.getMessage());
-				}
-
-				if(failCount<4) {
-					flag = optimisticGhostSocketsFinder(ghostList);
-					if(flag==false)
-						failCount++;
-					else
-						failCount = 0;
-				} else {
-					syncGhostSocketsFinder(ghostList);
-					failCount = 0;
+					logger.log(Level.FINE, "InterruptedException : {0}", ie.getMessage());
+					continue;
 				}
-				cleanGhostSockets(ghostList, true);
-				
+				handleFiredTimeout(firedTimeout);
 			} catch(Exception e) {
 				logger.fine("Exception : " + e);
 				if(Assertion.isEnabled()) {
@@ -122,6 +285,9 @@ public class GhostSocketReaper extends Thread implements ServerHook {
 			}
 		}//end of while
 
+		long searchSleepTime = quickserver.getTimeout()/2;
+		if(searchSleepTime<=0) searchSleepTime = 1000;
+
 		//wait till all client have disconnected.. then clean the pool 
 		while(stopFlag==true) {
 			try {
@@ -153,200 +319,95 @@ public class GhostSocketReaper extends Thread implements ServerHook {
 				break;
 			}
 		}
+		timerWheel.stop();
+		firedTimeouts.clear();
 		logger.log(Level.INFO, "Returning from GhostSocketReaper thread - {0}", quickserver.getName());
 	}
 
 	private long getCurrentTime() {
-		return new Date().getTime();
+		return CachedClock.currentTimeMillis();
 	}
 
-	private boolean optimisticGhostSocketsFinder(List list) {
-		Iterator iterator = null;
-		ClientHandler clientHandler = null;
-		int count = 0;
-		long currentTime = getCurrentTime();
-		try {
-			iterator = clientIdentifier.findAllClient();
-			/*
-			if(iterator.hasNext()) {
-				logger.finest("ENTER");
-			}
-			*/
-
-			while(iterator.hasNext()) {
-				count++;
-				if(count==60) {
-					currentTime = getCurrentTime(); //update time
-					count = 1;
-				}
-				clientHandler = (ClientHandler)iterator.next();
-				
-				checkClientHandlerForGhostSocket(clientHandler, currentTime, list);
-
-				if(list.size()>100) {
-					logger.fine("Found about 100 ghost sockets, lets clean..");
-					break;
-				}
-			}//end of while
-		} catch(ConcurrentModificationException e) {
-			//ignore
-			return false;
+	private void handleFiredTimeout(FiredTimeout firedTimeout) {
+		BasicClientHandler clientHandler = firedTimeout.clientHandler;
+		if(clientHandler.isTimeoutValid(firedTimeout.timeout)==false) {
+			logger.log(Level.FINEST, "Timeout no longer valid for client {0}", clientHandler);
+			return;
+		}
+		if(clientHandler.getWillClean()==true) {
+			logger.log(Level.FINEST, "Not closing client {0}, WillClean is true", clientHandler);
+			return;
 		}
-		return true;
-	}
 
-	private void syncGhostSocketsFinder(List list) {
-		Iterator iterator = null;
-		ClientHandler clientHandler = null;
-		int count = 0;
-		long currentTime = getCurrentTime();
-		synchronized(clientIdentifier.getObjectToSynchronize()) {
-			iterator = clientIdentifier.findAllClient();
-			if(iterator.hasNext())
-				logger.finest("ENTER");
-
-			while(iterator.hasNext()) {
-				count++;
-				if(count==60) {
-					currentTime = getCurrentTime(); //update time
-					count = 1;
+		try	{
+			if(clientHandler.isClosed()==false) {
+				boolean close = true;
+				//blocking client calls handleTimeout() from its own thread
+				if(firedTimeout.reason!=null && 
+						clientHandler.hasEvent(ClientEvent.RUN_BLOCKING)==false) {
+					try {
+						clientHandler.handleTimeout(firedTimeout.reason);
+						//auth timeout always closes the client
+						close = firedTimeout.reason==AUTH_TIMEOUT;
+					} catch(IOException e) {
+						logger.log(Level.FINEST, "Closing client {0} after timeout: {1}", 
+							new Object[]{clientHandler, e});
+					}
 				}
-				clientHandler = (ClientHandler)iterator.next();
+				if(close) closeClient(clientHandler);
+			} else {
+				if(clientHandler.hasEvent(ClientEvent.RUN_BLOCKING)==false) {
+					logger.log(Level.FINEST, "Notifying IO of client {0}", clientHandler);
+					Object obj = clientHandler.getInputStream();
+					if(obj==null) return;
+					synchronized(obj) {
+						clientHandler.getInputStream().notifyAll();
+					}
 				
-				checkClientHandlerForGhostSocket(clientHandler, currentTime, list);
+					logger.log(Level.FINEST, "Returning objs to pool {0}", clientHandler);
+					if(quickserver.getClientDataPool()!=null && clientHandler.getClientData()!=null)
+						quickserver.getClientDataPool().returnObject(clientHandler.getClientData());
 
-				if(list.size()>100) {
-					logger.fine("Found about 100 ghost sockets, lets clean..");
-					break;
-				}
-			}//end of while
+					logger.log(Level.FINEST, "{0} returning {1}", 
+						new Object[]{Thread.currentThread().getName(), getName()});
+					quickserver.getClientHandlerPool().returnObject(clientHandler);
+				} else {
+					logger.log(Level.FINEST, 
+						"Skipping closed {0} since in blocking mode.. this should clean up it self.", clientHandler);
+				}					
+			}
+		} catch(Exception ee) {
+			logger.log(Level.FINE, "Exception forcing the close : {0}", ee);
+			if(Assertion.isEnabled()) {
+				logger.log(Level.FINEST, "StackTrace:\n{0}", MyString.getStackTrace(ee));
+			}
 		} 
 	}
 
-	private void cleanGhostSockets(List list, boolean checkTimeout) {
-		long currentTime = getCurrentTime();
-		long commTime = 0;		
-		long diff = -1;
-		long closedCount = 0;
-		ClientHandler clientHandler = null;
-
-		int size = list.size();
-		if(size>0) {
-			logger.log(Level.INFO, "Found ghost sockets: {0}", size);
-		} else {
-			return;
-		}
-		for(int i=0;i<size;i++) {
-			try	{
-				clientHandler = (ClientHandler) list.get(i);
-				
-				if(((BasicClientHandler)clientHandler).getWillClean()==true) {
-					logger.log(Level.FINEST, "Not closing client {0}, WillClean is true", clientHandler);
-					continue;
-				}
-				
-				if(checkTimeout) {
-					timeOut = clientHandler.getTimeout()+timeOutDelay;
-					if(clientHandler.getLastCommunicationTime()!=null) {
-						commTime = clientHandler.getLastCommunicationTime().getTime();
-						diff = currentTime-commTime;
-
-						if(diff < timeOut && clientHandler.isClosed()==false) {
-							logger.log(Level.FINEST, 
-								"Not closing client {0}, must have been reassigned. CommTime(sec): {1}, Diff(sec): {2}",
-								new Object[]{clientHandler, commTime/1000, diff/1000});
-							continue;
-						}
-					}
-				}//end of if checkTimeout
-
-				if(clientHandler.isClosed()==false) {				
-					logger.log(Level.FINEST, "Closing client {0}", clientHandler.getName());
-					closedCount++;
-					
-					try {
-						if(clientHandler.hasEvent(ClientEvent.RUN_BLOCKING)==true) {
-							clientHandler.closeConnection();							
-						} else {
-							if( ((NonBlockingClientHandler)clientHandler).getThreadAccessCount()!=0 ) {
-								clientHandler.closeConnection();
-
-								Object obj = clientHandler.getInputStream();
-								if(obj!=null) {
-									synchronized(obj) {
-										clientHandler.getInputStream().notifyAll();
-									}
-								}
-							} else {
-								clientHandler.addEvent(ClientEvent.CLOSE_CON);
-								quickserver.getClientPool().addClient(clientHandler);
-							}
-						}
-					} catch(Exception er) {
-						logger.log(Level.FINE, "Error closing client {0} : {1}", 
-							new Object[]{clientHandler, er});
-						clientHandler.forceClose();
-					}
-				} else {
-					if(clientHandler.hasEvent(ClientEvent.RUN_BLOCKING)==false) {
-						logger.log(Level.FINEST, "Notifying IO of client {0}", clientHandler);
-						Object obj = clientHandler.getInputStream();
-						if(obj==null) continue;
+	private void closeClient(ClientHandler clientHandler) throws IOException {
+		logger.log(Level.FINEST, "Closing client {0}", clientHandler.getName());
+		try {
+			if(clientHandler.hasEvent(ClientEvent.RUN_BLOCKING)==true) {
+				clientHandler.closeConnection();							
+			} else {
+				if( ((NonBlockingClientHandler)clientHandler).getThreadAccessCount()!=0 ) {
+					clientHandler.closeConnection();
+
+					Object obj = clientHandler.getInputStream();
+					if(obj!=null) {
 						synchronized(obj) {
 							clientHandler.getInputStream().notifyAll();
 						}
-					
-						logger.log(Level.FINEST, "Returning objs to pool {0}", clientHandler);
-						if(quickserver.getClientDataPool()!=null && clientHandler.getClientData()!=null)
-							quickserver.getClientDataPool().returnObject(clientHandler.getClientData());
-
-						logger.log(Level.FINEST, "{0} returning {1}", 
-							new Object[]{Thread.currentThread().getName(), getName()});
-						quickserver.getClientHandlerPool().returnObject(clientHandler);
-					} else {
-						logger.log(Level.FINEST, 
-							"Skipping closed {0} since in blocking mode.. this should clean up it self.", clientHandler);
-					}					
-				}
-			} catch(Exception ee) {
-				logger.log(Level.FINE, "Exception forcing the close : {0}", ee);
-				if(Assertion.isEnabled()) {
-					logger.log(Level.FINEST, "StackTrace:\n{0}", MyString.getStackTrace(ee));
+					}
+				} else {
+					clientHandler.addEvent(ClientEvent.CLOSE_CON);
+					quickserver.getClientPool().addClient(clientHandler);
 				}
-			} 
-		}//end of for
-		logger.log(Level.INFO, "We closed : {0}", closedCount);
-		list.clear(); 
-	}
-
-	private void checkClientHandlerForGhostSocket(ClientHandler clientHandler,
-			long currentTime, List list) {
-		if(clientHandler==null)
-			return;
-
-
-		if(clientHandler.isClosed()) {
-			logger.log(Level.FINEST, 
-				"Not connected .. so returning ClientData and ClientHandler objects for : {0}", clientHandler);
-			list.add(clientHandler);
-			return;
-		}
-		
-		if(clientHandler.getTimeout()<=0) {
-			//logger.finest("ClientHandler's timeout is <=0, so skipping.");
-			return;
-		}
-
-		if(clientHandler.getLastCommunicationTime()==null) return;
-
-		long commTime = clientHandler.getLastCommunicationTime().getTime();
-		long diff = currentTime-commTime;
-
-		long timeOutToUse = clientHandler.getTimeout()+timeOutDelay;		
-		if(diff >= timeOutToUse) {
-			logger.log(Level.FINE, "Closable client {0}, Time diff(sec) : {1}", 
-				new Object[]{clientHandler, diff/1000});
-			list.add(clientHandler);
+			}
+		} catch(Exception er) {
+			logger.log(Level.FINE, "Error closing client {0} : {1}", 
+				new Object[]{clientHandler, er});
+			clientHandler.forceClose();
 		}
 	}
 }
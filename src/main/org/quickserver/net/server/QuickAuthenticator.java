@@ -62,6 +62,38 @@ public abstract class QuickAuthenticator
 	public abstract boolean askAuthorisation(ClientHandler clientHandler) 
 		throws IOException, AppException;
 
+	/**
+	 * Returns the cached result of verifying the credentials, 
+	 * <code>null</code> if not cached or if the server has no 
+	 * {@link org.quickserver.security.CredentialCache}.
+	 * The first credential is taken as the principal for invalidation.
+	 * @see #cacheAuthorisation
+	 * @since 2.1.0
+	 */
+	protected Boolean getCachedAuthorisation(ClientHandler clientHandler, 
+			String credentials[]) {
+		org.quickserver.security.CredentialCache cache = 
+			clientHandler.getServer().getCredentialCache();
+		if(cache==null) return null;
+		AuthStatus status = cache.get(credentials);
+		if(status==null) return null;
+		return Boolean.valueOf(status==AuthStatus.SUCCESS);
+	}
+
+	/**
+	 * Caches the result of verifying the credentials, if the server has
+	 * a {@link org.quickserver.security.CredentialCache}.
+	 * @see #getCachedAuthorisation
+	 * @since 2.1.0
+	 */
+	protected void cacheAuthorisation(ClientHandler clientHandler, 
+			String credentials[], boolean valid) {
+		org.quickserver.security.CredentialCache cache = 
+			clientHandler.getServer().getCredentialCache();
+		if(cache!=null) 
+			cache.put(credentials, valid?AuthStatus.SUCCESS:AuthStatus.FAILURE);
+	}
+
 
 	/**
 	 * Prints the given message to the client.
@@ -141,7 +173,14 @@ public abstract class QuickAuthenticator
 		}
 		if(clientHandler.getDataMode(DataType.IN)!=DataMode.OBJECT)
 			clientHandler.setDataMode(DataMode.OBJECT, DataType.IN);
-		Object data = clientHandler.getObjectInputStream().readObject();
+		Object data = null;
+		if(clientHandler.getObjectInputStream()!=null) {
+			data = clientHandler.getObjectInputStream().readObject();
+		} else {
+			//ObjectCodec is set, objects are sent as frames
+			data = ObjectFrame.read(clientHandler.getBufferedInputStream(), 
+				clientHandler.getServer().getObjectCodec());
+		}
 		if(data!=null) 
 			return data;
 		else
@@ -34,6 +34,9 @@ import java.util.logging.Formatter;
 import java.util.*;
 //v1.3.2
 import org.quickserver.util.*;
+import org.quickserver.util.io.ObjectCodec;
+import org.quickserver.util.logging.AccessLog;
+import org.quickserver.util.logging.TrafficCapture;
 //v1.3.3
 import org.quickserver.security.*;
 //v1.4.0
@@ -42,6 +45,7 @@ import javax.net.*;
 import java.security.*;
 import java.security.cert.*;
 //v1.4.5
+import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import org.quickserver.net.server.impl.*;
 
@@ -142,6 +146,7 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 	private String clientObjectHandlerString; //v1.2
 	private String clientBinaryHandlerString; //v1.4
 	private String clientWriteHandlerString; //v1.4.5
+	private String clientDatagramHandlerString; //v2.1.0
 	private String clientDataString;
 	
 	private Authenticator authenticator;
@@ -152,6 +157,7 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 	private ClientObjectHandler clientObjectHandler; //v1.2
 	private ClientBinaryHandler clientBinaryHandler; //v1.4
 	private ClientWriteHandler clientWriteHandler; //v1.4.5
+	private ClientDatagramHandler clientDatagramHandler; //v2.1.0
 	private ClientData clientData;
 	protected Class clientDataClass;
 
@@ -227,6 +233,9 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 	private TrustManager tm[] = null;
 	private boolean runningSecure = false;
 	private SecureStoreManager secureStoreManager = null;
+	private final SSLHandshakeStats sslHandshakeStats = new SSLHandshakeStats();
+	private volatile ObjectCodec objectCodec;
+	private CredentialCache credentialCache;
 	
 	private Exception exceptionInRun = null;
 
@@ -235,6 +244,10 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 	private Selector selector;
 	private boolean blockingMode = true;
 	private ObjectPool byteBufferPool;
+	private boolean datagramMode = false;
+	private volatile DatagramChannel datagramChannel;
+	private final DatagramStats datagramStats = new DatagramStats();
+	private final ServerMetrics metrics = new ServerMetrics();
 	private java.util.Date lastStartTime;
 	private ClientIdentifier clientIdentifier;
 	private GhostSocketReaper ghostSocketReaper;
@@ -253,6 +266,10 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 	private boolean rawCommunicationLogging = false;
 	private int rawCommunicationMaxLength = 100;
 
+	//v2.1.0
+	private volatile TrafficCapture trafficCapture;
+	private volatile AccessLog accessLog;
+
 	static {
 		System.out.println(" Done");
 		//should be commented if not a patch release
@@ -388,12 +405,7 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 		}
 		
 		blockingMode = getBasicConfig().getServerMode().getBlocking();
-		
-		if(blockingMode==false) {
-				logger.warning("QuickServer no longer supports non-blocking mode! So will run in blocking mode.");
-				blockingMode = true;
-				getBasicConfig().getServerMode().setBlocking(blockingMode);
-		}
+		datagramMode = getBasicConfig().getServerMode().getUdp();
 		
 		if(serverBanner == null) {
 			serverBanner = "\n-------------------------------" + 
@@ -491,7 +503,9 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 			throw new AppException("Server "+getName()+" is not running!");
 		}
 		try	{
-			if(getBlockingMode()==true) {
+			if(datagramChannel!=null) {
+				if(selector!=null) selector.wakeup();
+			} else if(getBlockingMode()==true) {
 				if(getSecure().isEnable()==false) {
 					death = new Socket(server.getInetAddress(), 
 						server.getLocalPort());
@@ -604,6 +618,9 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
      */
 	public int getPort() {
 		if(isClosed()==false) {
+			DatagramChannel channel = datagramChannel;
+			if(channel!=null)
+				return channel.socket().getLocalPort();
 			return server.getLocalPort();
 		}
 
@@ -809,7 +826,11 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 			closeAllPools();
 			initAllPools();
 			
-			makeServerSocket();
+			if(datagramMode) {
+				makeDatagramChannel();
+			} else {
+				makeServerSocket();
+			}
 			
 			if(getServerBanner().length()>0) {
 				System.out.println(getServerBanner()); //print banner
@@ -818,7 +839,17 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 			setServiceState(Service.RUNNING); //v1.2
 			
 			processServerHooks(ServerHook.POST_STARTUP); //v1.3.3
+			if(datagramMode) {
+				runDatagram();
+				return;
+			}
 			if(getBlockingMode()==false) {
+				if(authenticator!=null) {
+					logger.log(Level.WARNING, "Authenticator {0} holds a pool thread "+
+						"per client while waiting for input in non-blocking mode, "+
+						"use a ClientAuthenticationHandler like AsyncAuthenticationHandler", 
+						authenticator.getClass().getName());
+				}
 				runNonBlocking(theClient);
 				if(stopServer==true) {
 					logger.log(Level.FINEST, "Closing selector for {0}", getName());
@@ -845,7 +876,25 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 			logger.log(Level.SEVERE, "Error {0}", e);
 			logger.log(Level.FINE, "StackTrace:\n{0}", MyString.getStackTrace(e));
 		} finally {
-			if(getBlockingMode()==true) {
+			if(datagramMode) {
+				logger.log(Level.WARNING, "Closing {0}", getName());
+				try	{
+					if(datagramChannel!=null) {
+						datagramChannel.close();
+					}
+					if(selector!=null) {
+						selector.close();
+					}
+				} catch(IOException e) {
+					logger.log(Level.FINE, "IOError closing {0}: {1}", new Object[]{getName(), e});
+				}
+				datagramChannel = null;
+
+				setServiceState(Service.STOPPED);
+				logger.log(Level.WARNING, "Closed {0}", getName());
+
+				processServerHooks(ServerHook.POST_SHUTDOWN);
+			} else if(getBlockingMode()==true) {
 				logger.log(Level.WARNING, "Closing {0}", getName());
 				try	{
 					if(isClosed()==false) {						
@@ -1097,6 +1146,9 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 	 * @since 1.1
 	 */
 	public boolean isClosed() {
+		DatagramChannel channel = datagramChannel;
+		if(channel!=null)
+			return channel.isOpen()==false;
 		if(server==null)
 			return true;
 		return server.isClosed();
@@ -1142,6 +1194,31 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 		return clientObjectHandlerString;
 	}
 
+	/**
+	 * Sets the ObjectCodec used to send and read objects in 
+	 * DataMode.OBJECT. When set objects are sent as length-delimited 
+	 * frames (see {@link org.quickserver.util.io.ObjectFrame}) and the 
+	 * clients should use the same codec. If not set, blocking mode uses 
+	 * ObjectInputStream/ObjectOutputStream and non-blocking mode uses 
+	 * frames with java serialization.
+	 * This should be set before the server is started, it can also be set 
+	 * with &lt;object-codec&gt; in &lt;advanced-settings&gt;.
+	 * @see org.quickserver.util.io.CompactObjectCodec
+	 * @since 2.1.0
+	 */
+	public void setObjectCodec(ObjectCodec objectCodec) {
+		this.objectCodec = objectCodec;
+	}
+	/**
+	 * Returns the ObjectCodec used in DataMode.OBJECT, 
+	 * <code>null</code> if not set.
+	 * @see #setObjectCodec
+	 * @since 2.1.0
+	 */
+	public ObjectCodec getObjectCodec() {
+		return objectCodec;
+	}
+
 	/**
 	 * Sets the console log handler formatter.
 	 * @param formatter fully qualified name of the class that implements 
@@ -1548,6 +1625,7 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 			qs.setClientAuthenticationHandler(config.getClientAuthenticationHandler()); //v1.4.6
 		qs.setClientObjectHandler(config.getClientObjectHandler());
 		qs.setClientBinaryHandler(config.getClientBinaryHandler());//v1.4
+		qs.setClientDatagramHandler(config.getClientDatagramHandler());//v2.1.0
 		qs.setClientWriteHandler(config.getClientWriteHandler());//v1.4.5
 		qs.setClientData(config.getClientData());
 		qs.setClientExtendedEventHandler(config.getClientExtendedEventHandler());
@@ -1614,6 +1692,7 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 			qs.setClientAuthenticationHandler(config.getClientAuthenticationHandler()); //v1.4.6
 		qs.setClientObjectHandler(config.getClientObjectHandler());
 		qs.setClientBinaryHandler(config.getClientBinaryHandler());//v1.4
+		qs.setClientDatagramHandler(config.getClientDatagramHandler());//v2.1.0
 		qs.setClientWriteHandler(config.getClientWriteHandler());//v1.4.5
 		qs.setClientData(config.getClientData());
 		qs.setClientExtendedEventHandler(config.getClientExtendedEventHandler());//v1.4.6
@@ -1788,17 +1867,23 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 	 */
 	public void initAllPools() throws Exception {
 		logger.fine("Creating pools");
-		if(getBlockingMode()==false) {			
+		if(getBlockingMode()==false || datagramMode) {			
 			makeByteBufferPool(getBasicConfig().getObjectPoolConfig().getByteBufferObjectPoolConfig());
 		}
 		
 		makeClientPool(getBasicConfig().getObjectPoolConfig().getThreadObjectPoolConfig());
 		
-		makeClientHandlerPool(
-			getBasicConfig().getObjectPoolConfig().getClientHandlerObjectPoolConfig());
+		//datagrams are not handled by a ClientHandler
+		if(datagramMode) {
+			clientHandlerPool = null;
+			clientDataPool = null;
+		} else {
+			makeClientHandlerPool(
+				getBasicConfig().getObjectPoolConfig().getClientHandlerObjectPoolConfig());
+		}
 		
 		//check if client data is poolable
-		if(clientDataClass!=null) {
+		if(clientDataClass!=null && datagramMode==false) {
 			try {
 				clientData = (ClientData)clientDataClass.newInstance();
 				if(PoolableObject.class.isInstance(clientData)==true) {
@@ -1856,7 +1941,8 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 	/**
 	 * Returns ObjectPool of {@link org.quickserver.net.server.ClientHandler} 
 	 * class.
-	 * @exception IllegalStateException if pool is not created yet.
+	 * @exception IllegalStateException if pool is not created yet or 
+	 *  server is in UDP mode.
 	 * @since 1.3
 	 */
 	public ObjectPool getClientHandlerPool() {
@@ -2244,6 +2330,15 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 		return serverHooks;
 	}
 
+	/**
+	 * Returns the GhostSocketReaper system hook that handles client timeouts.
+	 * Can be <code>null</code> if server was not started or is in UDP mode.
+	 * @since 2.1.0
+	 */
+	public GhostSocketReaper getGhostSocketReaper() {
+		return ghostSocketReaper;
+	}
+
 	/**
 	 * @since 1.3.3
 	 */
@@ -2254,11 +2349,15 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 		String serverHookClassName = null;
 		Class serverHookClass = null;
 
-		//add system hooks
-		serverHook = new GhostSocketReaper();
-		serverHook.initHook(QuickServer.this);
-		listOfServerHooks.add(serverHook);
-		ghostSocketReaper = (GhostSocketReaper) serverHook;
+		//add system hooks, no client sockets to reap in UDP mode
+		if(datagramMode) {
+			ghostSocketReaper = null;
+		} else {
+			serverHook = new GhostSocketReaper();
+			serverHook.initHook(QuickServer.this);
+			listOfServerHooks.add(serverHook);
+			ghostSocketReaper = (GhostSocketReaper) serverHook;
+		}
 
 		//add user hooks if any
 		Iterator iterator = getServerHooks().iterator();
@@ -2529,8 +2628,11 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 			tm = secureStoreManager.loadTrustManagers(getConfig());
 			logger.fine("TrustManager got");
 
+			configureSessionTickets();
+
 			sslc = secureStoreManager.getSSLContext(getConfig());
 			sslc.init(km, tm, null);
+			configureSessionCache(sslc);
 			logger.fine("SSLContext loaded "+sslc.getProvider());
 		} catch(KeyStoreException e) {
 			logger.warning("KeyStoreException : "+e);
@@ -2565,6 +2667,62 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 		}
 	}
 
+	private void configureSessionTickets() {
+		String key = "jdk.tls.server.enableSessionTicketExtension";
+		String value = String.valueOf(getSecure().getSessionTicketEnable());
+		String current = System.getProperty(key);
+		if(current==null) {
+			if(getSecure().getSessionTicketEnable()) {
+				//jdk default, no need to touch the jvm-wide property
+				logger.fine("Session tickets: true");
+				return;
+			}
+			System.setProperty(key, value);
+			logger.info("Set system property "+key+"="+value+
+				" for session-ticket-enable, this applies to all SSLContexts in this JVM.");
+		} else if(current.equals(value)==false) {
+			logger.warning("System property "+key+" is already set to "+current+
+				", so session-ticket-enable is ignored.");
+		}
+	}
+
+	private void configureSessionCache(SSLContext sslc) {
+		SSLSessionContext sessionContext = sslc.getServerSessionContext();
+		if(sessionContext==null) {
+			logger.fine("No server SSLSessionContext to configure");
+			return;
+		}
+		if(getSecure().getSessionCacheSize()>=0) {
+			sessionContext.setSessionCacheSize(getSecure().getSessionCacheSize());
+		}
+		if(getSecure().getSessionTimeout()>=0) {
+			sessionContext.setSessionTimeout(getSecure().getSessionTimeout());
+		}
+		logger.log(Level.FINE, "SSL session cache size: {0}, timeout: {1}s", 
+			new Object[]{sessionContext.getSessionCacheSize(), 
+				sessionContext.getSessionTimeout()});
+	}
+
+	/**
+	 * Returns the credential verification cache, <code>null</code> if it 
+	 * is not enabled with &lt;credential-cache&gt;. It is used by
+	 * {@link AsyncAuthenticationHandler} and can be used by other 
+	 * authenticators.
+	 * @see CredentialCache
+	 * @since 2.1.0
+	 */
+	public CredentialCache getCredentialCache() {
+		return credentialCache;
+	}
+
+	/**
+	 * Returns the SSL handshake counters of this server.
+	 * @since 2.1.0
+	 */
+	public SSLHandshakeStats getSSLHandshakeStats() {
+		return sslHandshakeStats;
+	}
+
 	/**
 	 * Returns the <code>SSLContext</code> from Secure configuring.
 	 * @see #loadSSLContext
@@ -2651,6 +2809,28 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 		return clientBinaryHandlerString;
 	}
 
+	/**
+     * Sets the ClientDatagramHandler class that handles datagrams 
+	 * received in UDP mode.
+	 * @param handler object the fully qualified name of the class that 
+	 *  implements {@link ClientDatagramHandler}
+	 * @see #getClientDatagramHandler
+	 * @since 2.1.0
+     */
+	public void setClientDatagramHandler(String handler) {
+		clientDatagramHandlerString = handler;
+		logger.finest("Set to "+handler);
+	}
+	/**
+     * Returns the ClientDatagramHandler class that handles datagrams 
+	 * received in UDP mode.
+	 * @see #setClientDatagramHandler
+	 * @since 2.1.0
+     */
+	public String getClientDatagramHandler() {
+		return clientDatagramHandlerString;
+	}
+
 	/**
 	 * Sets the Selector (NIO).
 	 * @since 1.4.5
@@ -2666,6 +2846,180 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 		return selector;
 	}
 
+	/**
+	 * Returns the DatagramChannel the server receives on in UDP mode,
+	 * <code>null</code> if it is not running in UDP mode.
+	 * @since 2.1.0
+	 */
+	public DatagramChannel getDatagramChannel() {
+		return datagramChannel;
+	}
+
+	/**
+	 * Returns the datagram counters of this server, with per
+	 * source host stats, used in UDP mode.
+	 * @since 2.1.0
+	 */
+	public DatagramStats getDatagramStats() {
+		return datagramStats;
+	}
+
+	/**
+	 * Returns the metrics of this server: client counts, bytes and the
+	 * latency of handler callbacks and writes.
+	 * @since 2.1.0
+	 */
+	public ServerMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sends a datagram from the server's DatagramChannel, can be called
+	 * from any thread. The channel is non-blocking so the datagram is 
+	 * dropped if the socket send buffer is full.
+	 * @param target address to send the datagram to
+	 * @param data the datagram, its remaining bytes are sent
+	 * @return number of bytes sent, zero if the datagram was dropped
+	 * @exception IllegalStateException if the server is not running in UDP mode
+	 * @since 2.1.0
+	 */
+	public int sendDatagram(SocketAddress target, ByteBuffer data) 
+			throws IOException {
+		DatagramChannel channel = datagramChannel;
+		if(channel==null) {
+			throw new IllegalStateException("Server "+getName()+" is not running in UDP mode!");
+		}
+		int sent = channel.send(data, target);
+		datagramStats.sent(sent);
+		return sent;
+	}
+
+	/**
+	 * Sends a datagram from the server's DatagramChannel.
+	 * @see #sendDatagram(SocketAddress, ByteBuffer)
+	 * @since 2.1.0
+	 */
+	public int sendDatagram(SocketAddress target, byte data[]) 
+			throws IOException {
+		return sendDatagram(target, ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Opens and binds the DatagramChannel for UDP mode and
+	 * registers it with the selector.
+	 * @since 2.1.0
+	 */
+	protected void makeDatagramChannel() throws BindException, IOException {
+		logger.log(Level.FINEST, "Binding {0} to UDP IP: {1}", new Object[]{getName(), getBindAddr()});
+		if(getSecure().isEnable()==true) {
+			logger.warning("Secure mode is not supported in UDP mode! So will run without it.");
+		}
+		setRunningSecure(false);
+
+		DatagramChannel channel = DatagramChannel.open();
+		try {
+			//no SO_REUSEADDR, for UDP it lets other sockets bind the same port
+			DatagramSocket socket = channel.socket();
+
+			int receiveBufferSize = getBasicConfig().getAdvancedSettings().getClientSocketReceiveBufferSize();
+			if(receiveBufferSize>0) {
+				logger.log(Level.FINE, "UDP receiveBufferSize: {0}", receiveBufferSize);
+				socket.setReceiveBufferSize(receiveBufferSize);
+			}
+			int sendBufferSize = getBasicConfig().getAdvancedSettings().getClientSocketSendBufferSize();
+			if(sendBufferSize>0) {
+				logger.log(Level.FINE, "UDP sendBufferSize: {0}", sendBufferSize);
+				socket.setSendBufferSize(sendBufferSize);
+			}
+			socket.bind(new InetSocketAddress(getBindAddr(), getPort()));
+			channel.configureBlocking(false);
+
+			if(selector==null || selector.isOpen()==false) {
+				logger.finest("Opening new selector");
+				selector = Selector.open();
+			}
+			channel.register(selector, SelectionKey.OP_READ);
+		} catch(IOException e) {
+			channel.close();
+			throw e;
+		}
+		datagramChannel = channel;
+		logger.log(Level.FINE, "Server Mode {0} - UDP", getName());
+	}
+
+	/**
+	 * Starts server in UDP mode. Datagrams are received in batches of up
+	 * to datagram-batch-size per selector wakeup into a ByteBuffer from 
+	 * the pool and passed to the ClientDatagramHandler on this thread.
+	 * @since 2.1.0
+	 */
+	private void runDatagram() throws Exception {
+		int batchSize = getBasicConfig().getServerMode().getDatagramBatchSize();
+		AccessConstraintConfig accessConstraint = getAccessConstraintConfig();
+		DatagramChannel channel = datagramChannel;
+		ByteBuffer buffer = null;
+		SocketAddress sender = null;
+		InetAddress address = null;
+		DatagramStats.Source source = null;
+		boolean allowed = true;
+		int selectCount = 0;
+		int packets = 0;
+		long bytes = 0;
+		int length = 0;
+
+		while(stopServer==false) {
+			selectCount = selector.select(500);
+			CachedClock.update();
+			if(selectCount==0) continue;
+			selector.selectedKeys().clear();
+
+			buffer = (ByteBuffer) getByteBufferPool().borrowObject();
+			packets = 0;
+			bytes = 0;
+			try {
+				while(packets<batchSize) {
+					buffer.clear();
+					sender = channel.receive(buffer);
+					if(sender==null) break;
+					buffer.flip();
+					length = buffer.remaining();
+					packets++;
+					bytes += length;
+
+					address = ((InetSocketAddress) sender).getAddress();
+					source = datagramStats.getSource(address);
+					if(source==null) {
+						allowed = accessConstraint==null || accessConstraint.isAllowed(address);
+						source = datagramStats.addSource(address, allowed);
+					} else {
+						allowed = source.isAllowed();
+					}
+					datagramStats.received(source, length);
+					if(allowed==false) {
+						datagramStats.denied();
+						continue;
+					}
+
+					try {
+						clientDatagramHandler.handleDatagram(this, sender, buffer);
+					} catch(Exception e) {
+						datagramStats.handlerError();
+						logger.log(Level.WARNING, "Error in ClientDatagramHandler for {0}: {1}", 
+							new Object[]{sender, e});
+						logger.log(Level.FINE, "StackTrace:\n{0}", MyString.getStackTrace(e));
+					}
+				}
+			} catch(ClosedChannelException e) {
+				if(stopServer==false) throw e;
+			} catch(IOException e) {
+				logger.log(Level.WARNING, "IOError receiving datagram: {0}", e);
+			} finally {
+				datagramStats.addReceived(packets, bytes);
+				getByteBufferPool().returnObject(buffer);
+			}
+		}
+	}
+
 	/**
 	 * Starts server in blocking mode.
 	 * @since 1.4.5
@@ -2792,6 +3146,7 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 		while(true) {
 			selectCount = selector.select(500);
 			//selectCount = selector.select();//for testing
+			CachedClock.update();
 			
 			//check for any pending registerChannel req.
 			synchronized(registerChannelRequestMap) {				
@@ -2938,7 +3293,9 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 					try {
 						_ch = (ClientHandler)key.attachment();
 						logger.finest("Key is Readable, removing OP_READ from interestOps for "+_ch.getName());
-						key.interestOps(key.interestOps() & (~SelectionKey.OP_READ));
+						synchronized(key) {//handler threads add ops to it
+							key.interestOps(key.interestOps() & (~SelectionKey.OP_READ));
+						}
 						_ch.addEvent(ClientEvent.READ);addedEvent= true;
 						//_ch.setSelectionKey(key);
 						getClientPool().addClient(_ch);
@@ -2960,7 +3317,9 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 						_ch = (ClientHandler)key.attachment();
 						logger.finest("Key is Writable, removing OP_WRITE from interestOps for "+_ch.getName());
 						//remove OP_WRITE from interest set
-						key.interestOps(key.interestOps() & (~SelectionKey.OP_WRITE));
+						synchronized(key) {//handler threads add ops to it
+							key.interestOps(key.interestOps() & (~SelectionKey.OP_WRITE));
+						}
 						_ch.addEvent(ClientEvent.WRITE);addedEvent= true;
 						//_ch.setSelectionKey(key);
 						getClientPool().addClient(_ch);
@@ -3155,7 +3514,8 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 	 */
 	protected void loadBusinessLogic() throws Exception {
 		if(clientCommandHandlerString == null && 
-				clientEventHandlerString == null) {
+				clientEventHandlerString == null && 
+				getBasicConfig().getServerMode().getUdp()==false) {
 			logger.severe("ClientCommandHandler AND ClientEventHandler was not set.");
 			throw new AppException("ClientCommandHandler AND ClientEventHandler was not set.");
 		}
@@ -3223,6 +3583,18 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 			}
 		} //end of != null
 
+		String objectCodecClass = getBasicConfig().getAdvancedSettings().getObjectCodec();
+		if(objectCodecClass != null) {
+			logger.finest("Loading ObjectCodec class..");
+			objectCodec = (ObjectCodec) getClass(objectCodecClass, true).newInstance();
+		}
+
+		credentialCache = null;
+		if(getBasicConfig().getCredentialCacheConfig().getEnable()) {
+			logger.finest("Creating CredentialCache..");
+			credentialCache = new CredentialCache(getBasicConfig().getCredentialCacheConfig());
+		}
+
 		clientBinaryHandler = null;
 		if(clientBinaryHandlerString != null) {
 			logger.finest("Loading ClientBinaryHandler class..");
@@ -3244,6 +3616,27 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 			}
 		} //end of != null
 
+		clientDatagramHandler = null;
+		if(clientDatagramHandlerString != null) {
+			logger.finest("Loading ClientDatagramHandler class..");
+			if(clientDatagramHandlerString.equals(clientCommandHandlerString) && 
+					ClientDatagramHandler.class.isInstance(clientCommandHandler)) {
+				clientDatagramHandler = (ClientDatagramHandler) clientCommandHandler;
+			} else if(clientDatagramHandlerString.equals(clientEventHandlerString) && 
+					ClientDatagramHandler.class.isInstance(clientEventHandler)) {
+				clientDatagramHandler = (ClientDatagramHandler) clientEventHandler;
+			} else if(clientDatagramHandlerString.equals(clientBinaryHandlerString) && 
+					ClientDatagramHandler.class.isInstance(clientBinaryHandler)) {
+				clientDatagramHandler = (ClientDatagramHandler) clientBinaryHandler;
+			} else {
+				clientDatagramHandler = (ClientDatagramHandler)
+					getClass(clientDatagramHandlerString, true).newInstance();
+			}
+		} else if(getBasicConfig().getServerMode().getUdp()) {
+			logger.severe("ClientDatagramHandler was not set for UDP mode.");
+			throw new AppException("ClientDatagramHandler was not set for UDP mode.");
+		}
+
 		clientWriteHandler = null;
 		if(clientWriteHandlerString != null) {
 			logger.finest("Loading ClientWriteHandler class..");
@@ -3408,6 +3801,46 @@ public class QuickServer implements Runnable, Service, Cloneable, Serializable {
 	public void setRawCommunicationMaxLength(int rawCommunicationMaxLength) {
 		this.rawCommunicationMaxLength = rawCommunicationMaxLength;
 	}
+
+	/**
+	 * Returns the TrafficCapture the data of clients is captured to,
+	 * <code>null</code> if not capturing.
+	 * @since 2.1.0
+	 */
+	public TrafficCapture getTrafficCapture() {
+		return trafficCapture;
+	}
+
+	/**
+	 * Sets the TrafficCapture the raw data sent and received by clients is
+	 * captured to, in binary, without the cost of communication logging.
+	 * Clients that connect after this is set are captured, as per its
+	 * sample percent; <code>null</code> stops capturing. The capture is not
+	 * closed by the server.
+	 * @since 2.1.0
+	 */
+	public void setTrafficCapture(TrafficCapture trafficCapture) {
+		this.trafficCapture = trafficCapture;
+	}
+
+	/**
+	 * Returns the AccessLog connections are logged to, <code>null</code>
+	 * if none.
+	 * @since 2.1.0
+	 */
+	public AccessLog getAccessLog() {
+		return accessLog;
+	}
+
+	/**
+	 * Sets the AccessLog a record is logged to when a client closes and,
+	 * if it logs commands, for every command handled; <code>null</code>
+	 * stops logging. The log is not closed by the server.
+	 * @since 2.1.0
+	 */
+	public void setAccessLog(AccessLog accessLog) {
+		this.accessLog = accessLog;
+	}
 		
 	public String getUptime() {
 		Date lst = getLastStartTime();
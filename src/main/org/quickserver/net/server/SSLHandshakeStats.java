@@ -0,0 +1,135 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.net.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLSession;
+
+/**
+ * Counters for SSL/TLS handshakes done by a QuickServer, for both
+ * blocking (SSLSocket) and non-blocking (SSLEngine) connections.
+ * <p>
+ * A handshake is counted as resumed when the session it ended with was
+ * created before the handshake started, i.e. it came from the session
+ * cache or a session ticket. The split between full and resumed 
+ * handshakes is approximate: session times are in milliseconds, so a
+ * session resumed within the millisecond it was created is counted as
+ * full, and how a TLS 1.3 (PSK) resumption reports its creation time
+ * depends on the JDK. The total and failed counts are exact.
+ * </p>
+ * @see QuickServer#getSSLHandshakeStats
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public class SSLHandshakeStats {
+	private final AtomicLong fullHandshakes = new AtomicLong();
+	private final AtomicLong resumedHandshakes = new AtomicLong();
+	private final AtomicLong failedHandshakes = new AtomicLong();
+	private final AtomicLong totalFullTime = new AtomicLong();
+	private final AtomicLong totalResumedTime = new AtomicLong();
+	private final AtomicLong maxTime = new AtomicLong();
+
+	/**
+	 * Records a completed handshake.
+	 * @param session session the handshake ended with
+	 * @param startTime time (as in <code>System.currentTimeMillis()</code>)
+	 *  the handshake was started
+	 * @param nanos time taken by the handshake in nano seconds
+	 */
+	public void handshakeCompleted(SSLSession session, long startTime, long nanos) {
+		if(session!=null && session.getCreationTime()<startTime) {
+			resumedHandshakes.incrementAndGet();
+			totalResumedTime.addAndGet(nanos);
+		} else {
+			fullHandshakes.incrementAndGet();
+			totalFullTime.addAndGet(nanos);
+		}
+		long max = maxTime.get();
+		while(nanos>max && maxTime.compareAndSet(max, nanos)==false) {
+			max = maxTime.get();
+		}
+	}
+
+	/**
+	 * Records a failed handshake.
+	 */
+	public void handshakeFailed() {
+		failedHandshakes.incrementAndGet();
+	}
+
+	/** Returns the number of full handshakes done, approximate. */
+	public long getFullHandshakeCount() {
+		return fullHandshakes.get();
+	}
+
+	/** Returns the number of handshakes that resumed a session, approximate. */
+	public long getResumedHandshakeCount() {
+		return resumedHandshakes.get();
+	}
+
+	/** Returns the number of handshakes that failed. */
+	public long getFailedHandshakeCount() {
+		return failedHandshakes.get();
+	}
+
+	/** Returns the number of handshakes completed, full or resumed. */
+	public long getHandshakeCount() {
+		return fullHandshakes.get() + resumedHandshakes.get();
+	}
+
+	/** Returns average time of a full handshake in milliseconds. */
+	public double getAverageFullHandshakeTime() {
+		return average(totalFullTime.get(), fullHandshakes.get());
+	}
+
+	/** Returns average time of a resumed handshake in milliseconds. */
+	public double getAverageResumedHandshakeTime() {
+		return average(totalResumedTime.get(), resumedHandshakes.get());
+	}
+
+	/** Returns the time of the slowest handshake in milliseconds. */
+	public double getMaxHandshakeTime() {
+		return maxTime.get()/1000000.0;
+	}
+
+	private static double average(long totalNanos, long count) {
+		if(count==0) return 0;
+		return totalNanos/1000000.0/count;
+	}
+
+	/**
+	 * Resets all the counters.
+	 */
+	public void reset() {
+		fullHandshakes.set(0);
+		resumedHandshakes.set(0);
+		failedHandshakes.set(0);
+		totalFullTime.set(0);
+		totalResumedTime.set(0);
+		maxTime.set(0);
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("SSLHandshakeStats[full=").append(getFullHandshakeCount());
+		sb.append(", resumed=").append(getResumedHandshakeCount());
+		sb.append(", failed=").append(getFailedHandshakeCount());
+		sb.append(", avgFullMs=").append(getAverageFullHandshakeTime());
+		sb.append(", avgResumedMs=").append(getAverageResumedHandshakeTime());
+		sb.append(", maxMs=").append(getMaxHandshakeTime());
+		sb.append(']');
+		return sb.toString();
+	}
+}
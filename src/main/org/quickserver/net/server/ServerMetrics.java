@@ -0,0 +1,277 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.net.server;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import org.quickserver.util.LatencyHistogram;
+import org.quickserver.util.StripedCounter;
+
+/**
+ * Metrics of a QuickServer: counters of clients accepted, closed and lost
+ * and of bytes read and written, and latency histograms of the handler
+ * callbacks (handleCommand, handleObject, handleBinary, handleAuthentication)
+ * and of writes to clients.
+ * <p>
+ * Counters are striped and histograms are log-linear, see
+ * {@link StripedCounter} and {@link LatencyHistogram}, so recording takes
+ * no lock. Bytes are counted when a client closes. Applications can
+ * register their own metrics with {@link #getCounter} and
+ * {@link #getHistogram}. Timing can be turned off with
+ * {@link #setEnabled}.
+ * </p>
+ * @see QuickServer#getMetrics
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public class ServerMetrics {
+	private volatile boolean enabled = true;
+
+	private final StripedCounter accepted = new StripedCounter();
+	private final StripedCounter closed = new StripedCounter();
+	private final StripedCounter lost = new StripedCounter();
+	private final StripedCounter bytesIn = new StripedCounter();
+	private final StripedCounter bytesOut = new StripedCounter();
+
+	private final LatencyHistogram handleCommand = new LatencyHistogram();
+	private final LatencyHistogram handleObject = new LatencyHistogram();
+	private final LatencyHistogram handleBinary = new LatencyHistogram();
+	private final LatencyHistogram authentication = new LatencyHistogram();
+	private final LatencyHistogram write = new LatencyHistogram();
+
+	private final Map counters = new ConcurrentHashMap();
+	private final Map histograms = new ConcurrentHashMap();
+
+	private volatile long resetTime = System.currentTimeMillis();
+	//for rates since the last snapshot
+	private long lastTime = resetTime;
+	private long lastAccepted;
+	private long lastClosed;
+	private long lastLost;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Sets if callbacks and writes are timed. Counters are always kept.
+	 * Default is true.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/** Records a client accepted. */
+	public void clientAccepted() {
+		accepted.increment();
+	}
+
+	/** Records a client that closed or was lost, with the bytes it read and wrote. */
+	public void clientClosed(boolean wasLost, long read, long written) {
+		if(wasLost) {
+			lost.increment();
+		} else {
+			closed.increment();
+		}
+		bytesIn.add(read);
+		bytesOut.add(written);
+	}
+
+	/**
+	 * Records the time a handler took for a message, by the mode it came in.
+	 */
+	public void messageHandled(DataMode mode, long nanos) {
+		if(mode==DataMode.OBJECT) {
+			handleObject.record(nanos);
+		} else if(mode==DataMode.BINARY) {
+			handleBinary.record(nanos);
+		} else {
+			handleCommand.record(nanos);
+		}
+	}
+
+	/** Records the time a ClientAuthenticationHandler took. */
+	public void authenticationHandled(long nanos) {
+		authentication.record(nanos);
+	}
+
+	/** Records the time a write to a client took. */
+	public void writeDone(long nanos) {
+		write.record(nanos);
+	}
+
+	public long getAcceptedCount() {
+		return accepted.get();
+	}
+	public long getClosedCount() {
+		return closed.get();
+	}
+	public long getLostCount() {
+		return lost.get();
+	}
+	public long getBytesIn() {
+		return bytesIn.get();
+	}
+	public long getBytesOut() {
+		return bytesOut.get();
+	}
+
+	public LatencyHistogram getHandleCommandHistogram() {
+		return handleCommand;
+	}
+	public LatencyHistogram getHandleObjectHistogram() {
+		return handleObject;
+	}
+	public LatencyHistogram getHandleBinaryHistogram() {
+		return handleBinary;
+	}
+	public LatencyHistogram getAuthenticationHistogram() {
+		return authentication;
+	}
+	public LatencyHistogram getWriteHistogram() {
+		return write;
+	}
+
+	/**
+	 * Returns the counter of the name, made if not there.
+	 */
+	public StripedCounter getCounter(String name) {
+		StripedCounter counter = (StripedCounter) counters.get(name);
+		if(counter==null) {
+			synchronized(counters) {
+				counter = (StripedCounter) counters.get(name);
+				if(counter==null) {
+					counter = new StripedCounter();
+					counters.put(name, counter);
+				}
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Returns the histogram of the name, made if not there.
+	 */
+	public LatencyHistogram getHistogram(String name) {
+		LatencyHistogram histogram = (LatencyHistogram) histograms.get(name);
+		if(histogram==null) {
+			synchronized(histograms) {
+				histogram = (LatencyHistogram) histograms.get(name);
+				if(histogram==null) {
+					histogram = new LatencyHistogram();
+					histograms.put(name, histogram);
+				}
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Returns the time (in milliseconds) the metrics were made or last reset.
+	 */
+	public long getResetTime() {
+		return resetTime;
+	}
+
+	/**
+	 * Clears all counters and histograms.
+	 */
+	public synchronized void reset() {
+		accepted.reset();
+		closed.reset();
+		lost.reset();
+		bytesIn.reset();
+		bytesOut.reset();
+		handleCommand.reset();
+		handleObject.reset();
+		handleBinary.reset();
+		authentication.reset();
+		write.reset();
+		Iterator iterator = counters.values().iterator();
+		while(iterator.hasNext()) {
+			((StripedCounter) iterator.next()).reset();
+		}
+		iterator = histograms.values().iterator();
+		while(iterator.hasNext()) {
+			((LatencyHistogram) iterator.next()).reset();
+		}
+		resetTime = System.currentTimeMillis();
+		lastTime = resetTime;
+		lastAccepted = 0;
+		lastClosed = 0;
+		lastLost = 0;
+	}
+
+	/**
+	 * Returns the metrics as lines of text. Rates are per second since the
+	 * last snapshot, or since the reset for the first one.
+	 */
+	public synchronized List getSnapshot() {
+		List lines = new ArrayList();
+		long now = System.currentTimeMillis();
+		long elapsed = Math.max(1, now - lastTime);
+		long acceptedCount = accepted.get();
+		long closedCount = closed.get();
+		long lostCount = lost.get();
+
+		lines.add("since="+new Date(resetTime)+" enabled="+enabled);
+		lines.add(rateLine("accepted", acceptedCount, lastAccepted, elapsed));
+		lines.add(rateLine("closed", closedCount, lastClosed, elapsed));
+		lines.add(rateLine("lost", lostCount, lastLost, elapsed));
+		lines.add("bytesIn "+bytesIn.get());
+		lines.add("bytesOut "+bytesOut.get());
+		lines.add("handleCommand "+handleCommand.getSnapshot());
+		lines.add("handleObject "+handleObject.getSnapshot());
+		lines.add("handleBinary "+handleBinary.getSnapshot());
+		lines.add("authentication "+authentication.getSnapshot());
+		lines.add("write "+write.getSnapshot());
+
+		List names = new ArrayList(counters.keySet());
+		Collections.sort(names);
+		for(int i=0;i<names.size();i++) {
+			lines.add("counter."+names.get(i)+" "+counters.get(names.get(i)));
+		}
+		names = new ArrayList(histograms.keySet());
+		Collections.sort(names);
+		for(int i=0;i<names.size();i++) {
+			lines.add("histogram."+names.get(i)+" "+
+				((LatencyHistogram) histograms.get(names.get(i))).getSnapshot());
+		}
+
+		lastTime = now;
+		lastAccepted = acceptedCount;
+		lastClosed = closedCount;
+		lastLost = lostCount;
+		return lines;
+	}
+
+	private static String rateLine(String name, long count, long last, long elapsed) {
+		long rate = (count - last)*10000/elapsed;
+		return name+" count="+count+" rate="+(rate/10)+"."+Math.abs(rate%10)+"/s";
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("ServerMetrics{accepted=").append(accepted.get());
+		sb.append(", closed=").append(closed.get());
+		sb.append(", lost=").append(lost.get());
+		sb.append(", bytesIn=").append(bytesIn.get());
+		sb.append(", bytesOut=").append(bytesOut.get());
+		sb.append(", handleCommand=").append(handleCommand.getCount());
+		sb.append(", handleObject=").append(handleObject.getCount());
+		sb.append(", handleBinary=").append(handleBinary.getCount());
+		sb.append('}');
+		return sb.toString();
+	}
+}
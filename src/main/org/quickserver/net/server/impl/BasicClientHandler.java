@@ -24,9 +24,14 @@ import java.util.logging.*;
 import java.security.*;
 import java.nio.channels.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.quickserver.net.*;
 import org.quickserver.util.*;
+import org.quickserver.util.io.ObjectCodec;
+import org.quickserver.util.io.ObjectFrame;
+import org.quickserver.util.logging.AccessLog;
+import org.quickserver.util.logging.TrafficCapture;
 import org.quickserver.net.server.*;
 import javax.net.ssl.*;
 
@@ -42,7 +47,8 @@ import javax.net.ssl.*;
  * @author Akshathkumar Shetty
  * @author Martin Benns : Added BYTE mode
  */
-public abstract class BasicClientHandler implements ClientHandler {
+public abstract class BasicClientHandler implements ClientHandler, 
+		AsyncAuthenticationSupport {
 	private static final Logger logger = Logger.getLogger(BasicClientHandler.class.getName());
 
 	protected static final String NEW_LINE = QuickServer.getNewLine();
@@ -55,6 +61,12 @@ public abstract class BasicClientHandler implements ClientHandler {
 	protected Socket socket;
 	/** Client authorisation status */
 	protected volatile boolean authorised;
+	//async authentication, see completeAuthentication()
+	protected final Object authLock = new Object();
+	protected volatile boolean authPending;
+	private AuthStatus completedAuthStatus;
+	private Object authToken;
+	private Object authenticationState;
 	/** Count of client login attempts */
 	protected int counAuthTry;
 	/** max allowed login attempts */
@@ -94,8 +106,19 @@ public abstract class BasicClientHandler implements ClientHandler {
 	protected DataMode dataModeOUT = null;
 
 	protected boolean communicationLogging = true;
-	protected Date clientConnectedTime = null;	
-	protected Date lastCommunicationTime = null;
+	/**
+	 * @deprecated since 2.1.0, use {@link #clientConnectedTimeMillis}
+	 */
+	protected Date clientConnectedTime;
+	/**
+	 * Only updated when {@link #getLastCommunicationTime} is called.
+	 * @deprecated since 2.1.0, use {@link #lastCommunicationTimeMillis}
+	 */
+	protected volatile Date lastCommunicationTime;
+	protected long clientConnectedTimeMillis;
+	protected volatile long lastCommunicationTimeMillis;
+	protected volatile long lastReadTime;
+	protected volatile long lastWriteTime;
 	protected boolean secure = false;
 
 	//--v1.4.5
@@ -111,6 +134,7 @@ public abstract class BasicClientHandler implements ClientHandler {
 	protected String charset;
 
 	private static Map idMap = new HashMap();
+	private static final AtomicLong connectionIds = new AtomicLong();
 	private int instanceCount;
 	private int id;
 	private String name;
@@ -122,6 +146,15 @@ public abstract class BasicClientHandler implements ClientHandler {
 	protected int totalReadBytes;
 	protected int totalWrittenBytes;
 
+	private boolean trusted;
+	private long connectionId;
+	private boolean captured;
+	private int messageCount;
+	private char closeReason;
+	private DataMode handlingMode;
+	private volatile HashedTimerWheel.Timeout idleTimeout;
+	private volatile HashedTimerWheel.Timeout authTimeout;
+
 	static class InstanceId {
 		private int id = 0;
 		public int getNextId() {
@@ -161,8 +194,15 @@ public abstract class BasicClientHandler implements ClientHandler {
 	}	
 	
 	public void clean() {
+		cancelTimeouts();
 		counAuthTry = 0;
 		authorised = false;
+		synchronized(authLock) {
+			authPending = false;
+			completedAuthStatus = null;
+			authToken = null;
+		}
+		authenticationState = null;
 		in = null;
 		out = null;
 		bufferedReader = null;
@@ -174,8 +214,12 @@ public abstract class BasicClientHandler implements ClientHandler {
 
 		lost = false;
 		clientData = null;
+		clientConnectedTimeMillis = 0;
 		clientConnectedTime = null;
+		lastCommunicationTimeMillis = 0;
 		lastCommunicationTime = null;
+		lastReadTime = 0;
+		lastWriteTime = 0;
 		communicationLogging = true;
 		socketTimeout = 0;
 		secure = false;
@@ -215,6 +259,12 @@ public abstract class BasicClientHandler implements ClientHandler {
 		
 		totalReadBytes = 0;
 		totalWrittenBytes = 0;
+		trusted = false;
+		connectionId = 0;
+		captured = false;
+		messageCount = 0;
+		closeReason = 0;
+		handlingMode = null;
 	}
 
 	/**
@@ -246,6 +296,7 @@ public abstract class BasicClientHandler implements ClientHandler {
 		if(theClient.getTrusted()==false) {
 			socketTimeout = theClient.getTimeout();
 		}
+		trusted = theClient.getTrusted();
 		timeoutMsg = theClient.getTimeoutMsg();
 		maxAuthTryMsg = theClient.getMaxAuthTryMsg();
 		maxAuthTry = theClient.getMaxAuthTry(); //v1.2
@@ -353,8 +404,12 @@ public abstract class BasicClientHandler implements ClientHandler {
 			b_out = new BufferedOutputStream(out);
 		} else if(getDataMode(DataType.OUT) == DataMode.OBJECT) {
 			b_out = null;
-			o_out = new ObjectOutputStream(out);
-			o_out.flush();
+			if(getObjectCodec()!=null) {
+				o_out = null; //objects are sent as frames
+			} else {
+				o_out = new ObjectOutputStream(new CountingOutputStream(out));
+				o_out.flush();
+			}
 		} else {
 			throw new IllegalStateException("Unknown DataMode " +getDataMode(DataType.OUT));
 		}
@@ -517,15 +572,18 @@ public abstract class BasicClientHandler implements ClientHandler {
 			appLogger.log(Level.FINE, "Sending [{0}] : {1}", new Object[]{getHostAddress(), msg});
 		}
 		byte data[] = msg.getBytes(charset);
+		if(captured) captureTraffic(TrafficCapture.OUT, DataMode.STRING, data, 0, data.length);
 
+		long writeStart = metricsStart();
 		synchronized(this) {
 			b_out.write(data, 0, data.length);
 			b_out.write(NEW_LINE_BYTES, 0, NEW_LINE_BYTES.length);
 			totalWrittenBytes = totalWrittenBytes + data.length + NEW_LINE_BYTES.length;
 		}
 		b_out.flush();
+		writeDone(writeStart);
 
-		updateLastCommunicationTime();
+		updateLastWriteTime();
 	}
 
 	/**
@@ -545,21 +603,24 @@ public abstract class BasicClientHandler implements ClientHandler {
 			appLogger.log(Level.FINE, "Sending [{0}] : {1}", new Object[]{getHostAddress(), msg});
 		}
 		byte data[] = msg.getBytes(charset);
+		if(captured) captureTraffic(TrafficCapture.OUT, DataMode.BYTE, data, 0, data.length);
 
+		long writeStart = metricsStart();
 		synchronized(this) {
 			b_out.write(data,0,data.length);
 			totalWrittenBytes = totalWrittenBytes + data.length;
 		}
 		b_out.flush();
+		writeDone(writeStart);
 
-		updateLastCommunicationTime();
+		updateLastWriteTime();
 	}
 
 
 	/**
 	 * Send a Object message to the connected client. The message Object
-	 * passed must be serializable. If client is not connected it 
-	 * will just return.
+	 * passed must be serializable (or supported by the ObjectCodec set on 
+	 * the server). If client is not connected it will just return.
 	 * @exception IOException if Socket IO Error or Socket was closed 
 	 * by the client.
 	 * @exception IllegalStateException if DataType.OUT is not in 
@@ -575,14 +636,37 @@ public abstract class BasicClientHandler implements ClientHandler {
 		if(getCommunicationLogging()) {
 			appLogger.log(Level.FINE, "Sending [{0}] : {1}", new Object[]{getHostAddress(), msg.toString()});
 		}
-		synchronized(this) {
-			o_out.writeObject(msg);
-			
-			totalWrittenBytes = totalWrittenBytes + 1;
+		long writeStart = metricsStart();
+		ObjectCodec codec = getObjectCodec();
+		if(codec!=null) {
+			byte frame[] = ObjectFrame.encode(msg, codec);
+			if(captured) captureTraffic(TrafficCapture.OUT, DataMode.OBJECT, frame, 0, frame.length);
+			synchronized(this) {
+				out.write(frame, 0, frame.length);
+				totalWrittenBytes = totalWrittenBytes + frame.length;
+			}
+			out.flush();
+		} else {
+			synchronized(this) {
+				//bytes are counted by CountingOutputStream
+				o_out.writeObject(msg);
+				o_out.flush();
+			}
 		}
-		o_out.flush();
+		writeDone(writeStart);
+
+		updateLastWriteTime();
+	}
 
-		updateLastCommunicationTime();
+	/**
+	 * Returns the ObjectCodec used for OBJECT mode, <code>null</code> 
+	 * if ObjectInputStream and ObjectOutputStream are used.
+	 * @see QuickServer#setObjectCodec
+	 * @since 2.1.0
+	 */
+	protected ObjectCodec getObjectCodec() {
+		if(quickServer==null) return null;
+		return quickServer.getObjectCodec();
 	}
 
 	/**
@@ -618,13 +702,23 @@ public abstract class BasicClientHandler implements ClientHandler {
 	public abstract void run();
 
 	protected void prepareForRun() throws SocketException, IOException {
-		clientConnectedTime = new java.util.Date(); //v1.3.2
-		lastCommunicationTime = clientConnectedTime;//v1.3.3
+		clientConnectedTimeMillis = CachedClock.currentTimeMillis(); //v1.3.2
+		clientConnectedTime = CachedClock.toDate(clientConnectedTimeMillis);
+		lastCommunicationTimeMillis = clientConnectedTimeMillis;//v1.3.3
+		lastReadTime = clientConnectedTimeMillis;
+		lastWriteTime = clientConnectedTimeMillis;
 
 		setCharset(getServer().getBasicConfig().getAdvancedSettings().getCharset());//1.4.5	
 		hostAddress = getSocket().getInetAddress().getHostAddress();//1.4.5
 		port = getSocket().getPort();
 
+		connectionId = connectionIds.incrementAndGet();
+		getServer().getMetrics().clientAccepted();
+		TrafficCapture trafficCapture = getServer().getTrafficCapture();
+		if(trafficCapture!=null) {
+			captured = trafficCapture.openConnection(connectionId, hostAddress+":"+port);
+		}
+
 		if(logger.isLoggable(Level.FINEST)) {
 			StringBuilder sb = new StringBuilder();
 			sb.append(getName());
@@ -637,6 +731,7 @@ public abstract class BasicClientHandler implements ClientHandler {
 
 		socket.setSoTimeout(socketTimeout);
 		connection = true;
+		scheduleTimeouts();
 
 		dataModeIN = getServer().getDefaultDataMode(DataType.IN); 
 		dataModeOUT = getServer().getDefaultDataMode(DataType.OUT);
@@ -683,6 +778,7 @@ public abstract class BasicClientHandler implements ClientHandler {
 
 			try	{
 				if(clientAuthenticationHandler!=null) {
+					startAuthenticationAttempt();
 					return clientAuthenticationHandler.askAuthentication(this);
 				} else if(authenticator!=null) {
 					authorised = authenticator.askAuthorisation(this);	
@@ -695,7 +791,7 @@ public abstract class BasicClientHandler implements ClientHandler {
 				handleTimeout(e);
 			}
 
-			updateLastCommunicationTime();			
+			updateLastReadTime();			
 		} //end of auth while
 		return AuthStatus.SUCCESS;
 	}
@@ -708,15 +804,151 @@ public abstract class BasicClientHandler implements ClientHandler {
 			if(dataModeOUT == DataMode.STRING)
 				temp = temp + NEW_LINE;
 			if(dataModeOUT != DataMode.OBJECT) {
-				out.write(temp.getBytes(charset));
-				out.flush();
+				synchronized(this) {
+					out.write(temp.getBytes(charset));
+					out.flush();
+				}
 			}
 		}
 		appLogger.log(Level.WARNING, "Max Auth Try Reached - Client : {0}", getHostAddress());
+		closeReason = AccessLog.CLOSE_MAX_AUTH;
 		if(true) throw new AppException(maxAuthTryMsg);
 	}
 
 
+	/**
+	 * Returns true if the data of this client is captured to the
+	 * TrafficCapture of the server.
+	 * @since 2.1.0
+	 */
+	protected boolean isTrafficCaptured() {
+		return captured;
+	}
+
+	/**
+	 * Captures data sent to or received from this client, if it is captured.
+	 * @param type TrafficCapture.IN or TrafficCapture.OUT
+	 * @since 2.1.0
+	 */
+	protected void captureTraffic(char type, DataMode mode, byte data[], int off, int len) {
+		if(captured==false) return;
+		TrafficCapture trafficCapture = getServer().getTrafficCapture();
+		if(trafficCapture==null) return;
+		char modeChar;
+		if(mode==DataMode.STRING) modeChar = 'S';
+		else if(mode==DataMode.BYTE) modeChar = 'Y';
+		else if(mode==DataMode.OBJECT) modeChar = 'O';
+		else modeChar = 'B';
+		trafficCapture.capture(connectionId, type, modeChar, data, off, len);
+	}
+
+	/**
+	 * Captures a String received from this client, in the charset of the
+	 * client, if it is captured.
+	 * @since 2.1.0
+	 */
+	protected void captureTraffic(char type, DataMode mode, String data) {
+		if(captured==false || data==null) return;
+		try {
+			byte bytes[] = data.getBytes(charset);
+			captureTraffic(type, mode, bytes, 0, bytes.length);
+		} catch(UnsupportedEncodingException e) {
+			logger.log(Level.FINE, "Could not capture: {0}", e);
+		}
+	}
+
+	/**
+	 * Returns the id of the current connection of this client, unique in
+	 * the JVM; the same id is used in the access log and traffic capture.
+	 * @since 2.1.0
+	 */
+	public long getConnectionId() {
+		return connectionId;
+	}
+
+	/**
+	 * Called before a message is handled. Returns the time to pass to
+	 * {@link #messageHandled}, 0 if it is not timed.
+	 * @since 2.1.0
+	 */
+	protected long messageReceived() {
+		messageCount++;
+		handlingMode = dataModeIN;
+		if(getServer().getMetrics().isEnabled()) return System.nanoTime();
+		AccessLog accessLog = getServer().getAccessLog();
+		if(accessLog==null || accessLog.isLogCommands()==false) return 0;
+		return System.nanoTime();
+	}
+
+	/**
+	 * Called after a message is handled, records its time in the metrics
+	 * and logs it to the access log.
+	 * @param start value returned by {@link #messageReceived}
+	 * @since 2.1.0
+	 */
+	protected void messageHandled(long start, String data, int length) {
+		if(start==0) return;
+		QuickServer server = quickServer;
+		if(server==null) return;
+		long nanos = System.nanoTime()-start;
+		ServerMetrics metrics = server.getMetrics();
+		if(metrics.isEnabled()) metrics.messageHandled(handlingMode, nanos);
+		AccessLog accessLog = server.getAccessLog();
+		if(accessLog!=null) {
+			accessLog.logCommand(connectionId, hostAddress, port, data, 
+				length, nanos);
+		}
+	}
+
+	/**
+	 * Returns the time to pass to {@link #authenticationHandled} or
+	 * {@link #writeDone}, 0 if metrics are not enabled.
+	 * @since 2.1.0
+	 */
+	protected long metricsStart() {
+		QuickServer server = quickServer;
+		if(server==null || server.getMetrics().isEnabled()==false) return 0;
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the time a ClientAuthenticationHandler took.
+	 * @param start value returned by {@link #metricsStart}
+	 * @since 2.1.0
+	 */
+	protected void authenticationHandled(long start) {
+		if(start==0) return;
+		QuickServer server = quickServer;
+		if(server!=null) server.getMetrics().authenticationHandled(System.nanoTime()-start);
+	}
+
+	/**
+	 * Records the time a write to the client took.
+	 * @param start value returned by {@link #metricsStart}
+	 * @since 2.1.0
+	 */
+	protected void writeDone(long start) {
+		if(start==0) return;
+		QuickServer server = quickServer;
+		if(server!=null) server.getMetrics().writeDone(System.nanoTime()-start);
+	}
+
+	private void logAccess(AccessLog accessLog) {
+		char reason = closeReason;
+		if(reason==0) reason = lost?AccessLog.CLOSE_LOST:AccessLog.CLOSE_CLOSED;
+		char auth;
+		if(authorised==false) {
+			auth = AccessLog.AUTH_FAILED;
+		} else if(trusted || (clientAuthenticationHandler==null && authenticator==null)) {
+			auth = AccessLog.AUTH_NONE;
+		} else {
+			auth = AccessLog.AUTH_OK;
+		}
+		accessLog.logConnection(connectionId, hostAddress, port, clientConnectedTimeMillis,
+			auth, getTotalReadBytes(), getTotalWrittenBytes(), messageCount,
+			CachedClock.currentTimeMillis()-clientConnectedTimeMillis, reason);
+	}
+
 	protected void notifyCloseOrLost() throws IOException {
 		synchronized(this) {
 			if(closeOrLostNotified==false) {
@@ -726,6 +958,17 @@ public abstract class BasicClientHandler implements ClientHandler {
 					clientEventHandler.closingConnection(this);
 				}
 				closeOrLostNotified = true;
+				if(captured) {
+					TrafficCapture trafficCapture = getServer().getTrafficCapture();
+					if(trafficCapture!=null) trafficCapture.closeConnection(connectionId, lost);
+					captured = false;
+				}
+				AccessLog accessLog = getServer().getAccessLog();
+				if(accessLog!=null && connectionId!=0) {
+					logAccess(accessLog);
+				}
+				getServer().getMetrics().clientClosed(lost, getTotalReadBytes(), 
+					getTotalWrittenBytes());
 			}			
 		}
 	}
@@ -903,6 +1146,15 @@ public abstract class BasicClientHandler implements ClientHandler {
 		return clientConnectedTime;
 	}
 
+	/**
+	 * Returns the time in milliseconds when the client socket was assigned 
+	 * to this ClientHanlder, or 0 if no client is currently connected.
+	 * @since 2.1.0
+	 */
+	public long getClientConnectedTimeMillis() {
+		return clientConnectedTimeMillis;
+	}
+
 	/**
 	 * Read the byte input. This will block till some data is
 	 * received from the stream. 
@@ -983,7 +1235,23 @@ public abstract class BasicClientHandler implements ClientHandler {
 	 * @since 1.3.3
 	 */
 	public Date getLastCommunicationTime() {
-		return lastCommunicationTime;
+		long time = lastCommunicationTimeMillis;
+		if(time==0) return null;
+		Date date = lastCommunicationTime;
+		if(date==null || date.getTime()!=time) {
+			date = CachedClock.toDate(time);
+			lastCommunicationTime = date;
+		}
+		return date;
+	}
+
+	/**
+	 * Returns the time in milliseconds when the client socket last sent a 
+	 * data to this ClientHanlder, or 0 if no client is connected.
+	 * @since 2.1.0
+	 */
+	public long getLastCommunicationTimeMillis() {
+		return lastCommunicationTimeMillis;
 	}
 
 	/**
@@ -991,7 +1259,47 @@ public abstract class BasicClientHandler implements ClientHandler {
 	 * @since 1.3.3
 	 */
 	public void updateLastCommunicationTime() {
-		lastCommunicationTime = new Date();
+		lastCommunicationTimeMillis = CachedClock.currentTimeMillis();
+	}
+
+	/**
+	 * Updates the last communication time and the last read time 
+	 * for this client.
+	 * @since 2.1.0
+	 */
+	protected void updateLastReadTime() {
+		long time = CachedClock.currentTimeMillis();
+		lastCommunicationTimeMillis = time;
+		lastReadTime = time;
+	}
+
+	/**
+	 * Updates the last communication time and the last write time 
+	 * for this client.
+	 * @since 2.1.0
+	 */
+	protected void updateLastWriteTime() {
+		long time = CachedClock.currentTimeMillis();
+		lastCommunicationTimeMillis = time;
+		lastWriteTime = time;
+	}
+
+	/**
+	 * Returns the time in milliseconds when data was last read from 
+	 * the client, or 0 if no client is connected.
+	 * @since 2.1.0
+	 */
+	public long getLastReadTime() {
+		return lastReadTime;
+	}
+
+	/**
+	 * Returns the time in milliseconds when data was last written to 
+	 * the client, or 0 if no client is connected.
+	 * @since 2.1.0
+	 */
+	public long getLastWriteTime() {
+		return lastWriteTime;
 	}
 
 	/**
@@ -1140,15 +1448,18 @@ public abstract class BasicClientHandler implements ClientHandler {
 						"Sending [{0}] : {1}", new Object[]{getHostAddress(), MyString.getMemInfo(len)});
 				}
 			}
+			if(captured) captureTraffic(TrafficCapture.OUT, DataMode.BINARY, data, off, len);
+			long writeStart = metricsStart();
 			synchronized(this) {
 				b_out.write(data, off, len); 
 				b_out.flush();
 				totalWrittenBytes = totalWrittenBytes + len;
 			}
+			writeDone(writeStart);
 		} else {
 			logger.warning("Client not connected.");
 		}
-		updateLastCommunicationTime();
+		updateLastWriteTime();
 	}
 
 	/**
@@ -1394,21 +1705,210 @@ public abstract class BasicClientHandler implements ClientHandler {
 		return b_out;
 	}
 
+	/**
+	 * Schedules the idle and auth timeouts of this client with the 
+	 * timer wheel of {@link GhostSocketReaper}.
+	 * @since 2.1.0
+	 */
+	protected void scheduleTimeouts() {
+		if(trusted) return;
+		GhostSocketReaper ghostSocketReaper = getServer().getGhostSocketReaper();
+		if(ghostSocketReaper==null) return;
+		idleTimeout = ghostSocketReaper.scheduleIdleTimeout(this);
+		if(authorised==false && (authenticator!=null || clientAuthenticationHandler!=null)) {
+			authTimeout = ghostSocketReaper.scheduleAuthTimeout(this);
+		}
+	}
+
+	/**
+	 * Cancels the idle and auth timeouts of this client if any.
+	 * @since 2.1.0
+	 */
+	protected void cancelTimeouts() {
+		HashedTimerWheel.Timeout timeout = idleTimeout;
+		if(timeout!=null) {
+			timeout.cancel();
+			idleTimeout = null;
+		}
+		timeout = authTimeout;
+		if(timeout!=null) {
+			timeout.cancel();
+			authTimeout = null;
+		}
+	}
+
+	/**
+	 * Checks if the timeout passed is still valid for this client, i.e.,
+	 * it was not cancelled because the client was cleaned. 
+	 * @since 2.1.0
+	 */
+	public boolean isTimeoutValid(HashedTimerWheel.Timeout timeout) {
+		return timeout!=null && timeout.isCancelled()==false && 
+			(timeout==idleTimeout || timeout==authTimeout);
+	}
+
+	/**
+	 * Returns <code>true</code> if client is authorised.
+	 * @since 2.1.0
+	 */
+	public boolean isAuthorised() {
+		return authorised;
+	}
+
+	public void setAuthenticationState(Object state) {
+		authenticationState = state;
+	}
+	public Object getAuthenticationState() {
+		return authenticationState;
+	}
+
+	public Object getAuthenticationToken() {
+		synchronized(authLock) {
+			return authToken;
+		}
+	}
+
+	public boolean completeAuthentication(Object token, AuthStatus status) {
+		if(status!=AuthStatus.SUCCESS && status!=AuthStatus.FAILURE)
+			throw new IllegalArgumentException("Status should be SUCCESS or FAILURE: "+status);
+		synchronized(authLock) {
+			if(token==null || token!=authToken) {
+				logger.fine("Dropped authentication result of an ended attempt for "+getName());
+				return false;
+			}
+			//one result per attempt
+			authToken = null;
+			if(authPending==false) {
+				//handler has not returned yet or a thread is waiting
+				completedAuthStatus = status;
+				authLock.notifyAll();
+				return true;
+			}
+			authPending = false;
+			//set with the token check so it can not leak to the next client
+			if(status==AuthStatus.SUCCESS) authorised = true;
+		}
+		resumeAuthentication(status);
+		return true;
+	}
+
+	/**
+	 * Starts a new authentication attempt, results of the earlier 
+	 * attempts are dropped from now.
+	 * @since 2.1.0
+	 */
+	protected void startAuthenticationAttempt() {
+		synchronized(authLock) {
+			authToken = new Object();
+			authPending = false;
+			completedAuthStatus = null;
+		}
+	}
+
+	/**
+	 * Ends the authentication attempt if the status returned by the 
+	 * ClientAuthenticationHandler is final, a later completeAuthentication()
+	 * for it is dropped.
+	 * @since 2.1.0
+	 */
+	protected void endAuthenticationAttempt(AuthStatus status) {
+		if(status!=AuthStatus.SUCCESS && status!=AuthStatus.FAILURE) return;
+		synchronized(authLock) {
+			authToken = null;
+		}
+	}
+
+	/**
+	 * Called when a {@link AuthStatus#PENDING} is returned by the 
+	 * ClientAuthenticationHandler. Returns the status if 
+	 * completeAuthentication() was already called, else marks the 
+	 * authentication as pending and returns PENDING; 
+	 * {@link #resumeAuthentication} is then called on completion.
+	 * @since 2.1.0
+	 */
+	protected AuthStatus checkPendingAuthentication() {
+		synchronized(authLock) {
+			if(completedAuthStatus!=null) {
+				AuthStatus status = completedAuthStatus;
+				completedAuthStatus = null;
+				return status;
+			}
+			authPending = true;
+			return AuthStatus.PENDING;
+		}
+	}
+
+	/**
+	 * Blocks till a pending authentication is completed. Used in 
+	 * blocking mode where the client thread has to wait anyway.
+	 * @return the passed status if it was not {@link AuthStatus#PENDING}
+	 * @exception ConnectionLostException if client was closed while waiting.
+	 * @since 2.1.0
+	 */
+	protected AuthStatus waitForAuthentication(AuthStatus status) 
+			throws ConnectionLostException {
+		if(status!=AuthStatus.PENDING) {
+			endAuthenticationAttempt(status);
+			return status;
+		}
+		synchronized(authLock) {
+			while(completedAuthStatus==null) {
+				if(connection==false || lost) 
+					throw new ConnectionLostException("Closed while authenticating");
+				try {
+					authLock.wait(1000);
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ConnectionLostException("Interrupted while authenticating");
+				}
+			}
+			status = completedAuthStatus;
+			completedAuthStatus = null;
+			return status;
+		}
+	}
+
+	/**
+	 * Called by completeAuthentication() when the authentication was 
+	 * marked pending by {@link #checkPendingAuthentication}.
+	 * @since 2.1.0
+	 */
+	protected void resumeAuthentication(AuthStatus status) {
+		logger.warning("Unexpected pending authentication for "+getName());
+	}
+
+	/**
+	 * Called by {@link GhostSocketReaper} when a timeout scheduled for 
+	 * this client fires in non-blocking mode. Calls the 
+	 * {@link ClientExtendedEventHandler#handleTimeout} if set else sends 
+	 * the timeout message.
+	 * @param reason the timeout that fired
+	 * @exception SocketException if client socket needs to be closed.
+	 * @since 2.1.0
+	 */
+	public void handleTimeout(String reason) throws SocketException, IOException {
+		handleTimeout(new SocketTimeoutException(reason));
+	}
+
 	protected void handleTimeout(SocketTimeoutException e) throws SocketException, IOException {
 		appLogger.log(Level.FINE, "Timeout - Client [{0}]", getHostAddress());
 		appLogger.log(Level.FINE, "LastCommunicationTime - {0}", getLastCommunicationTime());
 		appLogger.log(Level.FINEST, "SocketTimeoutException : {0}", e.getMessage());
 
 		String temp = null;
+		closeReason = AccessLog.CLOSE_TIMEOUT;
 		if(clientExtendedEventHandler!=null) {
 			clientExtendedEventHandler.handleTimeout(this);
+			if(isClosed()==false) closeReason = 0;
 		} else {
 			temp = timeoutMsg;
 			if(dataModeOUT == DataMode.STRING)
 				temp = temp + NEW_LINE;
 			if(dataModeOUT != DataMode.OBJECT) {
-				out.write(temp.getBytes(charset));
-				out.flush();
+				synchronized(this) {
+					out.write(temp.getBytes(charset));
+					out.flush();
+				}
 			}
 			if(true) throw new SocketException("Timeout");
 		}
@@ -1440,4 +1940,47 @@ public abstract class BasicClientHandler implements ClientHandler {
 			totalWrittenBytes = 0;
 		}
 	}
+
+	/**
+	 * Adds bytes written by ObjectOutputStream to totalWrittenBytes.
+	 * @since 2.1.0
+	 */
+	protected class CountingOutputStream extends FilterOutputStream {
+		public CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		public void write(int b) throws IOException {
+			out.write(b);
+			totalWrittenBytes++;
+		}
+		public void write(byte b[], int off, int len) throws IOException {
+			out.write(b, off, len);
+			totalWrittenBytes = totalWrittenBytes + len;
+		}
+	}
+
+	/**
+	 * Adds bytes read by ObjectInputStream to totalReadBytes.
+	 * @since 2.1.0
+	 */
+	protected class CountingInputStream extends FilterInputStream {
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+		public int read() throws IOException {
+			int b = in.read();
+			if(b!=-1) totalReadBytes++;
+			return b;
+		}
+		public int read(byte b[], int off, int len) throws IOException {
+			int count = in.read(b, off, len);
+			if(count>0) totalReadBytes = totalReadBytes + count;
+			return count;
+		}
+		public long skip(long n) throws IOException {
+			long count = in.skip(n);
+			if(count>0) totalReadBytes = totalReadBytes + (int) count;
+			return count;
+		}
+	}
 }
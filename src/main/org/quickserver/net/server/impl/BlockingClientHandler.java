@@ -17,6 +17,8 @@ package org.quickserver.net.server.impl;
 import org.quickserver.net.server.*;
 import org.quickserver.net.*;
 import org.quickserver.util.*;
+import org.quickserver.util.io.ObjectFrame;
+import org.quickserver.util.logging.TrafficCapture;
 
 import java.io.*;
 import java.net.*;
@@ -52,9 +54,15 @@ public class BlockingClientHandler extends BasicClientHandler {
 			o_in = null;
 			bufferedReader = new BufferedReader(new InputStreamReader(this.in, charset));
 		} else if(getDataMode(DataType.IN) == DataMode.OBJECT) {
-			b_in = null;
 			bufferedReader = null;
-			o_in = new ObjectInputStream(in);
+			if(getObjectCodec()!=null) {
+				//objects are read as frames
+				o_in = null;
+				b_in = new BufferedInputStream(in);
+			} else {
+				b_in = null;
+				o_in = new ObjectInputStream(new CountingInputStream(in));
+			}
 		} else if(getDataMode(DataType.IN) == DataMode.BYTE || 
 				getDataMode(DataType.IN) == DataMode.BINARY) {
 			o_in = null;
@@ -155,6 +163,10 @@ public class BlockingClientHandler extends BasicClientHandler {
 
 			prepareForRun();
 
+			if(socket instanceof javax.net.ssl.SSLSocket) {
+				doSSLHandshake((javax.net.ssl.SSLSocket) socket);
+			}
+
 			if(getThreadEvent()==ClientEvent.MAX_CON_BLOCKING) {
 				processMaxConnection(currentEvent);
 			}
@@ -170,7 +182,7 @@ public class BlockingClientHandler extends BasicClientHandler {
 							if(clientAuthenticationHandler!=null) {
 								AuthStatus authStatus = null;
 								do {
-									authStatus = processAuthorisation();
+									authStatus = waitForAuthentication(processAuthorisation());
 								} while(authStatus==AuthStatus.FAILURE);
 
 								if(authStatus==AuthStatus.SUCCESS)
@@ -312,13 +324,31 @@ public class BlockingClientHandler extends BasicClientHandler {
 							new Object[]{getHostAddress(), rec});
 					}
 					totalReadBytes = totalReadBytes + rec.length() + 2;
+					if(isTrafficCaptured()) captureTraffic(TrafficCapture.IN, DataMode.STRING, rec);
 					
-					if(authorised == false)
+					if(authorised == false) {
+						long authStart = metricsStart();
 						authStatus = clientAuthenticationHandler.handleAuthentication(this, rec);
-					else
+						authenticationHandled(authStart);
+					} else {
+						long handleStart = messageReceived();
 						clientCommandHandler.handleCommand(this, rec);
+						messageHandled(handleStart, rec, rec.length());
+					}
 				} else if(dataModeIN == DataMode.OBJECT) {
-					recObject = o_in.readObject();
+					if(o_in!=null) {
+						//bytes are counted by CountingInputStream
+						recObject = o_in.readObject();
+					} else {
+						byte frame[] = ObjectFrame.readFrame(b_in);
+						if(frame==null) {
+							lost = true;
+							break;
+						}
+						totalReadBytes = totalReadBytes + ObjectFrame.HEADER_LENGTH + frame.length;
+						if(isTrafficCaptured()) captureTraffic(TrafficCapture.IN, DataMode.OBJECT, frame, 0, frame.length);
+						recObject = ObjectFrame.decode(frame, 0, frame.length, getObjectCodec());
+					}
 					if(recObject==null) {
 						lost = true;
 						break;
@@ -328,11 +358,15 @@ public class BlockingClientHandler extends BasicClientHandler {
 						appLogger.log(Level.FINE, "Got OBJECT [{0}] : {1}", 
 							new Object[]{getHostAddress(), recObject.toString()});
 					}
-					totalReadBytes = totalReadBytes + 1;
-					if(authorised == false)
+					if(authorised == false) {
+						long authStart = metricsStart();
 						authStatus = clientAuthenticationHandler.handleAuthentication(this, recObject);
-					else
+						authenticationHandled(authStart);
+					} else {
+						long handleStart = messageReceived();
 						clientObjectHandler.handleObject(this, recObject);
+						messageHandled(handleStart, recObject.getClass().getName(), 0);
+					}
 				} else if(dataModeIN == DataMode.BYTE) {
 					rec = readBytes();
 					if(rec==null) {
@@ -343,10 +377,16 @@ public class BlockingClientHandler extends BasicClientHandler {
 						appLogger.log(Level.FINE, "Got BYTE [{0}] : {1}", new Object[]{getHostAddress(), rec});
 					}
 					totalReadBytes = totalReadBytes + rec.length();
-					if(authorised == false)
+					if(isTrafficCaptured()) captureTraffic(TrafficCapture.IN, DataMode.BYTE, rec);
+					if(authorised == false) {
+						long authStart = metricsStart();
 						authStatus = clientAuthenticationHandler.handleAuthentication(this, rec);
-					else
+						authenticationHandled(authStart);
+					} else {
+						long handleStart = messageReceived();
 						clientCommandHandler.handleCommand(this, rec);
+						messageHandled(handleStart, rec, rec.length());
+					}
 				} else if(dataModeIN == DataMode.BINARY) {
 					recByte = readBinary();
 					if(recByte==null) {
@@ -378,17 +418,24 @@ public class BlockingClientHandler extends BasicClientHandler {
 								MyString.getMemInfo(recByte.length)});
 					}
 					totalReadBytes = totalReadBytes + recByte.length;
-					if(authorised == false)
+					if(isTrafficCaptured()) captureTraffic(TrafficCapture.IN, DataMode.BINARY, recByte, 0, recByte.length);
+					if(authorised == false) {
+						long authStart = metricsStart();
 						authStatus = clientAuthenticationHandler.handleAuthentication(this, recByte);
-					else
+						authenticationHandled(authStart);
+					} else {
+						long handleStart = messageReceived();
 						clientBinaryHandler.handleBinary(this, recByte);
+						messageHandled(handleStart, null, recByte.length);
+					}
 				} else {
 					throw new IllegalStateException("Incoming DataMode is not supported: "+dataModeIN);
 				}
-				updateLastCommunicationTime();
+				updateLastReadTime();
 
+				authStatus = waitForAuthentication(authStatus);
 				while(authStatus==AuthStatus.FAILURE)
-					authStatus = processAuthorisation();
+					authStatus = waitForAuthentication(processAuthorisation());
 
 				if(authStatus==AuthStatus.SUCCESS)
 					authorised = true;
@@ -422,7 +469,10 @@ public class BlockingClientHandler extends BasicClientHandler {
 					dataModeOUT = dataMode;
 				} else if(dataModeOUT == DataMode.OBJECT) {
 					dataModeOUT = dataMode;
-					o_out.flush(); o_out = null;
+					if(o_out!=null) {
+						o_out.flush();
+						o_out = null;
+					}
 					b_out = new BufferedOutputStream(out);
 				} else {
 					Assertion.affirm(false, "Unknown DataType.OUT DataMode - "+dataModeOUT);
@@ -451,18 +501,25 @@ public class BlockingClientHandler extends BasicClientHandler {
 					b_out.flush();
 					b_out = null;
 				}
-				o_out = new ObjectOutputStream(out);
-				Assertion.affirm(o_out!=null, "ObjectOutputStream is still null!");
+				if(getObjectCodec()==null) {
+					o_out = new ObjectOutputStream(new CountingOutputStream(out));
+					Assertion.affirm(o_out!=null, "ObjectOutputStream is still null!");
+				}
 			} else if(dataType == DataType.IN) {
 				dataModeIN = dataMode;
-				if(b_in!=null) {
-					if(b_in.available()!=0)
-						logger.warning("Data looks to be present in BufferedInputStream");
-					b_in = null;
-				}
 				bufferedReader = null;
-				o_in = new ObjectInputStream(in); //will block
-				Assertion.affirm(o_in!=null, "ObjectInputStream is still null!");
+				if(getObjectCodec()!=null) {
+					//objects are read as frames
+					if(b_in==null) b_in = new BufferedInputStream(in);
+				} else {
+					if(b_in!=null) {
+						if(b_in.available()!=0)
+							logger.warning("Data looks to be present in BufferedInputStream");
+						b_in = null;
+					}
+					o_in = new ObjectInputStream(new CountingInputStream(in)); //will block
+					Assertion.affirm(o_in!=null, "ObjectInputStream is still null!");
+				}
 			}
 		} else if(dataMode == DataMode.BYTE || dataMode == DataMode.BINARY) {
 			if(dataType == DataType.OUT) {
@@ -538,4 +595,22 @@ public class BlockingClientHandler extends BasicClientHandler {
 	protected void setClientWriteHandler(ClientWriteHandler handler) {
 		if(true) throw new IllegalStateException("Can't register in blocking mode!");
 	}
+
+	/**
+	 * Does the SSL handshake up front, so that its time and if the session
+	 * was resumed can be recorded.
+	 * @since 2.1.0
+	 */
+	private void doSSLHandshake(javax.net.ssl.SSLSocket sslSocket) throws IOException {
+		long startTime = System.currentTimeMillis();
+		long start = System.nanoTime();
+		try {
+			sslSocket.startHandshake();
+		} catch(IOException e) {
+			getServer().getSSLHandshakeStats().handshakeFailed();
+			throw e;
+		}
+		getServer().getSSLHandshakeStats().handshakeCompleted(sslSocket.getSession(), 
+			startTime, System.nanoTime()-start);
+	}
 }
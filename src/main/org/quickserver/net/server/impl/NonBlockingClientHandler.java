@@ -18,6 +18,7 @@ import org.quickserver.net.server.*;
 import org.quickserver.net.*;
 import org.quickserver.util.*;
 import org.quickserver.util.io.*;
+import org.quickserver.util.logging.TrafficCapture;
 
 import java.io.*;
 import java.net.*;
@@ -48,13 +49,25 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 	private static boolean wakeupSelectorAfterRegisterRead = true;
 
 	//nio ssl
-	//private final SSLSession session;
-	private boolean initialHandshakeStatus = false;
-	private SSLEngineResult.HandshakeStatus handshakeStatus;
+	private volatile boolean initialHandshakeStatus = false;
+	private volatile SSLEngineResult.HandshakeStatus handshakeStatus;
 	private SSLEngineResult.Status status = null;
-	private ByteBuffer dummyByteBuffer = ByteBuffer.allocate(0);
 	private ByteBuffer peerNetData = null;
 	private boolean sslShutdown = false;
+	private final Object sslLock = new Object();
+	private volatile boolean delegatedTaskRunning = false;
+	private long handshakeStartTime;
+	private long handshakeStartNanos;
+	//net buffers are sized to SSLSession and kept across reuse of this handler
+	private ByteBuffer sslNetInBuffer;
+	private ByteBuffer sslNetOutBuffer;
+
+	//async authentication, guarded by authLock
+	private boolean readSuspended;
+	private boolean authResumed;
+
+	private static final int NET_OUT_BUFFER_RECORDS = 4;
+	private static volatile java.util.concurrent.Executor sslTaskExecutor;
 
 	/**
 	 * Sets the flag to wakeup Selector After RegisterForWrite is called.
@@ -88,6 +101,43 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 		return wakeupSelectorAfterRegisterRead;
 	}
 
+	/**
+	 * Sets the Executor used to run the delegated tasks of SSLEngine
+	 * (key exchange, certificate validation) off the worker threads.
+	 * If not set, a fixed pool of daemon threads (one per processor)
+	 * is created on first use.
+	 * @since 2.1.0
+	 */
+	public static void setSSLTaskExecutor(java.util.concurrent.Executor executor) {
+		sslTaskExecutor = executor;
+	}
+	/**
+	 * Returns the Executor used to run the delegated tasks of SSLEngine.
+	 * @since 2.1.0
+	 */
+	public static java.util.concurrent.Executor getSSLTaskExecutor() {
+		java.util.concurrent.Executor executor = sslTaskExecutor;
+		if(executor==null) {
+			synchronized(NonBlockingClientHandler.class) {
+				executor = sslTaskExecutor;
+				if(executor==null) {
+					executor = java.util.concurrent.Executors.newFixedThreadPool(
+						Runtime.getRuntime().availableProcessors(), 
+						new java.util.concurrent.ThreadFactory() {
+							private int count = 0;
+							public synchronized Thread newThread(Runnable r) {
+								Thread t = new Thread(r, "SSLTaskExecutor-"+(++count));
+								t.setDaemon(true);
+								return t;
+							}
+						});
+					sslTaskExecutor = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
 	/**
 	 * Sets the maximum count of thread allowed to run objects of this class at a time.
 	 * @since 1.4.7
@@ -151,6 +201,10 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 			} catch(Exception er) {
 				appLogger.log(Level.WARNING, "Error in returning peerNetData to pool: "+er, er);
 			}
+			peerNetData = null;
+		}
+		synchronized(sslLock) {
+			if(sslNetInBuffer!=null) sslNetInBuffer.clear();
 		}
 
 		if(selectionKey!=null) {
@@ -169,8 +223,17 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 
 		clientWriteHandler = null;//1.4.5		
 		byteBufferOutputStream = null;		
+		if(sslNetOutBuffer!=null) sslNetOutBuffer.clear();
 
 		sslShutdown = false;
+		initialHandshakeStatus = false;
+		handshakeStatus = null;
+		status = null;
+		delegatedTaskRunning = false;
+		synchronized(authLock) {
+			readSuspended = false;
+			authResumed = false;
+		}
 		logger.log(Level.FINEST, "Finished clean - {0}", getName());
 	}
 
@@ -187,9 +250,10 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 			o_in = null;
 			bufferedReader = null;
 		} else if(getDataMode(DataType.IN) == DataMode.OBJECT) {
+			//objects are read as frames, see processGotDataInBuffers()
 			b_in = null;
 			bufferedReader = null;
-			o_in = new ObjectInputStream(in);
+			o_in = null;
 		} else if(getDataMode(DataType.IN) == DataMode.BYTE || 
 				getDataMode(DataType.IN) == DataMode.BINARY) {
 			o_in = null;
@@ -198,6 +262,19 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 		} 
 	}
 
+	/**
+	 * Returns the ObjectCodec used for OBJECT mode. In non-blocking mode 
+	 * objects are always sent and read as length-delimited frames, 
+	 * java serialization is used if no ObjectCodec was set on the server.
+	 * @see org.quickserver.util.io.ObjectFrame
+	 * @since 2.1.0
+	 */
+	protected ObjectCodec getObjectCodec() {
+		ObjectCodec codec = super.getObjectCodec();
+		if(codec==null) codec = ObjectFrame.getDefaultCodec();
+		return codec;
+	}
+
 	public BufferedReader getBufferedReader() {
 		throw new IllegalStateException("Access to BufferedReader in not allowed in Non-Blocking mode!");
 	}
@@ -393,18 +470,14 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 							logger.finest("No Authenticator "+getName()+" so return thread.");
 						} else {
 							if(clientAuthenticationHandler!=null) {
-								AuthStatus authStatus = null;
-								do {
-									authStatus = processAuthorisation();
-								} while(authStatus==AuthStatus.FAILURE);
-
-								if(authStatus==AuthStatus.SUCCESS)
-									authorised = true;
+								processAuthStatus(processAuthorisation());
 							} else {
 								processAuthorisation();
 							}
 							if(authorised)
 								logger.finest("Authentication done "+getName()+", so return thread.");
+							else if(authPending)
+								logger.finest("Authentication pending "+getName()+", so return thread.");
 							else
 								logger.finest("askAuthentication() done "+getName()+", so return thread.");
 						}
@@ -432,6 +505,9 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 					+ e.getMessage());		
 			} catch(javax.net.ssl.SSLException e) {
 				lost = true;
+				if(initialHandshakeStatus) {
+					getServer().getSSLHandshakeStats().handshakeFailed();
+				}
 				if(Assertion.isEnabled()) {
 					appLogger.info("SSLException - Client ["+getHostAddress()
 						+"] "+Thread.currentThread().getName()+": " + e);
@@ -572,83 +648,38 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 		
 		while(true) {
 			try {
-				if(peerNetData==null) {
-					peerNetData = (ByteBuffer) getServer().getByteBufferPool().borrowObject();
-				}
-
-				count = getSocketChannel().read(peerNetData);
-				if(count<0) {
-					//logger.finest("SocketChannel read was "+count+"!");
-					getServer().getByteBufferPool().returnObject(peerNetData);
-					peerNetData = null;
-					break;
-				} else {
-					fullCount += count;
-				}
-
-				peerNetData.flip(); // Make readable
-				ByteBuffer peerAppData = null;
-
-				//--
 				if(sslEngine!=null) {
-					SSLEngineResult res;
-					peerAppData = (ByteBuffer) 
-							getServer().getByteBufferPool().borrowObject();
-					do {						
-						res = sslEngine.unwrap(peerNetData, peerAppData);
-						logger.info("Unwrapping:\n" + res);
-					} while(res.getStatus() == SSLEngineResult.Status.OK &&
-							res.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP &&
-							res.bytesProduced() == 0);
-
-					if(res.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
-						logger.info("HandshakeStatus.FINISHED!");
-						finishInitialHandshake();
+					synchronized(sslLock) {
+						count = getSocketChannel().read(getSSLNetInBuffer());
 					}
+					if(count<0) break;
+					fullCount += count;
 
-					if(peerAppData.position() == 0 && 
-							res.getStatus() == SSLEngineResult.Status.OK &&
-							peerNetData.hasRemaining()) {
-						logger.info("peerNetData hasRemaining and pos=0!");
-						res = sslEngine.unwrap(peerNetData, peerAppData);
-						logger.info("Unwrapping:\n" + res);			
-					}
-
-					/*
-					 * OK, OVERFLOW, UNDERFLOW, CLOSED
-					 */
-					status = res.getStatus();
-					handshakeStatus = res.getHandshakeStatus();
-
-					if(status != SSLEngineResult.Status.BUFFER_OVERFLOW) {
-						logger.warning("Buffer overflow: " + res.toString());
-					} else if(status == SSLEngineResult.Status.CLOSED) {
+					unwrapAndHandshake();
+					if(status == SSLEngineResult.Status.CLOSED) {
 						logger.fine("Connection is being closed by peer.");
-						lost = true;
-						System.out.println("NEdd to code for shutdow of SSL");
+						count = -1;
 						break;
 					}
+				} else {
+					if(peerNetData==null) {
+						peerNetData = (ByteBuffer) getServer().getByteBufferPool().borrowObject();
+					}
 
-					peerNetData.compact();
-					peerAppData.flip();
-
-					if(handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK ||
-							handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP ||
-							handshakeStatus == SSLEngineResult.HandshakeStatus.FINISHED) {
-						doHandshake();
+					count = getSocketChannel().read(peerNetData);
+					if(count<0) {
+						//logger.finest("SocketChannel read was "+count+"!");
+						getServer().getByteBufferPool().returnObject(peerNetData);
+						peerNetData = null;
+						break;
+					} else {
+						fullCount += count;
 					}
 
-					//return peerAppData.remaining();
-					logger.fine("peerAppData.remaining(): "+peerAppData.remaining());
-				} else {
-					peerAppData = peerNetData;
+					peerNetData.flip(); // Make readable
+					addReadByteBuffer(peerNetData);
 					peerNetData = null;
 				}
-				//--
-
-				readByteBuffer.add(peerAppData);
-				peerAppData = null;
-
 			} catch(Exception error) {
 				logger.finest("Error in data read: "+error);
 				if(sslEngine!=null) sslEngine.closeInbound();
@@ -672,7 +703,7 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 		} else {
 			logger.finest(fullCount+" bytes read");
 			if(fullCount!=0) {
-				updateLastCommunicationTime();
+				updateLastReadTime();
 				synchronized(getInputStream()) {
 					getInputStream().notify(); //if any are waiting
 				}
@@ -695,7 +726,22 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 				}							
 			}
 
-			if(connection) {
+			while(connection) {
+				boolean reprocess = false;
+				synchronized(authLock) {
+					if(authPending) {
+						//resumeAuthentication() will start reading again
+						readSuspended = true;
+						return true;
+					}
+					reprocess = authResumed;
+					authResumed = false;
+				}
+				if(reprocess && hasEvent(ClientEvent.ACCEPT) == false) {
+					//authentication completed while this thread was processing
+					processGotDataInBuffers();
+					continue;
+				}
 				registerForRead();
 				//getSelectionKey().selector().wakeup();
 				return true;
@@ -709,7 +755,7 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 	 * Process write
 	 * @return value indicates if the thread should return form run()
 	 */
-	private boolean processWrite() throws IOException {
+	private boolean processWrite() throws Exception {
 		if(doWrite()) {
 			returnThread(); //return to pool
 			return true;
@@ -718,7 +764,7 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 		}		
 	}
 
-	private boolean doWrite() throws IOException {
+	private boolean doWrite() throws Exception {
 		if(sslShutdown) {
 			if(byteBufferOutputStream.doShutdown()==false) {
 				return true;
@@ -730,14 +776,27 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 			return false;
 		}
 
-		updateLastCommunicationTime();
+		updateLastWriteTime();
 
-		boolean flag = byteBufferOutputStream.writeAllByteBuffer();
-		
-		if(flag==false) {
-			registerWrite();
-		} else if(/*flag==true && */clientWriteHandler!=null) {
-			clientWriteHandler.handleWrite(this);
+		if(sslEngine!=null && (initialHandshakeStatus || isHandshaking())) {
+			//resume handshake after a delegated task or a partial write
+			if(doHandshake()) {
+				unwrapAndHandshake();
+				if(getInputStream().available()>0 && 
+						hasEvent(ClientEvent.ACCEPT) == false) {
+					processGotDataInBuffers();
+				}
+			}
+		}
+
+		if(sslEngine==null || initialHandshakeStatus==false) {
+			boolean flag = byteBufferOutputStream.writeAllByteBuffer();
+			
+			if(flag==false) {
+				registerWrite();
+			} else if(/*flag==true && */clientWriteHandler!=null) {
+				clientWriteHandler.handleWrite(this);
+			}
 		}
 
 		if(connection) {
@@ -800,7 +859,7 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 					dataModeOUT = dataMode;
 				} else if(dataModeOUT == DataMode.OBJECT) {
 					dataModeOUT = dataMode;
-					o_out.flush(); o_out = null;
+					o_out = null;
 					b_out = new BufferedOutputStream(out);
 				} else {
 					Assertion.affirm(false, "Unknown DataType.OUT DataMode - "+dataModeOUT);
@@ -823,25 +882,17 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 				Assertion.affirm(bufferedReader==null, "BufferedReader is still not null!");
 			}
 		} else if(dataMode == DataMode.OBJECT) {
-			if(dataType == DataType.IN) {
-				//we will disable this for now
-				throw new IllegalArgumentException("Can't set DataType.IN mode to OBJECT when blocking mode is set as false!");
-			}
-
+			//objects are sent and read as length-delimited frames
 			if(dataType == DataType.OUT) {
 				dataModeOUT = dataMode;
 				b_out = null;
-				o_out = new ObjectOutputStream(out);
-				Assertion.affirm(o_out!=null, "ObjectOutputStream is still null!");
-				o_out.flush();
+				o_out = null;
 			} else if(dataType == DataType.IN) {
 				dataModeIN = dataMode;
 				b_in = null;
 				bufferedReader = null;
-				
-				registerForRead();
-				o_in = new ObjectInputStream(in); //will block	
-				Assertion.affirm(o_in!=null, "ObjectInputStream is still null!");
+				o_in = null;
+				Assertion.affirm(in!=null, "InputStream is still null!");
 			}
 		} else if(dataMode == DataMode.BYTE || dataMode == DataMode.BINARY) {
 			if(dataType == DataType.OUT) {
@@ -889,6 +940,8 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 
 			handshakeStatus = sslEngine.getHandshakeStatus();
 			initialHandshakeStatus = true;
+			handshakeStartTime = System.currentTimeMillis();
+			handshakeStartNanos = System.nanoTime();
 			/*
 			try {
 				doHandshake();
@@ -920,8 +973,78 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 		return selectionKey;
 	}
 
+	/**
+	 * Acts on the status returned by ClientAuthenticationHandler.
+	 * @return <code>false</code> if authentication is pending and input 
+	 *  should not be processed.
+	 */
+	private boolean processAuthStatus(AuthStatus authStatus) 
+			throws IOException, AppException {
+		while(true) {
+			if(authStatus==AuthStatus.PENDING) {
+				authStatus = checkPendingAuthentication();
+				if(authStatus==AuthStatus.PENDING) {
+					logger.finest("Authentication pending for "+getName());
+					return false;
+				}
+			}
+			endAuthenticationAttempt(authStatus);
+			if(authStatus==AuthStatus.FAILURE) {
+				authStatus = processAuthorisation();
+				continue;
+			}
+			if(authStatus==AuthStatus.SUCCESS)
+				authorised = true;
+			return true;
+		}
+	}
+
+	/**
+	 * Completes a pending authentication on the thread that called 
+	 * completeAuthentication() and starts processing the client input again.
+	 * Input that came while pending is processed on a pool thread.
+	 */
+	protected void resumeAuthentication(AuthStatus status) {
+		try {
+			//on SUCCESS authorised was set by completeAuthentication()
+			if(status==AuthStatus.FAILURE && processAuthStatus(status)==false) 
+				return;
+
+			boolean dispatch = false;
+			synchronized(authLock) {
+				if(authPending) return;
+				if(readSuspended) {
+					readSuspended = false;
+					dispatch = true;
+				} else {
+					//a thread is still processing read, it will take care
+					authResumed = true;
+				}
+			}
+			if(dispatch==false) return;
+
+			if(getInputStream().available()>0) {
+				addEvent(ClientEvent.READ);
+				getServer().getClientPool().addClient(this, true);
+			} else {
+				registerForRead();
+			}
+		} catch(NoSuchElementException e) {
+			logger.finest("No free thread, read is kept in queue: "+e);
+		} catch(AppException e) {
+			appLogger.finest("AppException while resuming authentication: "+e.getMessage());
+			closeConnection();
+		} catch(Exception e) {
+			appLogger.log(Level.FINE, "Error while resuming authentication ["+
+				getHostAddress()+"]: "+e, e);
+			lost = true;
+			closeConnection();
+		}
+	}
+
 	private void processGotDataInBuffers() throws AppException, 
 			ConnectionLostException, ClassNotFoundException, IOException {
+		if(authPending) return; //input is processed after authentication completes
 		if(getInputStream().available()==0) return;
 		
 		logger.finest("Trying to process got data.. DataMode.IN="+dataModeIN);
@@ -957,19 +1080,21 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 					}
 					
 					totalReadBytes = totalReadBytes + rec.length();
+					if(isTrafficCaptured()) captureTraffic(TrafficCapture.IN, DataMode.STRING, rec);
 					
-					if(authorised == false)
+					if(authorised == false) {
+						long authStart = metricsStart();
 						authStatus = clientAuthenticationHandler.handleAuthentication(this, rec);
-					else
+						authenticationHandled(authStart);
+					} else {
+						long handleStart = messageReceived();
 						clientCommandHandler.handleCommand(this, rec);
+						messageHandled(handleStart, rec, rec.length());
+					}
 
 					if(isClosed()==true) return;
 
-					while(authStatus==AuthStatus.FAILURE)
-						authStatus = processAuthorisation();
-
-					if(authStatus==AuthStatus.SUCCESS)
-						authorised = true;
+					if(processAuthStatus(authStatus)==false) return;
 
 					if(dataModeIN != DataMode.STRING) {
 						break;
@@ -986,9 +1111,13 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 			} 
 			
 			//if(dataModeIN == DataMode.OBJECT) {
-			while(dataModeIN == DataMode.OBJECT && o_in!=null) {
-				//not sure if all bytes are in buffer..~ may need more read.. will get stuck..
-				recObject = o_in.readObject();
+			while(dataModeIN == DataMode.OBJECT) {
+				//decode only once the complete frame is in buffer
+				byte frame[] = ((ByteBufferInputStream) getInputStream()).readObjectFrame();
+				if(frame==null) {
+					return; //wait for more data
+				}
+				recObject = ObjectFrame.decode(frame, 0, frame.length, getObjectCodec());
 				if(recObject==null) {
 					lost = true;
 					return;
@@ -997,20 +1126,22 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 					appLogger.log(Level.FINE, "Got OBJECT [{0}] : {1}", new Object[]{getHostAddress(), recObject.toString()});
 				}
 				
-				totalReadBytes = totalReadBytes + 1;
+				totalReadBytes = totalReadBytes + ObjectFrame.HEADER_LENGTH + frame.length;
+				if(isTrafficCaptured()) captureTraffic(TrafficCapture.IN, DataMode.OBJECT, frame, 0, frame.length);
 
-				if(authorised == false)
+				if(authorised == false) {
+					long authStart = metricsStart();
 					authStatus = clientAuthenticationHandler.handleAuthentication(this, recObject);
-				else
+					authenticationHandled(authStart);
+				} else {
+					long handleStart = messageReceived();
 					clientObjectHandler.handleObject(this, recObject);
+					messageHandled(handleStart, recObject.getClass().getName(), 0);
+				}
 				
 				if(isClosed()==true) return;
 
-				while(authStatus==AuthStatus.FAILURE)
-					authStatus = processAuthorisation();
-				
-				if(authStatus==AuthStatus.SUCCESS)
-					authorised = true;
+				if(processAuthStatus(authStatus)==false) return;
 			}
 			//} 
 			
@@ -1028,19 +1159,21 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 				}
 				
 				totalReadBytes = totalReadBytes + rec.length();
+				if(isTrafficCaptured()) captureTraffic(TrafficCapture.IN, DataMode.BYTE, rec);
 
-				if(authorised == false)
+				if(authorised == false) {
+					long authStart = metricsStart();
 					authStatus = clientAuthenticationHandler.handleAuthentication(this, rec);
-				else
+					authenticationHandled(authStart);
+				} else {
+					long handleStart = messageReceived();
 					clientCommandHandler.handleCommand(this, rec);
+					messageHandled(handleStart, rec, rec.length());
+				}
 
 				if(isClosed()==true) return;
 
-				while(authStatus==AuthStatus.FAILURE)
-					authStatus = processAuthorisation();
-
-				if(authStatus==AuthStatus.SUCCESS)
-					authorised = true;
+				if(processAuthStatus(authStatus)==false) return;
 			}
 
 			//} else if(dataModeIN == DataMode.BINARY) {
@@ -1076,19 +1209,21 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 				}
 				
 				totalReadBytes = totalReadBytes + recByte.length;
+				if(isTrafficCaptured()) captureTraffic(TrafficCapture.IN, DataMode.BINARY, recByte, 0, recByte.length);
 
-				if(authorised == false)
+				if(authorised == false) {
+					long authStart = metricsStart();
 					authStatus = clientAuthenticationHandler.handleAuthentication(this, recByte);
-				else
+					authenticationHandled(authStart);
+				} else {
+					long handleStart = messageReceived();
 					clientBinaryHandler.handleBinary(this, recByte);
+					messageHandled(handleStart, null, recByte.length);
+				}
 
 				if(isClosed()==true) return;
 
-				while(authStatus==AuthStatus.FAILURE)
-					authStatus = processAuthorisation();
-
-				if(authStatus==AuthStatus.SUCCESS)
-					authorised = true;
+				if(processAuthStatus(authStatus)==false) return;
 			}
 
 			//} else {
@@ -1113,11 +1248,17 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 					logger.finest("OP_READ is already present in interest Ops for "+getName());
 				}
 			} else if(getSelectionKey().isValid()) {
-				if((getSelectionKey().interestOps() & SelectionKey.OP_READ) == 0 ) {
-					logger.finest("Adding OP_READ to interest Ops for "+getName());
-					removeEvent(ClientEvent.READ);
-					getSelectionKey().interestOps(getSelectionKey().interestOps() 
-						| SelectionKey.OP_READ);
+				boolean added = false;
+				SelectionKey key = getSelectionKey();
+				synchronized(key) {//selector thread removes ops from it
+					if((key.interestOps() & SelectionKey.OP_READ) == 0 ) {
+						removeEvent(ClientEvent.READ);
+						key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+						added = true;
+					}
+				}
+				if(added) {
+					logger.finest("Added OP_READ to interest Ops for "+getName());
 					if(wakeupSelectorAfterRegisterRead) {
 						getServer().getSelector().wakeup();
 					}
@@ -1159,11 +1300,17 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 					logger.finest("OP_WRITE is already present in interest Ops for "+getName());
 				}
 			} else if(getSelectionKey().isValid()) {
-				if((getSelectionKey().interestOps() & SelectionKey.OP_WRITE) == 0 ) {
-					logger.finest("Adding OP_WRITE to interest Ops for "+getName());
-					removeEvent(ClientEvent.WRITE);
-					getSelectionKey().interestOps(getSelectionKey().interestOps() 
-						| SelectionKey.OP_WRITE);
+				boolean added = false;
+				SelectionKey key = getSelectionKey();
+				synchronized(key) {//selector thread removes ops from it
+					if((key.interestOps() & SelectionKey.OP_WRITE) == 0 ) {
+						removeEvent(ClientEvent.WRITE);
+						key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+						added = true;
+					}
+				}
+				if(added) {
+					logger.finest("Added OP_WRITE to interest Ops for "+getName());
 					if(wakeupSelectorAfterRegisterWrite) {
 						getServer().getSelector().wakeup();
 					}
@@ -1192,106 +1339,246 @@ public class NonBlockingClientHandler extends BasicClientHandler {
 		return threadAccessCount;
 	}
 
-	private void doHandshake() throws Exception {
-		while (true) {
-			SSLEngineResult res;
-			logger.fine("handshakeStatus: "+handshakeStatus);
+	/**
+	 * Adds a ByteBuffer with data (in read mode) for the InputStream.
+	 */
+	private void addReadByteBuffer(ByteBuffer byteBuffer) {
+		synchronized(getInputStream()) {
+			readByteBuffer.add(byteBuffer);
+		}
+	}
+
+	private boolean isHandshaking() {
+		SSLEngineResult.HandshakeStatus hs = handshakeStatus;
+		return hs!=null && hs!=SSLEngineResult.HandshakeStatus.FINISHED && 
+			hs!=SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+	}
 
-			if(handshakeStatus==SSLEngineResult.HandshakeStatus.FINISHED) {
-					if(initialHandshakeStatus) {
-						finishInitialHandshake();
-					}
-					return;
-			} else if(handshakeStatus==SSLEngineResult.HandshakeStatus.NEED_TASK) {
-					doTasks();
-					continue;
-			} else if(handshakeStatus==SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
-					/*
-					doRead();
+	/**
+	 * Returns the buffer into which net data is read, sized to
+	 * the SSLSession packet size.
+	 */
+	private ByteBuffer getSSLNetInBuffer() {
+		int size = sslEngine.getSession().getPacketBufferSize();
+		if(sslNetInBuffer==null) {
+			sslNetInBuffer = ByteBuffer.allocate(size);
+		} else if(sslNetInBuffer.capacity()<size) {
+			ByteBuffer buffer = ByteBuffer.allocate(size);
+			sslNetInBuffer.flip();
+			buffer.put(sslNetInBuffer);
+			sslNetInBuffer = buffer;
+		}
+		return sslNetInBuffer;
+	}
 
-					if(initialHandshakeStatus && 
-							status == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
-						registerForRead();
+	/**
+	 * Returns the buffer into which app data is wrapped before it is written
+	 * to the channel. The buffer is sized to hold few SSL records so that
+	 * many app buffers can be sent with a single write. It is only to be
+	 * used by the ByteBufferOutputStream of this handler.
+	 * @since 2.1.0
+	 */
+	public ByteBuffer getSSLNetOutBuffer() {
+		int size = sslEngine.getSession().getPacketBufferSize();
+		if(sslNetOutBuffer==null) {
+			sslNetOutBuffer = ByteBuffer.allocate(size*NET_OUT_BUFFER_RECORDS);
+		} else if(sslNetOutBuffer.capacity()<size) {
+			ByteBuffer buffer = ByteBuffer.allocate(size*NET_OUT_BUFFER_RECORDS);
+			sslNetOutBuffer.flip();
+			buffer.put(sslNetOutBuffer);
+			sslNetOutBuffer = buffer;
+		}
+		return sslNetOutBuffer;
+	}
+
+	/**
+	 * Unwraps the net data read so far into app buffers.
+	 * @return number of net bytes consumed
+	 */
+	private int unwrapSSLData() throws Exception {
+		int consumed = 0;
+		synchronized(sslLock) {
+			ByteBuffer netIn = getSSLNetInBuffer();
+			netIn.flip();
+			ByteBuffer appBuffer = null;
+			try {
+				while(true) {
+					if(appBuffer==null) {
+						appBuffer = (ByteBuffer) getServer().getByteBufferPool().borrowObject();
 					}
-					*/
-					return;
-			} else if(handshakeStatus==SSLEngineResult.HandshakeStatus.NEED_WRAP) {
-					ByteBuffer netData = (ByteBuffer) getServer().getByteBufferPool().borrowObject();
-					//netData.clear();
-
-					res = sslEngine.wrap(dummyByteBuffer, netData);
-					logger.info("Wrapping:\n" + res);
-					assert res.bytesProduced() != 0 : "No net data produced during handshake wrap.";
-					assert res.bytesConsumed() == 0 : "App data consumed during handshake wrap.";
+					SSLEngineResult res = sslEngine.unwrap(netIn, appBuffer);
+					if(logger.isLoggable(Level.FINEST)) {
+						logger.finest("Unwrap: "+res);
+					}
+					status = res.getStatus();
 					handshakeStatus = res.getHandshakeStatus();
-					
-					//netData.flip(); -- no need to flip will be done when writing to sc					
-					byteBufferOutputStream.addEncryptedByteBuffer(netData);
-
-					if (!doWrite()) {
-						return;
+					consumed += res.bytesConsumed();
+
+					if(status == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+						if(appBuffer.position()==0) {
+							//pool buffers are smaller than the session needs
+							getServer().getByteBufferPool().returnObject(appBuffer);
+							appBuffer = ByteBuffer.allocate(
+								sslEngine.getSession().getApplicationBufferSize());
+						} else {
+							appBuffer.flip();
+							addReadByteBuffer(appBuffer);
+							appBuffer = null;
+						}
+						continue;
 					}
-					continue;//back to loop
-			} else if(handshakeStatus==SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
-					assert false : "doHandshake() should never reach the NOT_HANDSHAKING state";
-					return;
-			}//if
-		}//loop
+					if(status != SSLEngineResult.Status.OK) break; //UNDERFLOW, CLOSED
+					if(handshakeStatus != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING &&
+							handshakeStatus != SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+						break; //let doHandshake() take over
+					}
+					if(res.bytesConsumed()==0 || netIn.hasRemaining()==false) break;
+				}
+			} finally {
+				netIn.compact();
+				if(appBuffer!=null) {
+					if(appBuffer.position()!=0) {
+						appBuffer.flip();
+						addReadByteBuffer(appBuffer);
+					} else {
+						getServer().getByteBufferPool().returnObject(appBuffer);
+					}
+				}
+			}
+		}
+		return consumed;
 	}
 
-	private void doTasks() {
-		Runnable task;
-		while ((task = sslEngine.getDelegatedTask()) != null) {
-			logger.fine("Running the task.. START ");
-			task.run();
-			logger.fine("Running the task.. END");
+	/**
+	 * Unwraps the net data read and moves the handshake forward till no
+	 * more progress can be made.
+	 */
+	private void unwrapAndHandshake() throws Exception {
+		while(true) {
+			int consumed = unwrapSSLData();
+			if(status == SSLEngineResult.Status.CLOSED) return;
+			if(doHandshake()==false || consumed==0) return;
+		}
+	}
+
+	/**
+	 * Moves the handshake forward.
+	 * @return <code>true</code> if the net data that was read needs to be 
+	 * unwrapped again.
+	 */
+	private boolean doHandshake() throws Exception {
+		while(true) {
+			SSLEngineResult.HandshakeStatus hs = handshakeStatus;
+			if(logger.isLoggable(Level.FINEST)) {
+				logger.finest("handshakeStatus: "+hs);
+			}
+			if(delegatedTaskRunning) {
+				return false; //will be resumed once the task is done
+			} else if(hs==SSLEngineResult.HandshakeStatus.NEED_TASK) {
+				runDelegatedTasks();
+				return false;
+			} else if(hs==SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+				if(byteBufferOutputStream.writeHandshakeData()==false) {
+					registerWrite();
+					return false;
+				}
+				if(handshakeStatus==SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+					return false; //nothing was produced
+				}
+			} else if(hs==SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+				return hasSSLNetInData();
+			} else {
+				//FINISHED or NOT_HANDSHAKING
+				if(initialHandshakeStatus) {
+					finishInitialHandshake();
+				} else if(hs==SSLEngineResult.HandshakeStatus.FINISHED && 
+						byteBufferOutputStream.isDataPendingForWrite()) {
+					registerWrite();
+				}
+				return hasSSLNetInData();
+			}
+		}
+	}
+
+	private boolean hasSSLNetInData() {
+		synchronized(sslLock) {
+			return sslNetInBuffer!=null && sslNetInBuffer.position()!=0;
+		}
+	}
+
+	/**
+	 * Runs the delegated tasks of SSLEngine using the SSL task executor,
+	 * once done the handshake is resumed from a write event.
+	 */
+	private void runDelegatedTasks() {
+		synchronized(sslLock) {
+			if(delegatedTaskRunning) return;
+			delegatedTaskRunning = true;
 		}
-		handshakeStatus = sslEngine.getHandshakeStatus();
-		logger.fine("handshakeStatus: "+handshakeStatus);
+		final SSLEngine engine = sslEngine;
+		getSSLTaskExecutor().execute(new Runnable() {
+			public void run() {
+				try {
+					Runnable task;
+					while((task = engine.getDelegatedTask()) != null) {
+						task.run();
+					}
+				} catch(Throwable e) {
+					logger.warning("Error running SSL delegated task: "+e);
+				}
+				if(engine!=sslEngine) return; //handler was reused
+				handshakeStatus = engine.getHandshakeStatus();
+				delegatedTaskRunning = false;
+				if(logger.isLoggable(Level.FINEST)) {
+					logger.finest("Delegated tasks done, handshakeStatus: "+handshakeStatus);
+				}
+				try {
+					if(connection) registerWrite();
+				} catch(IOException e) {
+					logger.fine("Could not register for write: "+e);
+				}
+			}
+		});
 	}
 
 	private void finishInitialHandshake() throws IOException {
 		initialHandshakeStatus = false;
+		logger.finest("Initial handshake finished");
+		getServer().getSSLHandshakeStats().handshakeCompleted(sslEngine.getSession(), 
+			handshakeStartTime, System.nanoTime()-handshakeStartNanos);
+		if(byteBufferOutputStream.isDataPendingForWrite()) {
+			registerWrite();
+		}
 	}
 
 	public boolean getInitialHandshakeStatus() {
 		return initialHandshakeStatus;
 	}
 
-	public ByteBuffer encrypt(ByteBuffer src) throws IOException {
-		if(initialHandshakeStatus) {
-			logger.fine("Writing not possible during handshake!");
-			//Exception e = new Exception();
-			//e.printStackTrace();
-			return null;
-		}
+	/**
+	 * Returns the current handshake status of the SSLEngine.
+	 * @since 2.1.0
+	 */
+	public SSLEngineResult.HandshakeStatus getHandshakeStatus() {
+		return handshakeStatus;
+	}
 
-		ByteBuffer dest = null;
-		boolean isException = false;
-		try {
-			src.flip();
-			dest = (ByteBuffer) getServer().getByteBufferPool().borrowObject();
-			//dest.clear();
-			SSLEngineResult res = sslEngine.wrap(src, dest);
-			logger.info("Wrapping:\n" + res);
-			//dest.flip();
-			return dest;
-		} catch(IOException e) {
-			logger.warning("IOException:" + e);
-			isException = true;
-			throw e;
-		} catch(Exception e) {
-			logger.warning("Exception:" + e);
-			isException = true;
-			throw new IOException(e.getMessage());
-		} finally {
-			if(isException==true && dest!=null) {
-				try {
-					getServer().getByteBufferPool().returnObject(dest);
-				} catch(Exception er) {
-					logger.warning("Error in returning ByteBuffer to pool: "+er);
-				}				
-			}
+	/**
+	 * Wraps the app data from the buffers passed into the net buffer. 
+	 * A delegated task needed by the SSLEngine is started before this 
+	 * method returns.
+	 * @since 2.1.0
+	 */
+	public SSLEngineResult wrap(ByteBuffer srcs[], int offset, int length, 
+			ByteBuffer dst) throws IOException {
+		SSLEngineResult res = sslEngine.wrap(srcs, offset, length, dst);
+		if(logger.isLoggable(Level.FINEST)) {
+			logger.finest("Wrap: "+res);
+		}
+		handshakeStatus = res.getHandshakeStatus();
+		if(handshakeStatus==SSLEngineResult.HandshakeStatus.NEED_TASK) {
+			runDelegatedTasks();
 		}
+		return res;
 	}
 }
@@ -0,0 +1,228 @@
+/*
+ * This file is part of the QuickServer library 
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License. 
+ * You should have received a copy of the GNU LGP License along with this 
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.security;
+
+import java.io.UnsupportedEncodingException;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.quickserver.net.server.AuthStatus;
+import org.quickserver.util.CachedClock;
+import org.quickserver.util.xmlreader.CredentialCacheConfig;
+
+/**
+ * Cache of credential verification results, so a client reconnecting with
+ * the same credentials does not need a slow lookup (like LDAP or a database)
+ * again.
+ * <p>
+ * Entries are keyed by a salted digest of the credentials, the 
+ * credentials are not kept. The first credential is taken as the 
+ * principal (like the user name) so all the entries of a user can be 
+ * invalidated. Both successful and failed verifications are cached, 
+ * each with its own time to live, and least recently used entries are 
+ * removed when the cache is full.
+ * </p>
+ * @see org.quickserver.net.server.QuickServer#getCredentialCache
+ * @see CredentialCacheConfig
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public class CredentialCache {
+	private final String digestAlgorithm;
+	private final byte salt[] = new byte[16];
+	private final int maxSize;
+	private final long ttl;
+	private final long negativeTtl;
+	private final LinkedHashMap map;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong negativeHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	private static class Entry {
+		String principalKey;
+		AuthStatus status;
+		long expiresAt;
+	}
+
+	public CredentialCache(CredentialCacheConfig config) throws NoSuchAlgorithmException {
+		this.digestAlgorithm = config.getDigestAlgorithm();
+		MessageDigest.getInstance(digestAlgorithm); //check if available
+		new SecureRandom().nextBytes(salt);
+		this.maxSize = config.getMaxSize();
+		this.ttl = config.getTtl()*1000L;
+		this.negativeTtl = config.getNegativeTtl()*1000L;
+		map = new LinkedHashMap(Math.min(maxSize, 1024), 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				if(size()>CredentialCache.this.maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached result for the credentials, <code>null</code> if 
+	 * not cached or expired.
+	 * @return {@link AuthStatus#SUCCESS}, {@link AuthStatus#FAILURE} or 
+	 *  <code>null</code>
+	 */
+	public AuthStatus get(String credentials[]) {
+		String key = digest(credentials, credentials.length);
+		long now = CachedClock.currentTimeMillis();
+		AuthStatus status = null;
+		synchronized(map) {
+			Entry entry = (Entry) map.get(key);
+			if(entry!=null) {
+				if(entry.expiresAt>now) {
+					status = entry.status;
+				} else {
+					map.remove(key);
+				}
+			}
+		}
+		if(status==null) {
+			misses.incrementAndGet();
+		} else if(status==AuthStatus.SUCCESS) {
+			hits.incrementAndGet();
+		} else {
+			negativeHits.incrementAndGet();
+		}
+		return status;
+	}
+
+	/**
+	 * Caches the result of verifying the credentials. 
+	 * Only {@link AuthStatus#SUCCESS} and {@link AuthStatus#FAILURE} are 
+	 * cached.
+	 */
+	public void put(String credentials[], AuthStatus status) {
+		long life = 0;
+		if(status==AuthStatus.SUCCESS) {
+			life = ttl;
+		} else if(status==AuthStatus.FAILURE) {
+			life = negativeTtl;
+		}
+		if(life<=0 || credentials.length==0) return;
+
+		Entry entry = new Entry();
+		entry.principalKey = digest(credentials, 1);
+		entry.status = status;
+		entry.expiresAt = CachedClock.currentTimeMillis() + life;
+		String key = digest(credentials, credentials.length);
+		synchronized(map) {
+			map.put(key, entry);
+		}
+	}
+
+	/**
+	 * Removes all the entries of the principal (first credential).
+	 * @return number of entries removed
+	 */
+	public int invalidate(String principal) {
+		String principalKey = digest(new String[]{principal}, 1);
+		int count = 0;
+		synchronized(map) {
+			Iterator iterator = map.values().iterator();
+			while(iterator.hasNext()) {
+				Entry entry = (Entry) iterator.next();
+				if(entry.principalKey.equals(principalKey)) {
+					iterator.remove();
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Removes all the entries.
+	 */
+	public void clear() {
+		synchronized(map) {
+			map.clear();
+		}
+	}
+
+	public int size() {
+		synchronized(map) {
+			return map.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+	public long getHitCount() {
+		return hits.get();
+	}
+	public long getNegativeHitCount() {
+		return negativeHits.get();
+	}
+	public long getMissCount() {
+		return misses.get();
+	}
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	private String digest(String credentials[], int count) {
+		MessageDigest md = null;
+		try {
+			md = MessageDigest.getInstance(digestAlgorithm);
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Digest not available: "+e);
+		}
+		md.update(salt);
+		try {
+			for(int i=0;i<count;i++) {
+				if(credentials[i]!=null) {
+					byte data[] = credentials[i].getBytes("UTF-8");
+					md.update((byte) (data.length >>> 24));
+					md.update((byte) (data.length >>> 16));
+					md.update((byte) (data.length >>> 8));
+					md.update((byte) data.length);
+					md.update(data);
+				} else {
+					md.update((byte) 0xFF);
+				}
+			}
+		} catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 not supported");
+		}
+		byte hash[] = md.digest();
+		StringBuilder sb = new StringBuilder(hash.length*2);
+		for(int i=0;i<hash.length;i++) {
+			sb.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(hash[i] & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("CredentialCache[size=").append(size());
+		sb.append(", maxSize=").append(getMaxSize());
+		sb.append(", hits=").append(getHitCount());
+		sb.append(", negativeHits=").append(getNegativeHitCount());
+		sb.append(", misses=").append(getMissCount());
+		sb.append(", evictions=").append(getEvictionCount());
+		sb.append(']');
+		return sb.toString();
+	}
+}
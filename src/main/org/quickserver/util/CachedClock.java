@@ -0,0 +1,120 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.util;
+
+import java.util.Date;
+import java.util.logging.*;
+
+/**
+ * A coarse clock that caches the current time in milliseconds in a
+ * volatile field. The time is updated by a daemon ticker thread (started
+ * on first use) and can also be updated by any loop that wakes up
+ * regularly, like the nio selector loop, by calling {@link #update}.
+ * <p>
+ * Reading the clock is a single volatile read, so it can be used on
+ * every read/write of a client without a call to
+ * <code>System.currentTimeMillis()</code>. The accuracy of the time is the
+ * tick interval, which is 10 milliseconds by default and can be changed
+ * with the system property <code>org.quickserver.util.CachedClock.tickInterval</code>.
+ * </p>
+ * <p>
+ * This class only depends on the JDK since it is also packaged with
+ * the QuickServer client library.
+ * </p>
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public final class CachedClock implements Runnable {
+	private static final Logger logger = Logger.getLogger(CachedClock.class.getName());
+
+	private static volatile long currentTime = System.currentTimeMillis();
+	private static volatile long tickInterval = 10;
+	private static volatile Thread thread;
+
+	static {
+		try {
+			String interval = System.getProperty(
+				"org.quickserver.util.CachedClock.tickInterval");
+			if(interval!=null) setTickInterval(Long.parseLong(interval.trim()));
+		} catch(Exception e) {
+			logger.log(Level.WARNING, "Bad CachedClock tickInterval: {0}", e);
+		}
+	}
+
+	private CachedClock() {
+	}
+
+	/**
+	 * Returns the cached current time in milliseconds.
+	 */
+	public static long currentTimeMillis() {
+		if(thread==null) startTicker();
+		return currentTime;
+	}
+
+	/**
+	 * Updates the cached time from the system clock and returns it.
+	 */
+	public static long update() {
+		long time = System.currentTimeMillis();
+		currentTime = time;
+		return time;
+	}
+
+	/**
+	 * Sets the interval in milliseconds at which the ticker thread
+	 * updates the cached time.
+	 */
+	public static void setTickInterval(long interval) {
+		if(interval<=0) throw new IllegalArgumentException("Interval should be > 0: "+interval);
+		tickInterval = interval;
+	}
+
+	/**
+	 * Returns the interval in milliseconds at which the ticker thread
+	 * updates the cached time.
+	 */
+	public static long getTickInterval() {
+		return tickInterval;
+	}
+
+	/**
+	 * Returns a Date view of the time passed or <code>null</code> if
+	 * the time is 0 (not set).
+	 */
+	public static Date toDate(long time) {
+		if(time==0) return null;
+		return new Date(time);
+	}
+
+	private static synchronized void startTicker() {
+		if(thread!=null) return;
+		update();
+		Thread t = new Thread(new CachedClock(), "CachedClock-Ticker");
+		t.setDaemon(true);
+		t.start();
+		thread = t;
+	}
+
+	public void run() {
+		while(true) {
+			try {
+				Thread.sleep(tickInterval);
+			} catch(InterruptedException e) {
+				break;
+			}
+			update();
+		}
+	}
+}
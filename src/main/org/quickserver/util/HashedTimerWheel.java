@@ -0,0 +1,359 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.*;
+
+/**
+ * A hashed timing wheel used to run large number of timeouts with
+ * O(1) cost for schedule and cancel.
+ * <p>
+ * Time is divided into ticks of fixed duration and timeouts are hashed
+ * into a fixed number of buckets (the wheel). A single daemon thread
+ * advances the wheel one bucket per tick and runs the timeouts that are due,
+ * so the accuracy of a timeout is one tick. Tasks are run on the wheel
+ * thread and should be quick; anything that may block should be handed
+ * off to another thread.
+ * </p>
+ * <p>
+ * A {@link Task} may ask to be run again by returning the delay for the
+ * next run, this lets a single {@link Timeout} be used for periodic
+ * checks (like idle timeouts) without allocating on each run.
+ * </p>
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public class HashedTimerWheel implements Runnable {
+	private static final Logger logger = Logger.getLogger(HashedTimerWheel.class.getName());
+
+	private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+	private final String name;
+	private final long tickDuration;
+	private final Bucket[] wheel;
+	private final int mask;
+
+	private final ConcurrentLinkedQueue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicInteger timeoutCount = new AtomicInteger();
+
+	private volatile boolean running;
+	private volatile Thread thread;
+	private volatile long startTime;
+	private long tick;
+
+	/**
+	 * Task run when a {@link Timeout} expires.
+	 */
+	public interface Task {
+		/**
+		 * Runs the task.
+		 * @return delay in milliseconds after which the task should be run
+		 * again, or value &lt;= 0 if the timeout is done.
+		 */
+		public long run(Timeout timeout) throws Exception;
+	}
+
+	/**
+	 * Handle to a scheduled task.
+	 */
+	public static final class Timeout {
+		private static final int ST_INIT = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+
+		private final HashedTimerWheel timerWheel;
+		private final Task task;
+		private final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+		//owned by wheel thread
+		private long deadline;
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout next;
+		private Timeout prev;
+
+		private Timeout(HashedTimerWheel timerWheel, Task task, long deadline) {
+			this.timerWheel = timerWheel;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		public Task getTask() {
+			return task;
+		}
+
+		/**
+		 * Cancels the timeout.
+		 * @return <code>true</code> if the timeout was cancelled by this call.
+		 */
+		public boolean cancel() {
+			int current = state.get();
+			if(current==ST_CANCELLED) return false;
+			if(state.compareAndSet(current, ST_CANCELLED)==false) return false;
+			if(current==ST_INIT) {
+				//if expired, task is running or done and count is taken care of
+				timerWheel.cancelledTimeouts.add(this);
+			}
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state.get()==ST_CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get()==ST_EXPIRED;
+		}
+
+		private void expire() {
+			if(state.compareAndSet(ST_INIT, ST_EXPIRED)==false) return;
+
+			long nextDelay = 0;
+			try {
+				nextDelay = task.run(this);
+			} catch(Throwable e) {
+				logger.log(Level.WARNING, "Error running timeout task "+task+": "+e, e);
+			}
+			if(nextDelay>0 && state.compareAndSet(ST_EXPIRED, ST_INIT)) {
+				deadline = timerWheel.currentTime() + nextDelay;
+				timerWheel.pendingTimeouts.add(this);
+			} else {
+				timerWheel.timeoutCount.decrementAndGet();
+			}
+		}
+	}
+
+	private static final class Bucket {
+		private Timeout head;
+		private Timeout tail;
+
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			if(head==null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		Timeout remove(Timeout timeout) {
+			Timeout next = timeout.next;
+			if(timeout.prev!=null) timeout.prev.next = next;
+			if(timeout.next!=null) timeout.next.prev = timeout.prev;
+			if(timeout==head) {
+				if(timeout==tail) {
+					head = tail = null;
+				} else {
+					head = next;
+				}
+			} else if(timeout==tail) {
+				tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+			return next;
+		}
+
+		void expireTimeouts(long deadline, java.util.List<Timeout> expired) {
+			Timeout timeout = head;
+			while(timeout!=null) {
+				if(timeout.remainingRounds<=0) {
+					Timeout next = remove(timeout);
+					if(timeout.deadline<=deadline) {
+						expired.add(timeout);
+					} else {
+						//should not happen, wrong slot
+						logger.log(Level.WARNING, "Timeout deadline {0} > {1}",
+							new Object[]{timeout.deadline, deadline});
+					}
+					timeout = next;
+				} else if(timeout.isCancelled()) {
+					timeout = remove(timeout);
+				} else {
+					timeout.remainingRounds--;
+					timeout = timeout.next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a new timer wheel.
+	 * @param name name of the wheel thread
+	 * @param tickDuration duration of a tick in milliseconds
+	 * @param ticksPerWheel number of buckets in the wheel, rounded up to
+	 *  power of two
+	 */
+	public HashedTimerWheel(String name, long tickDuration, int ticksPerWheel) {
+		if(tickDuration<=0)
+			throw new IllegalArgumentException("tickDuration must be > 0: "+tickDuration);
+		if(ticksPerWheel<=0 || ticksPerWheel>(1<<30))
+			throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30: "+ticksPerWheel);
+		int size = 1;
+		while(size<ticksPerWheel) size <<= 1;
+		wheel = new Bucket[size];
+		for(int i=0;i<size;i++) {
+			wheel[i] = new Bucket();
+		}
+		mask = size - 1;
+		this.tickDuration = tickDuration;
+		this.name = name;
+	}
+
+	/**
+	 * Starts the wheel thread.
+	 */
+	public synchronized void start() {
+		if(running) return;
+		running = true;
+		startTime = System.nanoTime()/1000000;
+		tick = 0;
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the wheel thread. Timeouts not yet run are discarded.
+	 */
+	public synchronized void stop() {
+		if(running==false) return;
+		running = false;
+		Thread t = thread;
+		thread = null;
+		if(t!=null && t!=Thread.currentThread()) {
+			t.interrupt();
+			try {
+				t.join(tickDuration*2);
+			} catch(InterruptedException e) {
+				logger.log(Level.FINE, "Interrupted while stopping: {0}", e);
+			}
+		}
+		pendingTimeouts.clear();
+		cancelledTimeouts.clear();
+		for(int i=0;i<wheel.length;i++) {
+			wheel[i].head = wheel[i].tail = null;
+		}
+		timeoutCount.set(0);
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Schedules the task to be run after the given delay.
+	 * @param delay delay in milliseconds
+	 */
+	public Timeout schedule(Task task, long delay) {
+		if(task==null) throw new NullPointerException("task");
+		if(running==false)
+			throw new IllegalStateException("HashedTimerWheel is not running - "+name);
+		if(delay<0) delay = 0;
+		Timeout timeout = new Timeout(this, task, currentTime()+delay);
+		timeoutCount.incrementAndGet();
+		pendingTimeouts.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Returns the number of timeouts that are scheduled and not yet done.
+	 */
+	public int getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	/** Returns duration of a tick in milliseconds. */
+	public long getTickDuration() {
+		return tickDuration;
+	}
+
+	/** Returns the number of buckets in the wheel. */
+	public int getTicksPerWheel() {
+		return wheel.length;
+	}
+
+	private long currentTime() {
+		return System.nanoTime()/1000000 - startTime;
+	}
+
+	public void run() {
+		logger.log(Level.FINE, "Starting {0}", name);
+		java.util.List<Timeout> expired = new java.util.ArrayList<Timeout>();
+		while(running) {
+			long deadline = waitForNextTick();
+			if(deadline<0) continue;
+
+			processCancelledTimeouts();
+			transferPendingTimeouts();
+			wheel[(int)(tick & mask)].expireTimeouts(deadline, expired);
+			tick++;
+
+			int size = expired.size();
+			for(int i=0;i<size;i++) {
+				expired.get(i).expire();
+			}
+			expired.clear();
+		}
+		logger.log(Level.FINE, "Returning from {0}", name);
+	}
+
+	private long waitForNextTick() {
+		long deadline = tickDuration * (tick + 1);
+		while(true) {
+			long sleepTime = deadline - currentTime();
+			if(sleepTime<=0) return deadline;
+			try {
+				Thread.sleep(sleepTime);
+			} catch(InterruptedException e) {
+				if(running==false) return -1;
+			}
+		}
+	}
+
+	private void transferPendingTimeouts() {
+		for(int i=0;i<MAX_TRANSFER_PER_TICK;i++) {
+			Timeout timeout = pendingTimeouts.poll();
+			if(timeout==null) break;
+			if(timeout.isCancelled()) continue;
+
+			long calculated = timeout.deadline / tickDuration;
+			timeout.remainingRounds = (calculated - tick) / wheel.length;
+			long ticks = Math.max(calculated, tick);
+			wheel[(int)(ticks & mask)].add(timeout);
+		}
+	}
+
+	private void processCancelledTimeouts() {
+		while(true) {
+			Timeout timeout = cancelledTimeouts.poll();
+			if(timeout==null) break;
+			if(timeout.bucket!=null) {
+				timeout.bucket.remove(timeout);
+			}
+			timeoutCount.decrementAndGet();
+		}
+	}
+
+	public String toString() {
+		return "HashedTimerWheel["+name+"; tick="+tickDuration+"ms; size="+
+			wheel.length+"; timeouts="+getTimeoutCount()+"]";
+	}
+}
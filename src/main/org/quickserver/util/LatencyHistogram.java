@@ -0,0 +1,174 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of times in nano seconds with log-linear buckets: every
+ * power of two is split into 32 buckets, so a value is known to within
+ * about 3% from 32 ns to about 36 minutes (larger values go to the last
+ * bucket). Recording is a few atomic adds and takes no lock.
+ * <p>
+ * Use {@link #getSnapshot()} for the count, mean, max and percentiles.
+ * </p>
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public final class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = SUB_COUNT + (MAX_EXPONENT-SUB_BITS+1)*SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final StripedCounter count = new StripedCounter();
+	private final StripedCounter sum = new StripedCounter();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Counts and values of a histogram at one time.
+	 */
+	public static final class Snapshot {
+		private final long counts[];
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		Snapshot(long counts[], long sum, long max) {
+			long total = 0;
+			for(int i=0;i<counts.length;i++) total += counts[i];
+			this.counts = counts;
+			this.count = total;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/** Returns the number of values recorded. */
+		public long getCount() {
+			return count;
+		}
+		/** Returns the mean in nano seconds. */
+		public long getMean() {
+			return count==0?0:sum/count;
+		}
+		/** Returns the largest value in nano seconds. */
+		public long getMax() {
+			return max;
+		}
+		/**
+		 * Returns the value, in nano seconds, that percent of the values
+		 * are at or below; the top of its bucket, but not above the max.
+		 * The last bucket has no top, the max is returned for it.
+		 */
+		public long getPercentile(double percent) {
+			if(count==0) return 0;
+			long rank = (long) Math.ceil(count*percent/100.0);
+			if(rank<1) rank = 1;
+			long seen = 0;
+			for(int i=0;i<counts.length;i++) {
+				seen += counts[i];
+				if(seen>=rank) {
+					if(i==counts.length-1) return max;
+					return Math.min(highestValue(i), max);
+				}
+			}
+			return max;
+		}
+
+		/**
+		 * Returns count, mean, percentiles 50, 90, 99 and 99.9 and max,
+		 * times in micro seconds.
+		 */
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("count=").append(count);
+			sb.append(" mean=").append(micros(getMean()));
+			sb.append(" p50=").append(micros(getPercentile(50)));
+			sb.append(" p90=").append(micros(getPercentile(90)));
+			sb.append(" p99=").append(micros(getPercentile(99)));
+			sb.append(" p999=").append(micros(getPercentile(99.9)));
+			sb.append(" max=").append(micros(max));
+			sb.append(" us");
+			return sb.toString();
+		}
+
+		private static String micros(long nanos) {
+			long tenths = (nanos+50)/100;
+			return (tenths/10)+"."+(tenths%10);
+		}
+	}
+
+	static int bucket(long value) {
+		if(value < SUB_COUNT) return value<0?0:(int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if(exponent > MAX_EXPONENT) return BUCKETS-1;
+		int sub = (int) (value >>> (exponent-SUB_BITS)) - SUB_COUNT;
+		return SUB_COUNT + (exponent-SUB_BITS)*SUB_COUNT + sub;
+	}
+
+	static long highestValue(int bucket) {
+		if(bucket < SUB_COUNT) return bucket;
+		int exponent = (bucket-SUB_COUNT)/SUB_COUNT + SUB_BITS;
+		long sub = (bucket-SUB_COUNT)%SUB_COUNT;
+		long width = 1L << (exponent-SUB_BITS);
+		return ((SUB_COUNT+sub) << (exponent-SUB_BITS)) + width - 1;
+	}
+
+	/**
+	 * Records a time.
+	 * @param nanos time in nano seconds
+	 */
+	public void record(long nanos) {
+		counts.incrementAndGet(bucket(nanos));
+		count.increment();
+		sum.add(nanos);
+		long current = max.get();
+		while(nanos>current && max.compareAndSet(current, nanos)==false) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	public Snapshot getSnapshot() {
+		long copy[] = new long[BUCKETS];
+		for(int i=0;i<BUCKETS;i++) {
+			copy[i] = counts.get(i);
+		}
+		return new Snapshot(copy, sum.get(), max.get());
+	}
+
+	/**
+	 * Clears the histogram; values recorded while it resets may be lost.
+	 */
+	public void reset() {
+		for(int i=0;i<BUCKETS;i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.set(0);
+	}
+
+	public String toString() {
+		return getSnapshot().toString();
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter for values added by many threads at once. Each thread adds to
+ * one of several cells, picked by its id, so threads seldom contend on
+ * the same cache line; reading sums the cells.
+ * <p>
+ * The value read is not a snapshot at one instant when threads are adding
+ * at the same time, which is fine for statistics.
+ * </p>
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public final class StripedCounter {
+	//a cell every 8 longs, 64 bytes, so cells are not on the same cache line
+	private static final int SPACING = 8;
+	private static final int STRIPES;
+
+	static {
+		int stripes = 1;
+		int cpus = Runtime.getRuntime().availableProcessors();
+		while(stripes < cpus*2 && stripes < 64) stripes <<= 1;
+		STRIPES = stripes;
+	}
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES*SPACING);
+
+	private static int index() {
+		return ((int) Thread.currentThread().getId() & (STRIPES-1)) * SPACING;
+	}
+
+	public void increment() {
+		cells.incrementAndGet(index());
+	}
+
+	public void add(long value) {
+		cells.addAndGet(index(), value);
+	}
+
+	/**
+	 * Returns the sum of the cells.
+	 */
+	public long get() {
+		long sum = 0;
+		for(int i=0;i<STRIPES;i++) {
+			sum += cells.get(i*SPACING);
+		}
+		return sum;
+	}
+
+	/**
+	 * Sets the counter to 0; values added while it resets may be lost.
+	 */
+	public void reset() {
+		for(int i=0;i<STRIPES;i++) {
+			cells.set(i*SPACING, 0);
+		}
+	}
+
+	public String toString() {
+		return String.valueOf(get());
+	}
+}
@@ -396,6 +396,53 @@ public class ByteBufferInputStream extends InputStream {
 		return data;
 	}
 
+	/**
+	 * Checks if a complete object frame is ready to be read.
+	 * @see ObjectFrame
+	 * @throws IOException if connection is lost or closed or
+	 *  the frame length is not valid.
+	 * @since 2.1.0
+	 */
+	public synchronized boolean isObjectFrameReady() throws IOException {
+		handler.isConnected();
+		if(strings.length()!=0) {
+			addStringsBackAsBuffer();
+		}
+		int available = available();
+		if(available<ObjectFrame.HEADER_LENGTH) return false;
+
+		byte header[] = new byte[ObjectFrame.HEADER_LENGTH];
+		int got = 0;
+		int size = bufferList.size();
+		for(int c=0;c<size && got<header.length;c++) {
+			ByteBuffer byteBuffer = (ByteBuffer)bufferList.get(c);
+			int p = byteBuffer.position();
+			int limit = byteBuffer.limit();
+			while(p<limit && got<header.length) {
+				header[got++] = byteBuffer.get(p++);
+			}
+		}
+		int length = ObjectFrame.readLength(header, 0);
+		return available >= ObjectFrame.HEADER_LENGTH + length;
+	}
+
+	/**
+	 * Reads the payload of the next object frame.
+	 * @return payload of the frame or <code>null</code> if a complete 
+	 * frame is not yet ready.
+	 * @see #isObjectFrameReady
+	 * @since 2.1.0
+	 */
+	public synchronized byte[] readObjectFrame() throws IOException {
+		if(isObjectFrameReady()==false) return null;
+		byte header[] = new byte[ObjectFrame.HEADER_LENGTH];
+		read(header, 0, header.length);
+		int length = ObjectFrame.readLength(header, 0);
+		byte data[] = new byte[length];
+		if(length!=0) read(data, 0, length);
+		return data;
+	}
+
 	public void dumpContent() {
 		if(logger.isLoggable(Level.FINE)==false) {
 			//logger.warning("Can't precede. Logging level FINE is not loggable! ");
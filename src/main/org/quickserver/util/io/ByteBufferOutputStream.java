@@ -17,6 +17,7 @@ package org.quickserver.util.io;
 import java.io.*;
 import java.nio.*;
 import java.util.*;
+import javax.net.ssl.SSLEngineResult;
 import org.apache.commons.pool.ObjectPool;
 import org.quickserver.net.server.ClientHandler;
 import org.quickserver.net.server.impl.NonBlockingClientHandler;
@@ -56,7 +57,12 @@ public class ByteBufferOutputStream extends OutputStream {
 	private ByteBuffer lastByteBuffer = null;
 	private NonBlockingClientHandler handler;
 	private Object toNotify = null;
-	private ArrayList encryptedBufferList;
+
+	//secure mode: app buffers (in read mode) being wrapped into handler's net buffer
+	private static final int WRAP_BATCH_SIZE = 16;
+	private static final ByteBuffer[] EMPTY_BUFFERS = {ByteBuffer.allocate(0)};
+	private ByteBuffer[] wrapBuffers;
+	private int wrapBufferCount;
 
 	/**
 	 * Creates a new ByteBufferOutputStream using the given list as its base
@@ -68,18 +74,24 @@ public class ByteBufferOutputStream extends OutputStream {
 		this.bufferList = bufferList;
 		this.handler = (NonBlockingClientHandler) handler;
 		if(handler.isSecure()) {
-			encryptedBufferList = new ArrayList();
+			wrapBuffers = new ByteBuffer[WRAP_BATCH_SIZE];
 		}
 	}
 
 	public synchronized void close() {
 		if(lastByteBuffer!=null) {
 			returnBufferBack(lastByteBuffer);
+			lastByteBuffer = null;
+		}
+		for(int i=0;i<wrapBufferCount;i++) {
+			returnBufferBack(wrapBuffers[i]);
+			wrapBuffers[i] = null;
 		}
+		wrapBufferCount = 0;
 	}
 
 	public void flush() throws IOException {
-		if(bufferList.size()!=0 || lastByteBuffer!=null) {
+		if(bufferList.size()!=0 || lastByteBuffer!=null || wrapBufferCount!=0) {
 			handler.registerWrite();
 		} else {
 			return;
@@ -161,46 +173,139 @@ public class ByteBufferOutputStream extends OutputStream {
 	}
 
 	public synchronized boolean writeAllByteBuffer() throws IOException {
+		if(handler.isSecure()) {
+			return writeAllSecureByteBuffer();
+		}
+
 		if(lastByteBuffer!=null) {
 			writeLastByteBuffer();
 			if(lastByteBuffer!=null) return false;
 		}
 		
-		ByteBuffer dest = null;
 		while(bufferList.size()!=0) {
-			dest = (ByteBuffer) bufferList.remove(0);
-			if(handler.isSecure()==false) {
-				lastByteBuffer = dest;
-				lastByteBuffer.flip();
-				writeLastByteBuffer();						
-				if(lastByteBuffer != null) return false;
-			} else {
-				lastByteBuffer = handler.encrypt(dest);
-				if(lastByteBuffer==null) { //coult not enc.. lets wait..
-					bufferList.add(0, dest);
-					return false;
-				}
-				addEncryptedByteBuffer(lastByteBuffer);
-				lastByteBuffer = null;
-			}			
-		}
-		while(encryptedBufferList!=null && encryptedBufferList.size()!=0) {
-			lastByteBuffer = (ByteBuffer) encryptedBufferList.remove(0);
-			logger.fine("Sening to peer: "+lastByteBuffer.position());
+			lastByteBuffer = (ByteBuffer) bufferList.remove(0);
 			lastByteBuffer.flip();
-			writeLastByteBuffer();
+			writeLastByteBuffer();						
 			if(lastByteBuffer != null) return false;
 		}
 
+		notifyWritten();
+		return true;
+	}
+
+	/**
+	 * Wraps app buffers in batches into the net buffer of the handler, so that
+	 * many small buffers go out as few records and a single channel write.
+	 * @return <code>false</code> if the channel could not take all the data.
+	 */
+	private boolean writeAllSecureByteBuffer() throws IOException {
+		ByteBuffer netBuffer = handler.getSSLNetOutBuffer();
+		while(true) {
+			if(writeNetBuffer(netBuffer)==false) return false;
+
+			while(wrapBufferCount<wrapBuffers.length && bufferList.size()!=0) {
+				ByteBuffer byteBuffer = (ByteBuffer) bufferList.remove(0);
+				byteBuffer.flip();
+				wrapBuffers[wrapBufferCount++] = byteBuffer;
+			}
+			if(wrapBufferCount==0) break;
+			if(handler.getInitialHandshakeStatus()) {
+				//will be written once handshake is done
+				logger.finest("Writing not possible during handshake!");
+				return true;
+			}
+
+			SSLEngineResult res = handler.wrap(wrapBuffers, 0, wrapBufferCount, netBuffer);
+
+			int drained = 0;
+			while(drained<wrapBufferCount && wrapBuffers[drained].hasRemaining()==false) {
+				returnBufferBack(wrapBuffers[drained]);
+				drained++;
+			}
+			if(drained!=0) {
+				System.arraycopy(wrapBuffers, drained, wrapBuffers, 0, wrapBufferCount-drained);
+				for(int i=wrapBufferCount-drained;i<wrapBufferCount;i++) {
+					wrapBuffers[i] = null;
+				}
+				wrapBufferCount -= drained;
+			}
+
+			if(res.getStatus()==SSLEngineResult.Status.CLOSED) {
+				throw new IOException("SSLEngine is closed.");
+			} else if(res.getStatus()==SSLEngineResult.Status.BUFFER_OVERFLOW) {
+				if(netBuffer.position()==0) {
+					throw new IOException("SSL net buffer is too small: "+netBuffer.capacity());
+				}
+				continue; //write out net buffer and wrap again
+			} else if(res.bytesConsumed()==0 && res.bytesProduced()==0) {
+				//engine is waiting on handshake (unwrap or delegated task),
+				//write will be registered once it moves forward
+				logger.finest("Wrap made no progress, waiting for handshake.");
+				return true;
+			}
+		}
+
+		notifyWritten();
+		return true;
+	}
+
+	/**
+	 * Wraps the handshake data while SSLEngine needs it and writes it out. 
+	 * @return <code>false</code> if the channel could not take all the data.
+	 * @since 2.1.0
+	 */
+	public synchronized boolean writeHandshakeData() throws IOException {
+		ByteBuffer netBuffer = handler.getSSLNetOutBuffer();
+		while(handler.getHandshakeStatus()==SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+			SSLEngineResult res = handler.wrap(EMPTY_BUFFERS, 0, 1, netBuffer);
+			if(res.getStatus()==SSLEngineResult.Status.BUFFER_OVERFLOW) {
+				if(netBuffer.position()==0) {
+					throw new IOException("SSL net buffer is too small: "+netBuffer.capacity());
+				}
+				if(writeNetBuffer(netBuffer)==false) return false;
+			} else if(res.bytesProduced()==0) {
+				break;
+			}
+		}
+		return writeNetBuffer(netBuffer);
+	}
+
+	/**
+	 * Writes out the data in the net buffer (in write mode).
+	 * @return <code>true</code> if all data was written.
+	 */
+	private boolean writeNetBuffer(ByteBuffer netBuffer) throws IOException {
+		if(netBuffer.position()==0) return true;
+		netBuffer.flip();
+		try {
+			int written = 0;
+			while(netBuffer.hasRemaining()) {
+				java.nio.channels.SocketChannel sc = handler.getSocketChannel();
+				if(sc==null || sc.isOpen()==false) {
+					throw new IOException("SocketChannel was closed.");
+				}
+				written = sc.write(netBuffer);
+				if(written==0) {
+					break;
+				}
+				if(logger.isLoggable(Level.FINEST)) { 
+					logger.finest("Written "+written+" bytes");
+				}
+			}
+		} finally {
+			netBuffer.compact();
+		}
+		return netBuffer.position()==0;
+	}
+
+	private void notifyWritten() {
 		if(toNotify!=null) {
 			synchronized(toNotify) {
 				toNotify.notify();
 				toNotify = null;
 			}
 		}
-
 		logger.fine("writeAllByteBuffer is true!"); 
-		return true;
 	}
 
 	private synchronized void writeLastByteBuffer() throws IOException {
@@ -241,36 +346,45 @@ public class ByteBufferOutputStream extends OutputStream {
 		}
 	}
 
-	public boolean isDataAvailableForWrite(Object toNotify) {
-		if(lastByteBuffer!=null) {
-			if(this.toNotify!=null) {
-				throw new IllegalStateException("toNotify object was already set!");
-			}
-			this.toNotify = toNotify;
-			return true;
-		}
-		if(bufferList.size()==0) {
+	public synchronized boolean isDataAvailableForWrite(Object toNotify) {
+		if(isDataPendingForWrite()==false) {
 			return false;
-		} else {
-			if(this.toNotify!=null) {
-				throw new IllegalStateException("toNotify object was already set!");
-			}
-			this.toNotify = toNotify;
-			return true;
 		}
+		if(this.toNotify!=null) {
+			throw new IllegalStateException("toNotify object was already set!");
+		}
+		this.toNotify = toNotify;
+		return true;
 	}
 
-	public void addEncryptedByteBuffer(ByteBuffer buff) {
-		encryptedBufferList.add(buff);
+	/**
+	 * Returns <code>true</code> if any data is yet to be written out.
+	 * @since 2.1.0
+	 */
+	public synchronized boolean isDataPendingForWrite() {
+		if(lastByteBuffer!=null || bufferList.size()!=0 || wrapBufferCount!=0) {
+			return true;
+		}
+		return handler.isSecure() && handler.getSSLNetOutBuffer().position()!=0;
 	}
 
-	public boolean doShutdown() throws IOException {
-		if(handler.closeIfSSLOutboundDone()) return true;
+	public synchronized boolean doShutdown() throws IOException {
+		ByteBuffer netBuffer = handler.getSSLNetOutBuffer();
+		if(netBuffer.position()==0 && handler.closeIfSSLOutboundDone()) return true;
 
-		ByteBuffer dummyByteBuffer = ByteBuffer.allocate(0);
-		lastByteBuffer = handler.encrypt(dummyByteBuffer);
-		writeLastByteBuffer();
-		if(lastByteBuffer != null) {
+		handler.getSSLEngine().closeOutbound();
+		while(handler.getSSLEngine().isOutboundDone()==false) {
+			SSLEngineResult res = handler.wrap(EMPTY_BUFFERS, 0, 1, netBuffer);
+			if(res.getStatus()==SSLEngineResult.Status.BUFFER_OVERFLOW) {
+				if(netBuffer.position()==0) {
+					throw new IOException("SSL net buffer is too small: "+netBuffer.capacity());
+				}
+				if(writeNetBuffer(netBuffer)==false) break;
+			} else if(res.bytesProduced()==0) {
+				break;
+			}
+		}
+		if(writeNetBuffer(netBuffer)==false) {
 			handler.registerWrite();
 			return false;
 		} else {
@@ -0,0 +1,479 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.util.io;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary ObjectCodec for registered classes. 
+ * <p>
+ * A registered class is written as its id followed by the values of its
+ * non-static, non-transient fields (of the class and its super classes), 
+ * so no class descriptors are sent. Primitive fields are written without a
+ * type tag and int/long values as variable length integers.
+ * Strings, boxed primitives, byte[], Date, ArrayList, HashMap and Object[]
+ * are supported as values, any other object is written with java 
+ * serialization.
+ * </p>
+ * <p>
+ * Registered classes need a no-arg constructor (it can be private). Both 
+ * the client and the server should register the same classes with the 
+ * same ids, the simplest way is to extend this class and register the 
+ * classes in the constructor, and set the class name as 
+ * <code>&lt;object-codec&gt;</code> of the server.
+ * Example:<code><pre>
+	public class MyCodec extends CompactObjectCodec {
+		public MyCodec() {
+			register(Order.class, 1);
+			register(OrderItem.class, 2);
+		}
+	}
+ * </pre></code>
+ * Fields are matched by their order (super class first, then by name), 
+ * so the class should be the same on both the ends.
+ * </p>
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public class CompactObjectCodec implements ObjectCodec {
+	private static final int NULL = 0;
+	private static final int STRING = 1;
+	private static final int INT = 2;
+	private static final int LONG = 3;
+	private static final int TRUE = 4;
+	private static final int FALSE = 5;
+	private static final int DOUBLE = 6;
+	private static final int FLOAT = 7;
+	private static final int SHORT = 8;
+	private static final int BYTE = 9;
+	private static final int CHAR = 10;
+	private static final int BYTES = 11;
+	private static final int DATE = 12;
+	private static final int LIST = 13;
+	private static final int MAP = 14;
+	private static final int ARRAY = 15;
+	private static final int REGISTERED = 16;
+	private static final int SERIALIZED = 17;
+
+	private static final int MAX_DEPTH = 64;
+
+	private final Map classMap = new ConcurrentHashMap();
+	private final Map idMap = new ConcurrentHashMap();
+	private int nextId = 1;
+
+	private static class ClassInfo {
+		int id;
+		Constructor constructor;
+		Field fields[];
+	}
+
+	/**
+	 * Registers the class with the next free id.
+	 * @return the id used
+	 */
+	public synchronized int register(Class type) {
+		while(idMap.containsKey(new Integer(nextId))) nextId++;
+		int id = nextId++;
+		register(type, id);
+		return id;
+	}
+
+	/**
+	 * Registers the class with the given id.
+	 * @exception IllegalArgumentException if the class can't be used or 
+	 *  the id is already used.
+	 */
+	public synchronized void register(Class type, int id) {
+		if(id<0) throw new IllegalArgumentException("Id should be >= 0: "+id);
+		Integer key = new Integer(id);
+		if(idMap.containsKey(key))
+			throw new IllegalArgumentException("Id already registered: "+id);
+		if(classMap.containsKey(type))
+			throw new IllegalArgumentException("Class already registered: "+type.getName());
+		if(type.isInterface() || type.isArray() || type.isPrimitive() || 
+				Modifier.isAbstract(type.getModifiers()))
+			throw new IllegalArgumentException("Class can't be registered: "+type.getName());
+
+		ClassInfo info = new ClassInfo();
+		info.id = id;
+		try {
+			info.constructor = type.getDeclaredConstructor(new Class[0]);
+			info.constructor.setAccessible(true);
+		} catch(NoSuchMethodException e) {
+			throw new IllegalArgumentException("No no-arg constructor in "+type.getName());
+		}
+		info.fields = getFields(type);
+		classMap.put(type, info);
+		idMap.put(key, info);
+	}
+
+	/**
+	 * Returns the id of the registered class or -1 if not registered.
+	 */
+	public int getId(Class type) {
+		ClassInfo info = (ClassInfo) classMap.get(type);
+		if(info==null) return -1;
+		return info.id;
+	}
+
+	private static Field[] getFields(Class type) {
+		List classes = new ArrayList();
+		for(Class c=type;c!=null && c!=Object.class;c=c.getSuperclass()) {
+			classes.add(0, c);
+		}
+		List fields = new ArrayList();
+		Comparator byName = new Comparator() {
+			public int compare(Object a, Object b) {
+				return ((Field)a).getName().compareTo(((Field)b).getName());
+			}
+		};
+		for(int i=0;i<classes.size();i++) {
+			Field declared[] = ((Class)classes.get(i)).getDeclaredFields();
+			List list = new ArrayList();
+			for(int j=0;j<declared.length;j++) {
+				int mod = declared[j].getModifiers();
+				if(Modifier.isStatic(mod) || Modifier.isTransient(mod)) continue;
+				if(declared[j].isSynthetic()) continue;
+				declared[j].setAccessible(true);
+				list.add(declared[j]);
+			}
+			Collections.sort(list, byName);
+			fields.addAll(list);
+		}
+		return (Field[]) fields.toArray(new Field[fields.size()]);
+	}
+
+	public void encode(Object object, OutputStream out) throws IOException {
+		writeValue(object, out, 0);
+	}
+
+	public Object decode(InputStream in) throws IOException, ClassNotFoundException {
+		return readValue(in, 0);
+	}
+
+	private void writeValue(Object object, OutputStream out, int depth) 
+			throws IOException {
+		if(depth>MAX_DEPTH) throw new IOException("Object graph too deep");
+		if(object==null) {
+			out.write(NULL);
+			return;
+		}
+		Class type = object.getClass();
+		if(type==String.class) {
+			out.write(STRING);
+			writeString((String) object, out);
+		} else if(type==Integer.class) {
+			out.write(INT);
+			writeVarLong(zigZag(((Integer) object).intValue()), out);
+		} else if(type==Long.class) {
+			out.write(LONG);
+			writeVarLong(zigZag(((Long) object).longValue()), out);
+		} else if(type==Boolean.class) {
+			out.write(((Boolean) object).booleanValue()?TRUE:FALSE);
+		} else if(type==Double.class) {
+			out.write(DOUBLE);
+			writeFixedLong(Double.doubleToLongBits(((Double) object).doubleValue()), out);
+		} else if(type==Float.class) {
+			out.write(FLOAT);
+			writeFixedInt(Float.floatToIntBits(((Float) object).floatValue()), out);
+		} else if(type==Short.class) {
+			out.write(SHORT);
+			writeVarLong(zigZag(((Short) object).shortValue()), out);
+		} else if(type==Byte.class) {
+			out.write(BYTE);
+			out.write(((Byte) object).byteValue());
+		} else if(type==Character.class) {
+			out.write(CHAR);
+			writeVarLong(((Character) object).charValue(), out);
+		} else if(type==byte[].class) {
+			byte data[] = (byte[]) object;
+			out.write(BYTES);
+			writeVarLong(data.length, out);
+			out.write(data);
+		} else if(type==Date.class) {
+			out.write(DATE);
+			writeVarLong(zigZag(((Date) object).getTime()), out);
+		} else if(type==ArrayList.class) {
+			List list = (List) object;
+			int size = list.size();
+			out.write(LIST);
+			writeVarLong(size, out);
+			for(int i=0;i<size;i++) {
+				writeValue(list.get(i), out, depth+1);
+			}
+		} else if(type==HashMap.class) {
+			Map map = (Map) object;
+			out.write(MAP);
+			writeVarLong(map.size(), out);
+			Iterator iterator = map.entrySet().iterator();
+			while(iterator.hasNext()) {
+				Map.Entry entry = (Map.Entry) iterator.next();
+				writeValue(entry.getKey(), out, depth+1);
+				writeValue(entry.getValue(), out, depth+1);
+			}
+		} else if(type==Object[].class) {
+			Object array[] = (Object[]) object;
+			out.write(ARRAY);
+			writeVarLong(array.length, out);
+			for(int i=0;i<array.length;i++) {
+				writeValue(array[i], out, depth+1);
+			}
+		} else {
+			ClassInfo info = (ClassInfo) classMap.get(type);
+			if(info!=null) {
+				out.write(REGISTERED);
+				writeVarLong(info.id, out);
+				writeFields(info, object, out, depth);
+			} else {
+				ByteArrayOutputStream bout = new ByteArrayOutputStream(256);
+				ObjectOutputStream oout = new ObjectOutputStream(bout);
+				oout.writeObject(object);
+				oout.close();
+				out.write(SERIALIZED);
+				writeVarLong(bout.size(), out);
+				bout.writeTo(out);
+			}
+		}
+	}
+
+	private void writeFields(ClassInfo info, Object object, OutputStream out, 
+			int depth) throws IOException {
+		try {
+			for(int i=0;i<info.fields.length;i++) {
+				Field field = info.fields[i];
+				Class type = field.getType();
+				if(type==int.class) {
+					writeVarLong(zigZag(field.getInt(object)), out);
+				} else if(type==long.class) {
+					writeVarLong(zigZag(field.getLong(object)), out);
+				} else if(type==boolean.class) {
+					out.write(field.getBoolean(object)?1:0);
+				} else if(type==double.class) {
+					writeFixedLong(Double.doubleToLongBits(field.getDouble(object)), out);
+				} else if(type==float.class) {
+					writeFixedInt(Float.floatToIntBits(field.getFloat(object)), out);
+				} else if(type==short.class) {
+					writeVarLong(zigZag(field.getShort(object)), out);
+				} else if(type==byte.class) {
+					out.write(field.getByte(object));
+				} else if(type==char.class) {
+					writeVarLong(field.getChar(object), out);
+				} else {
+					writeValue(field.get(object), out, depth+1);
+				}
+			}
+		} catch(IllegalAccessException e) {
+			throw new IOException("Could not read field: "+e);
+		}
+	}
+
+	private Object readValue(InputStream in, int depth) 
+			throws IOException, ClassNotFoundException {
+		if(depth>MAX_DEPTH) throw new IOException("Object graph too deep");
+		int tag = readByte(in);
+		switch(tag) {
+			case NULL:
+				return null;
+			case STRING:
+				return readString(in);
+			case INT:
+				return new Integer((int) unZigZag(readVarLong(in)));
+			case LONG:
+				return new Long(unZigZag(readVarLong(in)));
+			case TRUE:
+				return Boolean.TRUE;
+			case FALSE:
+				return Boolean.FALSE;
+			case DOUBLE:
+				return new Double(Double.longBitsToDouble(readFixedLong(in)));
+			case FLOAT:
+				return new Float(Float.intBitsToFloat(readFixedInt(in)));
+			case SHORT:
+				return new Short((short) unZigZag(readVarLong(in)));
+			case BYTE:
+				return new Byte((byte) readByte(in));
+			case CHAR:
+				return new Character((char) readVarLong(in));
+			case BYTES:
+				return readBytes(in, readLength(in));
+			case DATE:
+				return new Date(unZigZag(readVarLong(in)));
+			case LIST: {
+				int size = readLength(in);
+				ArrayList list = new ArrayList(Math.min(size, 1024));
+				for(int i=0;i<size;i++) {
+					list.add(readValue(in, depth+1));
+				}
+				return list;
+			}
+			case MAP: {
+				int size = readLength(in);
+				HashMap map = new HashMap(Math.min(size, 1024)*2);
+				for(int i=0;i<size;i++) {
+					Object key = readValue(in, depth+1);
+					map.put(key, readValue(in, depth+1));
+				}
+				return map;
+			}
+			case ARRAY: {
+				int size = readLength(in);
+				ArrayList list = new ArrayList(Math.min(size, 1024));
+				for(int i=0;i<size;i++) {
+					list.add(readValue(in, depth+1));
+				}
+				return list.toArray();
+			}
+			case REGISTERED: {
+				int id = (int) readVarLong(in);
+				ClassInfo info = (ClassInfo) idMap.get(new Integer(id));
+				if(info==null) throw new IOException("Unknown class id: "+id);
+				return readFields(info, in, depth);
+			}
+			case SERIALIZED: {
+				byte data[] = readBytes(in, readLength(in));
+				ObjectInputStream oin = new ObjectInputStream(
+					new ByteArrayInputStream(data));
+				return oin.readObject();
+			}
+			default:
+				throw new IOException("Bad tag: "+tag);
+		}
+	}
+
+	private Object readFields(ClassInfo info, InputStream in, int depth) 
+			throws IOException, ClassNotFoundException {
+		Object object = null;
+		try {
+			object = info.constructor.newInstance(new Object[0]);
+			for(int i=0;i<info.fields.length;i++) {
+				Field field = info.fields[i];
+				Class type = field.getType();
+				if(type==int.class) {
+					field.setInt(object, (int) unZigZag(readVarLong(in)));
+				} else if(type==long.class) {
+					field.setLong(object, unZigZag(readVarLong(in)));
+				} else if(type==boolean.class) {
+					field.setBoolean(object, readByte(in)!=0);
+				} else if(type==double.class) {
+					field.setDouble(object, Double.longBitsToDouble(readFixedLong(in)));
+				} else if(type==float.class) {
+					field.setFloat(object, Float.intBitsToFloat(readFixedInt(in)));
+				} else if(type==short.class) {
+					field.setShort(object, (short) unZigZag(readVarLong(in)));
+				} else if(type==byte.class) {
+					field.setByte(object, (byte) readByte(in));
+				} else if(type==char.class) {
+					field.setChar(object, (char) readVarLong(in));
+				} else {
+					field.set(object, readValue(in, depth+1));
+				}
+			}
+		} catch(InvocationTargetException e) {
+			throw new IOException("Could not create object: "+e.getTargetException());
+		} catch(InstantiationException e) {
+			throw new IOException("Could not create object: "+e);
+		} catch(IllegalAccessException e) {
+			throw new IOException("Could not set field: "+e);
+		} catch(IllegalArgumentException e) {
+			throw new IOException("Field type mismatch: "+e.getMessage());
+		}
+		return object;
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeVarLong(long value, OutputStream out) throws IOException {
+		while((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	private static long readVarLong(InputStream in) throws IOException {
+		long value = 0;
+		for(int shift=0;shift<64;shift+=7) {
+			int b = readByte(in);
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80)==0) return value;
+		}
+		throw new IOException("Bad variable length integer");
+	}
+
+	private static void writeFixedInt(int value, OutputStream out) throws IOException {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private static int readFixedInt(InputStream in) throws IOException {
+		return (readByte(in) << 24) | (readByte(in) << 16) | 
+			(readByte(in) << 8) | readByte(in);
+	}
+
+	private static void writeFixedLong(long value, OutputStream out) throws IOException {
+		writeFixedInt((int) (value >>> 32), out);
+		writeFixedInt((int) value, out);
+	}
+
+	private static long readFixedLong(InputStream in) throws IOException {
+		return ((long) readFixedInt(in) << 32) | (readFixedInt(in) & 0xFFFFFFFFL);
+	}
+
+	private static void writeString(String value, OutputStream out) throws IOException {
+		byte data[] = value.getBytes("UTF-8");
+		writeVarLong(data.length, out);
+		out.write(data);
+	}
+
+	private static String readString(InputStream in) throws IOException {
+		return new String(readBytes(in, readLength(in)), "UTF-8");
+	}
+
+	private static int readLength(InputStream in) throws IOException {
+		long length = readVarLong(in);
+		if(length<0 || length>ObjectFrame.getMaxLength()) {
+			throw new IOException("Bad length: "+length);
+		}
+		return (int) length;
+	}
+
+	private static byte[] readBytes(InputStream in, int length) throws IOException {
+		byte data[] = new byte[length];
+		int read = 0;
+		while(read<length) {
+			int count = in.read(data, read, length-read);
+			if(count<0) throw new EOFException();
+			read += count;
+		}
+		return data;
+	}
+
+	private static int readByte(InputStream in) throws IOException {
+		int b = in.read();
+		if(b<0) throw new EOFException();
+		return b;
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.util.io;
+
+import java.io.*;
+
+/**
+ * ObjectCodec that uses java serialization. Objects should be 
+ * <code>Serializable</code>. This is the default codec.
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public class JavaObjectCodec implements ObjectCodec {
+	public void encode(Object object, OutputStream out) throws IOException {
+		ObjectOutputStream oout = new ObjectOutputStream(out);
+		oout.writeObject(object);
+		oout.flush();
+	}
+
+	public Object decode(InputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream oin = new ObjectInputStream(in);
+		return oin.readObject();
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.util.io;
+
+import java.io.*;
+
+/**
+ * Converts objects to bytes and back for OBJECT mode. Each object is
+ * encoded on its own and sent as a length-delimited frame
+ * (see {@link ObjectFrame}), so a codec need not handle stream state.
+ * <p>
+ * Implementations should be thread safe, the same instance is used by
+ * all the clients of a server. The client and the server need to use
+ * the same codec.
+ * </p>
+ * @see JavaObjectCodec
+ * @see CompactObjectCodec
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public interface ObjectCodec {
+	/**
+	 * Writes the object to the stream.
+	 */
+	public void encode(Object object, OutputStream out) throws IOException;
+
+	/**
+	 * Reads an object from the stream, the stream has exactly the bytes 
+	 * written by {@link #encode}.
+	 */
+	public Object decode(InputStream in) throws IOException, ClassNotFoundException;
+}
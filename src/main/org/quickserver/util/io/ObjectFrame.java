@@ -0,0 +1,217 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.util.io;
+
+import java.io.*;
+
+/**
+ * Helper to send objects as length-delimited frames. A frame is a 4 byte
+ * big-endian length followed by that many bytes of the object encoded
+ * on its own by an {@link ObjectCodec}, so a frame can be decoded once it
+ * is fully read without blocking on a stream.
+ * <p>
+ * This is the format used by OBJECT mode in non-blocking mode or when
+ * an ObjectCodec is set, and by the QuickServer clients when object frame 
+ * mode or an ObjectCodec is set. Methods that take an ObjectCodec use 
+ * {@link JavaObjectCodec} if it is <code>null</code>.
+ * </p>
+ * <p>
+ * This class only depends on the JDK since it is also packaged with
+ * the QuickServer client library.
+ * </p>
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public final class ObjectFrame {
+	/** Length of the frame header. */
+	public static final int HEADER_LENGTH = 4;
+
+	private static volatile int maxLength = 16*1024*1024;
+	private static final ObjectCodec defaultCodec = new JavaObjectCodec();
+
+	private ObjectFrame() {
+	}
+
+	/**
+	 * Sets the maximum length of a frame payload accepted,
+	 * frames larger than this are treated as a protocol error.
+	 * Default is 16 MB.
+	 */
+	public static void setMaxLength(int length) {
+		if(length<=0) throw new IllegalArgumentException("Length should be > 0: "+length);
+		maxLength = length;
+	}
+	/**
+	 * Returns the maximum length of a frame payload accepted.
+	 */
+	public static int getMaxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * Returns the codec used when none is passed.
+	 */
+	public static ObjectCodec getDefaultCodec() {
+		return defaultCodec;
+	}
+
+	/**
+	 * Returns the frame (header and payload) for the object.
+	 */
+	public static byte[] encode(Object object) throws IOException {
+		return encode(object, null);
+	}
+
+	/**
+	 * Returns the frame (header and payload) for the object.
+	 */
+	public static byte[] encode(Object object, ObjectCodec codec) throws IOException {
+		if(codec==null) codec = defaultCodec;
+		ByteArrayOutputStream bout = new ByteArrayOutputStream(256);
+		bout.write(0); bout.write(0); bout.write(0); bout.write(0);
+		codec.encode(object, bout);
+		byte frame[] = bout.toByteArray();
+		writeLength(frame, 0, frame.length - HEADER_LENGTH);
+		return frame;
+	}
+
+	/**
+	 * Returns the object encoded by the codec, without frame header.
+	 */
+	public static byte[] toBytes(Object object, ObjectCodec codec) throws IOException {
+		if(codec==null) codec = defaultCodec;
+		ByteArrayOutputStream bout = new ByteArrayOutputStream(256);
+		codec.encode(object, bout);
+		return bout.toByteArray();
+	}
+
+	/**
+	 * Decodes the object from a frame payload.
+	 */
+	public static Object decode(byte data[], int off, int len)
+			throws IOException, ClassNotFoundException {
+		return decode(data, off, len, null);
+	}
+
+	/**
+	 * Decodes the object from a frame payload.
+	 */
+	public static Object decode(byte data[], int off, int len, ObjectCodec codec)
+			throws IOException, ClassNotFoundException {
+		if(codec==null) codec = defaultCodec;
+		return codec.decode(new ByteArrayInputStream(data, off, len));
+	}
+
+	/**
+	 * Returns the payload length stored in the header.
+	 * @exception IOException if the length is not valid.
+	 */
+	public static int readLength(byte header[], int off) throws IOException {
+		int length = ((header[off] & 0xFF) << 24) | ((header[off+1] & 0xFF) << 16) |
+			((header[off+2] & 0xFF) << 8) | (header[off+3] & 0xFF);
+		checkLength(length);
+		return length;
+	}
+
+	/**
+	 * Checks if the payload length is valid.
+	 * @exception IOException if the length is not valid.
+	 */
+	public static void checkLength(int length) throws IOException {
+		if(length<0 || length>maxLength) {
+			throw new IOException("Bad object frame length: "+length);
+		}
+	}
+
+	private static void writeLength(byte header[], int off, int length) {
+		header[off] = (byte) (length >>> 24);
+		header[off+1] = (byte) (length >>> 16);
+		header[off+2] = (byte) (length >>> 8);
+		header[off+3] = (byte) length;
+	}
+
+	/**
+	 * Writes the object as a frame to the stream.
+	 * @return number of bytes written
+	 */
+	public static int write(OutputStream out, Object object) throws IOException {
+		return write(out, object, null);
+	}
+
+	/**
+	 * Writes the object as a frame to the stream.
+	 * @return number of bytes written
+	 */
+	public static int write(OutputStream out, Object object, ObjectCodec codec) 
+			throws IOException {
+		byte frame[] = encode(object, codec);
+		out.write(frame, 0, frame.length);
+		out.flush();
+		return frame.length;
+	}
+
+	/**
+	 * Reads a frame from the stream, blocking till it is fully read.
+	 * @return the object, <code>null</code> if the stream ended
+	 *  before a frame started.
+	 */
+	public static Object read(InputStream in)
+			throws IOException, ClassNotFoundException {
+		return read(in, null);
+	}
+
+	/**
+	 * Reads a frame from the stream, blocking till it is fully read.
+	 * @return the object, <code>null</code> if the stream ended
+	 *  before a frame started.
+	 */
+	public static Object read(InputStream in, ObjectCodec codec)
+			throws IOException, ClassNotFoundException {
+		byte data[] = readFrame(in);
+		if(data==null) return null;
+		return decode(data, 0, data.length, codec);
+	}
+
+	/**
+	 * Reads the payload of a frame from the stream, blocking till it is 
+	 * fully read.
+	 * @return the payload, <code>null</code> if the stream ended
+	 *  before a frame started.
+	 */
+	public static byte[] readFrame(InputStream in) throws IOException {
+		byte header[] = new byte[HEADER_LENGTH];
+		if(readFully(in, header, 0, HEADER_LENGTH)==false) return null;
+		int length = readLength(header, 0);
+		byte data[] = new byte[length];
+		if(readFully(in, data, 0, length)==false) {
+			throw new EOFException("Stream ended inside an object frame");
+		}
+		return data;
+	}
+
+	private static boolean readFully(InputStream in, byte b[], int off, int len)
+			throws IOException {
+		int read = 0;
+		while(read<len) {
+			int count = in.read(b, off+read, len-read);
+			if(count<0) {
+				if(read==0) return false;
+				throw new EOFException("Stream ended inside an object frame");
+			}
+			read += count;
+		}
+		return true;
+	}
+}
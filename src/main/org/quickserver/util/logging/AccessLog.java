@@ -0,0 +1,549 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.util.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Access log of a server: one record per connection when it closes
+ * (address, authentication result, bytes in and out, messages handled,
+ * duration and why it closed) and, if asked, one per command handled.
+ * <p>
+ * The I/O threads only fill a record taken from a pool made up front and
+ * queue it; a background thread writes the records to files and puts them
+ * back in the pool. If the pool is empty, because the writer can not keep
+ * up, the record is dropped and counted, the I/O thread never waits.
+ * </p>
+ * <p>
+ * Records are written as text lines, as binary, or both, to files that
+ * are rolled over when they reach {@link #getMaxFileSize()}: the current
+ * file is renamed to <code>name.1</code>, <code>name.1</code> to
+ * <code>name.2</code> and so on, keeping {@link #getMaxFiles()}.
+ * </p>
+ * <p>
+ * Text lines look like:<br/>
+ * <code>2017-08-12 10:15:30.125 conn id=12 client=10.0.0.5:51234 auth=Y
+ * in=120 out=300 msgs=3 ms=150 close=L</code><br/>
+ * <code>2017-08-12 10:15:30.120 cmd id=12 client=10.0.0.5:51234 len=4
+ * us=35 data="PING"</code>
+ * </p>
+ * <p>
+ * Binary records, written with DataOutputStream, start with the type byte
+ * and the time in milliseconds (long). A CONNECTION then has id (long),
+ * address (UTF), port (int), connect time (long), auth (byte), bytes in
+ * (long), bytes out (long), messages (int), duration (long) and close
+ * reason (byte); a COMMAND has id (long), address (UTF), port (int),
+ * length (int), time taken in microseconds (long) and data (UTF).
+ * </p>
+ * @since 2.1.0
+ * @author Akshathkumar Shetty
+ */
+public class AccessLog {
+	private static final Logger logger = Logger.getLogger(AccessLog.class.getName());
+
+	/** Type of a record of a connection. */
+	public static final char CONNECTION = 'C';
+	/** Type of a record of a command. */
+	public static final char COMMAND = 'M';
+
+	/** Client had no authentication to do. */
+	public static final char AUTH_NONE = '-';
+	/** Client authenticated. */
+	public static final char AUTH_OK = 'Y';
+	/** Client did not authenticate. */
+	public static final char AUTH_FAILED = 'N';
+
+	/** Connection was closed by the server or client. */
+	public static final char CLOSE_CLOSED = 'C';
+	/** Connection was lost. */
+	public static final char CLOSE_LOST = 'L';
+	/** Connection was closed after a timeout. */
+	public static final char CLOSE_TIMEOUT = 'T';
+	/** Connection was closed as the client tried to authenticate too many times. */
+	public static final char CLOSE_MAX_AUTH = 'A';
+
+	/**
+	 * A record, reused through the pool.
+	 */
+	static class Entry {
+		char type;
+		long time;
+		long connectionId;
+		String address;
+		int port;
+		long connectTime;
+		char auth;
+		long bytesIn;
+		long bytesOut;
+		int messages;
+		long duration;
+		char closeReason;
+		String data;
+		int length;
+
+		void clear() {
+			address = null;
+			data = null;
+		}
+	}
+
+	/**
+	 * A file that is rolled over by size.
+	 */
+	static class RollingFile {
+		private final String fileName;
+		private final long maxFileSize;
+		private final int maxFiles;
+		private OutputStream out;
+		private long size;
+
+		RollingFile(String fileName, long maxFileSize, int maxFiles) throws IOException {
+			this.fileName = fileName;
+			this.maxFileSize = maxFileSize;
+			this.maxFiles = maxFiles;
+			File file = new File(fileName).getAbsoluteFile();
+			if(file.getParentFile()!=null) file.getParentFile().mkdirs();
+			size = file.length();
+			out = new BufferedOutputStream(new FileOutputStream(file, true), 64*1024);
+		}
+
+		/** Rolls the file over if the bytes to write would take it past the size. */
+		void roll(int length) throws IOException {
+			if(maxFileSize<=0 || size==0 || size+length <= maxFileSize) return;
+			out.close();
+			new File(fileName+"."+maxFiles).delete();
+			for(int i=maxFiles-1;i>=1;i--) {
+				File from = new File(fileName+"."+i);
+				if(from.exists()) from.renameTo(new File(fileName+"."+(i+1)));
+			}
+			new File(fileName).renameTo(new File(fileName+".1"));
+			out = new BufferedOutputStream(new FileOutputStream(fileName, false), 64*1024);
+			size = 0;
+		}
+
+		void write(byte data[], int off, int len) throws IOException {
+			out.write(data, off, len);
+			size += len;
+		}
+
+		void flush() throws IOException {
+			out.flush();
+		}
+
+		void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Collects a binary record so its length is known before it is written.
+	 */
+	static class RecordBuffer extends ByteArrayOutputStream {
+		RecordBuffer() {
+			super(256);
+		}
+		byte[] getBuffer() {
+			return buf;
+		}
+	}
+
+	private final String textFileName;
+	private final String binaryFileName;
+	private final int poolSize;
+	private volatile long maxFileSize = 10*1024*1024;
+	private volatile int maxFiles = 5;
+	private volatile boolean logCommands = false;
+	private volatile int maxDataLength = 64;
+
+	private final ArrayBlockingQueue<Entry> pool;
+	private final ArrayBlockingQueue<Entry> queue;
+	private final AtomicLong droppedCount = new AtomicLong();
+	private volatile long writtenCount;
+
+	private Thread writer;
+	private volatile boolean closed;
+
+	/**
+	 * Creates an access log with a pool of 4096 records.
+	 * @param textFileName file for text lines, <code>null</code> for none
+	 * @param binaryFileName file for binary records, <code>null</code> for none
+	 */
+	public AccessLog(String textFileName, String binaryFileName) {
+		this(textFileName, binaryFileName, 4096);
+	}
+
+	/**
+	 * Creates an access log.
+	 * @param textFileName file for text lines, <code>null</code> for none
+	 * @param binaryFileName file for binary records, <code>null</code> for none
+	 * @param poolSize records that can wait to be written
+	 */
+	public AccessLog(String textFileName, String binaryFileName, int poolSize) {
+		if(textFileName==null && binaryFileName==null) {
+			throw new IllegalArgumentException("No file to log to");
+		}
+		if(poolSize<1) throw new IllegalArgumentException("poolSize should be > 0");
+		this.textFileName = textFileName;
+		this.binaryFileName = binaryFileName;
+		this.poolSize = poolSize;
+		pool = new ArrayBlockingQueue<Entry>(poolSize);
+		queue = new ArrayBlockingQueue<Entry>(poolSize);
+		for(int i=0;i<poolSize;i++) {
+			pool.add(new Entry());
+		}
+	}
+
+	public String getTextFileName() {
+		return textFileName;
+	}
+
+	public String getBinaryFileName() {
+		return binaryFileName;
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public long getMaxFileSize() {
+		return maxFileSize;
+	}
+
+	/**
+	 * Sets the size at which a file is rolled over, 0 to never roll it.
+	 * Default is 10 MB. Takes effect on start.
+	 */
+	public void setMaxFileSize(long maxFileSize) {
+		this.maxFileSize = maxFileSize;
+	}
+
+	public int getMaxFiles() {
+		return maxFiles;
+	}
+
+	/**
+	 * Sets the number of rolled over files kept. Default is 5.
+	 * Takes effect on start.
+	 */
+	public void setMaxFiles(int maxFiles) {
+		this.maxFiles = maxFiles;
+	}
+
+	public boolean isLogCommands() {
+		return logCommands;
+	}
+
+	/**
+	 * Sets if a record is logged for every command, object or binary data
+	 * handled, not only for every connection. Default is false.
+	 */
+	public void setLogCommands(boolean logCommands) {
+		this.logCommands = logCommands;
+	}
+
+	public int getMaxDataLength() {
+		return maxDataLength;
+	}
+
+	/**
+	 * Sets the most characters of a command kept in its record.
+	 * Default is 64, 0 to keep none.
+	 */
+	public void setMaxDataLength(int maxDataLength) {
+		this.maxDataLength = maxDataLength;
+	}
+
+	/**
+	 * Returns the number of records dropped as the pool was empty.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Returns the number of records written.
+	 */
+	public long getWrittenCount() {
+		return writtenCount;
+	}
+
+	/**
+	 * Returns the number of records waiting to be written.
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	/**
+	 * Opens the files and starts the writer thread. Called by the first
+	 * record if not called before.
+	 */
+	public synchronized void start() throws IOException {
+		if(writer!=null || closed) return;
+		final RollingFile textFile = textFileName==null?null:
+			new RollingFile(textFileName, maxFileSize, maxFiles);
+		final RollingFile binaryFile;
+		try {
+			binaryFile = binaryFileName==null?null:
+				new RollingFile(binaryFileName, maxFileSize, maxFiles);
+		} catch(IOException e) {
+			if(textFile!=null) textFile.close();
+			throw e;
+		}
+		writer = new Thread("AccessLog-Writer") {
+			public void run() {
+				writeLoop(textFile, binaryFile);
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+		logger.log(Level.FINE, "Started access log to {0} {1}",
+			new Object[]{textFileName, binaryFileName});
+	}
+
+	private Entry getEntry() {
+		if(closed) return null;
+		if(writer==null) {
+			try {
+				start();
+			} catch(IOException e) {
+				logger.log(Level.WARNING, "Could not start access log: "+e, e);
+				closed = true;
+				return null;
+			}
+		}
+		Entry entry = pool.poll();
+		if(entry==null) droppedCount.incrementAndGet();
+		return entry;
+	}
+
+	/**
+	 * Logs a connection that closed.
+	 * @param auth AUTH_NONE, AUTH_OK or AUTH_FAILED
+	 * @param closeReason CLOSE_CLOSED, CLOSE_LOST, CLOSE_TIMEOUT or CLOSE_MAX_AUTH
+	 */
+	public void logConnection(long connectionId, String address, int port,
+			long connectTime, char auth, long bytesIn, long bytesOut, int messages,
+			long duration, char closeReason) {
+		Entry entry = getEntry();
+		if(entry==null) return;
+		entry.type = CONNECTION;
+		entry.time = System.currentTimeMillis();
+		entry.connectionId = connectionId;
+		entry.address = address;
+		entry.port = port;
+		entry.connectTime = connectTime;
+		entry.auth = auth;
+		entry.bytesIn = bytesIn;
+		entry.bytesOut = bytesOut;
+		entry.messages = messages;
+		entry.duration = duration;
+		entry.closeReason = closeReason;
+		queue.offer(entry);
+	}
+
+	/**
+	 * Logs a command handled, if commands are logged.
+	 * @param data the command, or a description of an object or binary
+	 *  data; cut to the max data length when written
+	 * @param length the length of the data received
+	 * @param timeTakenNanos time the handler took
+	 */
+	public void logCommand(long connectionId, String address, int port,
+			String data, int length, long timeTakenNanos) {
+		if(logCommands==false) return;
+		Entry entry = getEntry();
+		if(entry==null) return;
+		entry.type = COMMAND;
+		entry.time = System.currentTimeMillis();
+		entry.connectionId = connectionId;
+		entry.address = address;
+		entry.port = port;
+		entry.data = data;
+		entry.length = length;
+		entry.duration = timeTakenNanos/1000;
+		queue.offer(entry);
+	}
+
+	private void writeLoop(RollingFile textFile, RollingFile binaryFile) {
+		List<Entry> batch = new ArrayList<Entry>(poolSize);
+		StringBuilder sb = new StringBuilder(256);
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		Date date = new Date();
+		RecordBuffer record = new RecordBuffer();
+		DataOutputStream dout = new DataOutputStream(record);
+
+		while(true) {
+			try {
+				Entry first = queue.poll(1, TimeUnit.SECONDS);
+				if(first==null) {
+					if(closed) break;
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch);
+
+				for(int i=0;i<batch.size();i++) {
+					Entry entry = batch.get(i);
+					try {
+						if(textFile!=null) {
+							date.setTime(entry.time);
+							writeText(entry, sb, format.format(date));
+							byte line[] = sb.toString().getBytes("UTF-8");
+							textFile.roll(line.length);
+							textFile.write(line, 0, line.length);
+						}
+						if(binaryFile!=null) {
+							record.reset();
+							writeBinary(entry, dout);
+							binaryFile.roll(record.size());
+							binaryFile.write(record.getBuffer(), 0, record.size());
+						}
+						writtenCount++;
+					} catch(IOException e) {
+						logger.log(Level.WARNING, "Error writing access log: "+e, e);
+					}
+					entry.clear();
+					pool.offer(entry);
+				}
+				batch.clear();
+
+				if(queue.isEmpty()) {
+					if(textFile!=null) textFile.flush();
+					if(binaryFile!=null) binaryFile.flush();
+				}
+			} catch(InterruptedException e) {
+				if(closed && queue.isEmpty()) break;
+			} catch(Exception e) {
+				logger.log(Level.WARNING, "Error in access log writer: "+e, e);
+			}
+		}
+
+		try {
+			if(textFile!=null) textFile.close();
+			if(binaryFile!=null) binaryFile.close();
+		} catch(IOException e) {
+			logger.log(Level.WARNING, "Error closing access log: "+e, e);
+		}
+	}
+
+	private void writeText(Entry entry, StringBuilder sb, String time) {
+		sb.setLength(0);
+		sb.append(time);
+		if(entry.type==CONNECTION) {
+			sb.append(" conn id=").append(entry.connectionId);
+			sb.append(" client=").append(entry.address).append(':').append(entry.port);
+			sb.append(" auth=").append(entry.auth);
+			sb.append(" in=").append(entry.bytesIn);
+			sb.append(" out=").append(entry.bytesOut);
+			sb.append(" msgs=").append(entry.messages);
+			sb.append(" ms=").append(entry.duration);
+			sb.append(" close=").append(entry.closeReason);
+		} else {
+			sb.append(" cmd id=").append(entry.connectionId);
+			sb.append(" client=").append(entry.address).append(':').append(entry.port);
+			sb.append(" len=").append(entry.length);
+			sb.append(" us=").append(entry.duration);
+			if(entry.data!=null && maxDataLength>0) {
+				sb.append(" data=\"");
+				String data = entry.data;
+				int length = Math.min(data.length(), maxDataLength);
+				for(int i=0;i<length;i++) {
+					char c = data.charAt(i);
+					if(c=='"' || c=='\\') {
+						sb.append('\\').append(c);
+					} else if(c<32 || c==127) {
+						sb.append("\\x");
+						if(c<16) sb.append('0');
+						sb.append(Integer.toHexString(c));
+					} else {
+						sb.append(c);
+					}
+				}
+				if(length<data.length()) sb.append("...");
+				sb.append('"');
+			}
+		}
+		sb.append('\n');
+	}
+
+	private void writeBinary(Entry entry, DataOutputStream dout) throws IOException {
+		dout.writeByte(entry.type);
+		dout.writeLong(entry.time);
+		dout.writeLong(entry.connectionId);
+		dout.writeUTF(entry.address==null?"":entry.address);
+		dout.writeInt(entry.port);
+		if(entry.type==CONNECTION) {
+			dout.writeLong(entry.connectTime);
+			dout.writeByte(entry.auth);
+			dout.writeLong(entry.bytesIn);
+			dout.writeLong(entry.bytesOut);
+			dout.writeInt(entry.messages);
+			dout.writeLong(entry.duration);
+			dout.writeByte(entry.closeReason);
+		} else {
+			dout.writeInt(entry.length);
+			dout.writeLong(entry.duration);
+			String data = entry.data;
+			if(data==null || maxDataLength<=0) {
+				data = "";
+			} else if(data.length()>maxDataLength) {
+				data = data.substring(0, maxDataLength);
+			}
+			dout.writeUTF(data);
+		}
+		dout.flush();
+	}
+
+	/**
+	 * Writes the records queued, closes the files and stops the writer.
+	 */
+	public void close() {
+		Thread myWriter;
+		synchronized(this) {
+			if(closed) return;
+			closed = true;
+			myWriter = writer;
+		}
+		if(myWriter==null) return;
+		try {
+			myWriter.join(10000);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		logger.log(Level.FINE, "Closed access log; {0} records, {1} dropped",
+			new Object[]{writtenCount, droppedCount.get()});
+	}
+
+	public String toString() {
+		return "AccessLog{text="+textFileName+", binary="+binaryFileName+
+			", logCommands="+logCommands+", written="+writtenCount+
+			", dropped="+droppedCount.get()+"}";
+	}
+}
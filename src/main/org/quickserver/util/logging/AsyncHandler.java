@@ -1,10 +1,10 @@
 /*
- * This file is part of the QuickServer library 
+ * This file is part of the QuickServer library
  * Copyright (C) QuickServer.org
  *
  * Use, modification, copying and distribution of this software is subject to
- * the terms and conditions of the GNU Lesser General Public License. 
- * You should have received a copy of the GNU LGP License along with this 
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
  * library; if not, you can download a copy from <http://www.quickserver.org/>.
  *
  * For questions, suggestions, bug-reports, enhancement-requests etc.
@@ -13,43 +13,99 @@
  */
 package org.quickserver.util.logging;
 
-import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Handler;
+import java.util.logging.Level;
 import java.util.logging.LogRecord;
 
+/**
+ * Handler that hands records to another Handler from a background thread,
+ * so the threads that log do not wait on its I/O.
+ * <p>
+ * Records are put in a bounded ring buffer that many threads can add to
+ * without a lock and without allocating; one thread takes them out in
+ * batches, publishes them to the wrapped handler and flushes it once per
+ * batch. The thread wakes as soon as records arrive, or every
+ * {@link #getLoggingInterval()} milliseconds at most.
+ * </p>
+ * <p>
+ * When the buffer is full the {@link #getFullPolicy()} decides:
+ * FULL_DROP drops the record, FULL_BLOCK waits for space and
+ * FULL_DROP_BELOW_LEVEL (the default) drops records below
+ * {@link #getDropLevel()} and waits for the others. Dropped records and
+ * the lag of delivery are counted, see {@link #getDroppedCount()},
+ * {@link #getQueueSize()} and {@link #getMaxLagMillis()}.
+ * </p>
+ * <p>
+ * The name of the thread that logged is added to the message, as
+ * <code> - [thread] - message</code>, by the background thread.
+ * </p>
+ */
 public class AsyncHandler extends Handler {
+	/** Drop the record when the buffer is full. */
+	public static final int FULL_DROP = 1;
+	/** Wait for space when the buffer is full. */
+	public static final int FULL_BLOCK = 2;
+	/** Drop records below the drop level, wait for others, when the buffer is full. */
+	public static final int FULL_DROP_BELOW_LEVEL = 3;
+
+	private static final int MAX_BATCH = 256;
+
 	private int bufferSize = 3000;
 	private int loggingInterval = 5000;
 	private Handler handler;
-	
+	private volatile int fullPolicy = FULL_DROP_BELOW_LEVEL;
+	private volatile Level dropLevel = Level.WARNING;
+	private volatile boolean inferCaller = true;
+
 	private Thread thread = null;
 	protected volatile boolean closed = false;
 
-	private ArrayList<LogEntry> inList = new ArrayList<LogEntry>();
-	private ArrayList<LogEntry> outList = new ArrayList<LogEntry>();	
-	
-	int bufferSkipCount = 0;	
-	private static boolean debugMode = false; 
-	
+	//ring buffer, made on the first record
+	private volatile boolean ringReady;
+	private LogRecord records[];
+	private String threadNames[];
+	private AtomicLongArray sequences;
+	private int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head;
+	private volatile boolean consumerWaiting;
+
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong blockedCount = new AtomicLong();
+	private volatile long deliveredCount;
+	private volatile long lastLagMillis;
+	private volatile long maxLagMillis;
+	private volatile int maxQueueSize;
+
+	private static boolean debugMode = false;
+
 	public AsyncHandler(Handler handler){
 		super();
 		this.handler = handler;
 		startAsyncService();
-	}	
-	
+	}
+
 	public AsyncHandler(Handler handler, int milliSec, int bufferSize){
 		super();
 		this.handler = handler;
 		this.loggingInterval = milliSec;
 		this.bufferSize = bufferSize;
 		startAsyncService();
-	}	
-	
+	}
+
 	public int getBufferSize() {
 		return bufferSize;
 	}
 
+	/**
+	 * Sets the records the buffer holds, rounded up to a power of two.
+	 * Takes effect only before the first record is published.
+	 */
 	public void setBufferSize(int bufferSize) {
+		if(bufferSize<1) throw new IllegalArgumentException("bufferSize should be > 0");
 		this.bufferSize = bufferSize;
 	}
 
@@ -57,10 +113,67 @@ public class AsyncHandler extends Handler {
 		return loggingInterval;
 	}
 
+	/**
+	 * Sets the longest time the background thread waits before it looks
+	 * for records again; it is woken sooner when records arrive.
+	 */
 	public void setLoggingInterval(int loggingInterval) {
 		this.loggingInterval = loggingInterval;
 	}
 
+	/**
+	 * @since 2.1.0
+	 */
+	public int getFullPolicy() {
+		return fullPolicy;
+	}
+
+	/**
+	 * Sets what to do with a record when the buffer is full:
+	 * FULL_DROP, FULL_BLOCK or FULL_DROP_BELOW_LEVEL.
+	 * @since 2.1.0
+	 */
+	public void setFullPolicy(int fullPolicy) {
+		if(fullPolicy!=FULL_DROP && fullPolicy!=FULL_BLOCK &&
+				fullPolicy!=FULL_DROP_BELOW_LEVEL) {
+			throw new IllegalArgumentException("Unknown policy: "+fullPolicy);
+		}
+		this.fullPolicy = fullPolicy;
+	}
+
+	/**
+	 * @since 2.1.0
+	 */
+	public Level getDropLevel() {
+		return dropLevel;
+	}
+
+	/**
+	 * Sets the level below which records are dropped with the
+	 * FULL_DROP_BELOW_LEVEL policy. Default is WARNING.
+	 * @since 2.1.0
+	 */
+	public void setDropLevel(Level dropLevel) {
+		this.dropLevel = dropLevel;
+	}
+
+	/**
+	 * @since 2.1.0
+	 */
+	public boolean isInferCaller() {
+		return inferCaller;
+	}
+
+	/**
+	 * Sets if the source class and method of a record are found before it
+	 * is queued, they can not be found later from the background thread.
+	 * Finding them takes a stack trace; default is true.
+	 * @since 2.1.0
+	 */
+	public void setInferCaller(boolean inferCaller) {
+		this.inferCaller = inferCaller;
+	}
+
 	public static boolean isDebugMode() {
 		return debugMode;
 	}
@@ -69,15 +182,107 @@ public class AsyncHandler extends Handler {
 		AsyncHandler.debugMode = debugMode;
 	}
 
+	/**
+	 * Returns the number of records dropped as the buffer was full.
+	 * @since 2.1.0
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Returns the number of records that had to wait for space.
+	 * @since 2.1.0
+	 */
+	public long getBlockedCount() {
+		return blockedCount.get();
+	}
+
+	/**
+	 * Returns the number of records handed to the wrapped handler.
+	 * @since 2.1.0
+	 */
+	public long getDeliveredCount() {
+		return deliveredCount;
+	}
+
+	/**
+	 * Returns the number of records waiting in the buffer.
+	 * @since 2.1.0
+	 */
+	public int getQueueSize() {
+		long size = tail.get() - head;
+		return size<0?0:(int) size;
+	}
+
+	/**
+	 * Returns the most records seen waiting in the buffer.
+	 * @since 2.1.0
+	 */
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+
+	/**
+	 * Returns how long the oldest record of the last batch delivered had
+	 * waited, in milliseconds.
+	 * @since 2.1.0
+	 */
+	public long getLagMillis() {
+		return lastLagMillis;
+	}
+
+	/**
+	 * Returns the longest a record waited to be delivered, in milliseconds.
+	 * @since 2.1.0
+	 */
+	public long getMaxLagMillis() {
+		return maxLagMillis;
+	}
+
 	@Override
 	public void close() throws SecurityException {
 		if (closed) return;
 		closed = true;
+		Thread myThread = thread;
+		if(myThread!=null) {
+			LockSupport.unpark(myThread);
+			if(myThread!=Thread.currentThread()) {
+				try {
+					myThread.join(5000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		if(ringReady && (myThread==null || myThread.isAlive()==false)) {
+			//records added while the thread was stopping
+			LogRecord batch[] = new LogRecord[MAX_BATCH];
+			String batchThreads[] = new String[MAX_BATCH];
+			int count;
+			while((count = drainTo(batch, batchThreads, MAX_BATCH)) > 0) {
+				deliver(batch, batchThreads, count);
+			}
+		}
 		handler.close();
 	}
 
+	/**
+	 * Waits, for a second at most, till the records published before are
+	 * delivered, then flushes the wrapped handler.
+	 */
 	@Override
 	public void flush() {
+		Thread myThread = thread;
+		if(myThread!=null && myThread!=Thread.currentThread()) {
+			//every position of the ring taken is delivered, in order
+			long target = tail.get();
+			long deadline = System.nanoTime() + 1000000000L;
+			while(deliveredCount < target && myThread.isAlive() && deadline - System.nanoTime() > 0) {
+				LockSupport.unpark(myThread);
+				LockSupport.parkNanos(100000);
+			}
+		}
 		handler.flush();
 	}
 
@@ -86,93 +291,165 @@ public class AsyncHandler extends Handler {
 		if (!isLoggable(record)) {
 			return;
 		}
-		LogEntry entry = new LogEntry(record,this);
+		if(closed) {
+			handler.publish(record);
+			return;
+		}
+		if(ringReady==false) initRing();
 
 		if(thread.isAlive()==false) {
 			startAsyncService();
 		}
-		
-		StringBuilder sb = new StringBuilder();
-		sb.append(" - [");
-		sb.append(Thread.currentThread().getName());
-		sb.append("] - ");
-		sb.append(record.getMessage());
-		record.setMessage(sb.toString());
-
-		if(inList.size() >= bufferSize){
-			bufferSkipCount++;
-			handler.publish(record);
-		} else {
-			record.getSourceMethodName();
-			inList.add(entry);
-		} 
-	}
-	
-	public void startAsyncService(){		
-		thread = new Thread("AsyncHandler") {	
+
+		if(inferCaller) record.getSourceMethodName();
+		String threadName = Thread.currentThread().getName();
+
+		if(offer(record, threadName)==false) {
+			int policy = fullPolicy;
+			if(policy==FULL_DROP || (policy==FULL_DROP_BELOW_LEVEL &&
+					record.getLevel().intValue() < dropLevel.intValue())) {
+				droppedCount.incrementAndGet();
+				return;
+			}
+			blockedCount.incrementAndGet();
+			do {
+				if(closed) {
+					handler.publish(record);
+					return;
+				}
+				LockSupport.unpark(thread);
+				LockSupport.parkNanos(50000);
+			} while(offer(record, threadName)==false);
+		}
+
+		if(consumerWaiting) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	private synchronized void initRing() {
+		if(ringReady) return;
+		int capacity = 1;
+		while(capacity < bufferSize) capacity <<= 1;
+		records = new LogRecord[capacity];
+		threadNames = new String[capacity];
+		sequences = new AtomicLongArray(capacity);
+		for(int i=0;i<capacity;i++) sequences.set(i, i);
+		mask = capacity - 1;
+		ringReady = true;
+	}
+
+	/**
+	 * Adds the record to the ring, any thread.
+	 * @return false if the ring is full
+	 */
+	private boolean offer(LogRecord record, String threadName) {
+		long pos = tail.get();
+		while(true) {
+			int index = (int) (pos & mask);
+			long difference = sequences.get(index) - pos;
+			if(difference==0) {
+				if(tail.compareAndSet(pos, pos+1)) {
+					records[index] = record;
+					threadNames[index] = threadName;
+					sequences.set(index, pos+1);
+					return true;
+				}
+				pos = tail.get();
+			} else if(difference<0) {
+				return false;
+			} else {
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Takes up to max records from the ring into the arrays, only called
+	 * from the background thread.
+	 * @return the number taken
+	 */
+	private int drainTo(LogRecord batch[], String batchThreads[], int max) {
+		long myHead = head;
+		int count = 0;
+		while(count < max) {
+			int index = (int) (myHead & mask);
+			if(sequences.get(index) != myHead+1) break;
+			batch[count] = records[index];
+			batchThreads[count] = threadNames[index];
+			records[index] = null;
+			threadNames[index] = null;
+			sequences.set(index, myHead+mask+1);
+			myHead++;
+			count++;
+		}
+		head = myHead;
+		return count;
+	}
+
+	public synchronized void startAsyncService(){
+		if(thread!=null && thread.isAlive()) return;
+		thread = new Thread("AsyncHandler") {
 			public void run() {
-				long timeSpent = 0;
-				long timetosleep = 0;
-				while(true) {	
-					timetosleep = loggingInterval - timeSpent;
-					try{
-						if(timetosleep>0) sleep(timetosleep);
-					}catch (InterruptedException e) {
-						e.printStackTrace();
+				LogRecord batch[] = new LogRecord[MAX_BATCH];
+				String batchThreads[] = new String[MAX_BATCH];
+				while(true) {
+					int count = 0;
+					if(ringReady) {
+						int size = getQueueSize();
+						if(size > maxQueueSize) maxQueueSize = size;
+						count = drainTo(batch, batchThreads, MAX_BATCH);
+					}
+					if(count > 0) {
+						deliver(batch, batchThreads, count);
+						continue;
 					}
+					if(closed) break;
 
-					long stime = System.currentTimeMillis();
-					initiateLogDispatch();
-					timeSpent = System.currentTimeMillis() - stime;
-				}					
-			}				
-		};
-		thread.start();
-	}	
-	
-	private void initiateLogDispatch() {
-		try {
-			swapList();
-			int logEntrySize = outList.size();
-			if(logEntrySize > 0){
-				for(int i = 0; i < logEntrySize; i++){
-					LogEntry le = outList.get(i);
-					if (le!=null) le.flush();
+					consumerWaiting = true;
+					if(ringReady==false || getQueueSize()==0) {
+						LockSupport.parkNanos(loggingInterval*1000000L);
+					}
+					consumerWaiting = false;
 				}
 			}
-			if(debugMode){
-				System.out.println("Logged " + logEntrySize + " log entries. Skipped Async count " + bufferSkipCount);
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void deliver(LogRecord batch[], String batchThreads[], int count) {
+		long lag = System.currentTimeMillis() - batch[0].getMillis();
+		if(lag < 0) lag = 0;
+		lastLagMillis = lag;
+		if(lag > maxLagMillis) maxLagMillis = lag;
+
+		for(int i = 0; i < count; i++) {
+			LogRecord record = batch[i];
+			batch[i] = null;
+			try {
+				StringBuilder sb = new StringBuilder();
+				sb.append(" - [");
+				sb.append(batchThreads[i]);
+				sb.append("] - ");
+				sb.append(record.getMessage());
+				record.setMessage(sb.toString());
+				batchThreads[i] = null;
+
+				handler.publish(record);
+			} catch(Exception e) {
+				e.printStackTrace();
 			}
-			bufferSkipCount = 0;
-			outList.clear();
+		}
+		try {
+			handler.flush();
 		} catch(Exception e) {
 			e.printStackTrace();
 		}
-	}
-	
-	protected void swapList(){
-		ArrayList<LogEntry> temp1 = inList;
-		ArrayList<LogEntry> temp2 = outList;
-		outList = temp1;
-		inList = temp2;
-	}	
-	
-	protected static class LogEntry {
-		private LogRecord record;
-		private AsyncHandler aHandler;
-		public LogEntry(LogRecord record, AsyncHandler aHandler) {
-			super();
-			this.record = record;
-			this.aHandler = aHandler;
-		}
 
-		public boolean flush() {
-			if (aHandler.closed) {
-				return false;
-			} else {
-				aHandler.handler.publish(record);
-				return true;
-			}
+		deliveredCount += count;
+		if(debugMode){
+			System.out.println("Logged " + count + " log entries. Dropped " + droppedCount.get());
 		}
 	}
 }
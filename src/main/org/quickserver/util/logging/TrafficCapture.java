@@ -0,0 +1,313 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.util.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Captures the raw data sent and received by clients to a memory mapped
+ * file, in a compact binary form, for use instead of communication logging
+ * when the traffic is to be recorded at full speed.
+ * <p>
+ * The file is a ring of fixed size blocks; when it is full the oldest
+ * block is written over, so the file keeps the latest traffic and never
+ * grows. A record is copied into the mapped file under a short lock, no
+ * String is made and nothing is formatted; the operating system writes
+ * the pages to disk. Use {@link TrafficCaptureReader} to print a capture.
+ * </p>
+ * <p>
+ * Connections are sampled when they connect: with
+ * {@link #setSamplePercent} of 10, one connection in ten is captured, from
+ * its connect to its close.
+ * </p>
+ * <p>
+ * File layout, big endian: a header of {@link #FILE_HEADER_LENGTH} bytes
+ * (magic, version, block size, block count, start time in milliseconds),
+ * then the blocks. A block starts with its sequence number (long, 0 if
+ * unused) followed by records; a record length of 0 ends the block.
+ * A record is: length of the record (int), time in microseconds since
+ * the epoch (long), connection id (long), type (byte: C, D, I or O),
+ * data mode (byte: S string, Y byte, O object, B binary), flags (short),
+ * length of the data before it was cut (int) and the data.
+ * </p>
+ * @since 2.1.0
+ * @author Akshathkumar Shetty
+ */
+public class TrafficCapture {
+	private static final Logger logger = Logger.getLogger(TrafficCapture.class.getName());
+
+	public static final int MAGIC = 0x51535443; //QSTC
+	public static final int VERSION = 1;
+	public static final int FILE_HEADER_LENGTH = 64;
+	public static final int BLOCK_HEADER_LENGTH = 8;
+	public static final int RECORD_HEADER_LENGTH = 28;
+
+	/** Record of a client that connected, the data is its address. */
+	public static final char CONNECT = 'C';
+	/** Record of a client that closed or was lost. */
+	public static final char DISCONNECT = 'D';
+	/** Record of data received from a client. */
+	public static final char IN = 'I';
+	/** Record of data sent to a client. */
+	public static final char OUT = 'O';
+
+	/** Flag set when only the start of the data was kept. */
+	public static final int FLAG_TRUNCATED = 1;
+	/** Flag set on DISCONNECT when the connection was lost. */
+	public static final int FLAG_LOST = 2;
+
+	private final String fileName;
+	private final int blockSize;
+	private final int blockCount;
+	private RandomAccessFile file;
+	private MappedByteBuffer buffer;
+	private final byte zeros[];
+
+	private int blockIndex = -1;
+	private int blockStart;
+	private int blockPosition;
+	private long blockSequence;
+
+	private final long startMillis;
+	private final long startNanos;
+	private volatile boolean closed;
+
+	private volatile int samplePercent = 100;
+	private volatile int maxDataLength = 4096;
+
+	private volatile long recordCount;
+	private volatile long byteCount;
+
+	/**
+	 * Opens a capture file of about fileSize bytes, in blocks of 64 KB.
+	 * An existing file is overwritten.
+	 */
+	public TrafficCapture(String fileName, long fileSize) throws IOException {
+		this(fileName, fileSize, 64*1024);
+	}
+
+	/**
+	 * Opens a capture file of about fileSize bytes, in blocks of blockSize
+	 * bytes. A record never spans blocks, so data longer than a block is cut.
+	 */
+	public TrafficCapture(String fileName, long fileSize, int blockSize) throws IOException {
+		if(blockSize < BLOCK_HEADER_LENGTH+RECORD_HEADER_LENGTH+64) {
+			throw new IllegalArgumentException("blockSize too small: "+blockSize);
+		}
+		long count = (fileSize - FILE_HEADER_LENGTH) / blockSize;
+		if(count < 2) count = 2;
+		if(FILE_HEADER_LENGTH + count*blockSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("fileSize should be < 2 GB: "+fileSize);
+		}
+		this.fileName = fileName;
+		this.blockSize = blockSize;
+		this.blockCount = (int) count;
+		this.zeros = new byte[blockSize];
+
+		int length = FILE_HEADER_LENGTH + blockCount*blockSize;
+		File parent = new File(fileName).getAbsoluteFile().getParentFile();
+		if(parent!=null && parent.exists()==false) parent.mkdirs();
+		file = new RandomAccessFile(fileName, "rw");
+		try {
+			file.setLength(0);//old blocks must not be read as new
+			file.setLength(length);
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+		} catch(IOException e) {
+			file.close();
+			throw e;
+		}
+
+		startMillis = System.currentTimeMillis();
+		startNanos = System.nanoTime();
+
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, blockSize);
+		buffer.putInt(12, blockCount);
+		buffer.putLong(16, startMillis);
+		nextBlock();
+
+		logger.log(Level.INFO, "Capturing traffic to {0} ({1} blocks of {2} bytes)",
+			new Object[]{fileName, blockCount, blockSize});
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public int getSamplePercent() {
+		return samplePercent;
+	}
+
+	/**
+	 * Sets the percent of connections captured, from 0 to 100. Default is 100.
+	 */
+	public void setSamplePercent(int samplePercent) {
+		if(samplePercent<0 || samplePercent>100) {
+			throw new IllegalArgumentException("samplePercent should be 0 to 100: "+samplePercent);
+		}
+		this.samplePercent = samplePercent;
+	}
+
+	public int getMaxDataLength() {
+		return maxDataLength;
+	}
+
+	/**
+	 * Sets the most bytes of data kept from one read or write, the rest is
+	 * only counted. Default is 4096.
+	 */
+	public void setMaxDataLength(int maxDataLength) {
+		this.maxDataLength = maxDataLength;
+	}
+
+	/**
+	 * Returns the number of records written.
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Returns the number of bytes of records written.
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Decides if a new connection is captured; if so records its CONNECT.
+	 * @param connectionId id of the connection, unique and not 0
+	 * @param address the address of the client
+	 * @return true if the connection is captured
+	 */
+	public boolean openConnection(long connectionId, String address) {
+		int percent = samplePercent;
+		//37 is prime to 100, so every run of 100 ids takes percent of them, spread out
+		if(closed || percent==0 || (percent<100 && (connectionId*37)%100 >= percent)) {
+			return false;
+		}
+		capture(connectionId, CONNECT, ' ', address);
+		return true;
+	}
+
+	/**
+	 * Records the DISCONNECT of a captured connection.
+	 */
+	public void closeConnection(long connectionId, boolean lost) {
+		if(connectionId==0) return;
+		write(connectionId, DISCONNECT, ' ', lost?FLAG_LOST:0, null, 0, 0);
+	}
+
+	/**
+	 * Records data of a captured connection.
+	 * @param type IN or OUT
+	 * @param mode the data mode: S, Y, O or B
+	 */
+	public void capture(long connectionId, char type, char mode, byte data[], int off, int len) {
+		if(connectionId==0) return;
+		write(connectionId, type, mode, 0, data, off, len);
+	}
+
+	/**
+	 * Records text of a captured connection, as UTF-8.
+	 */
+	public void capture(long connectionId, char type, char mode, String data) {
+		if(connectionId==0 || data==null) return;
+		byte bytes[];
+		try {
+			bytes = data.getBytes("UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			bytes = data.getBytes();
+		}
+		write(connectionId, type, mode, 0, bytes, 0, bytes.length);
+	}
+
+	private void write(long connectionId, char type, char mode, int flags,
+			byte data[], int off, int len) {
+		int keep = Math.min(len, Math.max(0, maxDataLength));
+		int room = blockSize - BLOCK_HEADER_LENGTH - RECORD_HEADER_LENGTH;
+		if(keep > room) keep = room;
+		if(keep < len) flags |= FLAG_TRUNCATED;
+		int size = RECORD_HEADER_LENGTH + keep;
+
+		long time = startMillis*1000 + (System.nanoTime() - startNanos)/1000;
+
+		synchronized(this) {
+			if(closed) return;
+			if(blockPosition + size > blockSize) nextBlock();
+
+			buffer.position(blockStart + blockPosition);
+			buffer.putInt(size);
+			buffer.putLong(time);
+			buffer.putLong(connectionId);
+			buffer.put((byte) type);
+			buffer.put((byte) mode);
+			buffer.putShort((short) flags);
+			buffer.putInt(len);
+			if(keep>0) buffer.put(data, off, keep);
+			blockPosition += size;
+
+			recordCount++;
+			byteCount += size;
+		}
+	}
+
+	/** Moves to the next block, clearing it; called under lock. */
+	private void nextBlock() {
+		blockIndex = (blockIndex + 1) % blockCount;
+		blockStart = FILE_HEADER_LENGTH + blockIndex*blockSize;
+		buffer.position(blockStart);
+		buffer.put(zeros);
+		buffer.putLong(blockStart, ++blockSequence);
+		blockPosition = BLOCK_HEADER_LENGTH;
+	}
+
+	/**
+	 * Asks the operating system to write the captured pages to disk.
+	 */
+	public synchronized void flush() {
+		if(closed) return;
+		buffer.force();
+	}
+
+	/**
+	 * Writes the captured pages to disk and closes the file.
+	 */
+	public synchronized void close() throws IOException {
+		if(closed) return;
+		closed = true;
+		buffer.force();
+		buffer = null;
+		file.close();
+		logger.log(Level.INFO, "Closed traffic capture {0}; {1} records",
+			new Object[]{fileName, recordCount});
+	}
+
+	public String toString() {
+		return "TrafficCapture{file="+fileName+", blocks="+blockCount+"x"+blockSize+
+			", samplePercent="+samplePercent+", records="+recordCount+"}";
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.util.logging;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Reads a file written by {@link TrafficCapture}, oldest record first.
+ * <p>
+ * From the command line it prints the records as text:<br/>
+ * <code>java org.quickserver.util.logging.TrafficCaptureReader
+ * &lt;file&gt; [-hex] [-id connectionId]</code>
+ * </p>
+ * @since 2.1.0
+ * @author Akshathkumar Shetty
+ */
+public class TrafficCaptureReader {
+	private final String fileName;
+
+	/**
+	 * One record of a capture.
+	 */
+	public static class Record {
+		private long timeMicros;
+		private long connectionId;
+		private char type;
+		private char mode;
+		private int flags;
+		private int length;
+		private byte data[];
+
+		/** Time in microseconds since the epoch. */
+		public long getTimeMicros() {
+			return timeMicros;
+		}
+		public long getConnectionId() {
+			return connectionId;
+		}
+		/** CONNECT, DISCONNECT, IN or OUT. */
+		public char getType() {
+			return type;
+		}
+		/** The data mode: S string, Y byte, O object or B binary. */
+		public char getMode() {
+			return mode;
+		}
+		public int getFlags() {
+			return flags;
+		}
+		public boolean isTruncated() {
+			return (flags & TrafficCapture.FLAG_TRUNCATED)!=0;
+		}
+		/** Length of the data before it was cut. */
+		public int getLength() {
+			return length;
+		}
+		/** The data kept. */
+		public byte[] getData() {
+			return data;
+		}
+	}
+
+	public TrafficCaptureReader(String fileName) {
+		this.fileName = fileName;
+	}
+
+	/**
+	 * Returns all records in the file, oldest first.
+	 * @exception IOException if the file can not be read or is not a capture
+	 */
+	public List<Record> read() throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(buffer.capacity() < TrafficCapture.FILE_HEADER_LENGTH ||
+					buffer.getInt(0)!=TrafficCapture.MAGIC) {
+				throw new IOException("Not a traffic capture: "+fileName);
+			}
+			if(buffer.getInt(4)!=TrafficCapture.VERSION) {
+				throw new IOException("Unknown capture version: "+buffer.getInt(4));
+			}
+			int blockSize = buffer.getInt(8);
+			int blockCount = buffer.getInt(12);
+			if(TrafficCapture.FILE_HEADER_LENGTH + (long) blockSize*blockCount > buffer.capacity()) {
+				throw new IOException("Capture is cut short: "+fileName);
+			}
+
+			//order the used blocks by sequence
+			long order[] = new long[blockCount];
+			int used = 0;
+			for(int i=0;i<blockCount;i++) {
+				long sequence = buffer.getLong(TrafficCapture.FILE_HEADER_LENGTH + i*blockSize);
+				if(sequence>0) {
+					order[used++] = sequence;
+				}
+			}
+			long sorted[] = new long[used];
+			System.arraycopy(order, 0, sorted, 0, used);
+			Arrays.sort(sorted);
+
+			List<Record> records = new ArrayList<Record>();
+			for(int s=0;s<used;s++) {
+				//block of a sequence is at (sequence-1) % blockCount
+				int index = (int) ((sorted[s]-1) % blockCount);
+				readBlock(buffer, TrafficCapture.FILE_HEADER_LENGTH + index*blockSize,
+					blockSize, records);
+			}
+			return records;
+		} finally {
+			file.close();
+		}
+	}
+
+	private static void readBlock(ByteBuffer buffer, int start, int blockSize, List<Record> records) {
+		int position = TrafficCapture.BLOCK_HEADER_LENGTH;
+		while(position + TrafficCapture.RECORD_HEADER_LENGTH <= blockSize) {
+			int p = start + position;
+			int size = buffer.getInt(p);
+			if(size < TrafficCapture.RECORD_HEADER_LENGTH || position + size > blockSize) {
+				break;//end of block, or a record the writer had not finished
+			}
+			Record record = new Record();
+			record.timeMicros = buffer.getLong(p+4);
+			record.connectionId = buffer.getLong(p+12);
+			record.type = (char) buffer.get(p+20);
+			record.mode = (char) buffer.get(p+21);
+			record.flags = buffer.getShort(p+22);
+			record.length = buffer.getInt(p+24);
+			record.data = new byte[size - TrafficCapture.RECORD_HEADER_LENGTH];
+			for(int i=0;i<record.data.length;i++) {
+				record.data[i] = buffer.get(p + TrafficCapture.RECORD_HEADER_LENGTH + i);
+			}
+			records.add(record);
+			position += size;
+		}
+	}
+
+	/**
+	 * Prints a record as one line; data as hex if asked, else as text
+	 * with bytes that are not printable escaped.
+	 */
+	public static void print(Record record, boolean hex, PrintStream out) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		StringBuilder sb = new StringBuilder();
+		sb.append(format.format(new Date(record.getTimeMicros()/1000)));
+		long micros = record.getTimeMicros()%1000;
+		if(micros<100) sb.append('0');
+		if(micros<10) sb.append('0');
+		sb.append(micros);
+		sb.append(" #").append(record.getConnectionId());
+		sb.append(' ').append(record.getType());
+		sb.append(' ').append(record.getMode());
+		sb.append(' ').append(record.getLength());
+		if(record.getType()==TrafficCapture.DISCONNECT &&
+				(record.getFlags() & TrafficCapture.FLAG_LOST)!=0) {
+			sb.append(" lost");
+		}
+		byte data[] = record.getData();
+		if(data.length>0) {
+			sb.append(" : ");
+			for(int i=0;i<data.length;i++) {
+				int b = data[i] & 0xFF;
+				if(hex) {
+					if(i>0) sb.append(' ');
+					if(b<16) sb.append('0');
+					sb.append(Integer.toHexString(b));
+				} else if(b=='\\') {
+					sb.append("\\\\");
+				} else if(b>=32 && b<127) {
+					sb.append((char) b);
+				} else if(b=='\r') {
+					sb.append("\\r");
+				} else if(b=='\n') {
+					sb.append("\\n");
+				} else {
+					sb.append("\\x");
+					if(b<16) sb.append('0');
+					sb.append(Integer.toHexString(b));
+				}
+			}
+			if(record.isTruncated()) sb.append(" ...");
+		}
+		out.println(sb.toString());
+	}
+
+	public static void main(String args[]) throws IOException {
+		if(args.length==0) {
+			System.err.println("Usage: java "+TrafficCaptureReader.class.getName()+
+				" <file> [-hex] [-id connectionId]");
+			System.exit(1);
+		}
+		boolean hex = false;
+		long id = 0;
+		for(int i=1;i<args.length;i++) {
+			if(args[i].equals("-hex")) {
+				hex = true;
+			} else if(args[i].equals("-id") && i+1<args.length) {
+				id = Long.parseLong(args[++i]);
+			}
+		}
+		List<Record> records = new TrafficCaptureReader(args[0]).read();
+		for(int i=0;i<records.size();i++) {
+			Record record = records.get(i);
+			if(id!=0 && record.getConnectionId()!=id) continue;
+			print(record, hex, System.out);
+		}
+	}
+}
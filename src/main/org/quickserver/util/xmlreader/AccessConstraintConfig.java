@@ -82,4 +82,15 @@ public class AccessConstraintConfig implements Serializable {
 			throw new SecurityException("Accept denied from "+remoteIp);
 		}
 	}
+
+	/**
+	 * Returns true if the access constraint allows the address.
+	 * @since 2.1.0
+	 */
+	public boolean isAllowed(InetAddress address) {
+		if(address==null || ipFilterConfig==null || ipFilterConfig.getEnable()==false)
+			return true;
+		boolean accessFlag = ipFilterConfig.getAllowAccess()==true;
+		return ipFilterConfig.getIpCollection().contains(address.getHostAddress())==accessFlag;
+	}
 }
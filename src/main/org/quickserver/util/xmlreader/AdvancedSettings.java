@@ -38,6 +38,13 @@ import java.nio.charset.Charset;
  
         &lt;client-socket-receive-buffer-size&gt;0&lt;client-socket-receive-buffer-size&gt;
         &lt;client-socket-send-buffer-size&gt;0&lt;client-socket-send-buffer-size&gt;
+
+        &lt;idle-read-timeout&gt;0&lt;idle-read-timeout&gt;
+        &lt;idle-write-timeout&gt;0&lt;idle-write-timeout&gt;
+        &lt;auth-timeout&gt;0&lt;auth-timeout&gt;
+        &lt;timer-wheel-tick-duration&gt;100&lt;timer-wheel-tick-duration&gt;
+        &lt;timer-wheel-size&gt;512&lt;timer-wheel-size&gt;
+        &lt;object-codec&gt;org.quickserver.util.io.JavaObjectCodec&lt;object-codec&gt;
  	&lt;/advanced-settings&gt;
 	....
  </pre>
@@ -66,6 +73,13 @@ public class AdvancedSettings implements java.io.Serializable {
 	private int clientSocketReceiveBufferSize;
 	private int clientSocketSendBufferSize;
 
+	private int idleReadTimeout;
+	private int idleWriteTimeout;
+	private int authTimeout;
+	private int timerWheelTickDuration = 100;
+	private int timerWheelSize = 512;
+	private String objectCodecClass;
+
 	/**
      * Sets the Charset to be used for String decoding and encoding.
 	 * XML Tag: &lt;charset&gt;ISO-8859-1&lt;/charset&gt;
@@ -297,6 +311,26 @@ public class AdvancedSettings implements java.io.Serializable {
 					"</client-socket-send-buffer-size>\n");
 		}
 
+		if(getIdleReadTimeout()!=0) {
+			sb.append(pad).append("\t<idle-read-timeout>").append(
+				getIdleReadTimeout()).append("</idle-read-timeout>\n");
+		}
+		if(getIdleWriteTimeout()!=0) {
+			sb.append(pad).append("\t<idle-write-timeout>").append(
+				getIdleWriteTimeout()).append("</idle-write-timeout>\n");
+		}
+		if(getAuthTimeout()!=0) {
+			sb.append(pad).append("\t<auth-timeout>").append(
+				getAuthTimeout()).append("</auth-timeout>\n");
+		}
+		sb.append(pad).append("\t<timer-wheel-tick-duration>").append(
+			getTimerWheelTickDuration()).append("</timer-wheel-tick-duration>\n");
+		sb.append(pad).append("\t<timer-wheel-size>").append(
+			getTimerWheelSize()).append("</timer-wheel-size>\n");
+		if(getObjectCodec()!=null) {
+			sb.append(pad).append("\t<object-codec>").append(
+				getObjectCodec()).append("</object-codec>\n");
+		}
 		
 		sb.append(pad).append("</advanced-settings>\n");
 		return sb.toString();
@@ -358,5 +392,126 @@ public class AdvancedSettings implements java.io.Serializable {
 		this.clientSocketSendBufferSize = clientSocketSendBufferSize;
 	}
 
-    
+	/**
+	 * Sets the time in milliseconds after which a client that has not sent
+	 * any data is timed out. This is checked in addition to the client
+	 * socket timeout, which applies to any communication. If set to 0 or
+	 * less it is not checked.
+	 * XML Tag: &lt;idle-read-timeout&gt;0&lt;/idle-read-timeout&gt;
+	 * @see #getIdleReadTimeout
+	 * @since 2.1.0
+	 */
+	public void setIdleReadTimeout(int idleReadTimeout) {
+		this.idleReadTimeout = idleReadTimeout;
+	}
+	/**
+	 * Returns the idle read timeout in milliseconds.
+	 * @see #setIdleReadTimeout
+	 * @since 2.1.0
+	 */
+	public int getIdleReadTimeout() {
+		return idleReadTimeout;
+	}
+
+	/**
+	 * Sets the time in milliseconds after which a client to which no data
+	 * was written is timed out. If set to 0 or less it is not checked.
+	 * XML Tag: &lt;idle-write-timeout&gt;0&lt;/idle-write-timeout&gt;
+	 * @see #getIdleWriteTimeout
+	 * @since 2.1.0
+	 */
+	public void setIdleWriteTimeout(int idleWriteTimeout) {
+		this.idleWriteTimeout = idleWriteTimeout;
+	}
+	/**
+	 * Returns the idle write timeout in milliseconds.
+	 * @see #setIdleWriteTimeout
+	 * @since 2.1.0
+	 */
+	public int getIdleWriteTimeout() {
+		return idleWriteTimeout;
+	}
+
+	/**
+	 * Sets the time in milliseconds a client is given to authenticate
+	 * after it connects. If set to 0 or less it is not checked.
+	 * XML Tag: &lt;auth-timeout&gt;0&lt;/auth-timeout&gt;
+	 * @see #getAuthTimeout
+	 * @since 2.1.0
+	 */
+	public void setAuthTimeout(int authTimeout) {
+		this.authTimeout = authTimeout;
+	}
+	/**
+	 * Returns the authentication timeout in milliseconds.
+	 * @see #setAuthTimeout
+	 * @since 2.1.0
+	 */
+	public int getAuthTimeout() {
+		return authTimeout;
+	}
+
+	/**
+	 * Sets the tick duration in milliseconds of the timer wheel used 
+	 * for client timeouts. This is the accuracy of the timeouts.
+	 * XML Tag: &lt;timer-wheel-tick-duration&gt;100&lt;/timer-wheel-tick-duration&gt;
+	 * @see #getTimerWheelTickDuration
+	 * @since 2.1.0
+	 */
+	public void setTimerWheelTickDuration(int timerWheelTickDuration) {
+		if(timerWheelTickDuration>0)
+			this.timerWheelTickDuration = timerWheelTickDuration;
+	}
+	/**
+	 * Returns the tick duration in milliseconds of the timer wheel.
+	 * @see #setTimerWheelTickDuration
+	 * @since 2.1.0
+	 */
+	public int getTimerWheelTickDuration() {
+		return timerWheelTickDuration;
+	}
+
+	/**
+	 * Sets the number of buckets in the timer wheel used for client 
+	 * timeouts. Rounded up to power of two.
+	 * XML Tag: &lt;timer-wheel-size&gt;512&lt;/timer-wheel-size&gt;
+	 * @see #getTimerWheelSize
+	 * @since 2.1.0
+	 */
+	public void setTimerWheelSize(int timerWheelSize) {
+		if(timerWheelSize>0)
+			this.timerWheelSize = timerWheelSize;
+	}
+	/**
+	 * Returns the number of buckets in the timer wheel.
+	 * @see #setTimerWheelSize
+	 * @since 2.1.0
+	 */
+	public int getTimerWheelSize() {
+		return timerWheelSize;
+	}
+
+	/**
+	 * Sets the ObjectCodec class that implements 
+	 * {@link org.quickserver.util.io.ObjectCodec}, used to send and read 
+	 * objects in DataMode.OBJECT. If not set, java serialization is used.
+	 * XML Tag: &lt;object-codec&gt;org.quickserver.util.io.JavaObjectCodec&lt;/object-codec&gt;
+	 * @param objectCodecClass the fully qualified name of the class that 
+	 * implements {@link org.quickserver.util.io.ObjectCodec}.
+	 * @see #getObjectCodec
+	 * @since 2.1.0
+	 */
+	public void setObjectCodec(String objectCodecClass) {
+		if(objectCodecClass==null || objectCodecClass.trim().length()==0)
+			return;
+		this.objectCodecClass = objectCodecClass.trim();
+	}
+	/**
+	 * Returns the ObjectCodec class, <code>null</code> if not set.
+	 * @see #setObjectCodec
+	 * @since 2.1.0
+	 */
+	public String getObjectCodec() {
+		return objectCodecClass;
+	}
 }
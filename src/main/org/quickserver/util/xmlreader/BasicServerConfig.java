@@ -33,6 +33,7 @@ public class BasicServerConfig implements java.io.Serializable {
 	private String clientBinaryHandler;
 	private String clientData;
 	private String clientWriteHandler; //v1.4.5
+	private String clientDatagramHandler; //v2.1.0
 	
 	private String serverBanner;
 	private String name = null;
@@ -66,6 +67,9 @@ public class BasicServerConfig implements java.io.Serializable {
 	//v1.4.6
 	private DefaultDataMode defaultDataMode = new DefaultDataMode();
 
+	//v2.1.0
+	private CredentialCacheConfig credentialCacheConfig = new CredentialCacheConfig();
+
 	/**
      * Returns the name of the QuickServer
      * @see #setName
@@ -612,6 +616,38 @@ public class BasicServerConfig implements java.io.Serializable {
 		return clientBinaryHandler;
 	}	
 
+	/**
+     * Sets the ClientDatagramHandler class that handles datagrams 
+	 * received in UDP mode.
+	 * XML Tag: &lt;client-datagram-handler&gt;&lt;/client-datagram-handler&gt;
+	 * @param handler the fully qualified name of the class that 
+	 *  implements {@link org.quickserver.net.server.ClientDatagramHandler}
+	 * @see #getClientDatagramHandler
+	 * @since 2.1.0
+     */
+	public void setClientDatagramHandler(String handler) {
+		if(handler!=null && handler.equals("")==false) 
+			clientDatagramHandler = handler;
+	}
+	/**
+     * Sets the ClientDatagramHandler class that handles datagrams 
+	 * received in UDP mode.
+	 * @since 2.1.0
+     */
+	public void setClientDatagramHandler(ClientDatagramHandler handler) {
+		if(handler!=null) 
+			clientDatagramHandler = handler.getClass().getName();
+	}
+	/**
+     * Returns the ClientDatagramHandler class that handles datagrams 
+	 * received in UDP mode.
+	 * @see #setClientDatagramHandler
+	 * @since 2.1.0
+     */
+	public String getClientDatagramHandler() {
+		return clientDatagramHandler;
+	}
+
 	/**
      * Sets the ServerMode for the QuickServer.
 	 * @param serverMode ServerMode object.
@@ -631,6 +667,24 @@ public class BasicServerConfig implements java.io.Serializable {
 		return serverMode;
 	}
 
+	/**
+     * Sets the CredentialCacheConfig for the QuickServer.
+     * @see #getCredentialCacheConfig
+	 * @since 2.1.0
+     */
+	public void setCredentialCacheConfig(CredentialCacheConfig credentialCacheConfig) {
+		if(credentialCacheConfig==null) credentialCacheConfig = new CredentialCacheConfig();
+		this.credentialCacheConfig = credentialCacheConfig;
+	}
+	/**
+     * Returns the CredentialCacheConfig for the QuickServer.
+     * @see #setCredentialCacheConfig
+	 * @since 2.1.0
+     */
+	public CredentialCacheConfig getCredentialCacheConfig() {
+		return credentialCacheConfig;
+	}
+
 	/**
      * Sets the ClientWriteHandler class that interacts with 
 	 * client sockets.
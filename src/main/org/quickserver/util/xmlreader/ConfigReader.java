@@ -81,12 +81,15 @@ public class ConfigReader {
 		String curTag = mainTag+"/server-mode";
 		digester.addObjectCreate(curTag, ServerMode.class);
 		digester.addBeanPropertySetter(curTag+"/blocking", "blocking");
+		digester.addBeanPropertySetter(curTag+"/udp", "udp");//v2.1.0
+		digester.addBeanPropertySetter(curTag+"/datagram-batch-size", "datagramBatchSize");//v2.1.0
 		digester.addSetNext(curTag,"setServerMode");
 		//</server-mode>
 		digester.addBeanPropertySetter(mainTag+"/client-event-handler", "clientEventHandler");//v1.4.6
 		digester.addBeanPropertySetter(mainTag+"/client-command-handler", "clientCommandHandler");
 		digester.addBeanPropertySetter(mainTag+"/client-object-handler", "clientObjectHandler");
 		digester.addBeanPropertySetter(mainTag+"/client-binary-handler", "clientBinaryHandler");//v1.4
+		digester.addBeanPropertySetter(mainTag+"/client-datagram-handler", "clientDatagramHandler");//v2.1.0
 		digester.addBeanPropertySetter(mainTag+"/client-write-handler", "clientWriteHandler");//v1.4.5
 		digester.addBeanPropertySetter(mainTag+"/authenticator", "authenticator"); //v1.3
 		digester.addBeanPropertySetter(mainTag+"/client-authentication-handler", "clientAuthenticationHandler"); //v1.4.6
@@ -96,6 +99,16 @@ public class ConfigReader {
 		digester.addBeanPropertySetter(mainTag+"/timeout-msg", "timeoutMsg");
 		digester.addBeanPropertySetter(mainTag+"/max-auth-try", "maxAuthTry");
 		digester.addBeanPropertySetter(mainTag+"/max-auth-try-msg", "maxAuthTryMsg");		
+		//<credential-cache>
+		curTag = mainTag+"/credential-cache";
+		digester.addObjectCreate(curTag, CredentialCacheConfig.class);
+		digester.addBeanPropertySetter(curTag+"/enable", "enable");
+		digester.addBeanPropertySetter(curTag+"/max-size", "maxSize");
+		digester.addBeanPropertySetter(curTag+"/ttl", "ttl");
+		digester.addBeanPropertySetter(curTag+"/negative-ttl", "negativeTtl");
+		digester.addBeanPropertySetter(curTag+"/digest-algorithm", "digestAlgorithm");
+		digester.addSetNext(curTag,"setCredentialCacheConfig");
+		//</credential-cache>
 		digester.addBeanPropertySetter(mainTag+"/max-connection", "maxConnection");
 		digester.addBeanPropertySetter(mainTag+"/max-connection-msg", "maxConnectionMsg");
 		digester.addBeanPropertySetter(mainTag+"/console-logging-level", "consoleLoggingLevel");
@@ -180,6 +193,9 @@ public class ConfigReader {
 		digester.addBeanPropertySetter(curTag+"/port", "port");
 		digester.addBeanPropertySetter(curTag+"/protocol", "protocol");
 		digester.addBeanPropertySetter(curTag+"/client-auth-enable", "clientAuthEnable");
+		digester.addBeanPropertySetter(curTag+"/session-cache-size", "sessionCacheSize");
+		digester.addBeanPropertySetter(curTag+"/session-timeout", "sessionTimeout");
+		digester.addBeanPropertySetter(curTag+"/session-ticket-enable", "sessionTicketEnable");
 		//<secure-store>
 		digester.addObjectCreate(curTag+"/secure-store", SecureStore.class);
 		digester.addBeanPropertySetter(curTag+"/secure-store/type", "type");
@@ -229,6 +245,13 @@ public class ConfigReader {
 		digester.addBeanPropertySetter(curTag+"/client-socket-receive-buffer-size", "clientSocketReceiveBufferSize");
 		digester.addBeanPropertySetter(curTag+"/client-socket-send-buffer-size", "clientSocketSendBufferSize");
 		
+		digester.addBeanPropertySetter(curTag+"/idle-read-timeout", "idleReadTimeout");
+		digester.addBeanPropertySetter(curTag+"/idle-write-timeout", "idleWriteTimeout");
+		digester.addBeanPropertySetter(curTag+"/auth-timeout", "authTimeout");
+		digester.addBeanPropertySetter(curTag+"/timer-wheel-tick-duration", "timerWheelTickDuration");
+		digester.addBeanPropertySetter(curTag+"/timer-wheel-size", "timerWheelSize");
+		digester.addBeanPropertySetter(curTag+"/object-codec", "objectCodec");
+		
 		digester.addSetNext(curTag,"setAdvancedSettings");
 		//</advanced-settings>
 
@@ -337,6 +360,9 @@ public class ConfigReader {
 		digester.addBeanPropertySetter(curTag+"/secure/port", "port");
 		digester.addBeanPropertySetter(curTag+"/secure/protocol", "protocol");
 		digester.addBeanPropertySetter(curTag+"/secure/client-auth-enable", "clientAuthEnable");
+		digester.addBeanPropertySetter(curTag+"/secure/session-cache-size", "sessionCacheSize");
+		digester.addBeanPropertySetter(curTag+"/secure/session-timeout", "sessionTimeout");
+		digester.addBeanPropertySetter(curTag+"/secure/session-ticket-enable", "sessionTicketEnable");
 		//<secure-store>
 		digester.addObjectCreate(curTag+"/secure/secure-store", SecureStore.class);
 		digester.addBeanPropertySetter(curTag+"/secure/secure-store/type", "type");
@@ -374,6 +400,12 @@ public class ConfigReader {
 		digester.addBeanPropertySetter(curTag+"/advanced-settings/client-identifier", "clientIdentifier");
 		digester.addBeanPropertySetter(curTag+"/advanced-settings/qsobject-pool-maker", "qsObjectPoolMaker");
 		digester.addBeanPropertySetter(curTag+"/advanced-settings/max-threads-for-nio-write", "maxThreadsForNioWrite");
+		digester.addBeanPropertySetter(curTag+"/advanced-settings/idle-read-timeout", "idleReadTimeout");
+		digester.addBeanPropertySetter(curTag+"/advanced-settings/idle-write-timeout", "idleWriteTimeout");
+		digester.addBeanPropertySetter(curTag+"/advanced-settings/auth-timeout", "authTimeout");
+		digester.addBeanPropertySetter(curTag+"/advanced-settings/timer-wheel-tick-duration", "timerWheelTickDuration");
+		digester.addBeanPropertySetter(curTag+"/advanced-settings/timer-wheel-size", "timerWheelSize");
+		digester.addBeanPropertySetter(curTag+"/advanced-settings/object-codec", "objectCodec");
 		digester.addSetNext(curTag+"/advanced-settings","setAdvancedSettings");
 		//</advanced-settings>
 		digester.addSetNext(curTag, "setQSAdminServerConfig");
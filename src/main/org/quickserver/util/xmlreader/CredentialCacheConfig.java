@@ -0,0 +1,122 @@
+/*
+ * This file is part of the QuickServer library 
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License. 
+ * You should have received a copy of the GNU LGP License along with this 
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.util.xmlreader;
+
+/**
+ * This class encapsulate the configuration of the credential verification 
+ * cache used by authenticators.
+ * The example xml is <pre>
+	....
+	&lt;credential-cache&gt;
+		&lt;enable&gt;true&lt;/enable&gt;
+		&lt;max-size&gt;10000&lt;/max-size&gt;
+		&lt;ttl&gt;300&lt;/ttl&gt;
+		&lt;negative-ttl&gt;30&lt;/negative-ttl&gt;
+		&lt;digest-algorithm&gt;SHA-256&lt;/digest-algorithm&gt;
+	&lt;/credential-cache&gt;
+	....
+ </pre>
+ * @see org.quickserver.security.CredentialCache
+ * @author Akshathkumar Shetty
+ * @since 2.1.0
+ */
+public class CredentialCacheConfig implements java.io.Serializable {
+	private boolean enable = false;
+	private int maxSize = 10000;
+	private int ttl = 300;
+	private int negativeTtl = 30;
+	private String digestAlgorithm = "SHA-256";
+
+	/**
+	 * Sets the enable flag. Default is <code>false</code>.
+	 * XML Tag: &lt;enable&gt;true&lt;/enable&gt;
+	 */
+	public void setEnable(boolean enable) {
+		this.enable = enable;
+	}
+	public boolean getEnable() {
+		return enable;
+	}
+
+	/**
+	 * Sets the maximum number of entries, least recently used entries
+	 * are removed beyond this. Default is 10000.
+	 * XML Tag: &lt;max-size&gt;10000&lt;/max-size&gt;
+	 */
+	public void setMaxSize(int maxSize) {
+		if(maxSize>0)
+			this.maxSize = maxSize;
+	}
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Sets the time in seconds a successful verification is kept.
+	 * Default is 300.
+	 * XML Tag: &lt;ttl&gt;300&lt;/ttl&gt;
+	 */
+	public void setTtl(int ttl) {
+		if(ttl>=0)
+			this.ttl = ttl;
+	}
+	public int getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * Sets the time in seconds a failed verification is kept, 
+	 * <code>0</code> disables negative caching. Default is 30.
+	 * XML Tag: &lt;negative-ttl&gt;30&lt;/negative-ttl&gt;
+	 */
+	public void setNegativeTtl(int negativeTtl) {
+		if(negativeTtl>=0)
+			this.negativeTtl = negativeTtl;
+	}
+	public int getNegativeTtl() {
+		return negativeTtl;
+	}
+
+	/**
+	 * Sets the <code>MessageDigest</code> algorithm used to make the 
+	 * cache key from the credentials, so they are not kept in memory.
+	 * Default is SHA-256.
+	 * XML Tag: &lt;digest-algorithm&gt;SHA-256&lt;/digest-algorithm&gt;
+	 */
+	public void setDigestAlgorithm(String digestAlgorithm) {
+		if(digestAlgorithm!=null && digestAlgorithm.trim().length()!=0)
+			this.digestAlgorithm = digestAlgorithm.trim();
+	}
+	public String getDigestAlgorithm() {
+		return digestAlgorithm;
+	}
+
+	/**
+	 * Returns XML config of this class.
+	 */
+	public String toXML(String pad) {
+		if(pad==null) pad="";
+		StringBuilder sb = new StringBuilder();
+		sb.append(pad).append("<credential-cache>\n");
+		sb.append(pad).append("\t<enable>").append(getEnable()).append("</enable>\n");
+		sb.append(pad).append("\t<max-size>").append(getMaxSize()).append("</max-size>\n");
+		sb.append(pad).append("\t<ttl>").append(getTtl()).append("</ttl>\n");
+		sb.append(pad).append("\t<negative-ttl>").append(getNegativeTtl()).append("</negative-ttl>\n");
+		sb.append(pad).append("\t<digest-algorithm>").append(
+			getDigestAlgorithm()).append("</digest-algorithm>\n");
+		sb.append(pad).append("</credential-cache>\n");
+		return sb.toString();
+	}
+}
@@ -196,6 +196,8 @@ public class QuickServerConfig extends BasicServerConfig {
 			sb.append(pad+"\t<client-object-handler>"+getClientObjectHandler()+"</client-object-handler>\n");
 		if(getClientBinaryHandler()!=null) 
 			sb.append(pad+"\t<client-binary-handler>"+getClientBinaryHandler()+"</client-binary-handler>\n");
+		if(getClientDatagramHandler()!=null) 
+			sb.append(pad+"\t<client-datagram-handler>"+getClientDatagramHandler()+"</client-datagram-handler>\n");
 		if(getClientWriteHandler()!=null) 
 			sb.append(pad+"\t<client-write-handler>"+getClientWriteHandler()+"</client-write-handler>\n");
 		if(getClientAuthenticationHandler()!=null)
@@ -216,6 +218,8 @@ public class QuickServerConfig extends BasicServerConfig {
 		sb.append(pad+"\t<max-auth-try>"+getMaxAuthTry()+"</max-auth-try>\n");
 		if(getMaxAuthTryMsg()!=null) 
 			sb.append(pad+"\t<max-auth-try-msg>"+getMaxAuthTryMsg()+"</max-auth-try-msg>\n");
+		if(getCredentialCacheConfig().getEnable())
+			sb.append( getCredentialCacheConfig().toXML(pad+"\t") );
 		
 		sb.append(pad+"\t<max-connection>"+getMaxConnection()+"</max-connection>\n");
 		if(getMaxConnectionMsg()!=null) 
@@ -27,6 +27,9 @@ import java.util.*;
 		&lt;port&gt;&lt;/port&gt;
 		&lt;protocol&gt;TLS&lt;/protocol&gt;
 		&lt;client-auth-enable&gt;false&lt;/client-auth-enable&gt; 
+		&lt;session-cache-size&gt;20480&lt;/session-cache-size&gt;
+		&lt;session-timeout&gt;86400&lt;/session-timeout&gt;
+		&lt;session-ticket-enable&gt;true&lt;/session-ticket-enable&gt;
 		&lt;secure-store&gt;
 			....
 		&lt;/secure-store&gt;
@@ -45,6 +48,9 @@ public class Secure implements java.io.Serializable {
 	private int port = -1; //will use servers port
 	private String protocol = "TLS";
 	private boolean clientAuthEnable = false;
+	private int sessionCacheSize = -1; //jdk default
+	private int sessionTimeout = -1; //jdk default
+	private boolean sessionTicketEnable = true;
 	private SecureStore secureStore = new SecureStore();
 
 	/**
@@ -166,6 +172,76 @@ public class Secure implements java.io.Serializable {
 		return clientAuthEnable;
 	}
 
+	/**
+     * Sets the maximum number of SSL sessions kept in the server session 
+	 * cache for resumption, 0 means no limit.
+	 * If not set or set to a value less than 0, the JDK default is used.<br/>
+	 * XML Tag: &lt;session-cache-size&gt;20480&lt;/session-cache-size&gt;
+	 * @since 2.1.0
+     * @see #getSessionCacheSize
+     */
+	public void setSessionCacheSize(int sessionCacheSize) {
+		this.sessionCacheSize = sessionCacheSize;
+	}
+	/**
+     * Returns the maximum number of SSL sessions kept in the server session cache.
+	 * @since 2.1.0
+     * @see #setSessionCacheSize
+     */
+	public int getSessionCacheSize() {
+		return sessionCacheSize;
+	}
+
+	/**
+     * Sets the time in seconds for which a cached SSL session can be 
+	 * resumed, 0 means no limit.
+	 * If not set or set to a value less than 0, the JDK default is used.<br/>
+	 * XML Tag: &lt;session-timeout&gt;86400&lt;/session-timeout&gt;
+	 * @since 2.1.0
+     * @see #getSessionTimeout
+     */
+	public void setSessionTimeout(int sessionTimeout) {
+		this.sessionTimeout = sessionTimeout;
+	}
+	/**
+     * Returns the time in seconds for which a cached SSL session can be resumed.
+	 * @since 2.1.0
+     * @see #setSessionTimeout
+     */
+	public int getSessionTimeout() {
+		return sessionTimeout;
+	}
+
+	/**
+     * Sets whether stateless session tickets (RFC 5077) are issued by 
+	 * the server so that clients can resume without a server side cache entry. 
+	 * This is only supported on JDK 13 and above, where it maps to the 
+	 * system property <code>jdk.tls.server.enableSessionTicketExtension</code>;
+	 * the property is read once by the JDK so it is only set if it was not 
+	 * set already and before the first SSLContext is loaded.
+	 * <p>
+	 * <b>Note:</b> the system property is JVM-wide, so setting this to
+	 * <code>false</code> turns session tickets off for every SSLContext in 
+	 * the process, including other servers and clients. The default, 
+	 * <code>true</code>, is the JDK default and does not set the property.
+	 * </p>
+	 * If not set, it will use <code>true</code><br/>
+	 * XML Tag: &lt;session-ticket-enable&gt;true&lt;/session-ticket-enable&gt;
+	 * @since 2.1.0
+     * @see #getSessionTicketEnable
+     */
+	public void setSessionTicketEnable(boolean enable) {
+		this.sessionTicketEnable = enable;
+	}
+	/**
+     * Returns whether stateless session tickets are issued by the server.
+	 * @since 2.1.0
+     * @see #setSessionTicketEnable
+     */
+	public boolean getSessionTicketEnable() {
+		return sessionTicketEnable;
+	}
+
 	/**
      * Sets SecureStore information
 	 * XML Tag: &lt;secure-store&gt;&lt;/secure-store&gt;
@@ -198,6 +274,12 @@ public class Secure implements java.io.Serializable {
 		sb.append(pad+"\t<protocol>"+getProtocol()+"</protocol>\n");
 		sb.append(pad+"\t<client-auth-enable>"+
 			getClientAuthEnable()+"</client-auth-enable>\n");
+		if(getSessionCacheSize()>=0)
+			sb.append(pad+"\t<session-cache-size>"+getSessionCacheSize()+"</session-cache-size>\n");
+		if(getSessionTimeout()>=0)
+			sb.append(pad+"\t<session-timeout>"+getSessionTimeout()+"</session-timeout>\n");
+		sb.append(pad+"\t<session-ticket-enable>"+
+			getSessionTicketEnable()+"</session-ticket-enable>\n");
 		if(getSecureStore()!=null) {
 			sb.append(getSecureStore().toXML(pad+"\t"));
 		}
@@ -22,6 +22,8 @@ package org.quickserver.util.xmlreader;
  */
 public class ServerMode implements java.io.Serializable {
 	private boolean blocking = true;
+	private boolean udp = false;
+	private int datagramBatchSize = 64;
 
 	/**
 	 * Returns the blocking mode enable flag. Default is <code>true</code>.
@@ -41,6 +43,47 @@ public class ServerMode implements java.io.Serializable {
 		this.blocking = blocking;
 	}
 
+	/**
+	 * Returns the UDP mode enable flag. Default is <code>false</code>.
+	 * @since 2.1.0
+	 */
+	public boolean getUdp() {
+		return udp;
+	}
+
+	/**
+	 * Sets the UDP mode enable flag. When enabled QuickServer receives
+	 * datagrams on a non-blocking DatagramChannel and passes them to the
+	 * {@link org.quickserver.net.server.ClientDatagramHandler}, 
+	 * the blocking flag is not used.
+	 * XML Tag: &lt;server-mode&gt;&lt;udp&gt;true&lt;/udp&gt;&lt;/server-mode&gt;
+	 * Allowed values = <code>true</code> | <code>false</code>
+	 * @since 2.1.0
+	 */
+	public void setUdp(boolean udp) {
+		this.udp = udp;
+	}
+
+	/**
+	 * Returns the maximum number of datagrams received per selector 
+	 * wakeup in UDP mode. Default is 64.
+	 * @since 2.1.0
+	 */
+	public int getDatagramBatchSize() {
+		return datagramBatchSize;
+	}
+
+	/**
+	 * Sets the maximum number of datagrams received per selector 
+	 * wakeup in UDP mode.
+	 * XML Tag: &lt;server-mode&gt;&lt;datagram-batch-size&gt;64&lt;/datagram-batch-size&gt;&lt;/server-mode&gt;
+	 * @since 2.1.0
+	 */
+	public void setDatagramBatchSize(int datagramBatchSize) {
+		if(datagramBatchSize>0)
+			this.datagramBatchSize = datagramBatchSize;
+	}
+
 	/**
 	 * Returns XML config of this class.
 	 */
@@ -49,12 +92,18 @@ public class ServerMode implements java.io.Serializable {
 		StringBuilder sb = new StringBuilder();
 		sb.append(pad).append("<server-mode>\n");
 		sb.append(pad).append("\t<blocking>").append(getBlocking()).append("</blocking>\n");
+		if(getUdp()) {
+			sb.append(pad).append("\t<udp>").append(getUdp()).append("</udp>\n");
+			sb.append(pad).append("\t<datagram-batch-size>").append(getDatagramBatchSize()).append("</datagram-batch-size>\n");
+		}
 		sb.append(pad).append("</server-mode>\n");
 		return sb.toString();
 	}
 
 	public String toString() {
-		if(getBlocking())
+		if(getUdp())
+			return "UDP";
+		else if(getBlocking())
 			return "Blocking";
 		else
 			return "Non-Blocking";
@@ -19,6 +19,11 @@ import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
 import test.org.quickserver.net.server.*;
+import test.org.quickserver.net.client.*;
+import test.org.quickserver.util.*;
+import test.org.quickserver.util.logging.*;
+import org.quickserver.net.client.pool.HostPoolTest;
+import org.quickserver.util.LatencyHistogramTest;
 
 /**
  * Simple class to build a TestSuite out of the individual test classes.
@@ -35,6 +40,18 @@ public class AllJUnitTests extends TestCase {
         suite.addTest(new TestSuite(QuickServerTest.class));
         suite.addTest(new TestSuite(SimpleServerBlockTest.class));
 		suite.addTest(new TestSuite(SimpleServerNBlockTest.class));
+		suite.addTest(new TestSuite(NonBlockingObjectTest.class));
+		suite.addTest(new TestSuite(NonBlockingSecureTest.class));
+		suite.addTest(new TestSuite(AsyncAuthenticationTest.class));
+		suite.addTest(new TestSuite(DatagramServerTest.class));
+		suite.addTest(new TestSuite(HashedTimerWheelTest.class));
+		suite.addTest(new TestSuite(LatencyHistogramTest.class));
+		suite.addTest(new TestSuite(AsyncHandlerTest.class));
+		suite.addTest(new TestSuite(TrafficCaptureTest.class));
+		suite.addTest(new TestSuite(BlockingClientTest.class));
+		suite.addTest(new TestSuite(ConsistentHashLoadPatternTest.class));
+		suite.addTest(new TestSuite(CircuitBreakerTest.class));
+		suite.addTest(new TestSuite(HostPoolTest.class));
         return suite;
    }
 }
@@ -0,0 +1,215 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package test.org.quickserver.net.client;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import junit.framework.TestCase;
+import org.quickserver.net.client.BlockingClient;
+import org.quickserver.util.io.ObjectFrame;
+
+/**
+ * JUnit test cases for reading lines, bytes and objects with BlockingClient
+ */
+public class BlockingClientTest extends TestCase {
+	private static final int BUFFER_SIZES[] = {1, 2, 3, 8192};
+
+	private ServerSocket serverSocket;
+	private BlockingClient client;
+
+	public BlockingClientTest(String name) {
+		super(name);
+	}
+
+	public static void main(String args[]) {
+		junit.textui.TestRunner.run(BlockingClientTest.class);
+	}
+
+	public void tearDown() throws Exception {
+		if(client!=null) client.close();
+		if(serverSocket!=null) serverSocket.close();
+	}
+
+	/**
+	 * Connects a client with the read buffer size to a socket that sends
+	 * the data and then closes.
+	 */
+	private BlockingClient connect(final byte data[], int readBufferSize)
+			throws Exception {
+		if(client!=null) client.close();
+		if(serverSocket!=null) serverSocket.close();
+		serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		final ServerSocket ss = serverSocket;
+		Thread writer = new Thread() {
+			public void run() {
+				try {
+					Socket socket = ss.accept();
+					OutputStream out = socket.getOutputStream();
+					out.write(data);
+					out.flush();
+					socket.shutdownOutput();
+					//keep open till the client closes
+					socket.getInputStream().read();
+					socket.close();
+				} catch(IOException e) {
+					//client closed
+				}
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+
+		client = new BlockingClient();
+		client.setReadBufferSize(readBufferSize);
+		client.connect("127.0.0.1", serverSocket.getLocalPort());
+		return client;
+	}
+
+	private static byte[] bytes(String data) throws IOException {
+		return data.getBytes("ISO-8859-1");
+	}
+
+	public void testLineEnds() throws Exception {
+		byte data[] = bytes("a\rb\nc\r\nd\r\r\ne\n\nf");
+		for(int i=0;i<BUFFER_SIZES.length;i++) {
+			BlockingClient c = connect(data, BUFFER_SIZES[i]);
+			String info = "readBufferSize "+BUFFER_SIZES[i];
+			assertEquals(info, "a", c.readLine());
+			assertEquals(info, "b", c.readLine());
+			assertEquals(info, "c", c.readLine());
+			//CR CR LF is a line and an empty line
+			assertEquals(info, "d", c.readLine());
+			assertEquals(info, "", c.readLine());
+			assertEquals(info, "e", c.readLine());
+			assertEquals(info, "", c.readLine());
+			//end of stream in the middle of a line
+			assertEquals(info, "f", c.readLine());
+			assertNull(info, c.readLine());
+		}
+	}
+
+	public void testCRLFLine() throws Exception {
+		byte data[] = bytes("a\rb\r\nc\nd\r\r\n\r\ne");
+		for(int i=0;i<BUFFER_SIZES.length;i++) {
+			BlockingClient c = connect(data, BUFFER_SIZES[i]);
+			String info = "readBufferSize "+BUFFER_SIZES[i];
+			assertEquals(info, "a\rb", c.readCRLFLine());
+			assertEquals(info, "c\nd\r", c.readCRLFLine());
+			assertEquals(info, "", c.readCRLFLine());
+			//a line with no CR LF at end of stream is not returned
+			assertNull(info, c.readCRLFLine());
+		}
+	}
+
+	public void testLineOverManyFills() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for(int i=0;i<5000;i++) {
+			sb.append((char) ('a'+i%26));
+		}
+		String line = sb.toString();
+		byte data[] = bytes(line+"\r\n"+line+"\r"+line);
+		for(int i=0;i<BUFFER_SIZES.length;i++) {
+			BlockingClient c = connect(data, BUFFER_SIZES[i]);
+			String info = "readBufferSize "+BUFFER_SIZES[i];
+			assertEquals(info, line, c.readLine());
+			assertEquals(info, line, c.readLine());
+			assertEquals(info, line, c.readLine());
+			assertNull(info, c.readLine());
+		}
+	}
+
+	public void testSwitchReads() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(bytes("first\r\n"));
+		//binary data that starts with a LF after a complete CR LF
+		out.write(new byte[]{10, 1, 2});
+		out.write(bytes("second\r"));
+		out.write(ObjectFrame.encode("x", null));
+		//LF of this line is read after the line
+		out.write(bytes("third\r\n"));
+		out.write(ObjectFrame.encode("y", null));
+		out.write(bytes("fourth\r\n"));
+		out.write(bytes("abc"));
+		out.write(bytes("fifth\r\n"));
+		out.write(ObjectFrame.encode("z", null));
+		out.write(bytes("sixth\r\nZ"));
+		out.write(bytes("seventh\r\n"));
+		byte data[] = out.toByteArray();
+
+		for(int i=0;i<BUFFER_SIZES.length;i++) {
+			BlockingClient c = connect(data, BUFFER_SIZES[i]);
+			c.setObjectFrameMode(true);
+			String info = "readBufferSize "+BUFFER_SIZES[i];
+			assertEquals(info, "first", c.readLine());
+			byte binary[] = c.readBytes(3);
+			assertEquals(info, 10, binary[0]);
+			assertEquals(info, 1, binary[1]);
+			assertEquals(info, 2, binary[2]);
+			assertEquals(info, "second", c.readLine());
+			assertEquals(info, "x", c.readObject());
+			assertEquals(info, "third", c.readLine());
+			assertEquals(info, "y", c.readObject());
+			assertEquals(info, "fourth", c.readLine());
+
+			ByteBuffer buffer = ByteBuffer.allocate(3);
+			while(buffer.hasRemaining()) {
+				assertTrue(info, c.readInto(buffer)>0);
+			}
+			assertEquals(info, "abc", new String(buffer.array(), "ISO-8859-1"));
+
+			assertEquals(info, "fifth", c.readLine());
+			byte frame[] = c.readFrame();
+			assertEquals(info, "z", ObjectFrame.decode(frame, 0, frame.length, null));
+			assertEquals(info, "sixth", c.readLine());
+			assertEquals(info, 'Z', c.readByte());
+			assertEquals(info, "seventh", c.readLine());
+			assertNull(info, c.readLine());
+		}
+	}
+
+	public void testLineThenObjectStream() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(bytes("first\r\n"));
+		ObjectOutputStream oos = new ObjectOutputStream(out);
+		oos.writeObject("x");
+		oos.flush();
+		byte data[] = out.toByteArray();
+
+		for(int i=0;i<BUFFER_SIZES.length;i++) {
+			BlockingClient c = connect(data, BUFFER_SIZES[i]);
+			String info = "readBufferSize "+BUFFER_SIZES[i];
+			assertEquals(info, "first", c.readLine());
+			assertEquals(info, "x", c.readObject());
+		}
+	}
+
+	public void testReadBytesAfterLine() throws Exception {
+		byte data[] = bytes("line\r\nrest");
+		for(int i=0;i<BUFFER_SIZES.length;i++) {
+			BlockingClient c = connect(data, BUFFER_SIZES[i]);
+			String info = "readBufferSize "+BUFFER_SIZES[i];
+			assertEquals(info, "line", c.readLine());
+			StringBuilder sb = new StringBuilder();
+			while(sb.length()<4) {
+				byte got[] = c.readBytes();
+				assertNotNull(info, got);
+				sb.append(new String(got, "ISO-8859-1"));
+			}
+			assertEquals(info, "rest", sb.toString());
+			assertNull(info, c.readBytes());
+		}
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package test.org.quickserver.net.client;
+
+import java.util.*;
+import junit.framework.TestCase;
+import org.quickserver.net.client.*;
+import org.quickserver.net.client.monitoring.*;
+import org.quickserver.util.CachedClock;
+
+/**
+ * JUnit test cases for CircuitBreaker
+ */
+public class CircuitBreakerTest extends TestCase {
+	private HostList hostList;
+	private Host host;
+	private Host other;
+	private EjectRecorder hms;
+	private CircuitBreaker breaker;
+
+	/**
+	 * Keeps the time each host was ejected for.
+	 */
+	public static class EjectRecorder extends HostMonitoringService {
+		private final List<Long> ejects = Collections.synchronizedList(new ArrayList<Long>());
+
+		public boolean ejectHost(Host host, long forMiliSec) {
+			boolean ejected = super.ejectHost(host, forMiliSec);
+			if(ejected) ejects.add(Long.valueOf(forMiliSec));
+			return ejected;
+		}
+
+		public List<Long> getEjects() {
+			return ejects;
+		}
+	}
+
+	public CircuitBreakerTest(String name) {
+		super(name);
+	}
+
+	public static void main(String args[]) {
+		junit.textui.TestRunner.run(CircuitBreakerTest.class);
+	}
+
+	public void setUp() throws Exception {
+		hostList = new HostList("CircuitBreakerTest");
+		host = new SocketBasedHost("127.0.0.1", 10101);
+		host.setName("host");
+		host.setStatus(Host.ACTIVE);
+		hostList.add(host);
+		other = new SocketBasedHost("127.0.0.1", 10102);
+		other.setName("other");
+		other.setStatus(Host.ACTIVE);
+		hostList.add(other);
+		hostList.setActiveList(new ArrayList<Host>(Arrays.asList(new Host[]{host, other})));
+
+		hms = new EjectRecorder();
+		hms.setHostList(hostList);
+		breaker = new CircuitBreaker(hms);
+	}
+
+	private void failed(Host host, int times) {
+		for(int i=0;i<times;i++) breaker.requestEnded(host, 1, false);
+	}
+
+	private void succeeded(Host host, int times) {
+		for(int i=0;i<times;i++) breaker.requestEnded(host, 1, true);
+	}
+
+	/**
+	 * As a check of the HostMonitoringService that finds it back up.
+	 */
+	private void checkedActive(Host host) {
+		char old = host.getStatus();
+		host.setStatus(Host.ACTIVE);
+		breaker.stateChanged(host, old, Host.ACTIVE);
+	}
+
+	private static void sleep(long time) throws InterruptedException {
+		Thread.sleep(time);
+		CachedClock.update();
+	}
+
+	public void testConsecutiveFailures() {
+		breaker.setConsecutiveFailures(3);
+		failed(host, 2);
+		succeeded(host, 1);
+		failed(host, 2);
+		assertEquals(CircuitBreaker.CLOSED, breaker.getState(host));
+
+		failed(host, 1);
+		assertEquals(CircuitBreaker.OPEN, breaker.getState(host));
+		assertEquals(1, breaker.getTripCount(host));
+		assertEquals(CircuitBreaker.CLOSED, breaker.getState(other));
+
+		//late results while open
+		failed(host, 5);
+		succeeded(host, 5);
+		assertEquals(CircuitBreaker.OPEN, breaker.getState(host));
+		assertEquals(1, breaker.getTripCount(host));
+	}
+
+	public void testErrorRate() {
+		breaker.setConsecutiveFailures(100);
+		breaker.setMinRequests(10);
+		breaker.setErrorRatePercent(50);
+		for(int i=0;i<9;i++) {
+			breaker.requestEnded(host, 1, i%2==1);
+		}
+		//5 of 9 failed, too few requests
+		assertEquals(CircuitBreaker.CLOSED, breaker.getState(host));
+		succeeded(host, 1);
+		assertEquals(CircuitBreaker.CLOSED, breaker.getState(host));
+		failed(host, 1);
+		assertEquals(CircuitBreaker.OPEN, breaker.getState(host));
+		assertEquals(1, breaker.getTripCount(host));
+	}
+
+	public void testWindowReset() throws Exception {
+		breaker.setConsecutiveFailures(100);
+		breaker.setMinRequests(10);
+		breaker.setErrorRatePercent(50);
+		breaker.setWindowMiliSec(100);
+		for(int i=0;i<9;i++) {
+			breaker.requestEnded(host, 1, i%2==1);
+		}
+		sleep(250);
+
+		//the 10th request is in a new window
+		failed(host, 1);
+		assertEquals(CircuitBreaker.CLOSED, breaker.getState(host));
+		for(int i=0;i<8;i++) {
+			breaker.requestEnded(host, 1, i%2==1);
+		}
+		assertEquals(CircuitBreaker.CLOSED, breaker.getState(host));
+		failed(host, 1);
+		assertEquals(CircuitBreaker.OPEN, breaker.getState(host));
+	}
+
+	public void testOpenTimeDoubles() {
+		breaker.setConsecutiveFailures(2);
+		breaker.setHalfOpenSuccesses(2);
+		breaker.setOpenMiliSec(100);
+		breaker.setMaxOpenMiliSec(350);
+
+		failed(host, 2);
+		for(int i=0;i<4;i++) {
+			assertEquals(CircuitBreaker.OPEN, breaker.getState(host));
+			checkedActive(host);
+			assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState(host));
+			failed(host, 1);
+		}
+		assertEquals(Arrays.asList(new Long[]{Long.valueOf(100), Long.valueOf(200),
+			Long.valueOf(350), Long.valueOf(350), Long.valueOf(350)}), hms.getEjects());
+
+		//closed again, the next trip is short
+		checkedActive(host);
+		succeeded(host, 1);
+		assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState(host));
+		succeeded(host, 1);
+		assertEquals(CircuitBreaker.CLOSED, breaker.getState(host));
+		failed(host, 2);
+		assertEquals(CircuitBreaker.OPEN, breaker.getState(host));
+		assertEquals(Long.valueOf(100), hms.getEjects().get(5));
+		assertEquals(6, breaker.getTripCount(host));
+	}
+
+	public void testEjectHost() {
+		breaker.setConsecutiveFailures(1);
+		failed(host, 1);
+		assertEquals(Host.DOWN, host.getStatus());
+		assertTrue(hms.isEjected(host, CachedClock.currentTimeMillis()));
+		assertEquals(Arrays.asList(new Host[]{other}), hostList.getActiveList());
+
+		//only a check finding it ACTIVE brings it back
+		breaker.stateChanged(host, Host.ACTIVE, Host.DOWN);
+		assertEquals(CircuitBreaker.OPEN, breaker.getState(host));
+		breaker.stateChanged(host, Host.DOWN, Host.ACTIVE);
+		assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState(host));
+	}
+
+	public void testNotEjected() throws Exception {
+		//a host that is not ACTIVE can not be ejected
+		breaker.setConsecutiveFailures(1);
+		breaker.setOpenMiliSec(100);
+		other.setStatus(Host.DOWN);
+		failed(other, 1);
+		assertEquals(CircuitBreaker.OPEN, breaker.getState(other));
+		assertTrue(hms.getEjects().isEmpty());
+		sleep(250);
+		assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState(other));
+	}
+
+	public void testNoMonitoringService() throws Exception {
+		breaker = new CircuitBreaker();
+		breaker.setConsecutiveFailures(1);
+		breaker.setHalfOpenSuccesses(2);
+		breaker.setOpenMiliSec(100);
+		failed(host, 1);
+		assertEquals(CircuitBreaker.OPEN, breaker.getState(host));
+		assertEquals(Host.ACTIVE, host.getStatus());
+
+		sleep(250);
+		assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState(host));
+		failed(host, 1);
+		assertEquals(CircuitBreaker.OPEN, breaker.getState(host));
+		sleep(120);
+		assertEquals("open time not doubled", CircuitBreaker.OPEN, breaker.getState(host));
+		sleep(250);
+		succeeded(host, 2);
+		assertEquals(CircuitBreaker.CLOSED, breaker.getState(host));
+		assertEquals(2, breaker.getTripCount(host));
+	}
+}
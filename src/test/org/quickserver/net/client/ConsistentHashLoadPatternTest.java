@@ -0,0 +1,149 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package test.org.quickserver.net.client;
+
+import java.util.*;
+import junit.framework.TestCase;
+import org.quickserver.net.client.*;
+import org.quickserver.net.client.loaddistribution.impl.ConsistentHashLoadPattern;
+
+/**
+ * JUnit test cases for ConsistentHashLoadPattern
+ */
+public class ConsistentHashLoadPatternTest extends TestCase {
+	private static final int KEYS = 20000;
+
+	private HostList hostList;
+	private Host hosts[];
+	private ConsistentHashLoadPattern pattern;
+
+	public ConsistentHashLoadPatternTest(String name) {
+		super(name);
+	}
+
+	public static void main(String args[]) {
+		junit.textui.TestRunner.run(ConsistentHashLoadPatternTest.class);
+	}
+
+	public void setUp() throws Exception {
+		hostList = new HostList("ConsistentHashLoadPatternTest");
+		hosts = new Host[5];
+		for(int i=0;i<hosts.length;i++) {
+			hosts[i] = new SocketBasedHost("127.0.0.1", 10001+i);
+			hosts[i].setName("host"+i);
+			hosts[i].setStatus(Host.ACTIVE);
+			hostList.add(hosts[i]);
+		}
+		hostList.setActiveList(new ArrayList<Host>(Arrays.asList(hosts)));
+		pattern = newPattern(hostList);
+	}
+
+	private static ConsistentHashLoadPattern newPattern(HostList hostList) {
+		ConsistentHashLoadPattern pattern = new ConsistentHashLoadPattern();
+		pattern.setHostList(hostList);
+		return pattern;
+	}
+
+	private static Host[] map(ConsistentHashLoadPattern pattern) {
+		Host mapped[] = new Host[KEYS];
+		ClientInfo clientInfo = new ClientInfo();
+		for(int i=0;i<KEYS;i++) {
+			clientInfo.setClientKey("key-"+i);
+			mapped[i] = pattern.getHost(clientInfo);
+		}
+		return mapped;
+	}
+
+	private static int count(Host mapped[], Host host) {
+		int count = 0;
+		for(int i=0;i<mapped.length;i++) {
+			if(mapped[i]==host) count++;
+		}
+		return count;
+	}
+
+	private void setActive(Host active[]) {
+		hostList.setActiveList(new ArrayList<Host>(Arrays.asList(active)));
+	}
+
+	private static Host[] without(Host hosts[], Host host) {
+		List<Host> list = new ArrayList<Host>(Arrays.asList(hosts));
+		list.remove(host);
+		return list.toArray(new Host[list.size()]);
+	}
+
+	public void testMergeEqualsFullBuild() {
+		map(pattern);
+		//merged into the ring built before
+		setActive(without(hosts, hosts[2]));
+		Host merged[] = map(pattern);
+		assertEquals(0, count(merged, hosts[2]));
+		assertTrue(Arrays.equals(map(newPattern(hostList)), merged));
+
+		setActive(without(without(hosts, hosts[2]), hosts[4]));
+		map(pattern);
+		setActive(without(hosts, hosts[4]));
+		assertTrue(Arrays.equals(map(newPattern(hostList)), map(pattern)));
+		assertEquals(3, pattern.getMembershipChangeCount());
+	}
+
+	public void testRemoveRemapsOnlyItsKeys() {
+		Host before[] = map(pattern);
+		setActive(without(hosts, hosts[1]));
+		Host after[] = map(pattern);
+
+		int moved = 0;
+		for(int i=0;i<KEYS;i++) {
+			if(before[i]==after[i]) continue;
+			assertSame("key of other host moved", hosts[1], before[i]);
+			moved++;
+		}
+		assertEquals(count(before, hosts[1]), moved);
+		double ratio = moved/(double) KEYS;
+		double expected = 1.0/hosts.length;
+		assertTrue("moved "+ratio, ratio>expected/2 && ratio<expected*1.5);
+		assertEquals(expected, pattern.getLastRemapRatio(), expected/2);
+	}
+
+	public void testAddBackRestoresMapping() {
+		Host before[] = map(pattern);
+		setActive(without(hosts, hosts[3]));
+		map(pattern);
+		setActive(hosts);
+		assertTrue(Arrays.equals(before, map(pattern)));
+		assertEquals(2, pattern.getMembershipChangeCount());
+	}
+
+	public void testHostWeightChange() {
+		Host before[] = map(pattern);
+		int share = count(before, hosts[0]);
+
+		//weight set on the Host, the active list is the same object
+		assertTrue(hostList.setWeight("host0", 3));
+		Host after[] = map(pattern);
+		int newShare = count(after, hosts[0]);
+		assertTrue("share of host0 was "+share+" is "+newShare, newShare>2*share);
+		for(int i=0;i<KEYS;i++) {
+			if(before[i]!=after[i]) assertSame("key moved to other host", hosts[0], after[i]);
+		}
+
+		//0 takes it off the ring
+		hosts[0].setWeight(0);
+		assertEquals(0, count(map(pattern), hosts[0]));
+
+		hosts[0].setWeight(1);
+		assertTrue(Arrays.equals(before, map(pattern)));
+	}
+}
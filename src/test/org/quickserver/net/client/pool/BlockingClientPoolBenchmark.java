@@ -0,0 +1,225 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.net.client.pool;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.quickserver.net.client.BlockingClient;
+import org.quickserver.net.client.Host;
+import org.quickserver.net.client.HostList;
+import org.quickserver.net.client.SocketBasedHost;
+import org.quickserver.net.client.loaddistribution.LoadDistributor;
+import org.quickserver.net.client.loaddistribution.impl.RoundRobinLoadPattern;
+import org.quickserver.net.client.monitoring.HostMonitor;
+import org.quickserver.util.CachedClock;
+
+/**
+ * Measures borrow/return pairs per second of BlockingClientPool against
+ * the locking borrow/return it had before (a fair ReentrantReadWriteLock
+ * write lock around the poll of the idle queue and around the return),
+ * with clients that need no socket.
+ * <p>
+ * Usage: java org.quickserver.net.client.pool.BlockingClientPoolBenchmark [threads] [poolSize]
+ * </p>
+ * @author Akshathkumar Shetty
+ */
+public class BlockingClientPoolBenchmark {
+	private static final long RUN_TIME = 3000;
+
+	private static volatile boolean stop;
+
+	public static class DummyClient extends BlockingClient {
+		public boolean isConnected() {
+			return true;
+		}
+		public void close() throws IOException {
+		}
+	}
+
+	interface Pool {
+		public Object borrow();
+		public void giveBack(Object client);
+	}
+
+	/**
+	 * The locking borrow/return BlockingClientPool had before.
+	 */
+	static class LockingPool implements Pool {
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+		private final ConcurrentLinkedQueue pool = new ConcurrentLinkedQueue();
+		private final ConcurrentLinkedQueue inUse = new ConcurrentLinkedQueue();
+		private final LoadDistributor ld;
+
+		LockingPool(LoadDistributor ld, int size) {
+			this.ld = ld;
+			for(int i=0;i<size;i++) pool.add(new DummyClient());
+		}
+
+		public Object borrow() {
+			ld.getHost(null);
+			Object client = null;
+			lock.writeLock().lock();
+			try {
+				client = pool.poll();
+				if(client!=null) inUse.add(client);
+			} finally {
+				lock.writeLock().unlock();
+			}
+			return client;
+		}
+
+		public void giveBack(Object client) {
+			CachedClock.currentTimeMillis();
+			lock.writeLock().lock();
+			try {
+				inUse.remove(client);
+				pool.add(client);
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	static class LockFreePool implements Pool {
+		private final BlockingClientPool pool;
+
+		LockFreePool(BlockingClientPool pool) {
+			this.pool = pool;
+		}
+
+		public Object borrow() {
+			return pool.getBlockingClient();
+		}
+
+		public void giveBack(Object client) {
+			pool.returnBlockingClient((PooledBlockingClient) client);
+		}
+	}
+
+	public static void main(String args[]) throws Exception {
+		int threads = 64;
+		int poolSize = 16;
+		if(args.length>=1) threads = Integer.parseInt(args[0]);
+		if(args.length>=2) poolSize = Integer.parseInt(args[1]);
+
+		HostList hostList = new HostList("bench");
+		SocketBasedHost host = new SocketBasedHost("127.0.0.1", 1);
+		host.setName("bench");
+		hostList.add(host);
+
+		final HostMonitor hm = new HostMonitor() {
+			public char monitor(Host host) {
+				return Host.ACTIVE;
+			}
+		};
+		final LoadDistributor ld = new LoadDistributor(hostList);
+		ld.setLoadPattern(new RoundRobinLoadPattern());
+
+		PoolableBlockingClient poolableBlockingClient = new PoolableBlockingClient() {
+			public HostMonitor getHostMonitor() {
+				return hm;
+			}
+			public LoadDistributor getLoadDistributor() {
+				return ld;
+			}
+			public BlockingClient createBlockingClient(SocketBasedHost host) {
+				return new DummyClient();
+			}
+			public boolean closeBlockingClient(BlockingClient blockingClient) {
+				return true;
+			}
+			public boolean sendNoOp(BlockingClient blockingClient) {
+				return true;
+			}
+			public long getNoOpTimeIntervalMiliSec() {
+				return 60000;
+			}
+			public int getHostMonitoringIntervalInSec() {
+				return 60;
+			}
+			public boolean isBlockWhenEmpty() {
+				return false;
+			}
+			public int getMaxIntervalForBorrowInSec() {
+				return 60;
+			}
+		};
+
+		BlockingClientPool blockingClientPool = new BlockingClientPool("bench",
+			poolableBlockingClient);
+		blockingClientPool.setMinPoolSize(poolSize);
+		blockingClientPool.setIdlePoolSize(poolSize);
+		blockingClientPool.setMaxPoolSize(poolSize);
+		blockingClientPool.init();
+
+		Pool locking = new LockingPool(ld, poolSize);
+		Pool lockFree = new LockFreePool(blockingClientPool);
+		for(int round=0;round<2;round++) {
+			run("locking  ", locking, threads);
+			run("lock-free", lockFree, threads);
+		}
+		System.out.println("\t"+blockingClientPool.getStats());
+		blockingClientPool.close();
+		System.exit(0);
+	}
+
+	private static void run(String name, final Pool pool, int threadCount)
+			throws Exception {
+		stop = false;
+		final long counts[] = new long[threadCount];
+		final long misses[] = new long[threadCount];
+		final CountDownLatch done = new CountDownLatch(threadCount);
+		Thread threads[] = new Thread[threadCount];
+		for(int i=0;i<threadCount;i++) {
+			final int index = i;
+			threads[i] = new Thread(name+"-"+i) {
+				public void run() {
+					Object client = null;
+					long count = 0;
+					long miss = 0;
+					while(stop==false) {
+						client = pool.borrow();
+						if(client==null) {
+							miss++;
+							Thread.yield();
+							continue;
+						}
+						pool.giveBack(client);
+						count++;
+					}
+					counts[index] = count;
+					misses[index] = miss;
+					done.countDown();
+				}
+			};
+			threads[i].start();
+		}
+
+		Thread.sleep(RUN_TIME);
+		stop = true;
+		done.await();
+
+		long total = 0;
+		long totalMisses = 0;
+		for(int i=0;i<threadCount;i++) {
+			total += counts[i];
+			totalMisses += misses[i];
+		}
+		System.out.println(name+": "+threadCount+" threads, "+
+			(total*1000/RUN_TIME)+" borrow/return per sec, "+
+			(totalMisses*1000/RUN_TIME)+" empty pool per sec");
+	}
+}
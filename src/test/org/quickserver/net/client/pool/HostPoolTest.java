@@ -0,0 +1,453 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.net.client.pool;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import junit.framework.TestCase;
+import org.quickserver.net.client.BlockingClient;
+import org.quickserver.net.client.Host;
+import org.quickserver.net.client.HostList;
+import org.quickserver.net.client.SocketBasedHost;
+import org.quickserver.net.client.loaddistribution.LoadDistributor;
+import org.quickserver.net.client.loaddistribution.impl.RoundRobinLoadPattern;
+import org.quickserver.net.client.monitoring.HostMonitor;
+
+/**
+ * JUnit test cases for the HostPool of BlockingClientPool under concurrent
+ * borrow and return. It is in the package of the pool to get at HostPool.
+ */
+public class HostPoolTest extends TestCase {
+	private SocketBasedHost host;
+	private BlockingClientPool pool;
+	private final AtomicInteger created = new AtomicInteger();
+	private final AtomicInteger closed = new AtomicInteger();
+	//connects wait on it if set
+	private volatile CountDownLatch connectGate;
+	private volatile boolean refuse;
+
+	/**
+	 * Client that needs no socket.
+	 */
+	class DummyClient extends BlockingClient {
+		volatile boolean connected = true;
+		volatile boolean isClosed;
+
+		public boolean isConnected() {
+			return connected;
+		}
+		public void close() {
+			if(isClosed) return;
+			isClosed = true;
+			connected = false;
+			closed.incrementAndGet();
+		}
+	}
+
+	public HostPoolTest(String name) {
+		super(name);
+	}
+
+	public static void main(String args[]) {
+		junit.textui.TestRunner.run(HostPoolTest.class);
+	}
+
+	private void makePool(int minPoolSize, int maxPoolSize) throws Exception {
+		newPool(minPoolSize, maxPoolSize);
+		pool.init();
+		assertEquals(Host.ACTIVE, host.getStatus());
+	}
+
+	private void newPool(int minPoolSize, int maxPoolSize) throws Exception {
+		HostList hostList = new HostList("HostPoolTest");
+		host = new SocketBasedHost("127.0.0.1", 1);
+		host.setName("HostPoolTest");
+		hostList.add(host);
+
+		final HostMonitor hm = new HostMonitor() {
+			public char monitor(Host host) {
+				return Host.ACTIVE;
+			}
+		};
+		final LoadDistributor ld = new LoadDistributor(hostList);
+		ld.setLoadPattern(new RoundRobinLoadPattern());
+
+		PoolableBlockingClient poolableBlockingClient = new PoolableBlockingClient() {
+			public HostMonitor getHostMonitor() {
+				return hm;
+			}
+			public LoadDistributor getLoadDistributor() {
+				return ld;
+			}
+			public BlockingClient createBlockingClient(SocketBasedHost host) {
+				created.incrementAndGet();
+				CountDownLatch gate = connectGate;
+				if(gate!=null) {
+					try {
+						gate.await(10, TimeUnit.SECONDS);
+					} catch(InterruptedException e) {
+						return null;
+					}
+				}
+				if(refuse) return null;
+				return new DummyClient();
+			}
+			public boolean closeBlockingClient(BlockingClient blockingClient) {
+				return true;
+			}
+			public boolean sendNoOp(BlockingClient blockingClient) {
+				return true;
+			}
+			public long getNoOpTimeIntervalMiliSec() {
+				return 600000;
+			}
+			public int getHostMonitoringIntervalInSec() {
+				return 600;
+			}
+			public boolean isBlockWhenEmpty() {
+				return true;
+			}
+			public int getMaxIntervalForBorrowInSec() {
+				return 600;
+			}
+		};
+
+		pool = new BlockingClientPool("HostPoolTest", poolableBlockingClient);
+		pool.setMinPoolSize(minPoolSize);
+		pool.setIdlePoolSize(maxPoolSize);
+		pool.setMaxPoolSize(maxPoolSize);
+		pool.setMaxWaitForBorrowMiliSec(5000);
+	}
+
+	/**
+	 * Starts the init of the pool, it waits for the warm-up connections.
+	 */
+	private Thread startInit() {
+		Thread thread = new Thread("Init") {
+			public void run() {
+				pool.init();
+			}
+		};
+		thread.start();
+		return thread;
+	}
+
+	private void awaitCreated(int count) throws InterruptedException {
+		long end = System.currentTimeMillis()+5000;
+		while(created.get()<count && System.currentTimeMillis()<end) {
+			Thread.sleep(5);
+		}
+		assertEquals(count, created.get());
+	}
+
+	public void tearDown() throws Exception {
+		if(pool!=null) pool.close();
+	}
+
+	private PooledBlockingClient borrow() {
+		return pool.getBlockingClientByHost(host);
+	}
+
+	private static void join(Thread threads[]) throws InterruptedException {
+		for(int i=0;i<threads.length;i++) {
+			threads[i].join(30000);
+			assertFalse(threads[i].getName()+" is stuck", threads[i].isAlive());
+		}
+	}
+
+	/**
+	 * Waits till the count of borrowers waiting in the queue of the host
+	 * is reached.
+	 */
+	private static void awaitWaiting(HostPool hostPool, int count)
+			throws InterruptedException {
+		long end = System.currentTimeMillis()+5000;
+		while(hostPool.getWaitingCount()<count && System.currentTimeMillis()<end) {
+			Thread.sleep(5);
+		}
+		assertEquals(count, hostPool.getWaitingCount());
+		//let it get in the queue, it counts itself just before
+		Thread.sleep(50);
+	}
+
+	public void testReadyOnlyWhenConnected() throws Exception {
+		connectGate = new CountDownLatch(1);
+		newPool(3, 4);
+		Thread init = startInit();
+		awaitCreated(3);
+
+		//the slots are taken, but nothing is connected yet
+		assertEquals(3, pool.getPoolSize(host));
+		assertFalse(pool.isReady());
+		assertFalse(pool.awaitReady(100));
+
+		connectGate.countDown();
+		assertTrue(pool.awaitReady(5000));
+		init.join(5000);
+		assertEquals(3, pool.getPoolSize(host));
+	}
+
+	public void testNotReadyWhenRefused() throws Exception {
+		connectGate = new CountDownLatch(1);
+		refuse = true;
+		newPool(2, 4);
+		Thread init = startInit();
+		awaitCreated(2);
+		assertFalse(pool.isReady());
+
+		connectGate.countDown();
+		init.join(5000);
+		assertFalse(init.isAlive());
+		assertEquals(0, pool.getPoolSize(host));
+		assertFalse(pool.isReady());
+		assertFalse(pool.awaitReady(100));
+	}
+
+	public void testLeastRecentlyUsed() throws Exception {
+		makePool(3, 3);
+		PooledBlockingClient a = borrow();
+		PooledBlockingClient b = borrow();
+		PooledBlockingClient c = borrow();
+		HostPool hostPool = a.getHostPool();
+		pool.returnBlockingClient(c);
+		pool.returnBlockingClient(b);
+		pool.returnBlockingClient(a);
+
+		//the noop goes to the one idle longest, the rest keep their order
+		assertSame(c, hostPool.popLeastRecentlyUsed());
+		assertEquals(2, hostPool.getIdleCount());
+		assertSame(a, hostPool.pop());
+		assertSame(b, hostPool.pop());
+		assertNull(hostPool.popLeastRecentlyUsed());
+	}
+
+	public void testSizeNeverOverMax() throws Exception {
+		final int maxPoolSize = 4;
+		makePool(1, maxPoolSize);
+		final AtomicInteger inUse = new AtomicInteger();
+		final AtomicInteger highestInUse = new AtomicInteger();
+		final List errors = Collections.synchronizedList(new ArrayList());
+
+		Thread threads[] = new Thread[16];
+		for(int i=0;i<threads.length;i++) {
+			threads[i] = new Thread("Borrower-"+i) {
+				public void run() {
+					for(int j=0;j<2000 && errors.isEmpty();j++) {
+						PooledBlockingClient client = borrow();
+						if(client==null) {
+							errors.add(getName()+" got no client");
+							return;
+						}
+						int now = inUse.incrementAndGet();
+						int highest = highestInUse.get();
+						while(now>highest &&
+							highestInUse.compareAndSet(highest, now)==false) {
+							highest = highestInUse.get();
+						}
+						int size = pool.getPoolSize(host);
+						if(size>maxPoolSize) errors.add("pool size "+size);
+						int live = created.get() - closed.get();
+						if(live>maxPoolSize) errors.add("live clients "+live);
+						if(j%10==0) Thread.yield();
+						inUse.decrementAndGet();
+						pool.returnBlockingClient(client);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		join(threads);
+		assertEquals(errors.toString(), 0, errors.size());
+		assertTrue("in use "+highestInUse.get(), highestInUse.get()<=maxPoolSize);
+		assertTrue(pool.getPoolSize(host)<=maxPoolSize);
+	}
+
+	public void testDroppedByCleanPoolNotReturned() throws Exception {
+		makePool(1, 4);
+		PooledBlockingClient client = borrow();
+		assertNotNull(client);
+		assertEquals(1, pool.getPoolSize(host));
+
+		//no idle client, so the borrow cleans the pool of the host
+		host.setStatus(Host.DOWN);
+		assertNull(borrow());
+		assertNull("client in use was not closed", client.getBlockingClient());
+		assertEquals(0, pool.getPoolSize(host));
+
+		host.setStatus(Host.ACTIVE);
+		pool.returnBlockingClient(client);
+		assertEquals(0, pool.getPoolSize(host));
+
+		PooledBlockingClient next = borrow();
+		assertNotNull(next);
+		assertNotSame(client, next);
+		assertNotNull(next.getBlockingClient());
+		pool.returnBlockingClient(next);
+		assertEquals(1, pool.getPoolSize(host));
+	}
+
+	public void testDroppedWhileInUseNotReturned() throws Exception {
+		final int maxPoolSize = 4;
+		makePool(1, maxPoolSize);
+		//client to the count of drops when it was dropped
+		final Map dropped = new ConcurrentHashMap();
+		final AtomicLong dropCount = new AtomicLong();
+		final List errors = Collections.synchronizedList(new ArrayList());
+		final CountDownLatch done = new CountDownLatch(8);
+		PooledBlockingClient first = borrow();
+		final HostPool hostPool = first.getHostPool();
+		pool.returnBlockingClient(first);
+
+		Thread threads[] = new Thread[8];
+		for(int i=0;i<threads.length;i++) {
+			threads[i] = new Thread("Borrower-"+i) {
+				public void run() {
+					try {
+						for(int j=0;j<2000 && errors.isEmpty();j++) {
+							long dropsBefore = dropCount.get();
+							PooledBlockingClient client = borrow();
+							if(client==null) {
+								errors.add(getName()+" got no client");
+								return;
+							}
+							//it can be dropped after it was handed out
+							Long droppedAt = (Long) dropped.get(client);
+							if(droppedAt!=null && droppedAt.longValue()<=dropsBefore)
+								errors.add(getName()+" got a dropped client");
+							Thread.yield();
+							pool.returnBlockingClient(client);
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			threads[i].start();
+		}
+
+		//drops clients in use like the leak check and clean up do, they are
+		//closed a bit later so owners return some of them before that
+		List toClose = new ArrayList();
+		while(done.getCount()>0) {
+			Iterator iterator = hostPool.getInUse().iterator();
+			while(iterator.hasNext()) {
+				PooledBlockingClient client = (PooledBlockingClient) iterator.next();
+				if(hostPool.drop(client)==false) continue;
+				dropped.put(client, new Long(dropCount.incrementAndGet()));
+				toClose.add(client);
+			}
+			Thread.sleep(1);
+			for(int i=0;i<toClose.size();i++) {
+				((PooledBlockingClient) toClose.get(i)).close();
+			}
+			toClose.clear();
+		}
+		join(threads);
+		assertEquals(errors.toString(), 0, errors.size());
+		assertTrue("nothing was dropped", dropCount.get()>0);
+
+		//no dropped client came back
+		assertEquals(0, hostPool.getInUseCount());
+		assertTrue(hostPool.getSize()<=maxPoolSize);
+		assertEquals(hostPool.getSize(), hostPool.getIdleCount());
+		PooledBlockingClient client = null;
+		while((client = hostPool.pop())!=null) {
+			assertFalse("dropped client is idle", dropped.containsKey(client));
+			assertNotNull(client.getBlockingClient());
+			assertTrue(client.getBlockingClient().isConnected());
+		}
+	}
+
+	public void testFifoHandoff() throws Exception {
+		makePool(2, 2);
+		PooledBlockingClient a = borrow();
+		PooledBlockingClient b = borrow();
+		assertNotNull(a);
+		assertNotNull(b);
+		HostPool hostPool = a.getHostPool();
+
+		final PooledBlockingClient got[] = new PooledBlockingClient[3];
+		Thread waiters[] = new Thread[3];
+		for(int i=0;i<waiters.length;i++) {
+			final int index = i;
+			waiters[i] = new Thread("Waiter-"+i) {
+				public void run() {
+					got[index] = borrow();
+				}
+			};
+			waiters[i].start();
+			awaitWaiting(hostPool, i+1);
+		}
+
+		//each client returned goes to the oldest waiter
+		pool.returnBlockingClient(a);
+		waiters[0].join(5000);
+		assertSame(a, got[0]);
+		assertTrue(waiters[1].isAlive());
+
+		pool.returnBlockingClient(b);
+		waiters[1].join(5000);
+		assertSame(b, got[1]);
+		assertTrue(waiters[2].isAlive());
+
+		pool.returnBlockingClient(got[0]);
+		waiters[2].join(5000);
+		assertSame(a, got[2]);
+		assertEquals(0, hostPool.getWaitingCount());
+		assertEquals(0, hostPool.getIdleCount());
+		assertEquals(2, pool.getPoolSize(host));
+	}
+
+	public void testDeprecatedReturnToPool() throws Exception {
+		makePool(1, 1);
+		PooledBlockingClient a = borrow();
+		assertNotNull(a);
+		HostPool hostPool = a.getHostPool();
+		assertNull(a.getPoolToReturn());
+
+		//old callers pass their queue and lock, the client goes to its host
+		a.returnToPool(new ConcurrentLinkedQueue(), new ReentrantReadWriteLock());
+		assertEquals(0, hostPool.getInUseCount());
+		assertEquals(1, hostPool.getIdleCount());
+		assertSame(a, borrow());
+	}
+
+	public void testSlotHandoff() throws Exception {
+		makePool(1, 1);
+		PooledBlockingClient a = borrow();
+		assertNotNull(a);
+		HostPool hostPool = a.getHostPool();
+
+		final PooledBlockingClient got[] = new PooledBlockingClient[1];
+		Thread waiter = new Thread("Waiter") {
+			public void run() {
+				got[0] = borrow();
+			}
+		};
+		waiter.start();
+		awaitWaiting(hostPool, 1);
+
+		//a broken client frees its slot, the waiter makes a new one
+		((DummyClient) a.getBlockingClient()).connected = false;
+		pool.returnBlockingClient(a);
+		waiter.join(5000);
+		assertNotNull(got[0]);
+		assertNotSame(a, got[0]);
+		assertEquals(1, pool.getPoolSize(host));
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package test.org.quickserver.net.server;
+
+import java.io.*;
+import java.util.concurrent.*;
+import junit.framework.TestCase;
+import org.quickserver.net.server.*;
+import org.quickserver.net.client.*;
+import org.quickserver.util.xmlreader.QuickServerConfig;
+
+/**
+ * JUnit test cases for AsyncAuthenticationHandler, a result has to be tied
+ * to the authentication attempt it was started for.
+ */
+public class AsyncAuthenticationTest extends TestCase {
+	private static final BlockingQueue checks = new LinkedBlockingQueue();
+
+	private QuickServer server;
+	private String host = "127.0.0.1";
+	private int port = 54324;
+
+	/**
+	 * Keeps every check pending till the test completes it.
+	 */
+	public static class PendingAuthenticationHandler
+			extends AsyncAuthenticationHandler {
+		public PendingAuthenticationHandler() {
+			super(new String[]{"User :", "Password :"});
+		}
+
+		protected AuthStatus checkCredentials(ClientHandler handler,
+				Object token, String answers[]) {
+			if(answers[0].equals("sync")) {
+				//completed before PENDING is returned
+				if(complete(handler, token, AuthStatus.SUCCESS)==false)
+					throw new IllegalStateException("Attempt ended before PENDING was returned");
+			} else {
+				checks.add(new Object[]{handler, token, answers[0], this});
+			}
+			return AuthStatus.PENDING;
+		}
+
+		protected void authenticationDone(ClientHandler handler,
+				AuthStatus status) throws IOException {
+			handler.sendClientMsg(status==AuthStatus.SUCCESS?"Auth OK":"Auth Failed");
+		}
+	}
+
+	public AsyncAuthenticationTest(String name) {
+		super(name);
+	}
+
+	public static void main(String args[]) {
+		junit.textui.TestRunner.run(AsyncAuthenticationTest.class);
+	}
+
+	private void startServer(boolean blocking) throws Exception {
+		checks.clear();
+		QuickServerConfig config = new QuickServerConfig();
+		config.setName("AsyncAuthenticationTest");
+		config.setClientCommandHandler(NonBlockingObjectTest.ObjectHandler.class.getName());
+		config.setClientAuthenticationHandler(PendingAuthenticationHandler.class.getName());
+		config.getServerMode().setBlocking(blocking);
+		config.setPort(port);
+		config.setBindAddr(host);
+
+		server = new QuickServer();
+		server.initService(config);
+		server.startServer();
+	}
+
+	public void tearDown() throws Exception {
+		if(server!=null) server.stopServer();
+	}
+
+	private BlockingClient login(String user) throws Exception {
+		BlockingClient client = new BlockingClient();
+		client.connect(host, port);
+		assertEquals("User :", client.readLine());
+		client.sendLine(user, null);
+		assertEquals("Password :", client.readLine());
+		client.sendLine("secret", null);
+		return client;
+	}
+
+	private static Object[] nextCheck(String user) throws Exception {
+		Object check[] = (Object[]) checks.poll(10, TimeUnit.SECONDS);
+		assertNotNull("no check for "+user, check);
+		assertEquals(user, check[2]);
+		return check;
+	}
+
+	private static boolean complete(Object check[], AuthStatus status) {
+		AsyncAuthenticationHandler authHandler = 
+			(AsyncAuthenticationHandler) check[3];
+		return authHandler.complete((ClientHandler) check[0], check[1], status);
+	}
+
+	private void checkStaleResults() throws Exception {
+		BlockingClient a = login("a");
+		Object first[] = nextCheck("a");
+		assertTrue(complete(first, AuthStatus.FAILURE));
+		assertEquals("Auth Failed", a.readLine());
+		assertEquals("User :", a.readLine());
+		//token of the failed attempt is not valid for the new attempt
+		assertFalse(complete(first, AuthStatus.SUCCESS));
+
+		a.sendLine("a", null);
+		assertEquals("Password :", a.readLine());
+		a.sendLine("secret", null);
+		Object second[] = nextCheck("a");
+		assertTrue(complete(second, AuthStatus.SUCCESS));
+		assertFalse("completed twice", complete(second, AuthStatus.FAILURE));
+		assertEquals("Auth OK", a.readLine());
+		a.sendLine("hello", null);
+		assertEquals("echo:hello", a.readLine());
+		a.close();
+
+		//handler may be reused, the old tokens must not log in the new client
+		BlockingClient b = login("b");
+		Object third[] = nextCheck("b");
+		assertFalse(complete(first, AuthStatus.SUCCESS));
+		assertFalse(complete(second, AuthStatus.SUCCESS));
+		b.sendLine("hello", null);
+		assertTrue(complete(third, AuthStatus.SUCCESS));
+		assertEquals("Auth OK", b.readLine());
+		//input while pending is handled after the result
+		assertEquals("echo:hello", b.readLine());
+		b.close();
+	}
+
+	public void testStaleResultsNonBlocking() throws Exception {
+		startServer(false);
+		checkStaleResults();
+	}
+
+	public void testStaleResultsBlocking() throws Exception {
+		startServer(true);
+		checkStaleResults();
+	}
+
+	public void testCompleteBeforeReturn() throws Exception {
+		startServer(false);
+		BlockingClient client = login("sync");
+		assertEquals("Auth OK", client.readLine());
+		client.sendLine("hello", null);
+		assertEquals("echo:hello", client.readLine());
+		client.close();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.net.server;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many datagrams per second a QuickServer in UDP mode
+ * receives and passes to its ClientDatagramHandler, for a few
+ * datagram batch sizes.
+ * <p>
+ * Usage: java org.quickserver.net.server.DatagramServerBenchmark [port] [senders]
+ * </p>
+ * @author Akshathkumar Shetty
+ */
+public class DatagramServerBenchmark {
+	private static final int PACKET_SIZE = 128;
+	private static final long RUN_TIME = 3000;
+
+	private static final AtomicLong handled = new AtomicLong();
+
+	public static class CountingHandler implements ClientDatagramHandler {
+		public void handleDatagram(QuickServer server, SocketAddress sender,
+				ByteBuffer data) throws IOException {
+			handled.incrementAndGet();
+		}
+	}
+
+	public static void main(String args[]) throws Exception {
+		int port = 4124;
+		int senders = 2;
+		if(args.length>=1) port = Integer.parseInt(args[0]);
+		if(args.length>=2) senders = Integer.parseInt(args[1]);
+
+		int batchSizes[] = {1, 16, 64};
+		for(int i=0;i<batchSizes.length;i++) {
+			run(port, senders, batchSizes[i]);
+		}
+		System.exit(0);
+	}
+
+	private static void run(int port, int senders, int batchSize) throws Exception {
+		QuickServer server = new QuickServer();
+		server.setName("DatagramBenchmark");
+		server.setPort(port);
+		server.setBindAddr("127.0.0.1");
+		server.setClientDatagramHandler(CountingHandler.class.getName());
+		server.getBasicConfig().getServerMode().setUdp(true);
+		server.getBasicConfig().getServerMode().setDatagramBatchSize(batchSize);
+		server.getBasicConfig().getAdvancedSettings().setClientSocketReceiveBufferSize(4*1024*1024);
+		server.getBasicConfig().getObjectPoolConfig().getByteBufferObjectPoolConfig().setInitSize(4);
+		server.startServer();
+
+		final InetSocketAddress target = new InetSocketAddress("127.0.0.1", port);
+		final boolean stop[] = new boolean[1];
+		Thread threads[] = new Thread[senders];
+		for(int i=0;i<senders;i++) {
+			threads[i] = new Thread("Sender-"+i) {
+				public void run() {
+					try {
+						DatagramChannel channel = DatagramChannel.open();
+						ByteBuffer data = ByteBuffer.allocate(PACKET_SIZE);
+						while(stop[0]==false) {
+							data.clear();
+							channel.send(data, target);
+						}
+						channel.close();
+					} catch(IOException e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			threads[i].start();
+		}
+
+		Thread.sleep(500); //warm up
+		long startHandled = handled.get();
+		long start = System.nanoTime();
+		Thread.sleep(RUN_TIME);
+		long count = handled.get() - startHandled;
+		double secs = (System.nanoTime() - start)/1e9;
+		stop[0] = true;
+		for(int i=0;i<senders;i++) {
+			threads[i].join();
+		}
+
+		System.out.println("Batch size "+batchSize+": "+count+" datagrams in "+
+			((long)(secs*1000))+" ms = "+((long)(count/secs))+" datagrams/sec");
+		DatagramStats stats = server.getDatagramStats();
+		System.out.println("\t"+stats);
+		Iterator iterator = stats.getTopSources(3).iterator();
+		while(iterator.hasNext()) {
+			System.out.println("\t"+iterator.next());
+		}
+		server.stopServer();
+	}
+}
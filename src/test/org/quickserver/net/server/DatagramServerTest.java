@@ -0,0 +1,107 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package test.org.quickserver.net.server;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import junit.framework.TestCase;
+import org.quickserver.net.server.*;
+
+/**
+ * JUnit test cases for QuickServer in UDP mode
+ */
+public class DatagramServerTest extends TestCase {
+	private QuickServer server;
+	private String host = "127.0.0.1";
+	private int port = 54325;
+
+	public static class EchoDatagramHandler implements ClientDatagramHandler {
+		public void handleDatagram(QuickServer server, SocketAddress sender,
+				ByteBuffer data) throws IOException {
+			server.sendDatagram(sender, data);
+		}
+	}
+
+	public DatagramServerTest(String name) {
+		super(name);
+	}
+
+	public static void main(String args[]) {
+		junit.textui.TestRunner.run(DatagramServerTest.class);
+	}
+
+	public void setUp() throws Exception {
+		server = new QuickServer();
+		server.setName("DatagramServerTest");
+		server.setPort(port);
+		server.setBindAddr(host);
+		server.setClientDatagramHandler(EchoDatagramHandler.class.getName());
+		server.getBasicConfig().getServerMode().setUdp(true);
+		server.startServer();
+	}
+
+	public void tearDown() throws Exception {
+		if(server!=null) server.stopServer();
+	}
+
+	public void testEcho() throws Exception {
+		DatagramSocket socket = new DatagramSocket();
+		try {
+			socket.setSoTimeout(5000);
+			byte data[] = "hello".getBytes("ISO-8859-1");
+			socket.send(new DatagramPacket(data, data.length,
+				new InetSocketAddress(host, port)));
+			DatagramPacket reply = new DatagramPacket(new byte[64], 64);
+			socket.receive(reply);
+			assertEquals("hello", new String(reply.getData(), 0,
+				reply.getLength(), "ISO-8859-1"));
+		} finally {
+			socket.close();
+		}
+
+		//counted after the send returns, the reply can be here before that
+		DatagramStats stats = server.getDatagramStats();
+		long end = System.currentTimeMillis()+5000;
+		while(stats.getSentPackets()==0 && System.currentTimeMillis()<end) {
+			Thread.sleep(20);
+		}
+		assertEquals(1, stats.getSentPackets());
+	}
+
+	public void testNoClientHandlerResources() {
+		assertNull(server.getGhostSocketReaper());
+		assertEquals(0, server.getClientCount());
+		try {
+			server.getClientHandlerPool();
+			fail("ClientHandler pool made in UDP mode");
+		} catch(IllegalStateException e) {
+			//expected
+		}
+	}
+
+	public void testPortNotShared() throws Exception {
+		DatagramSocket socket = new DatagramSocket(null);
+		try {
+			socket.setReuseAddress(true);
+			socket.bind(new InetSocketAddress(host, port));
+			fail("Second socket could bind the port of the server");
+		} catch(BindException e) {
+			//expected
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package test.org.quickserver.net.server;
+
+import java.io.*;
+import java.net.SocketTimeoutException;
+import junit.framework.TestCase;
+import org.quickserver.net.server.*;
+import org.quickserver.net.client.*;
+import org.quickserver.util.io.CompactObjectCodec;
+import org.quickserver.util.xmlreader.QuickServerConfig;
+
+/**
+ * JUnit test cases for DataMode.OBJECT in non-blocking mode
+ */
+public class NonBlockingObjectTest extends TestCase {
+	private QuickServer server;
+	private String host = "127.0.0.1";
+	private int port = 54322;
+
+	/**
+	 * Switches the client to OBJECT mode on "object" and echoes objects.
+	 */
+	public static class ObjectHandler implements ClientCommandHandler,
+			ClientObjectHandler {
+		public void handleCommand(ClientHandler handler, String command)
+				throws IOException {
+			if(command.equals("object")) {
+				handler.setDataMode(DataMode.OBJECT, DataType.OUT);
+				handler.setDataMode(DataMode.OBJECT, DataType.IN);
+				handler.sendClientObject("ready");
+			} else {
+				handler.sendClientMsg("echo:"+command);
+			}
+		}
+
+		public void handleObject(ClientHandler handler, Object command)
+				throws IOException {
+			handler.sendClientObject("echo:"+command);
+		}
+	}
+
+	public NonBlockingObjectTest(String name) {
+		super(name);
+	}
+
+	public static void main(String args[]) {
+		junit.textui.TestRunner.run(NonBlockingObjectTest.class);
+	}
+
+	private void startServer(String objectCodec) throws Exception {
+		QuickServerConfig config = new QuickServerConfig();
+		config.setName("NonBlockingObjectTest");
+		config.setClientCommandHandler(ObjectHandler.class.getName());
+		config.setClientObjectHandler(ObjectHandler.class.getName());
+		config.getServerMode().setBlocking(false);
+		config.getAdvancedSettings().setObjectCodec(objectCodec);
+		config.setPort(port);
+		config.setBindAddr(host);
+
+		server = new QuickServer();
+		server.initService(config);
+		server.startServer();
+		assertFalse("Server is not in non-blocking mode", server.getBlockingMode());
+	}
+
+	public void tearDown() throws Exception {
+		if(server!=null) server.stopServer();
+	}
+
+	private static String makeString(int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for(int i=0;i<length;i++) {
+			sb.append((char) ('a'+i%26));
+		}
+		return sb.toString();
+	}
+
+	private void checkObjectEcho(BlockingClient client) throws Exception {
+		client.connect(host, port);
+		client.sendLine("hello", null);
+		assertEquals("echo:hello", client.readLine());
+
+		client.sendLine("object", null);
+		assertEquals("ready", client.readObject());
+
+		for(int i=0;i<3;i++) {
+			client.sendObject("o"+i);
+			assertEquals("echo:o"+i, client.readObject());
+		}
+
+		//frames in one read and a frame over many reads
+		String big = makeString(200000);
+		client.sendObject("a");
+		client.sendObject("b");
+		client.sendObject(big);
+		client.sendObject("c");
+		assertEquals("echo:a", client.readObject());
+		assertEquals("echo:b", client.readObject());
+		assertEquals("echo:"+big, client.readObject());
+		assertEquals("echo:c", client.readObject());
+		client.close();
+	}
+
+	public void testObjectFrames() throws Exception {
+		startServer(null);
+		BlockingClient client = new BlockingClient();
+		client.setObjectFrameMode(true);
+		checkObjectEcho(client);
+	}
+
+	public void testObjectFramesNonBlockingClient() throws Exception {
+		startServer(null);
+		checkObjectEcho(new NonBlockingClient());
+	}
+
+	public void testReadTimeoutKeepsData() throws Exception {
+		startServer(null);
+		NonBlockingClient client = new NonBlockingClient();
+		client.connect(host, port);
+		try {
+			//times out about when the reply comes, a line timed out is read next
+			for(int i=0;i<300;i++) {
+				client.sendLine("t"+i, null);
+				client.setTimeout(1+i%2);
+				String line = null;
+				try {
+					line = client.readLine();
+				} catch(SocketTimeoutException e) {
+					client.setTimeout(5000);
+					line = client.readLine();
+				}
+				assertEquals("echo:t"+i, line);
+			}
+		} finally {
+			client.close();
+		}
+	}
+
+	public void testPipelinedLines() throws Exception {
+		startServer(null);
+		NonBlockingClient client = new NonBlockingClient();
+		client.setTimeout(10000);
+		client.connect(host, port);
+		try {
+			StringBuilder sb = new StringBuilder();
+			for(int i=0;i<5000;i++) {
+				sb.append("p").append(i).append("\n");
+			}
+			client.sendBytes(sb.toString(), "ISO-8859-1");
+			for(int i=0;i<5000;i++) {
+				assertEquals("echo:p"+i, client.readLine());
+			}
+		} finally {
+			client.close();
+		}
+	}
+
+	public void testObjectCodec() throws Exception {
+		startServer(CompactObjectCodec.class.getName());
+		BlockingClient client = new BlockingClient();
+		client.setObjectCodec(new CompactObjectCodec());
+		checkObjectEcho(client);
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package test.org.quickserver.net.server;
+
+import java.io.*;
+import java.util.*;
+import junit.framework.TestCase;
+import org.quickserver.net.server.*;
+import org.quickserver.net.client.*;
+import org.quickserver.util.xmlreader.*;
+
+/**
+ * JUnit test cases for SSL/TLS in non-blocking mode, drives the SSLEngine
+ * handshake, wrap and unwrap of NonBlockingClientHandler.
+ */
+public class NonBlockingSecureTest extends TestCase {
+	private static final String PASSWORD = "junit-secret";
+	private static File keyStore;
+
+	private QuickServer server;
+	private String host = "127.0.0.1";
+	private int port = 54323;
+
+	public NonBlockingSecureTest(String name) {
+		super(name);
+	}
+
+	public static void main(String args[]) {
+		junit.textui.TestRunner.run(NonBlockingSecureTest.class);
+	}
+
+	/**
+	 * Creates a temporary key store with keytool, once.
+	 */
+	private static synchronized File getKeyStore() throws Exception {
+		if(keyStore!=null) return keyStore;
+		File file = File.createTempFile("qs-junit", ".jks");
+		file.delete();
+		file.deleteOnExit();
+		String keytool = System.getProperty("java.home")+File.separator+"bin"+
+			File.separator+"keytool";
+		Process p = new ProcessBuilder(new String[]{keytool, "-genkeypair",
+			"-alias", "junit", "-keyalg", "RSA", "-keysize", "2048",
+			"-dname", "CN=localhost", "-validity", "2", "-storetype", "JKS",
+			"-keystore", file.getAbsolutePath(), "-storepass", PASSWORD,
+			"-keypass", PASSWORD}).redirectErrorStream(true).start();
+		InputStream in = p.getInputStream();
+		while(in.read()!=-1);
+		if(p.waitFor()!=0) throw new IOException("keytool failed");
+		keyStore = file;
+		return keyStore;
+	}
+
+	public void setUp() throws Exception {
+		KeyStoreInfo keyStoreInfo = new KeyStoreInfo();
+		keyStoreInfo.setStoreFile(getKeyStore().getAbsolutePath());
+		keyStoreInfo.setStorePassword(PASSWORD);
+		keyStoreInfo.setKeyPassword(PASSWORD);
+		SecureStore secureStore = new SecureStore();
+		secureStore.setType("JKS");
+		secureStore.setKeyStoreInfo(keyStoreInfo);
+		Secure secure = new Secure();
+		secure.setEnable(true);
+		secure.setLoad(true);
+		secure.setSecureStore(secureStore);
+
+		QuickServerConfig config = new QuickServerConfig();
+		config.setName("NonBlockingSecureTest");
+		config.setClientCommandHandler(NonBlockingObjectTest.ObjectHandler.class.getName());
+		config.setClientObjectHandler(NonBlockingObjectTest.ObjectHandler.class.getName());
+		config.getServerMode().setBlocking(false);
+		config.setSecure(secure);
+		config.setPort(port);
+		config.setBindAddr(host);
+
+		server = new QuickServer();
+		server.initService(config);
+		server.startServer();
+		assertFalse("Server is not in non-blocking mode", server.getBlockingMode());
+		assertTrue("Server is not secure", server.isRunningSecure());
+	}
+
+	public void tearDown() throws Exception {
+		if(server!=null) server.stopServer();
+	}
+
+	private static String makeString(int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for(int i=0;i<length;i++) {
+			sb.append((char) ('a'+i%26));
+		}
+		return sb.toString();
+	}
+
+	private BlockingClient secureClient(BlockingClient client) {
+		client.setSecure(true);
+		client.setUseDummyTrustManager(true);
+		return client;
+	}
+
+	private void checkEcho(BlockingClient client) throws Exception {
+		client.connect(host, port);
+		client.sendLine("hello", null);
+		assertEquals("echo:hello", client.readLine());
+
+		//many records in, many app buffers out
+		String big = makeString(100000);
+		client.sendLine(big, null);
+		assertEquals("echo:"+big, client.readLine());
+
+		//pipelined, replies are batched into records
+		for(int i=0;i<100;i++) {
+			client.sendLine("p"+i, null);
+		}
+		for(int i=0;i<100;i++) {
+			assertEquals("echo:p"+i, client.readLine());
+		}
+
+		client.sendLine("object", null);
+		assertEquals("ready", client.readObject());
+		client.sendObject(big);
+		assertEquals("echo:"+big, client.readObject());
+		client.close();
+	}
+
+	public void testEcho() throws Exception {
+		BlockingClient client = secureClient(new BlockingClient());
+		client.setObjectFrameMode(true);
+		checkEcho(client);
+
+		SSLHandshakeStats stats = server.getSSLHandshakeStats();
+		assertEquals(1, stats.getHandshakeCount());
+		assertEquals(0, stats.getFailedHandshakeCount());
+	}
+
+	public void testEchoNonBlockingClient() throws Exception {
+		NonBlockingClient client = new NonBlockingClient();
+		client.setTimeout(10000);
+		checkEcho(secureClient(client));
+	}
+
+	public void testConcurrentClients() throws Exception {
+		final int clients = 10;
+		final List errors = Collections.synchronizedList(new ArrayList());
+		Thread threads[] = new Thread[clients];
+		for(int i=0;i<clients;i++) {
+			final int id = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						BlockingClient client = secureClient(new BlockingClient());
+						client.connect(host, port);
+						for(int j=0;j<20;j++) {
+							client.sendLine(id+"-"+j, null);
+							String reply = client.readLine();
+							if(("echo:"+id+"-"+j).equals(reply)==false) {
+								errors.add("client "+id+" got "+reply);
+								break;
+							}
+						}
+						client.close();
+					} catch(Exception e) {
+						errors.add("client "+id+": "+e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for(int i=0;i<clients;i++) {
+			threads[i].join(30000);
+		}
+		assertEquals(errors.toString(), 0, errors.size());
+
+		SSLHandshakeStats stats = server.getSSLHandshakeStats();
+		assertEquals(clients, stats.getHandshakeCount());
+		assertEquals(0, stats.getFailedHandshakeCount());
+	}
+
+	public void testBadHandshake() throws Exception {
+		BlockingClient client = new BlockingClient();
+		client.connect(host, port);
+		client.sendLine("not a client hello", null);
+		assertNull(client.readLine());
+		client.close();
+
+		long end = System.currentTimeMillis()+5000;
+		SSLHandshakeStats stats = server.getSSLHandshakeStats();
+		while(stats.getFailedHandshakeCount()==0 && System.currentTimeMillis()<end) {
+			Thread.sleep(20);
+		}
+		assertEquals(1, stats.getFailedHandshakeCount());
+	}
+}
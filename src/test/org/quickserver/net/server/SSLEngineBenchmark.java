@@ -0,0 +1,265 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.net.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.KeyStore;
+import java.util.concurrent.Executor;
+import javax.net.ssl.*;
+
+import org.quickserver.net.server.impl.NonBlockingClientHandler;
+
+/**
+ * Measures TLS handshake throughput and bulk TLS throughput of SSLEngine
+ * pairs talking over in-memory buffers, the way NonBlockingClientHandler
+ * drives them: delegated tasks on the SSL task executor and app buffers
+ * wrapped in batches into a net buffer of few records.
+ * <p>
+ * Usage: java org.quickserver.net.server.SSLEngineBenchmark [keystore password]
+ * <br/>If no keystore is passed a temporary one is created with keytool.
+ * </p>
+ * @author Akshathkumar Shetty
+ */
+public class SSLEngineBenchmark {
+	private static final int HANDSHAKES = 500;
+	private static final int APP_BUFFER_SIZE = 1024;
+	private static final int BATCH = 16;
+	private static final long BULK_BYTES = 256L*1024*1024;
+
+	private static final ByteBuffer[] EMPTY = {ByteBuffer.allocate(0)};
+
+	public static void main(String args[]) throws Exception {
+		SSLContext context = createContext(args);
+
+		handshakes(context, false, 50); //warm up
+		handshakes(context, true, 50);
+		report("Handshake (tasks inline)", handshakes(context, false, HANDSHAKES), HANDSHAKES, "handshakes");
+		report("Handshake (task executor)", handshakes(context, true, HANDSHAKES), HANDSHAKES, "handshakes");
+
+		bulk(context, false, BULK_BYTES/8); //warm up
+		bulk(context, true, BULK_BYTES/8);
+		reportBytes("Bulk wrap (one buffer per wrap)", bulk(context, false, BULK_BYTES), BULK_BYTES);
+		reportBytes("Bulk wrap (batch of "+BATCH+" buffers)", bulk(context, true, BULK_BYTES), BULK_BYTES);
+	}
+
+	private static SSLContext createContext(String args[]) throws Exception {
+		File file = null;
+		String password = "benchmark";
+		if(args.length>=2) {
+			file = new File(args[0]);
+			password = args[1];
+		} else {
+			file = File.createTempFile("qs-bench", ".jks");
+			file.delete();
+			file.deleteOnExit();
+			String keytool = System.getProperty("java.home")+File.separator+"bin"+
+				File.separator+"keytool";
+			Process p = new ProcessBuilder(new String[]{keytool, "-genkeypair",
+				"-alias", "bench", "-keyalg", "RSA", "-keysize", "2048",
+				"-dname", "CN=localhost", "-validity", "2", "-storetype", "JKS",
+				"-keystore", file.getAbsolutePath(), "-storepass", password,
+				"-keypass", password}).redirectErrorStream(true).start();
+			InputStream in = p.getInputStream();
+			while(in.read()!=-1);
+			if(p.waitFor()!=0) throw new IOException("keytool failed");
+		}
+
+		KeyStore ks = KeyStore.getInstance("JKS");
+		FileInputStream fin = new FileInputStream(file);
+		try {
+			ks.load(fin, password.toCharArray());
+		} finally {
+			fin.close();
+		}
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(ks, password.toCharArray());
+		TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		tmf.init(ks);
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+		return context;
+	}
+
+	private static class Peer {
+		SSLEngine engine;
+		ByteBuffer netOut;
+		ByteBuffer app;
+
+		Peer(SSLContext context, boolean client) {
+			engine = context.createSSLEngine("localhost", 443);
+			engine.setUseClientMode(client);
+			SSLSession session = engine.getSession();
+			netOut = ByteBuffer.allocate(session.getPacketBufferSize()*4);
+			app = ByteBuffer.allocate(session.getApplicationBufferSize());
+		}
+	}
+
+	private static void runTasks(final SSLEngine engine, boolean useExecutor) throws Exception {
+		if(useExecutor==false) {
+			Runnable task;
+			while((task = engine.getDelegatedTask()) != null) {
+				task.run();
+			}
+			return;
+		}
+		final Object lock = new Object();
+		final boolean done[] = new boolean[1];
+		Executor executor = NonBlockingClientHandler.getSSLTaskExecutor();
+		executor.execute(new Runnable() {
+			public void run() {
+				Runnable task;
+				while((task = engine.getDelegatedTask()) != null) {
+					task.run();
+				}
+				synchronized(lock) {
+					done[0] = true;
+					lock.notify();
+				}
+			}
+		});
+		synchronized(lock) {
+			while(done[0]==false) lock.wait();
+		}
+	}
+
+	/**
+	 * Moves data from one peer to other, returns true if any progress was made.
+	 */
+	private static boolean step(Peer from, Peer to, boolean useExecutor) throws Exception {
+		boolean progress = false;
+		SSLEngineResult.HandshakeStatus hs = from.engine.getHandshakeStatus();
+		if(hs==SSLEngineResult.HandshakeStatus.NEED_TASK) {
+			runTasks(from.engine, useExecutor);
+			progress = true;
+		}
+		while(from.engine.getHandshakeStatus()==SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+			SSLEngineResult res = from.engine.wrap(EMPTY, from.netOut);
+			if(res.bytesProduced()==0) break;
+			progress = true;
+		}
+		from.netOut.flip();
+		while(from.netOut.hasRemaining()) {
+			SSLEngineResult res = to.engine.unwrap(from.netOut, to.app);
+			to.app.clear();
+			if(res.getHandshakeStatus()==SSLEngineResult.HandshakeStatus.NEED_TASK) {
+				runTasks(to.engine, useExecutor);
+			}
+			if(res.bytesConsumed()==0) break;
+			progress = true;
+		}
+		from.netOut.compact();
+		return progress;
+	}
+
+	private static void handshake(Peer client, Peer server, boolean useExecutor) throws Exception {
+		client.engine.beginHandshake();
+		server.engine.beginHandshake();
+		for(int i=0;i<1000;i++) {
+			boolean progress = step(client, server, useExecutor);
+			progress = step(server, client, useExecutor) || progress;
+			if(isDone(client.engine) && isDone(server.engine) &&
+					client.netOut.position()==0 && server.netOut.position()==0) {
+				return;
+			}
+			if(progress==false) break;
+		}
+		throw new IllegalStateException("Handshake did not complete: "+
+			client.engine.getHandshakeStatus()+", "+server.engine.getHandshakeStatus());
+	}
+
+	private static boolean isDone(SSLEngine engine) {
+		SSLEngineResult.HandshakeStatus hs = engine.getHandshakeStatus();
+		return hs==SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING ||
+			hs==SSLEngineResult.HandshakeStatus.FINISHED;
+	}
+
+	private static long handshakes(SSLContext context, boolean useExecutor, int count) throws Exception {
+		long start = System.nanoTime();
+		for(int i=0;i<count;i++) {
+			Peer client = new Peer(context, true);
+			Peer server = new Peer(context, false);
+			handshake(client, server, useExecutor);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long bulk(SSLContext context, boolean batched, long totalBytes) throws Exception {
+		Peer client = new Peer(context, true);
+		Peer server = new Peer(context, false);
+		handshake(client, server, false);
+		//drain any post handshake messages
+		step(server, client, false);
+		step(client, server, false);
+
+		ByteBuffer[] srcs = new ByteBuffer[BATCH];
+		for(int i=0;i<BATCH;i++) {
+			srcs[i] = ByteBuffer.allocate(APP_BUFFER_SIZE);
+		}
+		ByteBuffer netIn = ByteBuffer.allocate(server.netOut.capacity());
+		long sent = 0;
+		long start = System.nanoTime();
+		while(sent<totalBytes) {
+			for(int i=0;i<BATCH;i++) {
+				srcs[i].clear();
+			}
+			if(batched) {
+				int off = 0;
+				while(off<BATCH) {
+					SSLEngineResult res = server.engine.wrap(srcs, off, BATCH-off, server.netOut);
+					if(res.getStatus()==SSLEngineResult.Status.BUFFER_OVERFLOW) {
+						drain(server, client);
+					}
+					while(off<BATCH && srcs[off].hasRemaining()==false) off++;
+				}
+			} else {
+				for(int i=0;i<BATCH;i++) {
+					//one record per app buffer, like the old encrypt()
+					while(srcs[i].hasRemaining()) {
+						SSLEngineResult res = server.engine.wrap(srcs[i], server.netOut);
+						if(res.getStatus()==SSLEngineResult.Status.BUFFER_OVERFLOW) {
+							drain(server, client);
+						}
+					}
+					drain(server, client);
+				}
+			}
+			drain(server, client);
+			sent += BATCH*APP_BUFFER_SIZE;
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static void drain(Peer from, Peer to) throws Exception {
+		from.netOut.flip();
+		while(from.netOut.hasRemaining()) {
+			SSLEngineResult res = to.engine.unwrap(from.netOut, to.app);
+			to.app.clear();
+			if(res.bytesConsumed()==0) break;
+		}
+		from.netOut.compact();
+	}
+
+	private static void report(String name, long nanos, int count, String unit) {
+		double secs = nanos/1e9;
+		System.out.println(name+": "+count+" "+unit+" in "+
+			((long)(secs*1000))+" ms = "+((long)(count/secs))+" "+unit+"/sec");
+	}
+
+	private static void reportBytes(String name, long nanos, long bytes) {
+		double secs = nanos/1e9;
+		System.out.println(name+": "+(bytes/(1024*1024))+" MB in "+
+			((long)(secs*1000))+" ms = "+((long)(bytes/(1024*1024)/secs))+" MB/sec");
+	}
+}
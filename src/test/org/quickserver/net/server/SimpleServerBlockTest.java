@@ -98,29 +98,29 @@ public class SimpleServerBlockTest extends TestCase {
 			assertEquals(1, TestEventHandler.getGotConnectedFlag());
 			System.out.println("GotConnected Pass");
 
-			client.sendString("test1");
+			client.sendLine("test1", null);
 			sleep(50);
 			assertEquals(1, TestCommandHandler.getHandleCommandFlag());
 			assertEquals("test1", TestCommandHandler.getRequest());
 			System.out.println("HandleCommand 1 Pass");
 
 			TestCommandHandler.setResponse("junit");
-			client.sendString("test2");
+			client.sendLine("test2", null);
 			sleep(50);
 			assertEquals(2, TestCommandHandler.getHandleCommandFlag());
 			assertEquals("test2", TestCommandHandler.getRequest());
-			assertEquals("junit", client.readString());
+			assertEquals("junit", client.readLine());
 			System.out.println("HandleCommand 2 Pass");		
 
 			TestCommandHandler.setResponse("quit");
-			client.sendString("test3");
+			client.sendLine("test3", null);
 			sleep(50);
 			assertEquals(3, TestCommandHandler.getHandleCommandFlag());
 			assertEquals(1, TestEventHandler.getClosingConnectionFlag());
 			System.out.println("ClosingConnection Pass");
 
 			sleep(100);
-			assertTrue(client.readString()==null);
+			assertTrue(client.readLine()==null);
 			System.out.println("isConnected Pass");
 			client.close();
 		} catch(Exception e) {
@@ -140,7 +140,7 @@ public class SimpleServerBlockTest extends TestCase {
 			assertEquals(1, TestEventHandler.getGotConnectedFlag());
 			System.out.println("GotConnected Pass");
 
-			client.sendString("test1");
+			client.sendLine("test1", null);
 			sleep(50);
 			assertEquals(1, TestCommandHandler.getHandleCommandFlag());
 			assertEquals("test1", TestCommandHandler.getRequest());
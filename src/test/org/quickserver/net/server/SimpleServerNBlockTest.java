@@ -30,7 +30,7 @@ public class SimpleServerNBlockTest extends SimpleServerBlockTest {
     }
 
 	public boolean getServerMode() {
-		return true;
+		return false;
 	}
 	public String getServerName() {
 		return "SimpleServerNBlockTest";
@@ -0,0 +1,157 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package test.org.quickserver.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import junit.framework.TestCase;
+import org.quickserver.util.HashedTimerWheel;
+
+/**
+ * JUnit test cases for HashedTimerWheel
+ */
+public class HashedTimerWheelTest extends TestCase {
+	private HashedTimerWheel wheel;
+
+	public HashedTimerWheelTest(String name) {
+		super(name);
+	}
+
+	public void setUp() {
+		//4 buckets of 10ms, a round of the wheel is 40ms
+		wheel = new HashedTimerWheel("HashedTimerWheelTest", 10, 4);
+		wheel.start();
+	}
+
+	public void tearDown() {
+		wheel.stop();
+	}
+
+	public static void main(String args[]) {
+		junit.textui.TestRunner.run(HashedTimerWheelTest.class);
+	}
+
+	/**
+	 * Task that notes the time it was run at.
+	 */
+	private static class TimedTask implements HashedTimerWheel.Task {
+		private final CountDownLatch done;
+		private final List runTimes = Collections.synchronizedList(new ArrayList());
+		private final long reArmDelay;
+		private final int runs;
+
+		TimedTask(int runs, long reArmDelay) {
+			this.runs = runs;
+			this.reArmDelay = reArmDelay;
+			done = new CountDownLatch(runs);
+		}
+
+		public long run(HashedTimerWheel.Timeout timeout) {
+			runTimes.add(new Long(System.nanoTime()/1000000));
+			done.countDown();
+			if(runTimes.size()<runs) return reArmDelay;
+			return 0;
+		}
+
+		long runTime(int i) {
+			return ((Long) runTimes.get(i)).longValue();
+		}
+	}
+
+	/**
+	 * Waits till the wheel has the count of timeouts; a timeout is taken
+	 * off the count after its task returns and a cancelled one on the
+	 * next tick.
+	 */
+	private void assertTimeoutCount(int count) throws InterruptedException {
+		long end = System.currentTimeMillis()+2000;
+		while(wheel.getTimeoutCount()!=count && System.currentTimeMillis()<end) {
+			Thread.sleep(5);
+		}
+		assertEquals(count, wheel.getTimeoutCount());
+	}
+
+	public void testDeadlineLongerThanOneRound() throws Exception {
+		long start = System.nanoTime()/1000000;
+		//same bucket, one and a few rounds away
+		TimedTask near = new TimedTask(1, 0);
+		TimedTask far = new TimedTask(1, 0);
+		wheel.schedule(far, 150);
+		wheel.schedule(near, 30);
+		assertEquals(2, wheel.getTimeoutCount());
+
+		assertTrue(near.done.await(2, TimeUnit.SECONDS));
+		assertEquals("far timeout ran on an early round", 1, far.done.getCount());
+		assertTrue(far.done.await(2, TimeUnit.SECONDS));
+
+		long nearTime = near.runTime(0) - start;
+		long farTime = far.runTime(0) - start;
+		assertTrue("near ran early: "+nearTime, nearTime>=29);
+		assertTrue("far ran early: "+farTime, farTime>=149);
+		assertTrue("far ran late: "+farTime, farTime<150+1000);
+		assertTimeoutCount(0);
+	}
+
+	public void testCancelBeforeTick() throws Exception {
+		TimedTask task = new TimedTask(1, 0);
+		HashedTimerWheel.Timeout timeout = wheel.schedule(task, 50);
+		assertTrue(timeout.cancel());
+		assertTrue(timeout.isCancelled());
+		assertFalse("second cancel", timeout.cancel());
+
+		assertFalse("cancelled task ran", task.done.await(200, TimeUnit.MILLISECONDS));
+		assertFalse(timeout.isExpired());
+		assertTimeoutCount(0);
+	}
+
+	public void testCancelAfterScheduledInBucket() throws Exception {
+		TimedTask task = new TimedTask(1, 0);
+		HashedTimerWheel.Timeout timeout = wheel.schedule(task, 200);
+		Thread.sleep(50);//moved from pending to its bucket by now
+		assertTrue(timeout.cancel());
+
+		assertFalse("cancelled task ran", task.done.await(300, TimeUnit.MILLISECONDS));
+		assertTimeoutCount(0);
+	}
+
+	public void testReArm() throws Exception {
+		long start = System.nanoTime()/1000000;
+		TimedTask task = new TimedTask(4, 30);
+		HashedTimerWheel.Timeout timeout = wheel.schedule(task, 20);
+
+		assertTrue(task.done.await(2, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		assertEquals("ran after returning 0", 4, task.runTimes.size());
+		assertTrue(task.runTime(0) - start >= 19);
+		for(int i=1;i<4;i++) {
+			long gap = task.runTime(i) - task.runTime(i-1);
+			assertTrue("re-armed run "+i+" early: "+gap, gap>=29);
+		}
+		assertTrue(timeout.isExpired());
+		assertTimeoutCount(0);
+	}
+
+	public void testCancelReArmed() throws Exception {
+		TimedTask task = new TimedTask(100, 30);
+		HashedTimerWheel.Timeout timeout = wheel.schedule(task, 10);
+		while(task.runTimes.size()<2) Thread.sleep(5);
+		assertTrue(timeout.cancel());
+		int runs = task.runTimes.size();
+
+		Thread.sleep(200);
+		assertTrue("ran after cancel", task.runTimes.size()<=runs+1);
+		assertTimeoutCount(0);
+	}
+}
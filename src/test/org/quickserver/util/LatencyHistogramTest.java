@@ -0,0 +1,118 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package org.quickserver.util;
+
+import junit.framework.TestCase;
+
+/**
+ * JUnit test cases for LatencyHistogram. It is in the package of the
+ * histogram to get at the bucket math.
+ */
+public class LatencyHistogramTest extends TestCase {
+	private static final long MAX_BUCKETED = (1L<<41) - 1;
+
+	public LatencyHistogramTest(String name) {
+		super(name);
+	}
+
+	public static void main(String args[]) {
+		junit.textui.TestRunner.run(LatencyHistogramTest.class);
+	}
+
+	private static int lastBucket() {
+		return LatencyHistogram.bucket(Long.MAX_VALUE);
+	}
+
+	public void testExactBuckets() {
+		assertEquals(0, LatencyHistogram.bucket(-5));
+		assertEquals(0, LatencyHistogram.bucket(0));
+		assertEquals(31, LatencyHistogram.bucket(31));
+		assertEquals(31, LatencyHistogram.highestValue(31));
+		assertEquals(32, LatencyHistogram.bucket(32));
+		assertEquals(32, LatencyHistogram.highestValue(32));
+		assertEquals(63, LatencyHistogram.bucket(63));
+		assertEquals(63, LatencyHistogram.highestValue(63));
+	}
+
+	public void testBucketsPastExact() {
+		//from 64 a bucket holds two values
+		assertEquals(64, LatencyHistogram.bucket(64));
+		assertEquals(64, LatencyHistogram.bucket(65));
+		assertEquals(65, LatencyHistogram.highestValue(64));
+		assertEquals(65, LatencyHistogram.bucket(66));
+
+		long value = 1L<<40;
+		int bucket = LatencyHistogram.bucket(value);
+		assertEquals(bucket-1, LatencyHistogram.bucket(value-1));
+		assertEquals(value-1, LatencyHistogram.highestValue(bucket-1));
+		assertEquals(value+(1L<<35)-1, LatencyHistogram.highestValue(bucket));
+	}
+
+	public void testLastBucket() {
+		int last = lastBucket();
+		assertEquals(last, LatencyHistogram.bucket(MAX_BUCKETED));
+		assertEquals(last, LatencyHistogram.bucket(MAX_BUCKETED+1));
+		assertEquals(last-1, LatencyHistogram.bucket(MAX_BUCKETED-(1L<<35)));
+		assertEquals(MAX_BUCKETED, LatencyHistogram.highestValue(last));
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(Long.MAX_VALUE);
+		LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+		assertEquals(1, snapshot.getCount());
+		assertEquals(Long.MAX_VALUE, snapshot.getMax());
+		assertEquals(Long.MAX_VALUE, snapshot.getPercentile(50));
+	}
+
+	public void testBucketsInOrder() {
+		//each bucket starts just after the top of the one before it
+		int last = lastBucket();
+		for(int i=0;i<last;i++) {
+			long highest = LatencyHistogram.highestValue(i);
+			assertEquals(i, LatencyHistogram.bucket(highest));
+			assertEquals(i+1, LatencyHistogram.bucket(highest+1));
+			if(i>=32) {
+				long lowest = LatencyHistogram.highestValue(i-1) + 1;
+				assertTrue("bucket "+i+" too wide", (highest-lowest)*32<=lowest);
+			}
+		}
+	}
+
+	public void testPercentile() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getSnapshot().getPercentile(50));
+
+		for(int i=1;i<=20;i++) histogram.record(i);
+		LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+		assertEquals(20, snapshot.getCount());
+		assertEquals(1, snapshot.getPercentile(0));
+		assertEquals(10, snapshot.getPercentile(50));
+		assertEquals(19, snapshot.getPercentile(95));
+		assertEquals(20, snapshot.getPercentile(99.9));
+		assertEquals(20, snapshot.getPercentile(100));
+
+		//top of the bucket, but not above the max
+		histogram.reset();
+		for(int i=0;i<99;i++) histogram.record(1000);
+		histogram.record(5000);
+		snapshot = histogram.getSnapshot();
+		assertEquals(LatencyHistogram.highestValue(LatencyHistogram.bucket(1000)),
+			snapshot.getPercentile(50));
+		assertEquals(LatencyHistogram.highestValue(LatencyHistogram.bucket(1000)),
+			snapshot.getPercentile(99));
+		assertEquals(5000, snapshot.getPercentile(99.9));
+		assertEquals(5000, snapshot.getMax());
+		assertEquals((99*1000+5000)/100, snapshot.getMean());
+	}
+}
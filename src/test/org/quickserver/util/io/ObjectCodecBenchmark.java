@@ -0,0 +1,119 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+package org.quickserver.util.io;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares frame size and encode/decode time of JavaObjectCodec and
+ * CompactObjectCodec for a small message object, and checks that the 
+ * compact codec reads back what it wrote.
+ * <p>
+ * Usage: java org.quickserver.util.io.ObjectCodecBenchmark
+ * </p>
+ * @author Akshathkumar Shetty
+ */
+public class ObjectCodecBenchmark {
+	private static final int COUNT = 200000;
+
+	public static class Order implements Serializable {
+		private long id;
+		private int quantity;
+		private double price;
+		private boolean buy;
+		private String symbol;
+		private Date time;
+		private ArrayList tags;
+		private transient String cache;
+
+		public boolean equals(Object o) {
+			if(!(o instanceof Order)) return false;
+			Order other = (Order) o;
+			return id==other.id && quantity==other.quantity && 
+				price==other.price && buy==other.buy && 
+				symbol.equals(other.symbol) && time.equals(other.time) && 
+				tags.equals(other.tags) && other.cache==null;
+		}
+
+		public int hashCode() {
+			return (int) id;
+		}
+	}
+
+	public static class OrderCodec extends CompactObjectCodec {
+		public OrderCodec() {
+			register(Order.class, 1);
+		}
+	}
+
+	public static void main(String args[]) throws Exception {
+		Order order = new Order();
+		order.id = 123456789L;
+		order.quantity = 100;
+		order.price = 99.75;
+		order.buy = true;
+		order.symbol = "QSRV";
+		order.time = new Date();
+		order.tags = new ArrayList();
+		order.tags.add("day");
+		order.tags.add(new Integer(-5));
+		order.tags.add(null);
+		order.cache = "not sent";
+
+		ObjectCodec javaCodec = new JavaObjectCodec();
+		ObjectCodec compactCodec = new OrderCodec();
+
+		Object read = decode(encode(order, compactCodec), compactCodec);
+		if(order.equals(read)==false) throw new IllegalStateException("Compact codec round trip failed");
+		HashMap map = new HashMap();
+		map.put("orders", new Object[]{order, "x", new Long(Long.MIN_VALUE)});
+		map.put(new Integer(1), new byte[]{1, 2, 3});
+		map.put("other", new StringBuffer("serialized")); //not supported type
+		Map readMap = (Map) decode(encode(map, compactCodec), compactCodec);
+		if(order.equals(((Object[]) readMap.get("orders"))[0])==false ||
+				((Long)((Object[]) readMap.get("orders"))[2]).longValue()!=Long.MIN_VALUE ||
+				readMap.get("other").toString().equals("serialized")==false) {
+			throw new IllegalStateException("Compact codec map round trip failed");
+		}
+
+		run("JavaObjectCodec", javaCodec, order, COUNT/10); //warm up
+		run("CompactObjectCodec", compactCodec, order, COUNT/10);
+		run("JavaObjectCodec", javaCodec, order, COUNT);
+		run("CompactObjectCodec", compactCodec, order, COUNT);
+	}
+
+	private static byte[] encode(Object object, ObjectCodec codec) throws IOException {
+		return ObjectFrame.encode(object, codec);
+	}
+
+	private static Object decode(byte frame[], ObjectCodec codec) throws Exception {
+		return ObjectFrame.decode(frame, ObjectFrame.HEADER_LENGTH, 
+			frame.length-ObjectFrame.HEADER_LENGTH, codec);
+	}
+
+	private static void run(String name, ObjectCodec codec, Object object, int count) 
+			throws Exception {
+		int size = 0;
+		long start = System.nanoTime();
+		for(int i=0;i<count;i++) {
+			byte frame[] = encode(object, codec);
+			size = frame.length;
+			decode(frame, codec);
+		}
+		long nanos = System.nanoTime() - start;
+		System.out.println(name+": frame "+size+" bytes, "+count+" encode+decode in "+
+			(nanos/1000000)+" ms = "+(nanos/count)+" ns/object");
+	}
+}
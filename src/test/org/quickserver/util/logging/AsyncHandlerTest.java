@@ -0,0 +1,231 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package test.org.quickserver.util.logging;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.*;
+import junit.framework.TestCase;
+import org.quickserver.util.logging.AsyncHandler;
+
+/**
+ * JUnit test cases for AsyncHandler
+ */
+public class AsyncHandlerTest extends TestCase {
+	private static final int BUFFER = 8;
+
+	private RecordingHandler recorder;
+	private AsyncHandler handler;
+
+	/**
+	 * Keeps the messages published, once its gate is open.
+	 */
+	public static class RecordingHandler extends Handler {
+		private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+		private final CountDownLatch gate = new CountDownLatch(1);
+		private volatile long delay;
+		private volatile boolean closed;
+
+		public void publish(LogRecord record) {
+			try {
+				gate.await();
+				if(delay>0) Thread.sleep(delay);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			String message = record.getMessage();
+			messages.add(message.substring(message.lastIndexOf(" - ")+3));
+		}
+
+		public void flush() {
+		}
+
+		public void close() {
+			closed = true;
+		}
+
+		public void open() {
+			gate.countDown();
+		}
+
+		public void setDelay(long delay) {
+			this.delay = delay;
+		}
+
+		public List<String> getMessages() {
+			return new ArrayList<String>(messages);
+		}
+
+		public boolean isClosed() {
+			return closed;
+		}
+	}
+
+	public AsyncHandlerTest(String name) {
+		super(name);
+	}
+
+	public static void main(String args[]) {
+		junit.textui.TestRunner.run(AsyncHandlerTest.class);
+	}
+
+	public void setUp() throws Exception {
+		recorder = new RecordingHandler();
+		handler = new AsyncHandler(recorder, 50, BUFFER);
+		handler.setInferCaller(false);
+	}
+
+	public void tearDown() throws Exception {
+		recorder.open();
+		handler.close();
+	}
+
+	private Thread[] startProducers(int producers, final int records, final Level level) {
+		Thread threads[] = new Thread[producers];
+		for(int i=0;i<producers;i++) {
+			final String name = level.getName()+i;
+			threads[i] = new Thread(name) {
+				public void run() {
+					for(int j=0;j<records;j++) {
+						handler.publish(new LogRecord(level, name+":"+j));
+					}
+				}
+			};
+			threads[i].start();
+		}
+		return threads;
+	}
+
+	private static void join(Thread threads[]) throws InterruptedException {
+		for(int i=0;i<threads.length;i++) {
+			threads[i].join(30000);
+			assertFalse("producer stuck", threads[i].isAlive());
+		}
+	}
+
+	/**
+	 * Checks the records of each producer are there at most once and in
+	 * order, and returns the number of each.
+	 */
+	private static Map<String, Integer> checkOrder(List<String> messages) {
+		Map<String, Integer> last = new HashMap<String, Integer>();
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for(int i=0;i<messages.size();i++) {
+			String message = messages.get(i);
+			int index = message.indexOf(':');
+			String producer = message.substring(0, index);
+			int seq = Integer.parseInt(message.substring(index+1));
+			Integer before = last.get(producer);
+			assertTrue("out of order: "+message, before==null || before.intValue()<seq);
+			last.put(producer, Integer.valueOf(seq));
+			Integer count = counts.get(producer);
+			counts.put(producer, Integer.valueOf(count==null?1:count.intValue()+1));
+		}
+		return counts;
+	}
+
+	private static int count(Map<String, Integer> counts, String producer) {
+		Integer count = counts.get(producer);
+		return count==null?0:count.intValue();
+	}
+
+	public void testBlockLosesNothing() throws Exception {
+		handler.setFullPolicy(AsyncHandler.FULL_BLOCK);
+		Thread producers[] = startProducers(4, 2000, Level.INFO);
+		long end = System.currentTimeMillis()+5000;
+		while(handler.getBlockedCount()==0 && System.currentTimeMillis()<end) {
+			Thread.sleep(20);
+		}
+		assertTrue("no producer waited", handler.getBlockedCount()>0);
+
+		recorder.open();
+		join(producers);
+		handler.flush();
+		List<String> messages = recorder.getMessages();
+		assertEquals(8000, messages.size());
+		Map<String, Integer> counts = checkOrder(messages);
+		for(int i=0;i<4;i++) {
+			assertEquals(2000, count(counts, "INFO"+i));
+		}
+		assertEquals(0, handler.getDroppedCount());
+		assertEquals(8000, handler.getDeliveredCount());
+	}
+
+	public void testDropCounted() throws Exception {
+		handler.setFullPolicy(AsyncHandler.FULL_DROP);
+		Thread producers[] = startProducers(4, 500, Level.SEVERE);
+		join(producers);
+		assertTrue("nothing dropped", handler.getDroppedCount()>0);
+		assertEquals(0, handler.getBlockedCount());
+
+		recorder.open();
+		handler.flush();
+		List<String> messages = recorder.getMessages();
+		checkOrder(messages);
+		assertEquals(2000, messages.size()+handler.getDroppedCount());
+	}
+
+	public void testDropBelowLevelCounted() throws Exception {
+		handler.setFullPolicy(AsyncHandler.FULL_DROP_BELOW_LEVEL);
+		handler.setDropLevel(Level.WARNING);
+		Thread infos[] = startProducers(2, 500, Level.INFO);
+		Thread warnings[] = startProducers(2, 500, Level.WARNING);
+		join(infos);
+
+		recorder.open();
+		join(warnings);
+		handler.flush();
+		List<String> messages = recorder.getMessages();
+		Map<String, Integer> counts = checkOrder(messages);
+		assertEquals(500, count(counts, "WARNING0"));
+		assertEquals(500, count(counts, "WARNING1"));
+		long infoDelivered = count(counts, "INFO0") + count(counts, "INFO1");
+		assertTrue("nothing dropped", handler.getDroppedCount()>0);
+		assertEquals(1000, infoDelivered+handler.getDroppedCount());
+	}
+
+	public void testCloseDeliversQueued() throws Exception {
+		for(int i=0;i<BUFFER;i++) {
+			handler.publish(new LogRecord(Level.INFO, "main:"+i));
+		}
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch(InterruptedException e) {
+				}
+				recorder.open();
+			}
+		}.start();
+		handler.close();
+		assertEquals(BUFFER, checkOrder(recorder.getMessages()).get("main").intValue());
+		assertTrue(recorder.isClosed());
+
+		//after close it is handed over right away
+		handler.publish(new LogRecord(Level.INFO, "main:"+BUFFER));
+		assertEquals(BUFFER+1, recorder.getMessages().size());
+	}
+
+	public void testFlushWaits() throws Exception {
+		handler.setFullPolicy(AsyncHandler.FULL_BLOCK);
+		recorder.setDelay(10);
+		recorder.open();
+		for(int i=0;i<20;i++) {
+			handler.publish(new LogRecord(Level.INFO, "main:"+i));
+		}
+		handler.flush();
+		assertEquals(20, recorder.getMessages().size());
+	}
+}
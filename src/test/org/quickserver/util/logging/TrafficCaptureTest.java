@@ -0,0 +1,230 @@
+/*
+ * This file is part of the QuickServer library
+ * Copyright (C) QuickServer.org
+ *
+ * Use, modification, copying and distribution of this software is subject to
+ * the terms and conditions of the GNU Lesser General Public License.
+ * You should have received a copy of the GNU LGP License along with this
+ * library; if not, you can download a copy from <http://www.quickserver.org/>.
+ *
+ * For questions, suggestions, bug-reports, enhancement-requests etc.
+ * visit http://www.quickserver.org
+ *
+ */
+
+package test.org.quickserver.util.logging;
+
+import java.io.File;
+import java.util.*;
+import junit.framework.TestCase;
+import org.quickserver.util.logging.TrafficCapture;
+import org.quickserver.util.logging.TrafficCaptureReader;
+
+/**
+ * JUnit test cases for TrafficCapture and TrafficCaptureReader
+ */
+public class TrafficCaptureTest extends TestCase {
+	private static final int BLOCK_SIZE = 256;
+	private static final int BLOCKS = 4;
+	private static final int ROOM = BLOCK_SIZE - TrafficCapture.BLOCK_HEADER_LENGTH
+		- TrafficCapture.RECORD_HEADER_LENGTH;
+
+	private File file;
+	private TrafficCapture capture;
+	private List<Expected> written;
+
+	/**
+	 * A record as it should be read back.
+	 */
+	private static class Expected {
+		long connectionId;
+		char type;
+		char mode;
+		int flags;
+		int length;
+		byte data[];
+	}
+
+	public TrafficCaptureTest(String name) {
+		super(name);
+	}
+
+	public static void main(String args[]) {
+		junit.textui.TestRunner.run(TrafficCaptureTest.class);
+	}
+
+	public void setUp() throws Exception {
+		file = File.createTempFile("TrafficCaptureTest", ".cap");
+		capture = new TrafficCapture(file.getPath(),
+			TrafficCapture.FILE_HEADER_LENGTH + BLOCKS*BLOCK_SIZE, BLOCK_SIZE);
+		written = new ArrayList<Expected>();
+	}
+
+	public void tearDown() throws Exception {
+		capture.close();
+		file.delete();
+	}
+
+	private static byte[] makeData(int length, int seed) {
+		byte data[] = new byte[length];
+		for(int i=0;i<length;i++) {
+			data[i] = (byte) (seed + i);
+		}
+		return data;
+	}
+
+	private void expect(long connectionId, char type, char mode, int flags,
+			byte data[], int keep) {
+		Expected expected = new Expected();
+		expected.connectionId = connectionId;
+		expected.type = type;
+		expected.mode = mode;
+		expected.flags = flags;
+		expected.length = data.length;
+		expected.data = new byte[keep];
+		System.arraycopy(data, 0, expected.data, 0, keep);
+		written.add(expected);
+	}
+
+	private void connect(long connectionId) throws Exception {
+		String address = "127.0.0.1:"+connectionId;
+		assertTrue(capture.openConnection(connectionId, address));
+		byte data[] = address.getBytes("UTF-8");
+		expect(connectionId, TrafficCapture.CONNECT, ' ', 0, data, data.length);
+	}
+
+	private void data(long connectionId, char type, byte data[]) {
+		capture.capture(connectionId, type, 'B', data, 0, data.length);
+		int keep = Math.min(data.length, Math.min(capture.getMaxDataLength(), ROOM));
+		expect(connectionId, type, 'B', keep<data.length?TrafficCapture.FLAG_TRUNCATED:0,
+			data, keep);
+	}
+
+	private void disconnect(long connectionId, boolean lost) {
+		capture.closeConnection(connectionId, lost);
+		expect(connectionId, TrafficCapture.DISCONNECT, ' ',
+			lost?TrafficCapture.FLAG_LOST:0, new byte[0], 0);
+	}
+
+	private List<TrafficCaptureReader.Record> readBack() throws Exception {
+		capture.flush();
+		return new TrafficCaptureReader(file.getPath()).read();
+	}
+
+	/**
+	 * Checks the records read are the last ones written, in order.
+	 */
+	private void checkTail(List<TrafficCaptureReader.Record> records) {
+		assertTrue("more read than written", records.size()<=written.size());
+		int offset = written.size() - records.size();
+		long lastTime = 0;
+		for(int i=0;i<records.size();i++) {
+			TrafficCaptureReader.Record record = records.get(i);
+			Expected expected = written.get(offset+i);
+			String at = "record "+(offset+i);
+			assertEquals(at, expected.connectionId, record.getConnectionId());
+			assertEquals(at, expected.type, record.getType());
+			assertEquals(at, expected.mode, record.getMode());
+			assertEquals(at, expected.flags, record.getFlags());
+			assertEquals(at, expected.length, record.getLength());
+			assertTrue(at, Arrays.equals(expected.data, record.getData()));
+			assertTrue(at+" time went back", record.getTimeMicros()>=lastTime);
+			lastTime = record.getTimeMicros();
+		}
+	}
+
+	public void testRoundTrip() throws Exception {
+		connect(1);
+		connect(2);
+		data(1, TrafficCapture.IN, makeData(40, 1));
+		data(2, TrafficCapture.IN, makeData(1, 2));
+		data(1, TrafficCapture.OUT, makeData(100, 3));
+		data(2, TrafficCapture.OUT, makeData(0, 4));
+		data(1, TrafficCapture.IN, makeData(150, 5));
+		disconnect(1, false);
+		disconnect(2, true);
+
+		List<TrafficCaptureReader.Record> records = readBack();
+		assertEquals(written.size(), records.size());
+		checkTail(records);
+		assertEquals(written.size(), capture.getRecordCount());
+	}
+
+	public void testTruncated() throws Exception {
+		capture.setMaxDataLength(16);
+		connect(3);
+		data(3, TrafficCapture.IN, makeData(16, 1));
+		data(3, TrafficCapture.IN, makeData(17, 2));
+		data(3, TrafficCapture.OUT, makeData(1000, 3));
+
+		//longer than a block can hold
+		capture.setMaxDataLength(4096);
+		data(3, TrafficCapture.OUT, makeData(ROOM+1, 4));
+		disconnect(3, false);
+
+		List<TrafficCaptureReader.Record> records = readBack();
+		assertEquals(written.size(), records.size());
+		checkTail(records);
+		assertFalse(records.get(1).isTruncated());
+		assertTrue(records.get(2).isTruncated());
+		assertEquals(17, records.get(2).getLength());
+		assertEquals(16, records.get(2).getData().length);
+		assertTrue(records.get(4).isTruncated());
+		assertEquals(ROOM, records.get(4).getData().length);
+	}
+
+	public void testRingWraps() throws Exception {
+		for(int id=1;id<=20;id++) {
+			connect(id);
+			data(id, TrafficCapture.IN, makeData(30+id, id));
+			data(id, TrafficCapture.OUT, makeData(60, id));
+			disconnect(id, id%3==0);
+		}
+		List<TrafficCaptureReader.Record> records = readBack();
+		assertTrue("ring did not wrap", records.size()<written.size());
+		checkTail(records);
+
+		//all blocks but the one being written are full
+		int bytes = 0;
+		for(int i=0;i<records.size();i++) {
+			bytes += TrafficCapture.RECORD_HEADER_LENGTH + records.get(i).getData().length;
+		}
+		int biggest = TrafficCapture.RECORD_HEADER_LENGTH + 60;
+		assertTrue("kept "+bytes+" bytes",
+			bytes > (BLOCKS-1)*(BLOCK_SIZE-TrafficCapture.BLOCK_HEADER_LENGTH-biggest));
+	}
+
+	public void testSamplePercent() throws Exception {
+		capture.setSamplePercent(10);
+		Set<Long> captured = new TreeSet<Long>();
+		for(long id=1;id<=100;id++) {
+			if(capture.openConnection(id, "127.0.0.1")) {
+				captured.add(Long.valueOf(id));
+			}
+		}
+		//ids spread over the run of 100
+		Long expected[] = new Long[]{Long.valueOf(11), Long.valueOf(19), Long.valueOf(38),
+			Long.valueOf(46), Long.valueOf(57), Long.valueOf(65), Long.valueOf(73),
+			Long.valueOf(84), Long.valueOf(92), Long.valueOf(100)};
+		assertEquals(new TreeSet<Long>(Arrays.asList(expected)), captured);
+
+		//the same ids are picked in the next run
+		for(long id=101;id<=200;id++) {
+			assertEquals(captured.contains(Long.valueOf(id-100)),
+				capture.openConnection(id, "127.0.0.1"));
+		}
+
+		List<TrafficCaptureReader.Record> records = readBack();
+		assertEquals(20, records.size());
+		for(int i=0;i<records.size();i++) {
+			long id = records.get(i).getConnectionId();
+			assertEquals(TrafficCapture.CONNECT, records.get(i).getType());
+			assertTrue(captured.contains(Long.valueOf(id>100?id-100:id)));
+		}
+
+		capture.setSamplePercent(0);
+		assertFalse(capture.openConnection(11, "127.0.0.1"));
+		capture.setSamplePercent(100);
+		assertTrue(capture.openConnection(12, "127.0.0.1"));
+	}
+}